@@ -48,6 +48,9 @@ dependencies {
     // Firestore
     implementation("com.google.firebase:firebase-firestore")
 
+    // Pure-JVM IRC protocol core
+    implementation(project(":irc-core"))
+
     // KICL API
     implementation("org.kitteh.irc:client-lib:9.0.0")
     implementation(libs.appcompat)
@@ -2,6 +2,7 @@ package vn.edu.usth.ircui;
 
 import android.app.AlertDialog;
 import android.content.SharedPreferences;
+import android.graphics.Typeface;
 import android.os.Bundle;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
@@ -21,38 +22,66 @@ import androidx.fragment.app.Fragment;
 import java.util.ArrayList;
 import java.util.List;
 
+import vn.edu.usth.ircui.core.event.ActivityBoard;
+import vn.edu.usth.ircui.feature_chat.data.ChatManager;
+
 /**Shows a selectable list of IRC channels, lets the user add channels,
- * and navigates to the selected channel’s chat.*/
+ * and navigates to the selected channel’s chat.
+ * Channels with activity come first, most recent first, with unread / highlight
+ * badges, straight from ChatManager's {@link ActivityBoard}: no message is read
+ * and nothing is sorted here; the rows are only re-listed when the order changed,
+ * at most once a frame.*/
 
 public class ChannelListFragment extends Fragment {
 
     private ListView channelListView;
     private ArrayAdapter<String> channelAdapter;
-    private List<String> channels;
+    private final List<String> channels = defaultChannels();          // suggested and added channels
+    private final List<ActivityBoard.Entry> active = new ArrayList<>(); // open channels, by activity
+    private final List<String> rows = new ArrayList<>();              // active, then the other channels
+    private ActivityBoard board;
+    private boolean reorder = true;
+    private boolean refreshPending;
+
+    private final ActivityBoard.Listener activityListener = (entry, moved) -> {
+        if (moved) reorder = true;
+        if (!refreshPending && channelListView != null) {
+            refreshPending = true;
+            channelListView.post(this::refresh);
+        }
+    };
 
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_channel_list, container, false);
         
-        // Initialize channels list
-        initializeChannels();
+        board = ChatManager.get().activity();
+        relist();
         
         // Setup ListView
         channelListView = view.findViewById(R.id.channel_list_view);
-        channelAdapter = new ArrayAdapter<String>(requireContext(), android.R.layout.simple_list_item_1, channels) {
+        channelAdapter = new ArrayAdapter<String>(requireContext(), R.layout.item_channel, R.id.tvChannelName, rows) {
             @Override
             public View getView(int position, View convertView, ViewGroup parent) {
                 View view = super.getView(position, convertView, parent);
-                TextView textView = (TextView) view.findViewById(android.R.id.text1);
-                // Use theme-aware text color for better contrast
-                textView.setTextColor(getResources().getColor(R.color.text_primary, requireContext().getTheme()));
-                textView.setTextSize(16);
-                textView.setPadding(32, 24, 32, 24);
+                TextView name = view.findViewById(R.id.tvChannelName);
+                TextView badge = view.findViewById(R.id.tvBadge);
+                ActivityBoard.Entry a = position < active.size() ? active.get(position) : null;
+                int unread = a != null ? a.unread() : 0;
+                name.setTypeface(null, unread > 0 ? Typeface.BOLD : Typeface.NORMAL);
+                if (unread > 0) {
+                    badge.setVisibility(View.VISIBLE);
+                    badge.setText(unread > 99 ? "99+" : String.valueOf(unread));
+                    badge.setBackgroundResource(a.highlights() > 0 ? R.drawable.badge_highlight : R.drawable.badge_unread);
+                } else {
+                    badge.setVisibility(View.GONE);
+                }
                 return view;
             }
         };
         channelListView.setAdapter(channelAdapter);
+        board.setListener(activityListener);
         
         // Handle add channel button
         ImageButton btnAddChannel = view.findViewById(R.id.btn_add_channel);
@@ -60,7 +89,7 @@ public class ChannelListFragment extends Fragment {
         
         // Handle channel selection
         channelListView.setOnItemClickListener((parent, view1, position, id) -> {
-            String selectedChannel = channels.get(position);
+            String selectedChannel = rows.get(position);
             
             // Navigate to selected channel using the same method as direct chat
             if (getActivity() instanceof MainActivity) {
@@ -85,9 +114,51 @@ public class ChannelListFragment extends Fragment {
         
         return view;
     }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (board != null) board.setListener(null);
+        channelListView = null;
+        channelAdapter = null;
+    }
+
+    /** Badges changed, and the order too if {@link #reorder}: redraw once. */
+    private void refresh() {
+        refreshPending = false;
+        if (channelAdapter == null) return;
+        if (reorder) relist();
+        channelAdapter.notifyDataSetChanged();
+    }
+
+    /** Rows: this network's open channels by activity, then the other channels as listed. */
+    private void relist() {
+        if (board == null) return;
+        reorder = false;
+        active.clear();
+        rows.clear();
+        for (ActivityBoard.Entry e : board.ordered(getCurrentServer(), new ArrayList<>())) {
+            if (isChannel(e.name)) {
+                active.add(e);
+                rows.add(e.name);
+            }
+        }
+        for (String c : channels) {
+            if (!containsIgnoreCase(rows, c)) rows.add(c);
+        }
+    }
+
+    private static boolean isChannel(String name) {
+        return name != null && !name.isEmpty() && "#&+!".indexOf(name.charAt(0)) >= 0;
+    }
+
+    private static boolean containsIgnoreCase(List<String> list, String name) {
+        for (String s : list) if (s.equalsIgnoreCase(name)) return true;
+        return false;
+    }
     
-    private void initializeChannels() {
-        channels = new ArrayList<>();
+    private static List<String> defaultChannels() {
+        List<String> channels = new ArrayList<>();
         // Popular IRC channels where people actually chat
         channels.add("#general");
         channels.add("#usth-ircui");
@@ -104,18 +175,21 @@ public class ChannelListFragment extends Fragment {
         channels.add("#android");
         channels.add("#java");
         channels.add("#linux");
+        return channels;
     }
     
     public void addChannel(String channelName) {
         if (!channels.contains(channelName)) {
             channels.add(channelName);
-            channelAdapter.notifyDataSetChanged();
+            reorder = true;
+            refresh();
         }
     }
     
     public void removeChannel(String channelName) {
         channels.remove(channelName);
-        channelAdapter.notifyDataSetChanged();
+        reorder = true;
+        refresh();
     }
     
     public void setCurrentChannel(String channelName) {
@@ -123,6 +197,10 @@ public class ChannelListFragment extends Fragment {
         // For now, we'll just ensure the channel is in the list
         if (!channels.contains(channelName)) {
             addChannel(channelName);
+        } else {
+            // maybe on another network now: list its channels
+            reorder = true;
+            refresh();
         }
     }
     
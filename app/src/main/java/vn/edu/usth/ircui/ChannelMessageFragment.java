@@ -13,7 +13,6 @@ import android.view.inputmethod.EditorInfo;
 import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.TextView;
-import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
@@ -28,10 +27,10 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import vn.edu.usth.ircui.feature_chat.data.Attachment;
+import vn.edu.usth.ircui.feature_chat.model.Channel;
 import vn.edu.usth.ircui.feature_chat.ui.DirectMessageAdapter;
 import vn.edu.usth.ircui.network.IrcClientManager;
 import vn.edu.usth.ircui.network.SharedIrcClient;
-import vn.edu.usth.ircui.feature_user.MessageCooldownManager;
 
 /**
  * Channel message fragment for IRC channel chat
@@ -62,8 +61,9 @@ public class ChannelMessageFragment extends Fragment {
 
     private String username, serverHost, channel;
     private SharedIrcClient sharedIrcClient;
-    private SharedIrcClient.MessageCallback messageCallback;
-    private final MessageCooldownManager cooldownManager = MessageCooldownManager.getInstance();
+    private Channel conversation;
+    private Channel.Observer observer;
+    private SharedIrcClient.BacklogCallback backlogCallback;
 
     private final ActivityResultLauncher<String[]> filePicker =
             registerForActivityResult(new ActivityResultContracts.OpenMultipleDocuments(), uris -> {
@@ -95,10 +95,14 @@ public class ChannelMessageFragment extends Fragment {
     @Override
     public void onDestroy() {
         super.onDestroy();
-        // Unregister callback when fragment is destroyed
-        if (sharedIrcClient != null && messageCallback != null) {
-            sharedIrcClient.unregisterCallback(messageCallback);
+        // Detach from the conversation when fragment is destroyed; it stays open for next time
+        if (conversation != null && observer != null) {
+            conversation.stopObserving(observer);
         }
+        if (sharedIrcClient != null && backlogCallback != null) {
+            sharedIrcClient.unregisterBacklogCallback(backlogCallback);
+        }
+        if (adapter != null) adapter.detach();
     }
 
     @Nullable
@@ -130,8 +134,14 @@ public class ChannelMessageFragment extends Fragment {
             }
         });
 
-        adapter = new DirectMessageAdapter(username);
-        recycler.setLayoutManager(new LinearLayoutManager(requireContext()));
+        // The channel outlives this screen: attach to it (connecting or joining only if needed).
+        // A few pages of it around the viewport; older ones come from the on-device log
+        sharedIrcClient = SharedIrcClient.getInstance();
+        conversation = sharedIrcClient.open(serverHost, username, channel, requireContext());
+        adapter = newAdapter();
+        LinearLayoutManager layout = new LinearLayoutManager(requireContext());
+        layout.setStackFromEnd(true); // open at the newest line; pages read in above keep it in place
+        recycler.setLayoutManager(layout);
         recycler.setAdapter(adapter);
 
         // Initialize shared IRC client
@@ -204,25 +214,34 @@ public class ChannelMessageFragment extends Fragment {
         return v;
     }
 
+    private DirectMessageAdapter newAdapter() {
+        return new DirectMessageAdapter(username, requireContext(), conversation);
+    }
+
     private void initializeSharedIrcClient() {
         try {
-            sharedIrcClient = SharedIrcClient.getInstance();
-            
-            // Create callback for regular messages only (no system messages)
-            messageCallback = new SharedIrcClient.MessageCallback() {
-                @Override
-                public void onMessage(String user, String text, long timestamp, boolean isMine) {
-                    // Add all messages from IRC server (real-time chat)
-                    adapter.addText(isMine, user, text);
+            // Regular messages only (no system messages): the conversation has already put
+            // them in the list, one notify per frame; follow them only if the user was at
+            // the bottom, not reading back
+            observer = (c, batch) -> {
+                if (adapter.isAtBottom() && adapter.isFollowing()) {
                     recycler.scrollToPosition(adapter.getItemCount() - 1);
                 }
             };
             
-            // Register this fragment as a callback
-            sharedIrcClient.registerCallback(messageCallback);
-
-            // Connect to IRC server using shared client
-            sharedIrcClient.connect(serverHost, username, channel, requireContext());
+            // Outbound backlog is shown in the input hint
+            backlogCallback = (depth, etaMs) -> {
+                if (input == null) return;
+                if (depth > 0) {
+                    input.setHint(getString(R.string.hint_sending_backlog, depth, (etaMs + 999) / 1000));
+                } else {
+                    input.setHint(R.string.hint_group);
+                }
+            };
+            
+            // Follow this channel's messages and the backlog
+            conversation.observe(observer);
+            sharedIrcClient.registerBacklogCallback(backlogCallback);
             
         } catch (Exception e) {
             // No system messages in channel fragment
@@ -240,13 +259,6 @@ public class ChannelMessageFragment extends Fragment {
             return;
         }
 
-        if (cooldownManager.isCooldownActive()) {
-            Toast.makeText(getContext(),
-                    "You are sending messages too quickly!",
-                    Toast.LENGTH_SHORT).show();
-            return;
-        }
-
         // Check if IRC client is connected before sending
         // No system messages in channel fragment
         // Error will be handled by ChatFragment's system callback
@@ -258,21 +270,11 @@ public class ChannelMessageFragment extends Fragment {
             return;
         }
 
-        // Send message via IRC and show it immediately in UI
+        // Send message via IRC; it is shown when the server echoes it back (echo-message)
         try {
-            // Add message to UI immediately (local echo)
-            adapter.addText(true, username, text);
-            recycler.scrollToPosition(adapter.getItemCount() - 1);
-            
-            // Send to IRC server
-            sharedIrcClient.sendMessage(text);
-            cooldownManager.recordMessageSent();
+            sharedIrcClient.sendMessage(channel, text);
             input.setText("");
         } catch (Exception e) {
-            // Remove the message from UI if send failed
-            if (adapter.getItemCount() > 0) {
-                adapter.removeLastMessage();
-            }
             // Don't show system messages in channel fragment
             // Error will be handled by ChatFragment's system callback
         }
@@ -294,8 +296,7 @@ public class ChannelMessageFragment extends Fragment {
                 if (parts.length > 1) {
                     String newNick = parts[1];
                     username = newNick;
-                    adapter = new DirectMessageAdapter(username);
-                    recycler.setAdapter(adapter);
+                    adapter.setMe(username);
                 }
                 break;
             case "/join":
@@ -307,9 +308,15 @@ public class ChannelMessageFragment extends Fragment {
                     
                     if (sharedIrcClient != null && sharedIrcClient.isConnected()) {
                         // Leave current channel and join new one
+                        conversation.stopObserving(observer);
+                        adapter.detach();
                         sharedIrcClient.partChannel(channel);
                         channel = newChannel;
-                        sharedIrcClient.joinChannel(newChannel);
+                        header.setText(channel);
+                        conversation = sharedIrcClient.open(serverHost, username, channel, requireContext());
+                        adapter = newAdapter();
+                        recycler.setAdapter(adapter);
+                        conversation.observe(observer);
                     }
                 }
                 break;
@@ -1,6 +1,9 @@
 package vn.edu.usth.ircui;
 
+import android.content.Context;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -22,12 +25,22 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.firebase.firestore.FirebaseFirestore;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
-
+import java.util.Locale;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+import vn.edu.usth.ircui.core.event.DedupWindow;
+import vn.edu.usth.ircui.core.history.HistoryWindow;
+import vn.edu.usth.ircui.core.history.SearchHit;
+import vn.edu.usth.ircui.core.history.SearchPage;
+import vn.edu.usth.ircui.core.net.TlsSessionCache;
+import vn.edu.usth.ircui.feature_chat.data.ChatManager;
 import vn.edu.usth.ircui.feature_chat.data.Message;
+import vn.edu.usth.ircui.feature_chat.model.Channel;
 import vn.edu.usth.ircui.feature_chat.ui.DirectMessageFragment;
-import vn.edu.usth.ircui.feature_user.MessageCooldownManager;
 import vn.edu.usth.ircui.network.IrcClientManager;
 import vn.edu.usth.ircui.network.SharedIrcClient;
 
@@ -36,7 +49,7 @@ import vn.edu.usth.ircui.network.SharedIrcClient;
  *  - Display messages
  *  - Send messages to server
  *  - Handle guest/registered users
- *  - Support /commands (help, nick, connect)
+ *  - Support /commands (help, nick, connect, search)
  */
 public class ChatFragment extends Fragment {
 
@@ -69,13 +82,33 @@ public class ChatFragment extends Fragment {
     private String serverHost = "irc.libera.chat";
     private String channel = "#usth-ircui";
     private FirebaseFirestore db;
-    private final List<Message> messages = new ArrayList<>();
+    private HistoryWindow<Message> messages; // a few pages around the viewport, older ones paged in from the log
     private final List<String> currentUsers = new ArrayList<>();
     private MessageAdapter adapter;
     private SharedIrcClient sharedIrcClient;
-    private SharedIrcClient.MessageCallback messageCallback;
+    private Channel conversation;
+    private Channel.Observer observer;
+    private boolean atBottom = true;
     private SharedIrcClient.SystemMessageCallback systemCallback;
-    private MessageCooldownManager cooldownManager;
+    private SharedIrcClient.BacklogCallback backlogCallback;
+
+    private static final int SEARCH_PAGE = 20;
+    private String searchText;              // the last /search, for /more
+    private String searchNick;
+    private SearchPage.Cursor searchNext;   // null once every hit was shown
+
+    // one instance, so the conversation keeps this screen's window between visits
+    private static final HistoryWindow.Rows<Message> MESSAGE_ROWS = new HistoryWindow.Rows<Message>() {
+        @Override
+        public Message rowOf(ChatEvent e) {
+            return e.row != null ? new Message(e.row) : new Message(e.nick, e.text, e.timestamp, e.mine);
+        }
+
+        @Override
+        public long timestampOf(Message m) {
+            return m.getTimestamp();
+        }
+    };
 
     private RecyclerView rvMessages;
     private EditText etMessage;
@@ -86,7 +119,6 @@ public class ChatFragment extends Fragment {
         setHasOptionsMenu(true);
 
         db = FirebaseFirestore.getInstance();
-        cooldownManager = MessageCooldownManager.getInstance();
 
         // Retrieve username passed from MainActivity
         if (getArguments() != null) {
@@ -102,13 +134,16 @@ public class ChatFragment extends Fragment {
         super.onDestroy();
         // Unregister callbacks when fragment is destroyed
         if (sharedIrcClient != null) {
-            if (messageCallback != null) {
-                sharedIrcClient.unregisterCallback(messageCallback);
-            }
             if (systemCallback != null) {
                 sharedIrcClient.unregisterSystemCallback(systemCallback);
             }
+            if (backlogCallback != null) {
+                sharedIrcClient.unregisterBacklogCallback(backlogCallback);
+            }
         }
+        // The conversation and its window stay with ChatManager for the next time
+        if (conversation != null && observer != null) conversation.stopObserving(observer);
+        if (messages != null) messages.setListener(null);
     }
 
     @Nullable
@@ -122,10 +157,21 @@ public class ChatFragment extends Fragment {
         etMessage = v.findViewById(R.id.etMessage);
         ImageButton btnSend = v.findViewById(R.id.btnSend);
 
-        // Setup adapter with nickname
-        adapter = new MessageAdapter(messages, currentNickname);
-        rvMessages.setLayoutManager(new LinearLayoutManager(requireContext()));
+        // Setup adapter with nickname, over the paged window of the channel's history
+        sharedIrcClient = SharedIrcClient.getInstance();
+        openHistory();
+        adapter = new MessageAdapter(messages.rows(), currentNickname);
+        LinearLayoutManager layout = new LinearLayoutManager(requireContext());
+        layout.setStackFromEnd(true); // open at the newest line; pages read in above keep it in place
+        rvMessages.setLayoutManager(layout);
         rvMessages.setAdapter(adapter);
+        rvMessages.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                atBottom = !rv.canScrollVertically(1);
+                messages.onViewport(layout.findFirstVisibleItemPosition(), layout.findLastVisibleItemPosition());
+            }
+        });
 
         initializeSharedIrcClient();
 
@@ -167,17 +213,29 @@ public class ChatFragment extends Fragment {
                 .show();
     }
 
-    private void initializeSharedIrcClient() {
-        sharedIrcClient = SharedIrcClient.getInstance();
-        
-        // Create callback for regular messages
-        messageCallback = new SharedIrcClient.MessageCallback() {
-            @Override
-            public void onMessage(String u, String t, long ts, boolean mine) {
-                messages.add(new Message(u, t, mine));
-                adapter.notifyItemInserted(messages.size() - 1);
-                rvMessages.scrollToPosition(messages.size() - 1);
+    private void openHistory() {
+        // The conversation's window, as the last ChatFragment on it left it (rows already
+        // read, live lines it got since); a new one on the newest page the first time
+        conversation = ChatManager.get().conversation(serverHost, channel);
+        messages = sharedIrcClient.window(requireContext(), conversation, MESSAGE_ROWS);
+        currentUsers.clear();
+        currentUsers.addAll(conversation.getParticipants()); // as last fetched, or restored
+        messages.setListener(new HistoryWindow.Listener() {
+            @Override public void onInserted(int at, int count) {
+                adapter.notifyItemRangeInserted(at, count);
+                adapter.prepare(at, count);
             }
+            @Override public void onRemoved(int at, int count) { adapter.notifyItemRangeRemoved(at, count); }
+        });
+    }
+
+    private void initializeSharedIrcClient() {
+        // New lines of this channel, one call per frame: the conversation has already
+        // inserted the whole batch in the window (replayed history at its server-time
+        // position), notified once; scroll once.
+        // Scrolled back into older pages, new lines are only counted until the user comes back down.
+        observer = (c, batch) -> {
+            if (atBottom && messages.isFollowing()) rvMessages.scrollToPosition(messages.size() - 1);
         };
         
         // Create callback for system messages
@@ -189,12 +247,23 @@ public class ChatFragment extends Fragment {
             }
         };
         
-        // Register this fragment as a callback for both messages and system messages
-        sharedIrcClient.registerCallback(messageCallback);
+        // Show the outbound backlog in the input hint instead of refusing to send
+        backlogCallback = (depth, etaMs) -> {
+            if (etMessage == null) return;
+            if (depth > 0) {
+                etMessage.setHint(getString(R.string.hint_sending_backlog, depth, (etaMs + 999) / 1000));
+            } else {
+                etMessage.setHint(R.string.message_chat);
+            }
+        };
+        
+        // Follow this channel's messages, system messages and backlog
+        conversation.observe(observer);
         sharedIrcClient.registerSystemCallback(systemCallback);
+        sharedIrcClient.registerBacklogCallback(backlogCallback);
 
-        // Connect to IRC server using shared client
-        sharedIrcClient.connect(serverHost, username, channel, requireContext());
+        // Attach to the channel: connects or joins only if that was not done already
+        sharedIrcClient.open(serverHost, username, channel, requireContext());
     }
 
     // =============================
@@ -245,12 +314,6 @@ public class ChatFragment extends Fragment {
             return;
         }
 
-        // Prevent spamming
-        if (cooldownManager.isCooldownActive()) {
-            Toast.makeText(getContext(), "You are sending messages too quickly!", Toast.LENGTH_SHORT).show();
-            return;
-        }
-
         // Check if IRC client is connected before sending
         if (sharedIrcClient == null) {
             displaySystemMessage("❌ IRC client not initialized. Try reconnecting.");
@@ -263,20 +326,11 @@ public class ChatFragment extends Fragment {
         }
 
         try {
-            // Add message to UI immediately (local echo)
-            messages.add(new Message(username, text, true));
-            adapter.notifyItemInserted(messages.size() - 1);
-            rvMessages.scrollToPosition(messages.size() - 1);
-            
-            // Send to IRC server
-            sharedIrcClient.sendMessage(text);
+            // Send to IRC server; the line shows up when the server echoes it back
+            // (echo-message), with the server's timestamp and in the server's order
+            sharedIrcClient.sendMessage(channel, text);
             etMessage.getText().clear();
         } catch (Exception e) {
-            // Remove the message from UI if send failed
-            if (!messages.isEmpty()) {
-                messages.remove(messages.size() - 1);
-                adapter.notifyItemRemoved(messages.size());
-            }
             displaySystemMessage("❌ Send failed: " + e.getMessage());
         }
     }
@@ -302,7 +356,7 @@ public class ChatFragment extends Fragment {
                     String newNick = parts[1];
                     username = newNick;
                     currentNickname = newNick;
-                    adapter = new MessageAdapter(messages, username);
+                    adapter = new MessageAdapter(messages.rows(), username);
                     rvMessages.setAdapter(adapter);
                     displaySystemMessage("✅ Nickname changed to: " + newNick);
                 } else {
@@ -333,6 +387,20 @@ public class ChatFragment extends Fragment {
                     displaySystemMessage("❌ Reconnect failed: " + e.getMessage());
                 }
                 break;
+            case "/search":
+                if (parts.length > 1 && !parts[1].trim().isEmpty()) {
+                    startSearch(parts[1].trim());
+                } else {
+                    displaySystemMessage("❌ Usage: /search [from:nick] <words>");
+                }
+                break;
+            case "/more":
+                if (searchNext != null) {
+                    searchPage(searchNext);
+                } else {
+                    displaySystemMessage("🔎 No more results");
+                }
+                break;
             case "/who":
                 displaySystemMessage("👤 Current user: " + username);
                 displaySystemMessage("🌐 Server: " + serverHost);
@@ -355,6 +423,52 @@ public class ChatFragment extends Fragment {
         displaySystemMessage("  /nick <name> - Change nickname");
         displaySystemMessage("  /connect - Connect to server");
         displaySystemMessage("  /who - Show user info");
+        displaySystemMessage("  /search [from:nick] <words> - Search this channel's history");
+        displaySystemMessage("  /more - Next page of search results");
+    }
+
+    private void startSearch(String args) {
+        searchNick = null;
+        StringBuilder words = new StringBuilder();
+        for (String w : args.split("\\s+")) {
+            if (w.startsWith("from:") && w.length() > 5) searchNick = w.substring(5);
+            else words.append(w).append(' ');
+        }
+        searchText = words.toString().trim();
+        searchPage(null);
+    }
+
+    /** Search the on-device log off the main thread; the hits come back as system lines. */
+    private void searchPage(SearchPage.Cursor after) {
+        final String text = searchText;
+        final String nick = searchNick;
+        final Context app = requireContext().getApplicationContext();
+        final Handler main = new Handler(Looper.getMainLooper());
+        SharedIrcClient.historyLoader().execute(() -> {
+            SearchPage page;
+            try {
+                page = sharedIrcClient.search(app, serverHost, channel, text, nick, after, SEARCH_PAGE);
+            } catch (Exception e) {
+                main.post(() -> {
+                    if (isAdded()) displaySystemMessage("❌ Search failed: " + e.getMessage());
+                });
+                return;
+            }
+            main.post(() -> {
+                if (!isAdded()) return;
+                searchNext = page.next;
+                if (page.hits.isEmpty()) {
+                    displaySystemMessage(after == null ? "🔎 No messages found" : "🔎 No more results");
+                    return;
+                }
+                SimpleDateFormat fmt = new SimpleDateFormat("dd/MM HH:mm", Locale.getDefault());
+                for (SearchHit h : page.hits) {
+                    displaySystemMessage("🔎 [" + fmt.format(new Date(h.event.timestamp)) + "] <"
+                            + h.event.nick + "> " + h.event.text);
+                }
+                if (page.hasMore) displaySystemMessage("🔎 /more for older results");
+            });
+        });
     }
 
     private void showConnectionStatus() {
@@ -367,6 +481,15 @@ public class ChatFragment extends Fragment {
             displaySystemMessage("✅ Connected to IRC server");
             displaySystemMessage("👤 User: " + username);
             displaySystemMessage("📺 Channel: " + channel);
+            DedupWindow dedup = sharedIrcClient.getDedup();
+            if (dedup != null) {
+                displaySystemMessage("🧹 Duplicates dropped: " + dedup.hits() + " of " + (dedup.hits() + dedup.misses()));
+            }
+            long[] lag = sharedIrcClient.getLag();
+            displaySystemMessage(lag[0] >= 0
+                    ? "📶 Lag: " + lag[0] + " ms (avg " + lag[1] + " ms)"
+                    : "📶 Lag: not measured yet");
+            displaySystemMessage("🔐 " + TlsSessionCache.shared().summary());
         } else {
             displaySystemMessage("❌ Not connected to IRC server");
             displaySystemMessage("💡 Try: /reconnect");
@@ -374,8 +497,7 @@ public class ChatFragment extends Fragment {
     }
 
     private void displaySystemMessage(String text) {
-        messages.add(new Message("System", text, false));
-        adapter.notifyItemInserted(messages.size() - 1);
+        messages.addLocal(new Message("System", text, false));
         rvMessages.scrollToPosition(messages.size() - 1);
     }
 
@@ -424,7 +546,6 @@ public class ChatFragment extends Fragment {
                 .setMessage("Are you sure you want to clear all chat history?")
                 .setPositiveButton("Yes", (dialog, which) -> {
                     messages.clear();
-                    adapter.notifyDataSetChanged();
                     displaySystemMessage("Chat history cleared.");
                 })
                 .setNegativeButton("No", null)
@@ -459,6 +580,7 @@ public class ChatFragment extends Fragment {
                             currentUsers.add(name);
                         }
                     });
+                    conversation.setParticipants(currentUsers);
 
                     if (currentUsers.isEmpty()) {
                         Toast.makeText(getContext(), "No members online", Toast.LENGTH_SHORT).show();
@@ -1,10 +1,16 @@
 package vn.edu.usth.ircui;
 
 import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import androidx.appcompat.app.AppCompatDelegate;
 import com.google.firebase.FirebaseApp;
 
+import vn.edu.usth.ircui.feature_chat.data.Message;
+
 public class FirebaseInit extends Application{
     @Override
     public void onCreate(){
@@ -15,6 +21,14 @@ public class FirebaseInit extends Application{
         
         // init Firebase SDK when app start
         FirebaseApp.initializeApp(this);
+
+        // chat rows label times in the device's zone: follow it when it changes
+        registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Message.onTimeZoneChanged();
+            }
+        }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
     }
     
     private void initializeAppTheme() {
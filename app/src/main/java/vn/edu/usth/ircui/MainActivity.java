@@ -31,10 +31,14 @@ import androidx.fragment.app.FragmentTransaction;
 
 import com.google.android.material.appbar.AppBarLayout;
 
+import vn.edu.usth.ircui.core.history.SessionSnapshot;
 import vn.edu.usth.ircui.feature_chat.data.MessageNotification;
+import vn.edu.usth.ircui.feature_chat.data.SessionStore;
+import vn.edu.usth.ircui.feature_chat.ui.ChatImages;
 import vn.edu.usth.ircui.feature_chat.ui.GroupChatFragment;
 import vn.edu.usth.ircui.feature_chat.ui.DirectMessageFragment;
 import vn.edu.usth.ircui.feature_user.LocaleHelper;
+import vn.edu.usth.ircui.network.SharedIrcClient;
 
 /**
  * MainActivity
@@ -227,8 +231,14 @@ public class MainActivity extends AppCompatActivity {
             updateUiForTopFragment();
         });
 
-        // Load WelcomeFragment when app starts or restore fragment after recreate
-        if (savedInstanceState == null) {
+        // Load WelcomeFragment when app starts or restore fragment after recreate.
+        // After process death, a saved session goes straight back to its chat: the
+        // conversations are restored before the first frame, the connection comes up meanwhile
+        SessionSnapshot restored = savedInstanceState == null ? SessionStore.get(this).restore() : null;
+        if (restored != null) {
+            SharedIrcClient.getInstance().open(restored.server, restored.nick, restored.active, this);
+            navigateToChatFragment(restored.nick, restored.server, restored.active);
+        } else if (savedInstanceState == null) {
             FragmentTransaction ft = getSupportFragmentManager().beginTransaction();
             ft.replace(R.id.container, new WelcomeFragment())
                     .runOnCommit(this::updateUiForTopFragment)
@@ -255,6 +265,30 @@ public class MainActivity extends AppCompatActivity {
         updateUiForTopFragment();
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // In the foreground: keep the lag PINGs on their short interval
+        SharedIrcClient.getInstance().setBackground(false);
+        SessionStore.get(this).start();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // In the background: PING rarely, just enough to notice a dead link
+        SharedIrcClient.getInstance().setBackground(true);
+        // and save the session: the process may not come back
+        SessionStore.get(this).stop();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // decoded chat images are the biggest thing we can give back
+        ChatImages.trimMemory(level);
+    }
+
     // ========
     // PUBLIC API FOR FRAGMENTS
 
@@ -415,6 +449,8 @@ public class MainActivity extends AppCompatActivity {
                              f instanceof LoginFragment || 
                              f instanceof RegisterFragment;
         
+        SessionStore.get(this).setEnabled(!isAuthScreen && f != null);
+
         if (drawerLayout != null) {
             drawerLayout.setDrawerLockMode(isAuthScreen ? 
                 DrawerLayout.LOCK_MODE_LOCKED_CLOSED : 
@@ -535,8 +571,9 @@ public class MainActivity extends AppCompatActivity {
                 .setTitle(getString(R.string.logout))
                 .setMessage(getString(R.string.confirm_logout))
                 .setPositiveButton(getString(R.string.yes), (dialog, which) -> {
-                    // Reset SharedPreferences to Guest
+                    // Reset SharedPreferences to Guest, and start fresh next time
                     resetUserPreferencesToGuest();
+                    SessionStore.get(this).forget();
                     
                     getSupportFragmentManager().popBackStack(null, FragmentManager.POP_BACK_STACK_INCLUSIVE);
                     getSupportFragmentManager()
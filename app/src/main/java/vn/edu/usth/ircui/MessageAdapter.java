@@ -1,5 +1,6 @@
 package vn.edu.usth.ircui;
 
+import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Typeface;
 import android.view.LayoutInflater;
@@ -7,28 +8,40 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import androidx.annotation.ColorInt;
 import androidx.annotation.NonNull;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
+import vn.edu.usth.ircui.core.net.IrcThreads;
 import vn.edu.usth.ircui.feature_chat.data.Message;
 
+/**
+ * Chat rows. Everything a row shows is worked out before it is bound: the header,
+ * time label, nick color and code styling by {@link Message}, the text layout
+ * ({@link PrecomputedTextCompat}) on a render thread as rows are inserted. A bind
+ * only copies fields into views; a row whose layout is not ready yet is set as plain
+ * text and laid out for the next time.
+ */
 public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
     private static final int TYPE_OTHER = 0;
     private static final int TYPE_ME    = 1;
 
+    private static Executor renderer;
+
     private final List<Message> data;
     private String me;
-    private final SimpleDateFormat sdf = new SimpleDateFormat("HH:mm", Locale.getDefault());
 
     private final int[] namePalette;
-    private String currentFontSize = "medium";
+    private int[] nameColors;          // namePalette resolved, with the first holder
+    private float textSizeSP = -1;     // from settings, with the first holder
+    // layout params per view type, for plain text [type * 2] and code [type * 2 + 1]
+    private final PrecomputedTextCompat.Params[] params = new PrecomputedTextCompat.Params[4];
 
     public MessageAdapter(List<Message> data, String currentUsername) {
         this.data = data;
@@ -43,6 +56,16 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
         this.me = newNickname;
     }
 
+    /** Lay out rows {@code [from, from + count)} off the main thread, ahead of their first bind. */
+    public void prepare(int from, int count) {
+        int end = Math.min(from + count, data.size());
+        for (int i = Math.max(0, from); i < end; i++) {
+            Message m = data.get(i);
+            PrecomputedTextCompat.Params p = paramsFor(getItemViewType(i), m);
+            if (p != null && !laidOut(m, p)) layOut(m, p);
+        }
+    }
+
     @Override
     public int getItemViewType(int position) {
         return data.get(position).isMine() ? TYPE_ME : TYPE_OTHER;
@@ -51,33 +74,59 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
     @NonNull
     @Override
     public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
-        LayoutInflater inf = LayoutInflater.from(parent.getContext());
+        Context context = parent.getContext();
+        if (nameColors == null) {
+            nameColors = new int[Message.NAME_COLORS];
+            for (int i = 0; i < nameColors.length; i++) {
+                nameColors[i] = context.getResources().getColor(namePalette[i % namePalette.length], null);
+            }
+            textSizeSP = fontSize(context);
+        }
+        LayoutInflater inf = LayoutInflater.from(context);
+        RowHolder holder;
         if (viewType == TYPE_ME) {
             View v = inf.inflate(R.layout.item_message_me, parent, false);
-            return new MeHolder(v);
+            holder = new MeHolder(v);
         } else {
             View v = inf.inflate(R.layout.item_message_other, parent, false);
-            return new OtherHolder(v);
+            holder = new OtherHolder(v);
         }
+        holder.content.setTextSize(textSizeSP);
+        holder.username.setTextSize(textSizeSP - 2f);
+        if (params[viewType * 2] == null) {
+            holder.content.setTypeface(Typeface.SANS_SERIF, Typeface.NORMAL);
+            params[viewType * 2] = TextViewCompat.getTextMetricsParams(holder.content);
+            holder.content.setTypeface(Typeface.MONOSPACE, Typeface.NORMAL);
+            params[viewType * 2 + 1] = TextViewCompat.getTextMetricsParams(holder.content);
+        }
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder h, int pos) {
         Message m = data.get(pos);
-        String time = sdf.format(new Date(m.getTimestamp()));
-
-        applyFontSize(h);
+        RowHolder holder = (RowHolder) h;
+        holder.username.setText(m.getHeader());
+        holder.username.setTextColor(nameColors[m.getColorIndex()]);
+
+        boolean code = m.isCodeBlock();
+        if (holder.code == null || holder.code != code) {
+            holder.code = code;
+            if (code) {
+                holder.content.setTypeface(Typeface.MONOSPACE, Typeface.NORMAL);
+                holder.content.setBackgroundResource(m.isMine() ? R.drawable.bubble_code_me : R.drawable.bubble_code_other);
+            } else {
+                holder.content.setTypeface(Typeface.SANS_SERIF, Typeface.NORMAL);
+                holder.content.setBackgroundResource(m.isMine() ? R.drawable.bubble_me : R.drawable.bubble_other);
+            }
+        }
 
-        if (h instanceof MeHolder) {
-            MeHolder holder = (MeHolder) h;
-            holder.username.setText(m.getUsername() + "  •  " + time);
-            tintUsername(holder.username, m.getUsername());
-            styleContent(holder.content, m);
+        PrecomputedTextCompat.Params p = paramsFor(h.getItemViewType(), m);
+        if (p != null && laidOut(m, p)) {
+            TextViewCompat.setPrecomputedText(holder.content, m.getLayout());
         } else {
-            OtherHolder holder = (OtherHolder) h;
-            holder.username.setText(m.getUsername() + "  •  " + time);
-            tintUsername(holder.username, m.getUsername());
-            styleContent(holder.content, m);
+            holder.content.setText(m.getDisplayText());
+            if (p != null) layOut(m, p);
         }
     }
 
@@ -86,75 +135,59 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
         return data.size();
     }
 
-    private void tintUsername(TextView tv, String username) {
-        int idx = Math.abs(username.hashCode()) % namePalette.length;
-        @ColorInt int color = tv.getResources().getColor(namePalette[idx], null);
-        tv.setTextColor(color);
+    private PrecomputedTextCompat.Params paramsFor(int viewType, Message m) {
+        return params[viewType * 2 + (m.isCodeBlock() ? 1 : 0)];
     }
 
-    private void styleContent(TextView tv, Message m) {
-        if (m.isCodeBlock()) {
-            // strip ``` if present, and render monospace bubble
-            String t = m.getContent().trim();
-            if (t.startsWith("```")) {
-                t = t.replaceFirst("^```[a-zA-Z0-9]*\\n?", "")
-                        .replaceFirst("\\n?```$", "");
-            }
-            tv.setTypeface(Typeface.MONOSPACE, Typeface.NORMAL);
-            tv.setBackgroundResource(m.isMine() ? R.drawable.bubble_code_me : R.drawable.bubble_code_other);
-            tv.setText(t);
-        } else {
-            tv.setTypeface(Typeface.SANS_SERIF, Typeface.NORMAL);
-            tv.setBackgroundResource(m.isMine() ? R.drawable.bubble_me : R.drawable.bubble_other);
-            tv.setText(m.getContent());
-        }
+    private static boolean laidOut(Message m, PrecomputedTextCompat.Params p) {
+        PrecomputedTextCompat layout = m.getLayout();
+        return layout != null && layout.getParams().equals(p);
     }
 
-    private void applyFontSize(RecyclerView.ViewHolder holder) {
-        SharedPreferences prefs = holder.itemView.getContext().getSharedPreferences("app_settings", 0);
-        String fontSize = prefs.getString("font_size", "medium");
+    private static void layOut(final Message m, final PrecomputedTextCompat.Params p) {
+        renderer().execute(() -> {
+            if (!laidOut(m, p)) m.setLayout(PrecomputedTextCompat.create(m.getDisplayText(), p));
+        });
+    }
 
-        float textSizeSP = 14f;
+    private static synchronized Executor renderer() {
+        if (renderer == null) renderer = Executors.newSingleThreadExecutor(IrcThreads.daemon("render"));
+        return renderer;
+    }
 
-        switch (fontSize) {
+    private static float fontSize(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences("app_settings", 0);
+        switch (prefs.getString("font_size", "medium")) {
             case "small":
-                textSizeSP = 12f;
-                break;
+                return 12f;
             case "large":
-                textSizeSP = 16f;
-                break;
+                return 16f;
             case "medium":
             default:
-                textSizeSP = 14f;
-                break;
+                return 14f;
         }
+    }
+
+    abstract static class RowHolder extends RecyclerView.ViewHolder {
+        final TextView username, content;
+        Boolean code; // styling the content view has now, null before the first bind
 
-        if (holder instanceof MeHolder) {
-            MeHolder meHolder = (MeHolder) holder;
-            meHolder.content.setTextSize(textSizeSP);
-            meHolder.username.setTextSize(textSizeSP - 2f);
-        } else if (holder instanceof OtherHolder) {
-            OtherHolder otherHolder = (OtherHolder) holder;
-            otherHolder.content.setTextSize(textSizeSP);
-            otherHolder.username.setTextSize(textSizeSP - 2f);
+        RowHolder(@NonNull View v) {
+            super(v);
+            username = v.findViewById(R.id.tvUsername);
+            content  = v.findViewById(R.id.tvContent);
         }
     }
 
-    static class OtherHolder extends RecyclerView.ViewHolder {
-        TextView username, content;
+    static class OtherHolder extends RowHolder {
         OtherHolder(@NonNull View v) {
             super(v);
-            username = v.findViewById(R.id.tvUsername);
-            content  = v.findViewById(R.id.tvContent);
         }
     }
 
-    static class MeHolder extends RecyclerView.ViewHolder {
-        TextView username, content;
+    static class MeHolder extends RowHolder {
         MeHolder(@NonNull View v) {
             super(v);
-            username = v.findViewById(R.id.tvUsername);
-            content  = v.findViewById(R.id.tvContent);
         }
     }
-}
\ No newline at end of file
+}
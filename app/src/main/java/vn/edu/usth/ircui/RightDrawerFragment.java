@@ -20,6 +20,8 @@ import androidx.recyclerview.widget.RecyclerView;
 import java.util.ArrayList;
 import java.util.List;
 
+import vn.edu.usth.ircui.network.SharedIrcClient;
+
 public class RightDrawerFragment extends Fragment {
 
     private RecyclerView userListRecyclerView;
@@ -201,6 +203,15 @@ public class RightDrawerFragment extends Fragment {
             SharedPreferences prefs = requireContext().getSharedPreferences("app_settings", 0);
             prefs.edit().putString("current_server", newServer).apply();
             
+            // Switch the shared client: an open network is just made active (no reconnect),
+            // a new one is connected alongside the others
+            SharedIrcClient irc = SharedIrcClient.getInstance();
+            if (!irc.switchTo(newServer)) {
+                String user = irc.getCurrentUsername() != null ? irc.getCurrentUsername() : currentUsername;
+                String channel = irc.getCurrentChannel() != null ? irc.getCurrentChannel() : "#usth-ircui";
+                irc.connect(newServer, user, channel, requireContext());
+            }
+            
             // Update UI
             updateServerDisplay();
             updateServerSelection(serverIndex);
@@ -1,78 +1,205 @@
 package vn.edu.usth.ircui.feature_chat.data;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import vn.edu.usth.ircui.core.event.ActivityBoard;
+import vn.edu.usth.ircui.core.event.ChatEvent;
+import vn.edu.usth.ircui.core.history.SessionSnapshot;
+import vn.edu.usth.ircui.core.protocol.CaseMapping;
 import vn.edu.usth.ircui.feature_chat.model.Channel;
 
-/**NO USAGE*/
+/**
+ * The app's conversations: every channel and private chat of every network, one
+ * {@link Channel} each, kept for as long as the app runs.
+ *
+ * - The network layer feeds it ({@link #onEvents}), whether a screen shows the
+ *   conversation or not
+ * - Screens look a conversation up ({@link #conversation}: one hash lookup) and
+ *   attach to it; switching conversation creates nothing and reads nothing again
+ * - Keys are the network host plus the target folded with that network's CASEMAPPING
+ *   ({@link #setCaseMapping}; rfc1459 until the server says otherwise), as the
+ *   on-device log's are
+ * - Unread and highlight counts, last activity and read markers are kept on one
+ *   {@link ActivityBoard} as messages come in, for the channel drawer
+ *
+ * {@link #find} is lock-free from any thread; everything else runs on the main thread.
+ */
+public final class ChatManager {
 
-public class ChatManager {
-    private final Map<String, Channel> channels;
-    private String currentUser;
+    private static final ChatManager INSTANCE = new ChatManager();
 
-    public ChatManager(String currentUser){
-        this.currentUser = currentUser;
-        this.channels = new HashMap<>();
-        channels.put("#General", new Channel("#General", false));
+    private final ConcurrentMap<String, Channel> conversations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CaseMapping> mappings = new ConcurrentHashMap<>(); // by network key
+    private final ActivityBoard board = new ActivityBoard();
+    private volatile long changes; // bumped by anything a session snapshot would show; main thread
+
+    private ChatManager() {}
+
+    public static ChatManager get() {
+        return INSTANCE;
+    }
+
+    /** The conversation with {@code target} on {@code network}, created on first use. */
+    public Channel conversation(String network, String target) {
+        String key = key(network, target);
+        Channel c = conversations.get(key);
+        if (c != null) return c;
+        Channel fresh = new Channel(network, target, !isChannel(target));
+        c = conversations.putIfAbsent(key, fresh);
+        if (c != null) return c;
+        // the board's key is the name as first seen: it stays put when the mapping changes
+        fresh.track(board, board.entry(networkKey(network) + '\n' + target, network, target));
+        changes++;
+        return fresh;
     }
 
-    public void setCurrentUser(String username){
-        this.currentUser = username;
+    /** How {@code network} compares names: the last mapping it advertised, else rfc1459. */
+    public CaseMapping caseMapping(String network) {
+        CaseMapping m = mappings.get(networkKey(network));
+        return m != null ? m : CaseMapping.RFC1459;
     }
 
-    // General chat
-    public void sendMessage(String channelName, String content) {
-        Channel channel = channels.get(channelName);
-        if (channel == null){
-            channel = new Channel (channelName, false);
-            channels.put(channelName, channel);
+    /**
+     * The server's CASEMAPPING (from ISUPPORT): re-keys the network's conversations if
+     * it changed, and says whether it did. Names the new mapping folds together (as
+     * ascii's "#a[b]" and "#a{b}" under rfc1459) become one conversation; the other
+     * keeps its old key and its lines but gets no new ones. Main thread.
+     */
+    public boolean setCaseMapping(String network, CaseMapping mapping) {
+        if (mapping == null || mapping == caseMapping(network)) return false;
+        String net = networkKey(network);
+        mappings.put(net, mapping);
+        String prefix = net + '\n';
+        for (Map.Entry<String, Channel> e : new ArrayList<>(conversations.entrySet())) {
+            if (!e.getKey().startsWith(prefix)) continue;
+            String key = prefix + mapping.fold(e.getValue().getName());
+            if (key.equals(e.getKey())) continue;
+            if (conversations.putIfAbsent(key, e.getValue()) == null) conversations.remove(e.getKey());
         }
+        changes++;
+        return true;
+    }
 
-        Message message = new Message(currentUser, content, true);
-        channel.addMessage(message);
+    /** Unread and highlight counts and activity order of every conversation. Main thread. */
+    public ActivityBoard activity() {
+        return board;
     }
 
-    public Channel getChannel(String channelName){
-        return channels.get(channelName);
+    /** The conversation if there is one, else null. */
+    public Channel find(String network, String target) {
+        return conversations.get(key(network, target));
     }
 
-    public Map<String, Channel> getAllChannels(){
-        return channels;
+    /** Every conversation of {@code network}: channels first, then private chats, by name. */
+    public List<Channel> conversations(String network) {
+        String prefix = networkKey(network) + '\n';
+        List<Channel> out = new ArrayList<>();
+        for (Map.Entry<String, Channel> e : conversations.entrySet()) {
+            if (e.getKey().startsWith(prefix)) out.add(e.getValue());
+        }
+        Collections.sort(out, (a, b) -> {
+            if (a.isPrivate() != b.isPrivate()) return a.isPrivate() ? 1 : -1;
+            return a.getName().compareToIgnoreCase(b.getName());
+        });
+        return out;
     }
 
-    // Private chat
-    private String getPrivateChannelID(String user1, String user2){
-        return user1.compareTo(user2) < 0 ? user1 + "-" + user2 : user2 + "-" + user1;
+    /** Forget a conversation (the channel was left). Main thread. */
+    public void remove(String network, String target) {
+        Channel c = conversations.remove(key(network, target));
+        if (c != null) close(c);
+        changes++;
     }
 
-    public Channel getOrCreatePrivateChat(String toUser){
-        String channelID = getPrivateChannelID(currentUser, toUser);
-        Channel channel = channels.get(channelID);
+    /** Forget every conversation of a network (it was closed), or of all of them if null. Main thread. */
+    public void clear(String network) {
+        String prefix = network != null ? networkKey(network) + '\n' : "";
+        for (String key : new ArrayList<>(conversations.keySet())) {
+            if (!key.startsWith(prefix)) continue;
+            Channel c = conversations.remove(key);
+            if (c != null) close(c);
+        }
+        changes++;
+    }
 
-        if(channel == null){
-            List<String> participants = List.of(currentUser, toUser);
-            channel = new Channel (channelID, true, participants);
-            channels.put(channelID, channel);
+    /**
+     * A frame of inbound lines from {@code network}, oldest first: each message goes to
+     * its conversation, one batch per conversation, in order. System lines are not
+     * part of any conversation and are skipped. {@code nick} is the user's there, for
+     * highlights. Main thread.
+     */
+    public void onEvents(String network, String nick, List<ChatEvent> events) {
+        String prefix = networkKey(network) + '\n';
+        CaseMapping mapping = caseMapping(network);
+        int n = events.size();
+        int i = 0;
+        while (i < n) {
+            ChatEvent e = events.get(i);
+            if (e.isSystem() || e.target == null) {
+                i++;
+                continue;
+            }
+            // a frame is usually one conversation: hand it over in runs
+            String folded = mapping.fold(e.target);
+            int end = i + 1;
+            while (end < n && !events.get(end).isSystem() && events.get(end).target != null
+                    && folded.equals(mapping.fold(events.get(end).target))) end++;
+            String key = prefix + folded;
+            Channel c = conversations.get(key);
+            if (c == null) c = conversation(network, e.target);
+            c.append(events.subList(i, end), nick);
+            changes++;
+            i = end;
         }
-        return channel;
     }
 
-    public void sendPrivateMessage(String toUser, String content){
-        Channel privateChannel = getOrCreatePrivateChat(toUser);
-        Message message = new Message(currentUser, content, true);
-        privateChannel.addMessage(message);
+    /** Grows whenever conversations or their messages change: a snapshot is only worth writing if it moved. */
+    public long changes() {
+        return changes;
     }
 
-    public List<Channel> getPrivateChannels(){
-        List<Channel> privates = new ArrayList<>();
-        for (Channel c : channels.values()){
-            if (c.isPrivate() && c.getParticipants().contains(currentUser)){
-                privates.add(c);
-            }
+    /**
+     * What the screens of {@code network} show now, for a cold start: the newest
+     * {@code lines} lines of every conversation, its members and unread count. Copies
+     * only; cheap enough for the main thread. Main thread.
+     */
+    public SessionSnapshot snapshot(String network, String nick, String active, int lines) {
+        List<SessionSnapshot.Conversation> saved = new ArrayList<>();
+        for (Channel c : conversations(network)) {
+            ActivityBoard.Entry a = c.getActivity();
+            saved.add(SessionSnapshot.Conversation.of(c.getName(), c.isPrivate(), a.unread(), a.highlights(),
+                    a.lastActivity(), a.readMarker(), c.getParticipants(), c.getStore(), lines));
         }
-        return privates;
+        return new SessionSnapshot(System.currentTimeMillis(), network, nick, active, saved);
+    }
+
+    /** Put back the conversations of a saved session (after process death). Main thread. */
+    public void restore(SessionSnapshot snapshot) {
+        for (SessionSnapshot.Conversation saved : snapshot.conversations) {
+            conversation(snapshot.server, saved.name).restore(saved);
+        }
+    }
+
+    private void close(Channel c) {
+        c.close();
+        if (c.getActivity() != null) board.remove(c.getActivity());
+    }
+
+    private String key(String network, String target) {
+        return networkKey(network) + '\n' + (target == null ? "" : caseMapping(network).fold(target));
+    }
+
+    private static String networkKey(String network) {
+        return network == null ? "" : network.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isChannel(String target) {
+        return target != null && !target.isEmpty() && "#&+!".indexOf(target.charAt(0)) >= 0;
     }
 }
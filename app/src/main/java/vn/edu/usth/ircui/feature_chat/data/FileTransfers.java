@@ -0,0 +1,447 @@
+package vn.edu.usth.ircui.feature_chat.data;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.text.format.Formatter;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import vn.edu.usth.ircui.core.dcc.DccMessage;
+import vn.edu.usth.ircui.core.dcc.DccReceive;
+import vn.edu.usth.ircui.core.dcc.DccSend;
+import vn.edu.usth.ircui.core.dcc.DccTransfer;
+import vn.edu.usth.ircui.core.net.IrcThreads;
+import vn.edu.usth.ircui.core.protocol.CaseMapping;
+
+/**
+ * Files sent to and received from other users, over DCC: a connection of their own,
+ * set up with CTCP in private messages ({@link DccSend}, {@link DccReceive}).
+ *
+ * - {@link #send} offers a picked file to a user and serves it when they connect
+ * - An offer from a user waits until it is {@link #accept accepted}; the file is saved
+ *   in the app's Downloads folder
+ * - A transfer cut short (the network changed) resumes where the receiver stopped: the
+ *   receiver asks with DCC RESUME a few times, the sender ACCEPTs
+ * - A partial file remembers the offer it came from (network, nick, name, size) in a
+ *   small file next to it: only the same offer again resumes it, any other one is saved
+ *   under a name of its own
+ * - Screens follow transfers through a {@link Listener}, on the main thread
+ *
+ * Each transfer has a thread of its own while it runs (not one of the IRC socket
+ * readers: a file can take hours); everything else is on the main thread.
+ */
+public final class FileTransfers {
+
+    private static final String TAG = "FileTransfers";
+    private static final int RESUMES = 3;           // attempts after a transfer is cut short
+    private static final long RESUME_DELAY_MS = 3_000;
+    private static final String OWNER_SUFFIX = ".dcc";  // ".photo.jpg.dcc": whose partial photo.jpg it is
+    private static final int MAX_NAMES = 100;           // photo.jpg, photo (1).jpg, ... photo (99).jpg
+
+    /** A network's IRC client, as transfers need it. */
+    public interface Link {
+        /** Send a CTCP request to {@code nick}; false if not connected. */
+        boolean sendCtcp(String nick, String ctcp);
+
+        /** The address peers can reach this device at, or null if not connected. */
+        @Nullable
+        InetAddress localAddress();
+    }
+
+    /** Called on the main thread. */
+    public interface Listener {
+        /** An offer came in, or {@code t} moved on. */
+        void onTransfer(Transfer t);
+    }
+
+    /** One file going to or coming from one user. */
+    public static final class Transfer {
+        public final String network;
+        public final String nick;
+        public final boolean outgoing;
+        public final String fileName;
+        public final long size;
+        final DccMessage offer;           // incoming: what was offered
+        volatile DccTransfer dcc;         // null until accepted
+        volatile File file;               // incoming: where it is saved
+        volatile FileChannel channel;     // incoming: the open file
+        volatile String failure;          // why it could not start
+        int resumes;                      // main thread
+
+        Transfer(String network, String nick, boolean outgoing, String fileName, long size, DccMessage offer) {
+            this.network = network;
+            this.nick = nick;
+            this.outgoing = outgoing;
+            this.fileName = fileName;
+            this.size = size;
+            this.offer = offer;
+        }
+
+        /** Not started yet (an offer), or waiting for the peer; else how it is going. */
+        public DccTransfer.State state() {
+            DccTransfer d = dcc;
+            return d != null ? d.state() : DccTransfer.State.WAITING;
+        }
+
+        @Nullable
+        public File getFile() {
+            return file;
+        }
+
+        /** True if this is a transfer with {@code nick} on {@code network}. */
+        public boolean isWith(String network, String nick) {
+            return key(this.network, this.nick).equals(key(network, nick));
+        }
+
+        /** Done, failed or cancelled for good, or could not start. */
+        public boolean isOver() {
+            DccTransfer.State s = state();
+            return failure != null || s == DccTransfer.State.DONE || s == DccTransfer.State.CANCELLED
+                    || (s == DccTransfer.State.FAILED && (outgoing || resumes >= RESUMES));
+        }
+
+        /** One line for the conversation or its header: "📤 photo.jpg 42% · 5.1 MB/s · 12 s left". */
+        public String describe(Context context) {
+            DccTransfer d = dcc;
+            String arrow = outgoing ? "📤 " : "📥 ";
+            if (failure != null) return "❌ " + fileName + ": " + failure;
+            if (d == null) {
+                return outgoing ? arrow + "Offering " + fileName + " to " + nick
+                        : arrow + nick + " offers " + fileName + " (" + bytes(context, size) + ") — type /get to accept";
+            }
+            switch (d.state()) {
+                case RUNNING:
+                    StringBuilder sb = new StringBuilder(arrow).append(fileName);
+                    if (d.percent() >= 0) sb.append(' ').append(d.percent()).append('%');
+                    if (d.bytesPerSecond() > 0) sb.append(" · ").append(bytes(context, d.bytesPerSecond())).append("/s");
+                    long eta = d.etaMillis();
+                    if (eta >= 0) sb.append(" · ").append(duration(eta)).append(" left");
+                    return sb.toString();
+                case DONE:
+                    return outgoing ? "✅ Sent " + fileName + " to " + nick
+                            : "✅ Saved " + (file != null ? file.getName() : fileName)
+                            + " (" + bytes(context, d.position()) + ") in Downloads";
+                case CANCELLED:
+                    return "⛔ " + fileName + ": cancelled";
+                case FAILED:
+                    IOException e = d.error();
+                    return "❌ " + fileName + " at " + bytes(context, d.position()) + ": "
+                            + (e != null ? e.getMessage() : "failed");
+                default:
+                    return arrow + (outgoing ? "Offered " + fileName + " to " + nick + ", waiting"
+                            : "Asked " + nick + " for " + fileName + ", waiting");
+            }
+        }
+    }
+
+    private static FileTransfers instance;
+
+    private final Context app;
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private final ExecutorService threads = Executors.newCachedThreadPool(IrcThreads.daemon("dcc"));
+    private final Map<String, Link> links = new ConcurrentHashMap<>();
+    // network + nick -> the newest offer from that user; network + nick + port -> transfers under way
+    private final Map<String, Transfer> offers = new ConcurrentHashMap<>();
+    private final Map<String, Transfer> transfers = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public static synchronized FileTransfers get(Context context) {
+        if (instance == null) instance = new FileTransfers(context.getApplicationContext());
+        return instance;
+    }
+
+    private FileTransfers(Context app) {
+        this.app = app;
+    }
+
+    /** {@code network}'s client, for replies and offers; null when the session goes away. */
+    public void setLink(String network, @Nullable Link link) {
+        if (link != null) links.put(networkKey(network), link);
+        else links.remove(networkKey(network));
+    }
+
+    public void addListener(Listener l) {
+        listeners.add(l);
+    }
+
+    public void removeListener(Listener l) {
+        listeners.remove(l);
+    }
+
+    /** The newest offer from {@code nick} not accepted yet, or null. */
+    @Nullable
+    public Transfer pendingOffer(String network, String nick) {
+        return offers.get(key(network, nick));
+    }
+
+    /** Offer the file at {@code uri} to {@code nick}; progress goes to the listeners. Main thread. */
+    public Transfer send(String network, String nick, Uri uri, String fileName) {
+        Transfer t = new Transfer(network, nick, true, fileName, -1, null);
+        threads.execute(() -> serve(t, uri));
+        return t;
+    }
+
+    /**
+     * Accept the newest offer from {@code nick}: resumed if part of this very offer is
+     * already here, else from the start under a name no other file has. Null if there is
+     * no offer. Main thread.
+     */
+    @Nullable
+    public Transfer accept(String network, String nick) {
+        Transfer t = offers.remove(key(network, nick));
+        if (t == null) return null;
+        File downloads = app.getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS);
+        File dir = downloads != null ? downloads : new File(app.getFilesDir(), "downloads");
+        threads.execute(() -> {
+            try {
+                if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+                File file = claim(dir, t);
+                t.file = file;
+                FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+                t.channel = channel;
+                DccReceive r = new DccReceive(t.fileName, channel, t.offer.value,
+                        new InetSocketAddress(t.offer.address(), t.offer.port), progress(t));
+                t.dcc = r;
+                transfers.put(transferKey(t.network, t.nick, t.offer.port), t);
+                long have = r.resumePosition();
+                if (have > 0 && (t.offer.value < 0 || have < t.offer.value)) {
+                    main.post(() -> askResume(t)); // the rest comes after the sender's ACCEPT
+                } else {
+                    r.run(0);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot receive " + t.fileName, e);
+                finishReceive(t);
+                main.post(() -> notifyFailed(t, e));
+            }
+        });
+        return t;
+    }
+
+    /** A DCC message from {@code from} on {@code network}; any thread (the reader's). */
+    public void onDcc(String network, String from, DccMessage m) {
+        main.post(() -> {
+            switch (m.type) {
+                case SEND:
+                    Transfer offer = new Transfer(network, from, false, m.safeFileName(), m.value, m);
+                    offers.put(key(network, from), offer);
+                    notifyListeners(offer);
+                    break;
+                case RESUME: {
+                    Transfer t = transfers.get(transferKey(network, from, m.port));
+                    Link link = links.get(networkKey(network));
+                    if (t == null || !t.outgoing || link == null) return;
+                    if (((DccSend) t.dcc).resume(m.value)) {
+                        link.sendCtcp(from, DccMessage.accept(m.fileName, m.port, m.value).toCtcp());
+                    }
+                    break;
+                }
+                case ACCEPT: {
+                    Transfer t = transfers.get(transferKey(network, from, m.port));
+                    if (t == null || t.outgoing || t.state() == DccTransfer.State.RUNNING) return;
+                    DccReceive r = (DccReceive) t.dcc;
+                    threads.execute(() -> r.run(m.value));
+                    break;
+                }
+            }
+        });
+    }
+
+    // ---------- internals ----------
+
+    /** The sending side, on an I/O thread: offer, serve, and serve again after a RESUME. */
+    private void serve(Transfer t, Uri uri) {
+        Link link = links.get(networkKey(t.network));
+        InetAddress local = link != null ? link.localAddress() : null;
+        if (local == null) {
+            main.post(() -> notifyFailed(t, new IOException("not connected")));
+            return;
+        }
+        ParcelFileDescriptor pfd = null;
+        DccSend send = null;
+        String id = null;
+        try {
+            pfd = app.getContentResolver().openFileDescriptor(uri, "r");
+            if (pfd == null) throw new IOException("cannot open " + uri);
+            long size = pfd.getStatSize();
+            if (size < 0) throw new IOException("not a file: " + uri); // a stream, not something to seek in
+            FileChannel source = new FileInputStream(pfd.getFileDescriptor()).getChannel();
+            send = new DccSend(t.fileName, source, size, progress(t));
+            t.dcc = send;
+            int port = send.listen(local, 0);
+            id = transferKey(t.network, t.nick, port);
+            transfers.put(id, t);
+            if (!link.sendCtcp(t.nick, DccMessage.send(t.fileName, local, port, size).toCtcp())) {
+                throw new IOException("not connected");
+            }
+            main.post(() -> notifyListeners(t));
+            // cut short after it started: serve again when the receiver RESUMEs
+            DccTransfer.State end = send.run();
+            for (int i = 0; end == DccTransfer.State.FAILED && send.position() > 0 && i < RESUMES; i++) {
+                end = send.run();
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot send " + t.fileName, e);
+            IOException cause = e instanceof IOException ? (IOException) e : new IOException(e);
+            main.post(() -> notifyFailed(t, cause));
+        } finally {
+            if (id != null) transfers.remove(id);
+            if (send != null) closeQuietly(send::close);
+            closeQuietly(pfd);
+        }
+    }
+
+    /** Reports progress on the main thread; a receive cut short asks to resume, a finished one closes its file. */
+    private DccTransfer.Listener progress(Transfer t) {
+        return new DccTransfer.Listener() {
+            @Override
+            public void onProgress(DccTransfer d) {
+                main.post(() -> notifyListeners(t));
+            }
+
+            @Override
+            public void onFinished(DccTransfer d) {
+                boolean retry = !t.outgoing && d.state() == DccTransfer.State.FAILED;
+                main.post(() -> {
+                    notifyListeners(t);
+                    if (retry && t.resumes < RESUMES) main.postDelayed(() -> askResume(t), RESUME_DELAY_MS);
+                    else if (!t.outgoing) finishReceive(t);
+                });
+            }
+        };
+    }
+
+    /** Receiving side: ask the sender to go on from what the file holds. */
+    private void askResume(Transfer t) {
+        Link link = links.get(networkKey(t.network));
+        t.resumes++;
+        long have;
+        try {
+            have = ((DccReceive) t.dcc).resumePosition();
+        } catch (IOException e) {
+            finishReceive(t);
+            notifyFailed(t, e);
+            return;
+        }
+        if (link == null || !link.sendCtcp(t.nick, DccMessage.resume(t.offer.fileName, t.offer.port, have).toCtcp())) {
+            // the IRC connection is coming back too: try again
+            if (t.resumes < RESUMES) main.postDelayed(() -> askResume(t), RESUME_DELAY_MS);
+            else finishReceive(t);
+        }
+    }
+
+    /** Receiving side, done or given up: the file is closed, later ACCEPTs are ignored. */
+    private void finishReceive(Transfer t) {
+        transfers.remove(transferKey(t.network, t.nick, t.offer.port));
+        closeQuietly(t.channel);
+        // complete: nothing left to resume, the name is free for the next offer's own copy
+        File file = t.file;
+        if (file != null && t.state() == DccTransfer.State.DONE && !ownerFile(file).delete()) {
+            Log.w(TAG, "Cannot delete " + ownerFile(file));
+        }
+    }
+
+    /**
+     * Where {@code t} is saved: the partial file this offer left behind, else the first of
+     * "name", "name (1)", ... that is not there yet. The file's owner is written before
+     * anything else is. I/O thread.
+     */
+    private synchronized File claim(File dir, Transfer t) throws IOException {
+        String owner = key(t.network, t.nick) + '\n' + t.offer.fileName + '\n' + t.offer.value;
+        String name = t.offer.safeFileName();
+        int dot = name.lastIndexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        for (int i = 0; i < MAX_NAMES; i++) {
+            File file = new File(dir, i == 0 ? name : stem + " (" + i + ")" + ext);
+            File ownerFile = ownerFile(file);
+            if (owner.equals(readOwner(ownerFile))) return file; // ours, cut short: resume
+            if (file.exists()) continue;                          // someone else's, or complete
+            try (FileOutputStream out = new FileOutputStream(ownerFile)) {
+                out.write(owner.getBytes(StandardCharsets.UTF_8));
+            }
+            return file;
+        }
+        throw new IOException("too many files named " + name);
+    }
+
+    private static File ownerFile(File file) {
+        return new File(file.getParentFile(), "." + file.getName() + OWNER_SUFFIX);
+    }
+
+    /** The owner written by {@link #claim}, or null if there is none. */
+    @Nullable
+    private static String readOwner(File ownerFile) {
+        if (!ownerFile.isFile()) return null;
+        byte[] b = new byte[(int) Math.min(ownerFile.length(), 4096)];
+        int n = 0;
+        try (FileInputStream in = new FileInputStream(ownerFile)) {
+            for (int r; n < b.length && (r = in.read(b, n, b.length - n)) > 0; ) n += r;
+        } catch (IOException e) {
+            return null;
+        }
+        return new String(b, 0, n, StandardCharsets.UTF_8);
+    }
+
+    private void notifyFailed(Transfer t, IOException e) {
+        t.failure = e.getMessage() != null ? e.getMessage() : e.toString();
+        notifyListeners(t);
+    }
+
+    private void notifyListeners(Transfer t) {
+        for (Listener l : listeners) l.onTransfer(t);
+    }
+
+    private static void closeQuietly(@Nullable Closeable c) {
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static String bytes(Context context, long n) {
+        return n < 0 ? "?" : Formatter.formatShortFileSize(context, n);
+    }
+
+    private static String duration(long ms) {
+        long s = (ms + 999) / 1000;
+        return s < 60 ? s + " s" : s < 3600 ? String.format(Locale.ROOT, "%d:%02d", s / 60, s % 60)
+                : String.format(Locale.ROOT, "%d:%02d:%02d", s / 3600, s / 60 % 60, s % 60);
+    }
+
+    private static String transferKey(String network, String nick, int port) {
+        return key(network, nick) + '\n' + port;
+    }
+
+    private static String key(String network, String nick) {
+        return networkKey(network) + '\n' + CaseMapping.RFC1459.fold(nick);
+    }
+
+    private static String networkKey(String network) {
+        return network == null ? "" : network.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,35 +1,76 @@
 package vn.edu.usth.ircui.feature_chat.data;
 
+import androidx.core.text.PrecomputedTextCompat;
+
+import java.util.TimeZone;
+
+import vn.edu.usth.ircui.core.render.RowModel;
+import vn.edu.usth.ircui.core.render.RowModels;
+
+/**
+ * One chat line, ready to bind: code detection, fence stripping, the time label and
+ * the nick color are worked out when the line is made (on the history thread for
+ * every page read from the log, on the network's reader thread for live lines: see
+ * {@link #rows()}), not by the adapter on every bind.
+ */
 public class Message {
-    private final String username;
-    private final String content;
-    private final long timestamp;
-    private final boolean mine;
-    private final boolean codeBlock;
 
+    /** Size of MessageAdapter's nick palette. */
+    public static final int NAME_COLORS = 8;
+
+    private static final RowModels ROWS = new RowModels(NAME_COLORS, TimeZone.getDefault());
+
+    private final RowModel row;
+    // laid out off the main thread by MessageAdapter; null until then
+    private volatile PrecomputedTextCompat layout;
+
+    /** Lays out every line; the network layer uses it for live lines before they are posted. */
+    public static RowModels rows() {
+        return ROWS;
+    }
+
+    /** The device's time zone changed: lines made from now on are labelled in the new one. */
+    public static void onTimeZoneChanged() {
+        ROWS.setZone(TimeZone.getDefault());
+    }
+
+    /** A line laid out already, off the main thread. */
+    public Message(RowModel row) {
+        this.row = row;
+    }
+
+    /** A local line (system notice, command output): stamped now. */
     public Message(String username, String content, boolean mine) {
-        this.username  = username;
-        this.content   = content;
-        this.mine      = mine;
-        this.timestamp = System.currentTimeMillis();
-        this.codeBlock = looksLikeCode(content);
+        this(username, content, System.currentTimeMillis(), mine);
     }
 
-    private boolean looksLikeCode(String s) {
-        // very simple detection: fenced code or many symbols
-        String t = s.trim();
-        if (t.startsWith("```") && t.endsWith("```")) return true;
-        int symbols = 0;
-        for (char c : t.toCharArray()) {
-            if ("{}[]();<>#=/\\$\"'`".indexOf(c) >= 0) symbols++;
-            if (symbols > 6) return true;
-        }
-        return false;
+    /** A line from the network: {@code timestamp} is the server's (IRCv3 server-time) when known. */
+    public Message(String username, String content, long timestamp, boolean mine) {
+        this.row = ROWS.of(username, content, timestamp, mine);
     }
 
-    public String  getUsername()  { return username; }
-    public String  getContent()   { return content; }
-    public long    getTimestamp() { return timestamp; }
-    public boolean isMine()       { return mine; }
-    public boolean isCodeBlock()  { return codeBlock; }
+    /** A view of a stored line whose code detection was already done. */
+    public Message(String username, String content, long timestamp, boolean mine, boolean codeBlock) {
+        this.row = ROWS.of(username, content, timestamp, mine, codeBlock);
+    }
+
+    public static boolean looksLikeCode(String s) {
+        return RowModels.looksLikeCode(s);
+    }
+
+    public String  getUsername()  { return row.nick; }
+    public String  getContent()   { return row.text; }
+    public long    getTimestamp() { return row.timestamp; }
+    public boolean isMine()       { return row.mine; }
+    public boolean isCodeBlock()  { return row.code; }
+
+    /** What the bubble shows: the content, without code fences. */
+    public String  getDisplayText() { return row.display; }
+    /** "nick  •  HH:mm" */
+    public String  getHeader()      { return row.header; }
+    public int     getColorIndex()  { return row.colorIndex; }
+
+    public PrecomputedTextCompat getLayout() { return layout; }
+
+    public void setLayout(PrecomputedTextCompat layout) { this.layout = layout; }
 }
@@ -0,0 +1,127 @@
+package vn.edu.usth.ircui.feature_chat.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import vn.edu.usth.ircui.core.history.SessionSnapshot;
+import vn.edu.usth.ircui.core.net.IrcThreads;
+
+/**
+ * The session snapshot ({@link SessionSnapshot}) of the app: the chat screen as it was,
+ * so after process death the app opens on it again instead of the welcome screen.
+ *
+ * - Saved when the app goes to the background, and every {@link #PERIOD_MS} while it is
+ *   in the foreground if anything changed; built on the main thread (copies only), written
+ *   on a background thread
+ * - Restored in MainActivity.onCreate, before the first frame: one mapped read, then
+ *   ChatManager has its conversations back while the connection comes up
+ * - Only kept while a chat screen is up (not on the welcome and login screens), and
+ *   forgotten on logout
+ */
+public final class SessionStore {
+
+    private static final String TAG = "SessionStore";
+    private static final String FILE = "session.snap";
+    /** Lines kept per conversation: about a screenful and a half. */
+    static final int LINES = 50;
+    static final long PERIOD_MS = 60_000;
+
+    private static SessionStore instance;
+    private static final Executor writer = Executors.newSingleThreadExecutor(IrcThreads.daemon("snapshot"));
+
+    private final Context app;
+    private final File file;
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            save();
+            main.postDelayed(this, PERIOD_MS);
+        }
+    };
+    private long savedChanges = -1; // ChatManager.changes() at the last save; main thread
+    private boolean enabled;        // a chat screen is up; main thread
+
+    private SessionStore(Context context) {
+        app = context.getApplicationContext();
+        file = new File(app.getFilesDir(), FILE);
+    }
+
+    public static synchronized SessionStore get(Context context) {
+        if (instance == null) instance = new SessionStore(context);
+        return instance;
+    }
+
+    /**
+     * The saved session, its conversations already back in ChatManager; null if there
+     * is none (first start, logged out, unreadable). Main thread.
+     */
+    public SessionSnapshot restore() {
+        SessionSnapshot s;
+        try {
+            s = SessionSnapshot.read(file);
+        } catch (IOException e) {
+            Log.w(TAG, "snapshot not readable", e);
+            return null;
+        }
+        if (s == null || s.server == null || s.nick == null || s.active == null) return null;
+        ChatManager.get().restore(s);
+        savedChanges = ChatManager.get().changes();
+        return s;
+    }
+
+    /** Whether a chat screen is up, so there is a session worth coming back to. Main thread. */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /** Save now if anything changed since the last save. Main thread. */
+    public void save() {
+        if (!enabled) return;
+        ChatManager chats = ChatManager.get();
+        long changes = chats.changes();
+        if (changes == savedChanges) return;
+        SharedPreferences prefs = app.getSharedPreferences("app_settings", Context.MODE_PRIVATE);
+        String server = prefs.getString("current_server", null);
+        String nick = prefs.getString("current_username", null);
+        String active = prefs.getString("current_channel", null);
+        if (server == null || nick == null) return; // not logged in yet
+        final SessionSnapshot s = chats.snapshot(server, nick, active, LINES);
+        savedChanges = changes;
+        writer.execute(() -> {
+            try {
+                s.write(file);
+            } catch (IOException e) {
+                Log.w(TAG, "snapshot not saved", e);
+            }
+        });
+    }
+
+    /** In the foreground: save every {@link #PERIOD_MS}. Main thread. */
+    public void start() {
+        main.removeCallbacks(tick);
+        main.postDelayed(tick, PERIOD_MS);
+    }
+
+    /** Going to the background: stop the timer and save what there is. Main thread. */
+    public void stop() {
+        main.removeCallbacks(tick);
+        save();
+    }
+
+    /** Logged out: the next start is a fresh one. Main thread. */
+    public void forget() {
+        main.removeCallbacks(tick);
+        enabled = false;
+        savedChanges = -1;
+        writer.execute(file::delete);
+    }
+}
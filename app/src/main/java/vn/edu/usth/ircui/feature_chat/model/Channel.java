@@ -1,34 +1,80 @@
 package vn.edu.usth.ircui.feature_chat.model;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import vn.edu.usth.ircui.core.event.ActivityBoard;
+import vn.edu.usth.ircui.core.event.ChatEvent;
+import vn.edu.usth.ircui.core.history.HistoryWindow;
+import vn.edu.usth.ircui.core.history.MessageColumns;
+import vn.edu.usth.ircui.core.history.SessionSnapshot;
+import vn.edu.usth.ircui.core.protocol.CaseMapping;
 import vn.edu.usth.ircui.feature_chat.data.Message;
 
 /** Defines a Channel model with a name, a privacy flag (isPrivate),
- * a list of messages, and a list of participants (usernames). **/
+ * its recent messages, and a list of participants (usernames).
+ * Messages are held in a {@link MessageColumns} ring (the newest
+ * {@link MessageColumns#DEFAULT_CAPACITY}); {@link #getMessages()} makes a
+ * {@link Message} only for the rows that are read.
+ *
+ * One Channel per conversation (a channel or a private chat) per network, owned by
+ * {@link vn.edu.usth.ircui.feature_chat.data.ChatManager} for the life of the app:
+ * screens attach to it and detach again, the conversation and its history windows
+ * stay, so coming back to it shows the same rows at once. **/
 
 public class Channel {
+
+    /** New messages of this conversation, after they were added to its store and windows. Main thread. */
+    public interface Observer {
+        void onMessages(Channel channel, List<ChatEvent> batch);
+    }
+
+    private final String network;
     private final String name;
     private final boolean isPrivate;
-    private final List<Message> messages;
+    private final MessageColumns store = new MessageColumns();
+    private final List<Message> messages = store.view(new MessageColumns.Rows<Message>() {
+        @Override
+        public Message rowOf(MessageColumns s, int i) {
+            return new Message(s.nick(i), s.text(i), s.timestamp(i),
+                    s.has(i, MessageColumns.MINE), s.has(i, MessageColumns.CODE));
+        }
+    });
     private final List<String> participants;
+    private final List<Observer> observers = new CopyOnWriteArrayList<>();
+    // what screens of this conversation show, one window per row type; main thread
+    private final Map<HistoryWindow.Rows<?>, HistoryWindow<?>> windows = new IdentityHashMap<>();
+    private ActivityBoard board;         // unread / highlight counters, with ChatManager; main thread
+    private ActivityBoard.Entry activity;
+    private List<ChatEvent> restored;    // saved lines for the first window, until the log is read
 
 
     // General Chat
     public Channel(String name, boolean isPrivate) {
+        this(null, name, isPrivate);
+    }
+
+    public Channel(String network, String name, boolean isPrivate) {
+        this.network = network;
         this.name = name;
         this.isPrivate = isPrivate;
-        this.messages = new ArrayList<>();
         this.participants = new ArrayList<>();
     }
 
     // Private chat
     public Channel (String name, boolean isPrivate, List<String> participants){
+        this.network = null;
         this.name = name;
         this.isPrivate = isPrivate;
         this.participants = new ArrayList<>(participants);
-        this.messages = new ArrayList<>();
+    }
+
+    /** Server host of the network this conversation is on, or null for a local one. */
+    public String getNetwork() {
+        return network;
     }
 
     public String getName() {
@@ -42,11 +88,114 @@ public class Channel {
     public List<String> getParticipants(){
         return participants;
     }
+
+    /** The member list as last fetched. Main thread. */
+    public void setParticipants(List<String> names) {
+        participants.clear();
+        participants.addAll(names);
+    }
+
+    /** Keep this conversation's unread and highlight counts on {@code board}. Main thread. */
+    public void track(ActivityBoard board, ActivityBoard.Entry activity) {
+        this.board = board;
+        this.activity = activity;
+    }
+
+    /** Unread and highlight counts, last activity and read marker; null if not tracked. */
+    public ActivityBoard.Entry getActivity() {
+        return activity;
+    }
+
+    public int getUnread() {
+        return activity != null ? activity.unread() : 0;
+    }
+    /** Read-only, oldest first; follows new messages as they are added. */
     public List<Message> getMessages() {
         return messages;
     }
 
     public void addMessage(Message message) {
-        messages.add(message);
+        store.add(message.getUsername(), message.getContent(), message.getTimestamp(),
+                (message.isMine() ? MessageColumns.MINE : 0) | (message.isCodeBlock() ? MessageColumns.CODE : 0));
+    }
+
+    /** The column store behind {@link #getMessages()}. */
+    public MessageColumns getStore() {
+        return store;
+    }
+
+    /**
+     * A frame's messages for this conversation, from the network: stored, handed to every
+     * window (shown or not), counted (read at once if a screen shows it; a highlight if
+     * it is private or mentions {@code nick}) and then handed to the observers. Main thread.
+     */
+    public void append(List<ChatEvent> batch, String nick) {
+        for (ChatEvent e : batch) {
+            boolean code = e.row != null ? e.row.code : Message.looksLikeCode(e.text);
+            store.add(e.nick, e.text, e.timestamp, (e.mine ? MessageColumns.MINE : 0) | (code ? MessageColumns.CODE : 0));
+        }
+        for (HistoryWindow<?> w : windows.values()) w.addLive(batch);
+        if (board != null) {
+            for (ChatEvent e : batch) {
+                boolean highlight = !e.mine && (isPrivate || ActivityBoard.mentions(e.text, nick, CaseMapping.RFC1459));
+                board.onMessage(activity, e.timestamp, e.mine, highlight);
+            }
+            if (!observers.isEmpty()) board.markRead(activity);
+        }
+        for (Observer o : observers) o.onMessages(this, batch);
+    }
+
+    /**
+     * Put back what a saved session had (after process death, before anything was
+     * received): the lines, members and unread count. The lines also stand in for the
+     * newest page of the first window until the log has been read. Main thread.
+     */
+    public void restore(SessionSnapshot.Conversation saved) {
+        if (store.size() > 0) return;
+        for (int i = 0; i < saved.lines(); i++) {
+            store.add(saved.nick(i), saved.text(i), saved.timestamp(i), saved.flags(i));
+        }
+        setParticipants(saved.members);
+        if (board != null) {
+            board.restore(activity.key, activity.network, activity.name, saved.unread, saved.highlights,
+                    saved.lastActivity, saved.readMarker);
+        }
+        restored = saved.lines() > 0 ? saved.events() : null;
+    }
+
+    /** The restored lines for a new window, once; null if there are none. Main thread. */
+    public List<ChatEvent> takeRestored() {
+        List<ChatEvent> r = restored;
+        restored = null;
+        return r;
+    }
+
+    /** A screen shows this conversation from now on: what it had not seen is read. Main thread. */
+    public void observe(Observer observer) {
+        if (!observers.contains(observer)) observers.add(observer);
+        if (board != null) board.markRead(activity);
+    }
+
+    public void stopObserving(Observer observer) {
+        observers.remove(observer);
+    }
+
+    /** The window kept for rows made by {@code rows}, or null if no screen opened one yet. Main thread. */
+    @SuppressWarnings("unchecked")
+    public <T> HistoryWindow<T> getWindow(HistoryWindow.Rows<T> rows) {
+        return (HistoryWindow<T>) windows.get(rows);
+    }
+
+    /** Keep {@code window} (opened on this conversation's log) for the next screen using {@code rows}. */
+    public <T> void putWindow(HistoryWindow.Rows<T> rows, HistoryWindow<T> window) {
+        HistoryWindow<?> old = windows.put(rows, window);
+        if (old != null && old != window) old.close();
+    }
+
+    /** The conversation is gone (left, or its network closed): stop its windows. Main thread. */
+    public void close() {
+        for (HistoryWindow<?> w : windows.values()) w.close();
+        windows.clear();
+        observers.clear();
     }
 }
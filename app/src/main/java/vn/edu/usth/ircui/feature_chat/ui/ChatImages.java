@@ -0,0 +1,155 @@
+package vn.edu.usth.ircui.feature_chat.ui;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executors;
+
+import vn.edu.usth.ircui.core.image.DiskLru;
+import vn.edu.usth.ircui.core.image.ImageLoader;
+import vn.edu.usth.ircui.core.net.IrcThreads;
+
+/**
+ * Attachment images in chat rows, through one {@link ImageLoader} for the whole app.
+ *
+ * - Decoded by BitmapFactory on two background threads, at the power-of-two sample
+ *   size for the row's image box (its width, and its max height), never full size
+ * - Kept in memory up to an eighth of the heap, and as JPEG thumbnails (32 MB) in the
+ *   cache directory, so scrolling back or opening the chat again does not decode the
+ *   photo again
+ * - A recycled row cancels its request ({@link #cancel}): a fling does not leave a
+ *   queue of decodes for rows long gone
+ *
+ * Main thread only, like the adapters that use it.
+ */
+public final class ChatImages {
+
+    private static final String TAG = "ChatImages";
+    private static final int MEMORY_FRACTION = 8;  // of the heap
+    private static final long DISK_BYTES = 32L << 20;
+    private static final int THREADS = 2;
+    private static final int THUMBNAIL_QUALITY = 85;
+
+    private static ChatImages instance;
+
+    private final ImageLoader<ImageView, Bitmap> loader;
+    private final int fallbackWidth;
+
+    public static synchronized ChatImages get(Context context) {
+        if (instance == null) instance = new ChatImages(context.getApplicationContext());
+        return instance;
+    }
+
+    /** The system wants memory back: drop decoded images (the thumbnails on disk stay). */
+    public static synchronized void trimMemory(int level) {
+        if (instance == null) return;
+        instance.loader.trimMemory(level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND ? 0 : 0.5);
+    }
+
+    private ChatImages(Context app) {
+        DiskLru disk = null;
+        try {
+            disk = new DiskLru(new File(app.getCacheDir(), "thumbnails"), DISK_BYTES);
+        } catch (IOException e) {
+            Log.w(TAG, "No thumbnail cache", e); // memory only
+        }
+        Handler main = new Handler(Looper.getMainLooper());
+        loader = new ImageLoader<>(new BitmapCodec(app.getContentResolver()),
+                Runtime.getRuntime().maxMemory() / MEMORY_FRACTION, disk,
+                Executors.newFixedThreadPool(THREADS, IrcThreads.daemon("image")), main::post);
+        fallbackWidth = app.getResources().getDisplayMetrics().widthPixels / 2;
+    }
+
+    /** Show {@code uri} in {@code view}: at once if it was decoded before, else the placeholder until it is. */
+    public void show(final ImageView view, Uri uri) {
+        ImageLoader.Key key = new ImageLoader.Key(uri.toString(), boxWidth(view), boxHeight(view));
+        Bitmap cached = loader.load(key, view, image -> {
+            if (image != null) view.setImageBitmap(image);
+            else view.setImageResource(android.R.drawable.ic_menu_report_image);
+        });
+        if (cached != null) view.setImageBitmap(cached);
+        else view.setImageResource(android.R.drawable.ic_menu_gallery);
+    }
+
+    /** {@code view} was recycled: forget what it waited for. */
+    public void cancel(ImageView view) {
+        loader.cancel(view);
+    }
+
+    // ---------- internals ----------
+
+    /** The width the image is shown at: fixed in the row layouts, measured otherwise. */
+    private int boxWidth(ImageView view) {
+        ViewGroup.LayoutParams lp = view.getLayoutParams();
+        int w = lp != null && lp.width > 0 ? lp.width : view.getWidth();
+        if (w <= 0) w = fallbackWidth;
+        return Math.max(1, w - view.getPaddingLeft() - view.getPaddingRight());
+    }
+
+    /** The max height of the image view, or 0 if it has none. */
+    private static int boxHeight(ImageView view) {
+        int h = view.getMaxHeight();
+        return h > 0 && h < Integer.MAX_VALUE ? Math.max(1, h - view.getPaddingTop() - view.getPaddingBottom()) : 0;
+    }
+
+    private static final class BitmapCodec implements ImageLoader.Codec<Bitmap> {
+        private final ContentResolver resolver;
+
+        BitmapCodec(ContentResolver resolver) {
+            this.resolver = resolver;
+        }
+
+        @Override
+        public Bitmap decode(ImageLoader.Key key) throws IOException {
+            Uri uri = Uri.parse(key.source);
+            BitmapFactory.Options o = new BitmapFactory.Options();
+            o.inJustDecodeBounds = true; // the size first: nothing is allocated
+            try (InputStream in = open(uri)) {
+                BitmapFactory.decodeStream(in, null, o);
+            }
+            if (o.outWidth <= 0 || o.outHeight <= 0) return null;
+            o.inJustDecodeBounds = false;
+            o.inSampleSize = ImageLoader.sampleSize(o.outWidth, o.outHeight, key.width, key.height);
+            try (InputStream in = open(uri)) {
+                return BitmapFactory.decodeStream(in, null, o);
+            }
+        }
+
+        @Override
+        public byte[] encode(Bitmap image) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(32 * 1024);
+            Bitmap.CompressFormat format = image.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
+            return image.compress(format, THUMBNAIL_QUALITY, out) ? out.toByteArray() : null;
+        }
+
+        @Override
+        public Bitmap decode(byte[] thumbnail) {
+            return BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length);
+        }
+
+        @Override
+        public int sizeOf(Bitmap image) {
+            return image.getAllocationByteCount();
+        }
+
+        private InputStream open(Uri uri) throws IOException {
+            InputStream in = resolver.openInputStream(uri);
+            if (in == null) throw new FileNotFoundException(uri.toString());
+            return in;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package vn.edu.usth.ircui.feature_chat.ui;
 
+import android.content.Context;
 import android.content.Intent;
 import android.text.format.Formatter;
 import android.view.LayoutInflater;
@@ -9,16 +10,24 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.ArrayList;
-import java.util.List;
 
 import vn.edu.usth.ircui.R;
+import vn.edu.usth.ircui.core.event.ChatEvent;
+import vn.edu.usth.ircui.core.history.HistoryWindow;
 import vn.edu.usth.ircui.feature_chat.data.Attachment;
+import vn.edu.usth.ircui.feature_chat.model.Channel;
+import vn.edu.usth.ircui.network.SharedIrcClient;
 
 /**
  * Support multiply view types(text/text/img/files)
+ * Rows come from a HistoryWindow: a few pages around what is on screen, older ones
+ * read from the on-device log as the user scrolls up. The window belongs to the
+ * conversation, not to the adapter: it is fed while no screen shows it, and the next
+ * adapter on the conversation picks it up as it was.
+ * Images are decoded off the main thread to the row's size ({@link ChatImages}).
  * **/
 public class DirectMessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
@@ -35,21 +44,76 @@ public class DirectMessageAdapter extends RecyclerView.Adapter<RecyclerView.View
         String username;
         String text;
         Attachment attachment;
+        long timestamp;
         Row(int type, boolean mine, String username, String text, Attachment a) {
+            this(type, mine, username, text, a, System.currentTimeMillis());
+        }
+        Row(int type, boolean mine, String username, String text, Attachment a, long timestamp) {
             this.type = type; this.mine = mine; this.username = username; this.text = text; this.attachment = a;
+            this.timestamp = timestamp;
         }
     }
 
-    private final List<Row> rows = new ArrayList<>();
-    private final String me;
+    private static final HistoryWindow.Rows<Row> ROWS = new HistoryWindow.Rows<Row>() {
+        @Override
+        public Row rowOf(ChatEvent e) {
+            return new Row(e.mine ? T_ME_TEXT : T_OTHER_TEXT, e.mine, e.nick, e.text, null, e.timestamp);
+        }
+
+        @Override
+        public long timestampOf(Row r) {
+            return r.timestamp;
+        }
+    };
+
+    private final HistoryWindow<Row> rows;
+    private String me;
+    private boolean atBottom = true; // the last row was in view after the last scroll or layout
+
+    private final RecyclerView.OnScrollListener viewport = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+            RecyclerView.LayoutManager lm = rv.getLayoutManager();
+            if (!(lm instanceof LinearLayoutManager)) return;
+            LinearLayoutManager llm = (LinearLayoutManager) lm;
+            atBottom = !rv.canScrollVertically(1);
+            rows.onViewport(llm.findFirstVisibleItemPosition(), llm.findLastVisibleItemPosition());
+        }
+    };
+
+    /** Shows {@code conversation}, through the window it keeps for this adapter's rows. */
+    public DirectMessageAdapter(String me, Context context, Channel conversation) {
+        this.me = me;
+        rows = SharedIrcClient.getInstance().window(context, conversation, ROWS);
+        rows.setListener(new HistoryWindow.Listener() {
+            @Override public void onInserted(int at, int count) { notifyItemRangeInserted(at, count); }
+            @Override public void onRemoved(int at, int count) { notifyItemRangeRemoved(at, count); }
+        });
+    }
 
-    public DirectMessageAdapter(String me) {
+    public void setMe(String me) {
         this.me = me;
+        notifyDataSetChanged();
+    }
+
+    /** True while the newest message is in the list (not scrolled back into older pages). */
+    public boolean isFollowing() {
+        return rows.isFollowing();
+    }
+
+    /** Was the newest row in view before the rows just added? (for follow-scrolling) */
+    public boolean isAtBottom() {
+        return atBottom;
     }
 
+    /** The view goes away; the window stays with the conversation for the next one. */
+    public void detach() {
+        rows.setListener(null);
+    }
+
+    /** A line of our own (status, send error): shown, not logged. */
     public void addText(boolean mine, String username, String text) {
-        rows.add(new Row(mine ? T_ME_TEXT : T_OTHER_TEXT, mine, username, text, null));
-        notifyItemInserted(rows.size() - 1);
+        rows.addLocal(new Row(mine ? T_ME_TEXT : T_OTHER_TEXT, mine, username, text, null));
     }
 
     public void addAttachment(Attachment.Type type, boolean mine, String username,
@@ -58,16 +122,21 @@ public class DirectMessageAdapter extends RecyclerView.Adapter<RecyclerView.View
         int t = mine
                 ? (type == Attachment.Type.IMAGE ? T_ME_IMG : T_ME_FILE)
                 : (type == Attachment.Type.IMAGE ? T_OTHER_IMG : T_OTHER_FILE);
-        rows.add(new Row(t, mine, username, null, a));
-        notifyItemInserted(rows.size() - 1);
+        rows.addLocal(new Row(t, mine, username, null, a));
     }
 
     public void removeLastMessage() {
-        if (!rows.isEmpty()) {
-            int lastIndex = rows.size() - 1;
-            rows.remove(lastIndex);
-            notifyItemRemoved(lastIndex);
-        }
+        rows.removeLast();
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView rv) {
+        rv.addOnScrollListener(viewport);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView rv) {
+        rv.removeOnScrollListener(viewport);
     }
 
     @Override public int getItemCount() { return rows.size(); }
@@ -98,7 +167,7 @@ public class DirectMessageAdapter extends RecyclerView.Adapter<RecyclerView.View
         } else if (holder instanceof ImageHolder) {
             ImageHolder ih = (ImageHolder) holder;
             ih.username.setText(r.mine ? me : r.username);
-            ih.image.setImageURI(r.attachment.getUri());
+            ChatImages.get(ih.itemView.getContext()).show(ih.image, r.attachment.getUri());
             ih.image.setOnClickListener(v -> {
                 Intent viewIntent = new Intent(Intent.ACTION_VIEW)
                         .setDataAndType(r.attachment.getUri(), "image/*")
@@ -122,6 +191,12 @@ public class DirectMessageAdapter extends RecyclerView.Adapter<RecyclerView.View
         }
     }
 
+    @Override
+    public void onViewRecycled(@NonNull RecyclerView.ViewHolder holder) {
+        // its image is not needed any more, or not in this row
+        if (holder instanceof ImageHolder) ChatImages.get(holder.itemView.getContext()).cancel(((ImageHolder) holder).image);
+    }
+
     static class TextHolder extends RecyclerView.ViewHolder {
         TextView username, content;
         TextHolder(@NonNull View v) {
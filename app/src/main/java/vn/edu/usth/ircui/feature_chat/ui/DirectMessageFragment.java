@@ -12,6 +12,7 @@ import android.view.WindowManager;
 import android.view.inputmethod.EditorInfo;
 import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.TextView;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
@@ -25,8 +26,14 @@ import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import vn.edu.usth.ircui.R;
+import vn.edu.usth.ircui.core.dcc.DccTransfer;
 import vn.edu.usth.ircui.feature_chat.data.Attachment;
+import vn.edu.usth.ircui.feature_chat.data.FileTransfers;
+import vn.edu.usth.ircui.feature_chat.model.Channel;
 import vn.edu.usth.ircui.network.IrcClientManager;
 import vn.edu.usth.ircui.network.SharedIrcClient;
 
@@ -64,10 +71,14 @@ public class DirectMessageFragment extends Fragment {
     private DirectMessageAdapter adapter;
     private EditText input;
     private ImageButton btnSend, btnAttach, btnImage;
+    private TextView header;
 
-    private String me, peer;
+    private String me, peer, serverHost;
     private SharedIrcClient sharedIrcClient;
-    private SharedIrcClient.MessageCallback messageCallback;
+    private Channel conversation;
+    private Channel.Observer observer;
+    private FileTransfers files;
+    private FileTransfers.Listener transferListener;
 
     private final ActivityResultLauncher<String[]> filePicker =
             registerForActivityResult(new ActivityResultContracts.OpenMultipleDocuments(), uris -> {
@@ -94,9 +105,11 @@ public class DirectMessageFragment extends Fragment {
     public void onDestroy() {
         super.onDestroy();
         // Unregister callback when fragment is destroyed
-        if (sharedIrcClient != null && messageCallback != null) {
-            sharedIrcClient.unregisterCallback(messageCallback);
+        if (conversation != null && observer != null) {
+            conversation.stopObserving(observer);
         }
+        if (adapter != null) adapter.detach();
+        if (files != null && transferListener != null) files.removeListener(transferListener);
     }
 
     @Nullable
@@ -114,9 +127,17 @@ public class DirectMessageFragment extends Fragment {
         btnSend    = v.findViewById(R.id.BtnSend);
         btnAttach  = v.findViewById(R.id.BtnAttach);
         btnImage   = v.findViewById(R.id.BtnImage);
-
-        adapter = new DirectMessageAdapter(me);
-        recycler.setLayoutManager(new LinearLayoutManager(requireContext()));
+        header     = v.findViewById(R.id.Header);
+
+        // The conversation outlives this screen: attach to it (connecting only if the network is not open yet).
+        // A few pages of it around the viewport; older ones come from the on-device log
+        serverHost = getArguments() != null ? getArguments().getString(ARG_SERVER_HOST) : "irc.libera.chat";
+        sharedIrcClient = SharedIrcClient.getInstance();
+        conversation = sharedIrcClient.open(serverHost, me, peer, requireContext());
+        adapter = new DirectMessageAdapter(me, requireContext(), conversation);
+        LinearLayoutManager layout = new LinearLayoutManager(requireContext());
+        layout.setStackFromEnd(true); // open at the newest line; pages read in above keep it in place
+        recycler.setLayoutManager(layout);
         recycler.setAdapter(adapter);
 
         btnSend.setOnClickListener(view -> sendText());
@@ -133,13 +154,16 @@ public class DirectMessageFragment extends Fragment {
 
         // Initialize shared IRC client
         initializeSharedIrcClient();
+        followTransfers();
+
+        // Seed message, the first time the conversation is shown
+        if (adapter.getItemCount() == 0) {
+            adapter.addText(false, peer, "Direct messages with " + peer + " — images & files supported.");
 
-        // Seed message
-        adapter.addText(false, peer, "Direct messages with " + peer + " — images & files supported.");
-        
-        // Add debug info
-        adapter.addText(false, "Debug", "👤 Me: " + me + ", Peer: " + peer);
-        adapter.addText(false, "Debug", "🔗 Connected: " + (sharedIrcClient != null && sharedIrcClient.isConnected()));
+            // Add debug info
+            adapter.addText(false, "Debug", "👤 Me: " + me + ", Peer: " + peer);
+            adapter.addText(false, "Debug", "🔗 Connected: " + (sharedIrcClient != null && sharedIrcClient.isConnected()));
+        }
 
         // Keyboard / Insets handling (no extra IDs required)
         final View footer = (View) input.getParent(); // the bottom bar container
@@ -198,6 +222,16 @@ public class DirectMessageFragment extends Fragment {
         String t = input.getText().toString().trim();
         if (TextUtils.isEmpty(t)) return;
 
+        if (t.equalsIgnoreCase("/get")) {
+            // accept the file the peer offered (resumed if part of it is already here)
+            input.setText("");
+            if (files.accept(serverHost, peer) == null) {
+                adapter.addText(false, "Debug", "📥 " + peer + " has not offered a file");
+                recycler.scrollToPosition(adapter.getItemCount() - 1);
+            }
+            return;
+        }
+
         // Check if IRC client is connected before sending
         if (sharedIrcClient == null) {
             // Don't show system messages in direct message fragment
@@ -212,11 +246,7 @@ public class DirectMessageFragment extends Fragment {
         }
 
         try {
-            // Add message to UI immediately (local echo)
-            adapter.addText(true, me, t);
-            recycler.scrollToPosition(adapter.getItemCount() - 1);
-            
-            // Send private message via IRC server
+            // Send private message via IRC server; it is shown when the server echoes it back
             sharedIrcClient.sendPrivateMessage(peer, t);
             input.setText("");
             
@@ -224,10 +254,6 @@ public class DirectMessageFragment extends Fragment {
             adapter.addText(false, "Debug", "📤 Sent to: " + peer);
             recycler.scrollToPosition(adapter.getItemCount() - 1);
         } catch (Exception e) {
-            // Remove the message from UI if send failed
-            if (adapter.getItemCount() > 0) {
-                adapter.removeLastMessage();
-            }
             // Show error message for debugging
             adapter.addText(false, "Error", "❌ Send failed: " + e.getMessage());
             recycler.scrollToPosition(adapter.getItemCount() - 1);
@@ -238,9 +264,10 @@ public class DirectMessageFragment extends Fragment {
         String name = queryDisplayName(requireContext(), uri);
         long size   = querySize(requireContext(), uri);
 
-        // TODO: hook your file/image send here (upload or send-by-URI)
         adapter.addAttachment(type, true, me, uri, name, size);
         recycler.scrollToPosition(adapter.getItemCount() - 1);
+        // offered to the peer over DCC; progress shows in the header
+        files.send(serverHost, peer, uri, name);
     }
 
     private static String queryDisplayName(Context ctx, Uri uri) {
@@ -261,36 +288,42 @@ public class DirectMessageFragment extends Fragment {
 
     private void initializeSharedIrcClient() {
         try {
-            sharedIrcClient = SharedIrcClient.getInstance();
-            
-            // Create callback for regular messages only (no system messages)
-            messageCallback = new SharedIrcClient.MessageCallback() {
-                @Override
-                public void onMessage(String username, String text, long ts, boolean mine) {
-                    // Show all private messages (not just from peer) for debugging
-                    // TODO: Filter to only show messages from peer user once working
-                    if (!mine) { // Only show messages from other users
-                        adapter.addText(false, username, text);
-                        recycler.scrollToPosition(adapter.getItemCount() - 1);
-                    }
+            // Only this peer's conversation arrives here: their messages and our echoes to them.
+            // They are already in the list (the conversation feeds its window); follow them
+            // only if the user was at the bottom, not reading back
+            observer = (c, batch) -> {
+                if (adapter.isAtBottom() && adapter.isFollowing()) {
+                    recycler.scrollToPosition(adapter.getItemCount() - 1);
                 }
             };
-            
-            // Register this fragment as a callback
-            sharedIrcClient.registerCallback(messageCallback);
-
-            // Get server host from arguments if available
-            String serverHost = getArguments() != null ? getArguments().getString(ARG_SERVER_HOST) : "irc.libera.chat";
-            
-            // Connect to IRC server using shared client
-            sharedIrcClient.connect(serverHost, me, "#usth-ircui", requireContext());
-            
+            conversation.observe(observer);
         } catch (Exception e) {
             // Don't show system messages in direct message fragment
             // Error will be handled by ChatFragment's system callback
         }
     }
 
+    /**
+     * Transfers with this peer: progress in the header, offers and outcomes in the
+     * conversation (shown, not logged).
+     */
+    private void followTransfers() {
+        files = FileTransfers.get(requireContext());
+        transferListener = t -> {
+            if (!t.isWith(serverHost, peer) || getContext() == null) return;
+            String text = t.describe(getContext());
+            header.setText(text);
+            if (t.state() == DccTransfer.State.RUNNING) return;
+            if (t.isOver() || !t.outgoing) {
+                adapter.addText(false, t.outgoing ? me : peer, text);
+                if (adapter.isAtBottom()) recycler.scrollToPosition(adapter.getItemCount() - 1);
+            }
+        };
+        files.addListener(transferListener);
+        FileTransfers.Transfer offer = files.pendingOffer(serverHost, peer);
+        if (offer != null) adapter.addText(false, peer, offer.describe(requireContext()));
+    }
+
     // helper
     private int dp(int v) {
         float d = requireContext().getResources().getDisplayMetrics().density;
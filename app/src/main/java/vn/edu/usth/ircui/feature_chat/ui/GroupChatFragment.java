@@ -99,8 +99,11 @@ public class GroupChatFragment extends Fragment {
         // IRC
         irc = new IrcClientManager();
         irc.setCallback(new IrcClientManager.MessageCallback() {
-            @Override public void onMessage(String u, String t, long ts, boolean mine) {
-                messages.add(new Message(u, t, mine));
+            @Override public void onMessage(String u, String target, String t, long ts, boolean mine,
+                                            String msgid) {
+                // this screen shows one channel; private messages belong elsewhere
+                if (!irc.getCaseMapping().same(target, channelName)) return;
+                messages.add(new Message(u, t, ts, mine));
                 adapter.notifyItemInserted(messages.size() - 1);
                 rv.scrollToPosition(messages.size() - 1);
             }
@@ -134,7 +137,7 @@ public class GroupChatFragment extends Fragment {
         btnSend.setOnClickListener(vw -> {
             String msg = etInput.getText() == null ? "" : etInput.getText().toString().trim();
             if (TextUtils.isEmpty(msg)) return;
-            irc.sendMessage(msg);
+            irc.sendMessage(channelName, msg);
             etInput.setText("");
         });
 
@@ -157,10 +160,9 @@ public class GroupChatFragment extends Fragment {
     }
 
     private void handlePickedUri(@NonNull Uri uri, boolean image) {
-        // Demo: send temporary link. When upload file, replace this stream.
-        String tag = image ? "[image]" : "[file]";
-        irc.sendMessage(tag + " " + uri.toString());
-        toast(image ? "Picked image" : "Picked file");
+        // A content:// URI means nothing on anyone else's device, and a channel has no
+        // file transfer: files go to one user at a time, over DCC, from a private chat
+        toast((image ? "Images" : "Files") + " are sent from a private chat with the person");
     }
 
     private void toast(String s) {
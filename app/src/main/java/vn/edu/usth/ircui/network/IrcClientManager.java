@@ -4,50 +4,116 @@ import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Looper;
+import android.view.Choreographer;
 import androidx.annotation.Nullable;
 
-import net.engio.mbassy.listener.Handler;
-
-import org.kitteh.irc.client.library.Client;
-import org.kitteh.irc.client.library.event.channel.ChannelMessageEvent;
-import org.kitteh.irc.client.library.event.channel.ChannelJoinEvent;
-import org.kitteh.irc.client.library.event.channel.ChannelPartEvent;
-import org.kitteh.irc.client.library.event.client.ClientNegotiationCompleteEvent;
-import org.kitteh.irc.client.library.event.connection.ClientConnectionEndedEvent;
-import org.kitteh.irc.client.library.event.user.UserQuitEvent;
-import org.kitteh.irc.client.library.event.user.PrivateMessageEvent;
-
+import java.io.IOException;
+import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import vn.edu.usth.ircui.core.dcc.DccMessage;
+import vn.edu.usth.ircui.core.event.ChatEvent;
+import vn.edu.usth.ircui.core.event.DedupWindow;
+import vn.edu.usth.ircui.core.event.MpscBuffer;
+import vn.edu.usth.ircui.core.history.GapTracker;
+import vn.edu.usth.ircui.core.net.ConnectionRacer;
+import vn.edu.usth.ircui.core.net.IrcConnection;
+import vn.edu.usth.ircui.core.net.IrcExecutors;
+import vn.edu.usth.ircui.core.net.OutboundQueue;
+import vn.edu.usth.ircui.core.net.PingScheduler;
+import vn.edu.usth.ircui.core.net.ReconnectController;
+import vn.edu.usth.ircui.core.net.ServerEndpoint;
+import vn.edu.usth.ircui.core.net.TokenBucket;
+import vn.edu.usth.ircui.core.protocol.CapNegotiator;
+import vn.edu.usth.ircui.core.protocol.CaseMapping;
+import vn.edu.usth.ircui.core.protocol.ISupport;
+import vn.edu.usth.ircui.core.protocol.IrcBatch;
+import vn.edu.usth.ircui.core.protocol.IrcCommands;
+import vn.edu.usth.ircui.core.protocol.IrcLine;
+import vn.edu.usth.ircui.core.protocol.IrcName;
+import vn.edu.usth.ircui.core.protocol.NamePool;
+import vn.edu.usth.ircui.core.protocol.ServerTime;
+import vn.edu.usth.ircui.core.protocol.Utf8Chunker;
+import vn.edu.usth.ircui.core.render.RowModels;
+
 /**
  * IRC manager:
  * - TLS on 6697 (true)
- * - Multi-server fallback
+ * - Races the top servers in parallel ("happy eyeballs"), first to register wins
  * - Exponential backoff reconnect
- * - No duplicate self-messages
+ * - IRCv3: server-time, message-tags, batch, echo-message, labeled-response when offered
+ * - Own messages come back from the server (echo-message); local echo only as a fallback
+ * - No duplicate messages; inbound replays are dropped by a msgid-aware dedup window
+ * - After a reconnect, what was said while we were away is fetched with CHATHISTORY
  * - Sanitizes/splits outbound text to avoid CR/LF/NUL & 512-byte limit
+ * - Inbound lines are parsed by the irc-core zero-copy parser
+ * - Outbound lines go through a per-connection queue paced by a flood-control token bucket
+ * - Inbound events are buffered lock-free and handed to the UI once per frame, as a List;
+ *   a server batch (history playback, netsplit) always lands in a single frame
  */
 public class IrcClientManager {
 
     public interface MessageCallback {
-        void onMessage(String username, String text, long ts, boolean mine);
+        /** @param target the conversation: the channel, or the other side of a private message
+         *  @param ts server-time when the server stamped the line, else local receive time
+         *  @param msgid IRCv3 msgid, or null */
+        void onMessage(String username, String target, String text, long ts, boolean mine,
+                       @Nullable String msgid);
         void onSystem(String text);
+
+        /** Everything that arrived since the last frame, oldest first. Main thread. */
+        default void onEvents(List<ChatEvent> events) {
+            for (ChatEvent e : events) {
+                if (e.isSystem()) onSystem(e.text);
+                else onMessage(e.nick, e.target, e.text, e.timestamp, e.mine, e.msgid);
+            }
+        }
+    }
+
+    /** Outbound backlog for the UI: lines still queued and the estimated time to send them. */
+    public interface BacklogCallback {
+        void onBacklog(int depth, long etaMs);
+    }
+
+    /** A DCC SEND / RESUME / ACCEPT from another user. Called on the connection's reader thread. */
+    public interface DccCallback {
+        void onDcc(String from, DccMessage message);
+    }
+
+    /** Where this session's connection stands. DISCONNECTED also covers waiting to retry. */
+    public enum ConnectionState { CONNECTING, CONNECTED, DISCONNECTED }
+
+    /** Connection state changes. Main thread. */
+    public interface ConnectionCallback {
+        void onConnectionState(ConnectionState state);
     }
     
-    // Static flag to prevent multiple instances
-    private static volatile boolean hasActiveInstance = false;
+    // Set while this session is connecting or connected (one manager per network)
+    private volatile boolean hasActiveInstance = false;
+
+    // Threads shared by every session in the process: bounded socket readers,
+    // writers for outbound bursts, and a couple of event threads for timers
+    private final IrcExecutors executors;
 
     private final android.os.Handler main = new android.os.Handler(Looper.getMainLooper());
-    private volatile Client client;
-    private volatile Object currentEventListener;
+
+    // network thread -> UI: appended from any thread, drained on the next frame
+    private final MpscBuffer<ChatEvent> inbound = new MpscBuffer<>();
+    private final Choreographer.FrameCallback drainFrame = frameTimeNanos -> drainInbound();
+    private final Runnable scheduleDrain = () -> Choreographer.getInstance().postFrameCallback(drainFrame);
+    private volatile IrcConnection connection;
+    private volatile ConnectionRacer racer;
 
     // user/channel
     private String currentNick = "Guest";
     private String currentChannel = "#usth-ircui";
     private String actualNick = "Guest"; // Track the actual nickname being used
+    // nicks/channels interned per CASEMAPPING: "is this me" is a reference check, nick strings are shared
+    private final NamePool names = new NamePool();
+    private volatile IrcName self = names.intern(actualNick);
 
     // servers
     public static class Server {
@@ -64,34 +130,113 @@ public class IrcClientManager {
     );
     private int serverIndex = 0;
 
-    // reconnection
-    private long backoffMs = 1500;
-    private static final long BACKOFF_MAX_MS = 60_000;
+    // connection racing: how many servers race, and how far apart they start
+    private int raceWidth = 3;
+    private static final long RACE_STAGGER_MS = 500;
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+    private static final int REGISTRATION_TIMEOUT_MS = 30_000;
+
+    // reconnection: every retry, backoff and network flap goes through the controller
+    private final ReconnectController reconnect;
+    private volatile ReconnectController.State lastReconnectState;
     private final AtomicBoolean connecting = new AtomicBoolean(false);
     private final AtomicBoolean wantConnected = new AtomicBoolean(false);
     private int connectionAttempts = 0;
-    private static final int MAX_ATTEMPTS_PER_SERVER = 3;
-    private long lastConnectionTime = 0;
-    private static final long MIN_CONNECTION_INTERVAL = 2000; // 2 seconds minimum between connections
-    
-    // Track last messages to prevent duplicates
-    private String lastJoinMessage = "";
-    private String lastQuitMessage = "";
-    private long lastJoinTime = 0;
-    private long lastQuitTime = 0;
-    
-    // Track last user messages to prevent duplicates
-    private String lastUserMessage = "";
-    private String lastUserNick = "";
-    private long lastUserMessageTime = 0;
+
+    private static final int RPL_HOSTHIDDEN = 396; // ":server 396 nick new.host :is now your displayed host"
+
+    // Inbound de-duplication, shared by PRIVMSG/JOIN/QUIT. Survives reconnects on purpose:
+    // replayed history after a reconnect is exactly what it should catch.
+    private static final String TAG_MSGID = "msgid";
+    private static final String BATCH_NETSPLIT = "netsplit";
+    private final DedupWindow dedup = new DedupWindow(4096, 10 * 60_000, 1000);
+
+    // DCC file transfers: set up in CTCP, handed to the app; an offer replayed from
+    // history is long closed and not acted on
+    private static final String CTCP_DCC = DccMessage.CTCP + "DCC ";
+    private static final long DCC_MAX_AGE_MS = 2 * 60_000;
+
+    // Gap fill: last seen message per conversation, replayed after re-registration.
+    // With labeled-response the requests are labeled, and an ACK or FAIL ends a fill.
+    private static final String ISUPPORT_CHATHISTORY = "CHATHISTORY";
+    private static final String TAG_LABEL = "label";
+    private static final String CMD_ACK = "ACK";
+    private static final String CMD_FAIL = "FAIL";
+    private final GapTracker gaps = new GapTracker();
+
+    // server features (written from the connection's reader thread)
+    private final ISupport isupport = new ISupport();
+
+    // outbound chunking: our prefix as other clients see it (null until the server tells us)
+    private final Utf8Chunker chunker = new Utf8Chunker();
+    private volatile String selfUser;
+    private volatile String selfHost;
+
+    // outbound: one queue per connection, drained on the shared event threads
+    private volatile OutboundQueue outbound;
+
+    // lag meter / dead-link detector for the live connection
+    private volatile PingScheduler pinger;
+    private volatile boolean background;
 
     private MessageCallback callback;
+    private BacklogCallback backlogCallback;
+    private volatile DccCallback dccCallback;
+    private volatile ConnectionCallback connectionCallback;
+    private volatile RowModels rows; // lays out messages before they are posted, if set
     private Context context;
+
+    public IrcClientManager() {
+        this(IrcExecutors.shared());
+    }
+
+    public IrcClientManager(IrcExecutors executors) {
+        this.executors = executors;
+        this.reconnect = new ReconnectController(new ReconnectController.Actions() {
+            @Override
+            public void connect() {
+                main.post(IrcClientManager.this::startConnectAttempt);
+            }
+
+            @Override
+            public void probe() {
+                PingScheduler p = pinger;
+                if (p != null) p.probeNow();
+            }
+
+            @Override
+            public void teardown() {
+                main.post(IrcClientManager.this::dropConnection);
+            }
+
+            @Override
+            public void onState(ReconnectController.State state, long retryInMs) {
+                describeState(state, retryInMs);
+            }
+        }, executors.events);
+    }
     
     public void setCallback(MessageCallback cb) {
         this.callback = cb;
     }
 
+    /** Lay out each message's chat row on the thread that received it, not on the main thread. */
+    public void setRowModels(RowModels rows) {
+        this.rows = rows;
+    }
+
+    public void setBacklogCallback(BacklogCallback cb) {
+        this.backlogCallback = cb;
+    }
+
+    public void setDccCallback(DccCallback cb) {
+        this.dccCallback = cb;
+    }
+
+    public void setConnectionCallback(ConnectionCallback cb) {
+        this.connectionCallback = cb;
+    }
+
     public void setContext(Context ctx) {
         this.context = ctx;
     }
@@ -103,22 +248,29 @@ public class IrcClientManager {
         }
     }
 
+    /** How many servers to race per connect attempt; 1 tries them one at a time. */
+    public void setRaceWidth(int width) {
+        raceWidth = Math.max(1, width);
+    }
+
     public void connect(String nickname, String channel) {
         connectWithSasl(nickname, channel, null, null, false);
     }
 
     public void joinChannel(String channel) {
-        if (client != null) {
+        OutboundQueue q = outbound;
+        if (connection != null && q != null) {
             currentChannel = channel;
-            client.addChannel(channel);
+            q.enqueueRaw("JOIN " + channel);
         } else {
             postSystem("❌ Cannot join channel: Not connected to server");
         }
     }
 
     public void partChannel(String channel) {
-        if (client != null) {
-            client.removeChannel(channel);
+        OutboundQueue q = outbound;
+        if (connection != null && q != null) {
+            q.enqueueRaw("PART " + channel);
             postSystem("👋 Left channel: " + channel);
         } else {
             postSystem("❌ Cannot leave channel: Not connected to server");
@@ -134,7 +286,7 @@ public class IrcClientManager {
             return;
         }
         
-        // Check if there's already an active instance
+        // Check if this session is already on its way
         if (hasActiveInstance && !isConnected()) {
             postSystem("ℹ️ Another connection is being established, please wait...");
             return;
@@ -145,55 +297,53 @@ public class IrcClientManager {
 
         wantConnected.set(true);
         serverIndex = Math.min(serverIndex, servers.size()-1);
-        backoffMs = 1500;
         connectionAttempts = 0;
         hasActiveInstance = true; // Mark as active
-        startConnectAttempt(); // async
+        reconnect.start(); // async
     }
 
     public void disconnect() {
         wantConnected.set(false);
         hasActiveInstance = false; // Clear active flag
+        reconnect.stop();
         
         // Show quit message before disconnecting
         if (actualNick != null && !actualNick.isEmpty()) {
             postSystem("👋 " + actualNick + " quit");
         }
         
-        Client c = client;
-        client = null;
-        
-        // Clean up event listener to prevent duplicate messages
-        Object listener = currentEventListener;
-        currentEventListener = null;
-        
-        if (c != null) {
-            try { 
-                // Unregister the event listener before shutdown
-                if (listener != null) {
-                    c.getEventManager().unregisterEventListener(listener);
-                }
-                c.shutdown("Bye"); 
-            } catch (Exception ignored) {}
+        ConnectionRacer r = racer;
+        racer = null;
+        if (r != null) {
+            r.cancel();
+            connecting.set(false);
         }
+        gaps.onDisconnected();
+        postState(ConnectionState.DISCONNECTED);
+
+        IrcConnection c = connection;
+        connection = null;
+
+        PingScheduler p = pinger;
+        pinger = null;
+        if (p != null) p.stop();
+
+        OutboundQueue q = outbound;
+        outbound = null;
+        if (q != null) {
+            q.stop();
+            q.drainPending();
+            postBacklog(0, 0);
+        }
+        
+        if (c != null) c.quit("Bye");
     }
     
     public void resetConnection() {
         disconnect();
-        backoffMs = 1500;
         serverIndex = 0;
         connectionAttempts = 0;
         connecting.set(false);
-        lastConnectionTime = 0; // Reset connection timing
-        
-        // Reset duplicate message tracking
-        lastJoinMessage = "";
-        lastQuitMessage = "";
-        lastJoinTime = 0;
-        lastQuitTime = 0;
-        lastUserMessage = "";
-        lastUserNick = "";
-        lastUserMessageTime = 0;
     }
     
     /**
@@ -203,18 +353,20 @@ public class IrcClientManager {
         postSystem("🔄 Manual reconnection triggered");
         resetConnection();
         wantConnected.set(true);
-        startConnectAttempt();
+        hasActiveInstance = true;
+        reconnect.start();
     }
 
     /**
-     * Send a chat message:
+     * Send a chat message to a channel:
      * - Strip CR/LF/NUL (IRC messages must be single-line)
      * - Split multi-line input into separate PRIVMSGs
-     * - Chunk lines to stay well under the 512-byte wire limit (reserve header slack)
-     * - Messages will be echoed back via IRCv3 echo-message capability
+     * - Chunk lines by UTF-8 bytes against the real prefix + target (and LINELEN)
+     * - Queue the chunks; the writer sends them at the server's flood rate
+     * - Messages are echoed back via IRCv3 echo-message (or locally if the server lacks it)
      */
-    public void sendMessage(String text) {
-        if (client == null) {
+    public void sendMessage(String channel, String text) {
+        if (connection == null) {
             postSystem("❌ Cannot send message: Not connected to IRC server");
             return;
         }
@@ -230,34 +382,27 @@ public class IrcClientManager {
             return;
         }
 
+        if (channel == null || channel.trim().isEmpty()) {
+            postSystem("❌ Cannot send message: No channel");
+            return;
+        }
+
         // Split on CR/LF, filter empties
         String[] lines = trimmed.split("\\r?\\n");
         for (String rawLine : lines) {
             String line = sanitizeForIrc(rawLine);
             if (line.isEmpty()) continue;
 
-            // Chunk to keep each PRIVMSG comfortably < 512 bytes on the wire.
-            for (String chunk : chunkForIrc(line)) {
-                try {
-                    client.sendMessage(currentChannel, chunk);
-                } catch (Exception e) {
-                    postSystem("❌ Send failed: " + e.getMessage());
-                    // If send fails, we might be disconnected
-                    if (e.getMessage() != null && 
-                        (e.getMessage().contains("disconnected") || 
-                         e.getMessage().contains("connection"))) {
-                        postSystem("💡 Try reconnecting with /reconnect");
-                    }
-                }
-            }
+            // Chunk so each PRIVMSG fits the server's line length in bytes
+            if (!enqueueChunks(channel.trim(), line)) return;
         }
     }
     public boolean isActive() {
-        return client != null;
+        return connection != null;
     }
     
     public boolean isConnected() { 
-        return client != null && wantConnected.get() && !connecting.get(); 
+        return connection != null && wantConnected.get() && !connecting.get(); 
     }
     
     public boolean isConnecting() {
@@ -268,10 +413,11 @@ public class IrcClientManager {
      * Send a private message to a specific user:
      * - Strip CR/LF/NUL (IRC messages must be single-line)
      * - Split multi-line input into separate PRIVMSGs
-     * - Chunk lines to stay well under the 512-byte wire limit (reserve header slack)
+     * - Chunk lines by UTF-8 bytes against the real prefix + target (and LINELEN)
+     * - Queue the chunks; the writer sends them at the server's flood rate
      */
     public void sendPrivateMessage(String targetUser, String text) {
-        if (client == null) {
+        if (connection == null) {
             postSystem("❌ Cannot send private message: Not connected to IRC server");
             return;
         }
@@ -298,21 +444,72 @@ public class IrcClientManager {
             String line = sanitizeForIrc(rawLine);
             if (line.isEmpty()) continue;
 
-            // Chunk to keep each PRIVMSG comfortably < 512 bytes on the wire.
-            for (String chunk : chunkForIrc(line)) {
-                try {
-                    client.sendMessage(targetUser.trim(), chunk);
-                } catch (Exception e) {
-                    postSystem("❌ Private message send failed: " + e.getMessage());
-                    // If send fails, we might be disconnected
-                    if (e.getMessage() != null && 
-                        (e.getMessage().contains("disconnected") || 
-                         e.getMessage().contains("connection"))) {
-                        postSystem("💡 Try reconnecting with /reconnect");
-                    }
-                }
+            // Chunk so each PRIVMSG fits the server's line length in bytes
+            if (!enqueueChunks(targetUser.trim(), line)) return;
+        }
+    }
+
+    /**
+     * Send one CTCP request (a DCC offer or reply) to a user: as is, in one PRIVMSG,
+     * through the flood limiter, and not shown in the conversation.
+     */
+    public boolean sendCtcp(String target, String ctcp) {
+        OutboundQueue q = outbound;
+        if (q == null) {
+            postSystem("❌ Cannot send file: Not connected to IRC server");
+            return false;
+        }
+        return q.enqueue(target, ctcp);
+    }
+
+    /** The address this device talks to the server from, or null if not connected. */
+    @Nullable
+    public InetAddress getLocalAddress() {
+        IrcConnection c = connection;
+        return c != null ? c.localAddress() : null;
+    }
+
+    /** Number of outbound lines waiting for the flood limiter. */
+    public int getOutboundDepth() {
+        OutboundQueue q = outbound;
+        return q != null ? q.depth() : 0;
+    }
+
+    /**
+     * Queue every chunk of one line, each sized so the PRIVMSG fits the server's line
+     * length in bytes as relayed to other clients (our full nick!user@host prefix and
+     * the target are subtracted). False (and a system message) if the queue is full or
+     * the line has no room for text.
+     */
+    private boolean enqueueChunks(String target, String line) {
+        PingScheduler p = pinger;
+        if (p != null) p.onUserActivity();
+        OutboundQueue q = outbound;
+        if (q == null) {
+            postSystem("❌ Cannot send message: Not connected to IRC server");
+            return false;
+        }
+        int budget = Utf8Chunker.budgetFor(actualNick, selfUser, selfHost,
+                IrcCommands.PRIVMSG, target, isupport.lineLen());
+        if (budget < Utf8Chunker.MIN_BUDGET) {
+            // a long target or host mask can leave no room for text on the server's line
+            postSystem("❌ Cannot send message: " + target + " is too long for the server's line length");
+            return false;
+        }
+        IrcConnection c = connection;
+        boolean serverEchoes = c != null && c.hasCapability(CapNegotiator.ECHO_MESSAGE);
+        for (String chunk : chunker.chunk(line, budget)) {
+            if (!q.enqueue(target, chunk)) {
+                postSystem("❌ Too many messages waiting to be sent (" + q.depth()
+                        + "), the rest was dropped");
+                return false;
+            }
+            // Without echo-message the server never sends our line back: echo it locally
+            if (!serverEchoes) {
+                publish(ChatEvent.message(actualNick, target, chunk, System.currentTimeMillis(), true, null));
             }
         }
+        return true;
     }
 
 
@@ -324,221 +521,500 @@ public class IrcClientManager {
             return;
         }
 
-        // Check minimum interval between connections to avoid rapid reconnections
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastConnectionTime < MIN_CONNECTION_INTERVAL) {
-            connecting.set(false);
-            long delay = MIN_CONNECTION_INTERVAL - (currentTime - lastConnectionTime);
-            main.postDelayed(this::startConnectAttempt, delay);
-            return;
-        }
-        lastConnectionTime = currentTime;
-
         // Check internet connection first
         if (!isInternetAvailable()) {
             postSystem("❌ No internet connection available");
             connecting.set(false);
-            handleReconnect();
+            postState(ConnectionState.DISCONNECTED);
+            reconnect.onConnectFailed();
             return;
         }
 
-        final Server s = servers.get(serverIndex);
+        postState(ConnectionState.CONNECTING);
         connectionAttempts++;
-        
-        new Thread(() -> {
-            try {
-                postSystem("🔄 Connecting to " + s.host + " (port " + s.port + ")... (attempt " + connectionAttempts + "/" + MAX_ATTEMPTS_PER_SERVER + ")");
-                // Generate unique nickname to avoid conflicts
-                String uniqueNick = generateUniqueNick(currentNick);
-                actualNick = uniqueNick; // Store the actual nickname being used
-                
-                Client c = Client.builder()
-                        .nick(uniqueNick)
-                        .realName("USTH IRC UI")
-                        .server()
-                        .host(s.host)
-                        .port(s.port) // ensure TLS on 6697 for Libera
-                        .secure(s.tls)
-                        .then()
-                        .build();
-                
-                // Note: Using local echo for our own messages since echo-message capability
-                // might not be available in all IRC servers
-
-                // Register listeners BEFORE connect so early events are caught
-                Object eventListener = new Object() {
-
-                    @Handler
-                    public void onReady(ClientNegotiationCompleteEvent e) {
-                        // reset backoff on success
-                        backoffMs = 1500;
-                        connecting.set(false); // Clear connecting flag
-                        postSystem("✅ Connected to " + s.host + " (port " + s.port + ")");
-                        postSystem("📺 Joined channel: " + currentChannel);
-                        postSystem("👋 " + actualNick + " joined " + currentChannel);
-                        c.addChannel(currentChannel);
-                    }
-
-                    @Handler
-                    public void onMsg(ChannelMessageEvent e) {
-                        String from = e.getActor().getNick();
-                        String msg  = e.getMessage();
-                        boolean mine = from.equalsIgnoreCase(actualNick);
-                        // Only show messages from other users (our own messages are shown via local echo)
-                        if (!mine) {
-                            long currentTime = System.currentTimeMillis();
-                            
-                            // Prevent duplicate messages from same user within 500ms
-                            if (!from.equals(lastUserNick) || !msg.equals(lastUserMessage) || (currentTime - lastUserMessageTime) > 500) {
-                                lastUserNick = from;
-                                lastUserMessage = msg;
-                                lastUserMessageTime = currentTime;
-                                postMessage(from, msg, currentTime, false);
-                            }
-                        }
-                    }
-
-                    @Handler
-                    public void onPrivateMsg(PrivateMessageEvent e) {
-                        String from = e.getActor().getNick();
-                        String msg  = e.getMessage();
-                        boolean mine = from.equalsIgnoreCase(actualNick);
-                        // Only show private messages from other users (our own messages are shown via local echo)
-                        if (!mine) {
-                            postMessage(from, msg, System.currentTimeMillis(), false);
-                        }
-                    }
-
-                    @Handler
-                    public void onJoin(ChannelJoinEvent e) {
-                        String user = e.getActor().getNick();
-                        String channel = e.getChannel().getName();
-                        boolean mine = user.equalsIgnoreCase(actualNick);
-                        // Only show join notifications for other users, not ourselves
-                        if (!mine) {
-                            String message = "👋 " + user + " joined " + channel;
-                            long currentTime = System.currentTimeMillis();
-                            
-                            // Prevent duplicate messages within 1 second
-                            if (!message.equals(lastJoinMessage) || (currentTime - lastJoinTime) > 1000) {
-                                lastJoinMessage = message;
-                                lastJoinTime = currentTime;
-                                postSystem(message);
-                            }
-                        }
-                    }
-
-                    @Handler
-                    public void onPart(ChannelPartEvent e) {
-                        String user = e.getActor().getNick();
-                        String channel = e.getChannel().getName();
-                        boolean mine = user.equalsIgnoreCase(actualNick);
-                        // Only show part notifications for other users, not ourselves
-                        if (!mine) {
-                            postSystem("👋 " + user + " left " + channel);
-                        }
-                    }
-
-                    @Handler
-                    public void onQuit(UserQuitEvent e) {
-                        String user = e.getActor().getNick();
-                        boolean mine = user.equalsIgnoreCase(actualNick);
-                        // Only show quit notifications for other users, not ourselves
-                        if (!mine) {
-                            String message = "👋 " + user + " quit";
-                            long currentTime = System.currentTimeMillis();
-                            
-                            // Prevent duplicate messages within 1 second
-                            if (!message.equals(lastQuitMessage) || (currentTime - lastQuitTime) > 1000) {
-                                lastQuitMessage = message;
-                                lastQuitTime = currentTime;
-                                postSystem(message);
-                            }
-                        }
-                    }
-
-                    @Handler
-                    public void onDisconnect(ClientConnectionEndedEvent e) {
-                        String why = e.getCause().map(Throwable::getMessage).orElse("connection ended");
-                        postSystem("❌ Disconnected from " + s.host + " - " + why);
-                        
-                        // Show quit message when disconnected
-                        if (actualNick != null && !actualNick.isEmpty()) {
-                            postSystem("👋 " + actualNick + " quit");
-                        }
-                        
-                        // Only reconnect if it's not a user-initiated disconnect
-                        if (wantConnected.get()) {
-                            // Add delay before reconnecting to avoid rapid connect/disconnect loops
-                            main.postDelayed(() -> {
-                                if (wantConnected.get()) {
-                                    handleReconnect();
-                                }
-                            }, 3000); // 3 second delay
-                        }
-                    }
-                };
-                
-                // Store reference to event listener for cleanup
-                currentEventListener = eventListener;
-                c.getEventManager().registerEventListener(eventListener);
-
-                client = c;
-                c.connect(); // non-blocking connect/handshake
-            } catch (Exception ex) {
-                String errorMsg = ex.getMessage();
-                if (errorMsg == null || errorMsg.isEmpty()) {
-                    errorMsg = ex.getClass().getSimpleName();
+        // Generate unique nickname to avoid conflicts
+        String uniqueNick = generateUniqueNick(currentNick);
+        setNick(uniqueNick); // Store the actual nickname being used
+        // Prefix and server features are per connection
+        selfUser = null;
+        selfHost = null;
+        isupport.clear();
+        names.setCaseMapping(CaseMapping.RFC1459);
+
+        List<ServerEndpoint> candidates = raceCandidates();
+        StringBuilder serverList = new StringBuilder();
+        for (int i = 0; i < Math.min(raceWidth, candidates.size()); i++) {
+            if (i > 0) serverList.append(", ");
+            serverList.append(candidates.get(i).host);
+        }
+        postSystem("🔄 Connecting to " + serverList + "... (attempt " + connectionAttempts + ")");
+
+        ConnectionRacer r = new ConnectionRacer(candidates, raceWidth, RACE_STAGGER_MS,
+                new IrcConnection.Registration(uniqueNick, uniqueNick, "USTH IRC UI", null,
+                        IrcConnection.DEFAULT_CAPS),
+                executors.io, executors.events, null, CONNECT_TIMEOUT_MS, REGISTRATION_TIMEOUT_MS);
+        racer = r;
+        r.start(new ConnectionRacer.Listener() {
+            @Override
+            public void onWinner(IrcConnection c, List<ConnectionRacer.Attempt> attempts) {
+                if (racer != r || !wantConnected.get()) {
+                    c.quit("Bye"); // disconnected while racing
+                    return;
                 }
-                
-                // Provide more specific error messages
-                if (errorMsg.contains("timeout") || errorMsg.contains("timed out")) {
-                    postSystem("❌ Connection timeout to " + s.host + " - Server may be slow or unreachable");
-                } else if (errorMsg.contains("refused") || errorMsg.contains("connection refused")) {
-                    postSystem("❌ Connection refused by " + s.host + " - Server may be down or blocking connections");
-                } else if (errorMsg.contains("SSL") || errorMsg.contains("TLS")) {
-                    postSystem("❌ SSL/TLS error connecting to " + s.host + " - Certificate or encryption issue");
-                } else if (errorMsg.contains("nickname") || errorMsg.contains("nick")) {
-                    postSystem("❌ Nickname conflict on " + s.host + " - Trying with different nickname");
-                } else {
-                    postSystem("❌ Connection failed to " + s.host + " - " + errorMsg);
+                racer = null;
+                onConnected(c, attempts);
+            }
+
+            @Override
+            public void onAllFailed(List<ConnectionRacer.Attempt> attempts) {
+                if (racer != r) return;
+                racer = null;
+                for (ConnectionRacer.Attempt a : attempts) {
+                    postSystem(describeFailure(a.endpoint, a.error()));
                 }
-                
-                handleReconnect();
-            } finally {
                 connecting.set(false);
+                postState(ConnectionState.DISCONNECTED);
+                // next race starts with the servers that were not in this one
+                serverIndex = (serverIndex + attempts.size()) % servers.size();
+                reconnect.onConnectFailed();
             }
-        }, "irc-connect").start();
+        });
     }
 
-    private void handleReconnect() {
-        if (!wantConnected.get()) return;
+    /** Servers from serverIndex on (wrapping), without duplicate host:port entries. */
+    private List<ServerEndpoint> raceCandidates() {
+        List<ServerEndpoint> out = new ArrayList<>();
+        for (int i = 0; i < servers.size(); i++) {
+            Server s = servers.get((serverIndex + i) % servers.size());
+            ServerEndpoint e = new ServerEndpoint(s.host, s.port, s.tls);
+            if (!out.contains(e)) out.add(e);
+        }
+        return out;
+    }
+
+    /** A race was won: take over the connection. Runs on its reader thread. */
+    private void onConnected(IrcConnection c, List<ConnectionRacer.Attempt> attempts) {
+        final ServerEndpoint s = c.endpoint();
+        setNick(c.nick()); // the server may have made us append "_"
+        final PingScheduler p = new PingScheduler(c, executors.events, executors.writers);
+        p.setListener((rttMs, smoothedMs) -> reconnect.onLinkAlive()); // answers a network-change probe
+        c.setListener(new IrcConnection.Listener() {
+            @Override
+            public void onRegistered(IrcConnection conn) {
+            }
+
+            @Override
+            public void onLine(IrcConnection conn, IrcLine line) {
+                if (p.onLine(line)) return; // our lag PONG
+                // Lines arrive already parsed by the irc-core zero-copy parser
+                ChatEvent e = dispatch(line);
+                if (e != null) publish(e);
+            }
+
+            @Override
+            public void onBatch(IrcConnection conn, IrcBatch batch) {
+                p.onTraffic();
+                publishAll(dispatchBatch(batch));
+            }
+
+            @Override
+            public void onClosed(IrcConnection conn, Exception cause) {
+                p.stop();
+                if (connection != conn) return; // replaced, or closed by disconnect()
+                connection = null;
+                if (pinger == p) pinger = null;
+                gaps.onDisconnected(); // anything after the last seen line is the gap
 
-        // If we've tried too many times on current server, try next server
-        if (connectionAttempts >= MAX_ATTEMPTS_PER_SERVER) {
-            serverIndex = (serverIndex + 1) % servers.size();
-            connectionAttempts = 0;
-            backoffMs = 1500; // Reset backoff for new server
-            postSystem("🔄 Switching to next server after " + MAX_ATTEMPTS_PER_SERVER + " failed attempts");
+                // Keep unsent lines; the next connection's queue picks them up
+                OutboundQueue q = outbound;
+                if (q != null) q.stop();
+
+                String why = cause != null && cause.getMessage() != null ? cause.getMessage() : "connection ended";
+                postSystem("❌ Disconnected from " + s.host + " - " + why);
+                postState(ConnectionState.DISCONNECTED);
+
+                // Show quit message when disconnected
+                if (actualNick != null && !actualNick.isEmpty()) {
+                    postSystem("👋 " + actualNick + " quit");
+                }
+
+                // Only reconnect if it's not a user-initiated disconnect. A half-open link
+                // (no PONG) retries at once: the network itself is most likely fine.
+                if (wantConnected.get()) {
+                    reconnect.onConnectionLost(cause instanceof PingScheduler.DeadLinkException);
+                }
+            }
+        });
+
+        // Lines queued while we were away go out first
+        OutboundQueue q = new OutboundQueue(c.sink(), TokenBucket.rfc1459());
+        q.setListener(new OutboundQueue.Listener() {
+            @Override
+            public void onBacklog(int depth, long etaMs) {
+                postBacklog(depth, etaMs);
+            }
+
+            @Override
+            public void onSendFailed(IOException e) {
+                postSystem("❌ Send failed: " + e.getMessage());
+                postSystem("💡 Try reconnecting with /reconnect");
+            }
+        });
+        OutboundQueue old = outbound;
+        if (old != null) {
+            old.stop();
+            for (OutboundQueue.Item item : old.drainPending()) {
+                if (item.command == null) q.enqueueRaw(item.text);
+                else q.enqueue(item.command, item.target, item.text);
+            }
         }
+        outbound = q;
+        connection = c;
 
-        // Use shorter delay for continuous reconnection through all servers
-        long delay = Math.min(backoffMs, 5000); // Max 5 seconds between attempts
-        backoffMs = Math.min(10000, (long)(backoffMs * 1.2)); // Slower backoff, max 10s
-        
-        final Server nextServer = servers.get(serverIndex);
-        postSystem("🔄 Reconnecting to " + nextServer.host + " in " + (delay/1000) + "s... (server " + (serverIndex + 1) + "/" + servers.size() + ")");
-        main.postDelayed(this::startConnectAttempt, delay);
+        // reset backoff on success
+        reconnect.onConnected();
+        connectionAttempts = 0;
+        connecting.set(false); // Clear connecting flag
+        q.enqueueRaw("JOIN " + currentChannel);
+        gaps.setLabeled(c.hasCapability(CapNegotiator.LABELED_RESPONSE));
+        // private conversations need no JOIN: fill them now (channels wait for our JOIN echo)
+        for (String target : gaps.targets()) {
+            if (!isChannelTarget(target.charAt(0))) requestGap(target);
+        }
+        q.start(executors.events, executors.writers);
+        PingScheduler oldPinger = pinger;
+        if (oldPinger != null) oldPinger.stop();
+        p.setBackground(background);
+        pinger = p;
+        p.start();
+
+        postSystem("✅ Connected to " + s.host + " (port " + s.port + ") in " + c.timeToReadyMs() + " ms");
+        postState(ConnectionState.CONNECTED);
+        if (!c.capabilities().isEmpty()) {
+            postSystem("🧩 Capabilities: " + String.join(", ", c.capabilities()));
+        }
+        if (attempts.size() > 1) {
+            // time-to-ready (or how it ended) for every server in the race
+            StringBuilder report = new StringBuilder("⏱ ");
+            for (int i = 0; i < attempts.size(); i++) {
+                if (i > 0) report.append(" · ");
+                report.append(attempts.get(i));
+            }
+            postSystem(report.toString());
+        }
+        postSystem("📺 Joined channel: " + currentChannel);
+        postSystem("👋 " + actualNick + " joined " + currentChannel);
     }
 
-    // helpers
-    private void postMessage(String u, String t, long ts, boolean mine) {
-        if (callback == null) return;
-        main.post(() -> callback.onMessage(u, t, ts, mine));
+    /** Turn a connect failure into a user-facing line. */
+    private static String describeFailure(ServerEndpoint s, Exception ex) {
+        String errorMsg = ex != null ? ex.getMessage() : null;
+        if (errorMsg == null || errorMsg.isEmpty()) {
+            errorMsg = ex != null ? ex.getClass().getSimpleName() : "cancelled";
+        }
+
+        // Provide more specific error messages
+        if (errorMsg.contains("timeout") || errorMsg.contains("timed out")) {
+            return "❌ Connection timeout to " + s.host + " - Server may be slow or unreachable";
+        } else if (errorMsg.contains("refused") || errorMsg.contains("connection refused")) {
+            return "❌ Connection refused by " + s.host + " - Server may be down or blocking connections";
+        } else if (errorMsg.contains("SSL") || errorMsg.contains("TLS")) {
+            return "❌ SSL/TLS error connecting to " + s.host + " - Certificate or encryption issue";
+        } else if (errorMsg.contains("nickname") || errorMsg.contains("nick")) {
+            return "❌ Nickname conflict on " + s.host + " - Trying with different nickname";
+        } else {
+            return "❌ Connection failed to " + s.host + " - " + errorMsg;
+        }
     }
+
+    /**
+     * Turn one parsed inbound line into something to show, or null. Runs on the
+     * connection's reader thread; {@code line} is only valid during the call.
+     */
+    @Nullable
+    private ChatEvent dispatch(IrcLine line) {
+        if ((line.isCommand(CMD_ACK) || line.isCommand(CMD_FAIL)) && line.hasTags()) {
+            // no history for a labeled gap request (FAIL: none kept, or not allowed)
+            String target = gaps.targetFor(line.tag(TAG_LABEL));
+            if (target != null) gaps.onReplay(target, 0, 0, null, historyPageSize());
+            return null;
+        }
+        if (line.isCommand(IrcCommands.PRIVMSG)) {
+            if (line.paramCount() < 2 || !line.hasPrefix()) return null;
+            IrcName nick = names.nick(line);
+            boolean mine = nick.same(self);
+            String from = nick.name;
+            IrcName to = names.param(line, 0);
+            String target = to.name;
+            String msg = line.lastParam();
+            String msgid = line.tag(TAG_MSGID);
+            long serverTime = ServerTime.of(line);
+            if (!dedup.firstSeen(msgid, IrcCommands.PRIVMSG, from, target, msg, serverTime,
+                    System.currentTimeMillis())) return null;
+            if (msg.startsWith(CTCP_DCC)) {
+                // file transfer setup, not chat text (our own comes back with echo-message). Only
+                // sent to our nick: one in a channel is anyone offering (or resuming) to everyone
+                DccCallback cb = dccCallback;
+                DccMessage dcc = mine || cb == null || !to.same(self) ? null : DccMessage.parse(msg);
+                if (dcc != null && (serverTime <= 0 || System.currentTimeMillis() - serverTime < DCC_MAX_AGE_MS)) {
+                    cb.onDcc(from, dcc);
+                }
+                return null;
+            }
+            // conversation = the channel, or the other side of a private message
+            String conversation = isChannelTarget(line.paramFirstByte(0)) || mine ? target : from;
+            gaps.seen(conversation, serverTime, msgid);
+            // with echo-message our own lines come back here, stamped and ordered by the server
+            return ChatEvent.message(from, conversation, msg,
+                    serverTime > 0 ? serverTime : System.currentTimeMillis(), mine, msgid);
+        } else if (line.isCommand(IrcCommands.JOIN)) {
+            if (line.paramCount() < 1 || !line.hasPrefix()) return null;
+            IrcName nick = names.nick(line);
+            String user = nick.name;
+            // Only show join notifications for other users, not ourselves
+            if (nick.same(self)) {
+                // our own JOIN echo carries the exact prefix others see
+                selfUser = line.user();
+                selfHost = line.host();
+                requestGap(line.param(0)); // history is only served to members
+                return null;
+            }
+            String channel = names.param(line, 0).name;
+            if (!dedup.firstSeen(line.tag(TAG_MSGID), IrcCommands.JOIN, user, channel, null,
+                    ServerTime.of(line), System.currentTimeMillis())) return null;
+            return ChatEvent.system("👋 " + user + " joined " + channel);
+        } else if (line.isCommand(IrcCommands.PART)) {
+            if (line.paramCount() < 1 || !line.hasPrefix()) return null;
+            IrcName nick = names.nick(line);
+            // Only show part notifications for other users, not ourselves
+            if (nick.same(self)) return null;
+            return ChatEvent.system("👋 " + nick.name + " left " + names.param(line, 0).name);
+        } else if (line.isCommand(IrcCommands.QUIT)) {
+            if (!line.hasPrefix()) return null;
+            IrcName nick = names.nick(line);
+            String user = nick.name;
+            // Only show quit notifications for other users, not ourselves
+            if (nick.same(self)) return null;
+            String reason = line.paramCount() > 0 ? line.lastParam() : null;
+            if (!dedup.firstSeen(line.tag(TAG_MSGID), IrcCommands.QUIT, user, null, reason,
+                    ServerTime.of(line), System.currentTimeMillis())) return null;
+            return ChatEvent.system("👋 " + user + " quit");
+        } else if (line.numeric() == ISupport.RPL_ISUPPORT) {
+            isupport.update(line);
+            names.setCaseMapping(CaseMapping.of(isupport));
+            gaps.setCaseMapping(names.caseMapping());
+            self = names.intern(actualNick);
+        } else if (line.numeric() == RPL_HOSTHIDDEN && line.paramCount() >= 2) {
+            selfHost = line.param(1);
+        }
+        return null;
+    }
+
+    /** A whole server batch becomes one list, so it reaches the UI in a single frame. */
+    private List<ChatEvent> dispatchBatch(IrcBatch batch) {
+        List<ChatEvent> events = new ArrayList<>(batch.lines.size());
+        // a labeled reply names its request, whether the server sent the chathistory batch
+        // itself or wrapped it in a labeled-response batch
+        String history = gaps.targetFor(batch.label);
+        if (history == null && batch.isType(GapTracker.BATCH_TYPE) && !batch.params.isEmpty()) {
+            history = batch.params.get(0);
+        }
+        if (history != null) {
+            onHistoryReplay(history, batch, events);
+            return events;
+        }
+        int quits = 0;
+        for (IrcLine line : batch.lines) {
+            ChatEvent e = dispatch(line);
+            if (e == null) continue;
+            if (batch.isType(BATCH_NETSPLIT) && line.isCommand(IrcCommands.QUIT)) {
+                quits++; // one summary line instead of a screenful of quits
+                continue;
+            }
+            events.add(e);
+        }
+        if (quits > 0) {
+            String servers = batch.params.size() >= 2 ? " (" + batch.params.get(0) + " ↔ " + batch.params.get(1) + ")" : "";
+            events.add(ChatEvent.system("🔌 Netsplit" + servers + ": " + quits + " users quit"));
+        }
+        return events;
+    }
+
+    /** Ask for what {@code target} missed while we were away, if the server keeps history. */
+    private void requestGap(String target) {
+        IrcConnection c = connection;
+        OutboundQueue q = outbound;
+        if (c == null || q == null || !c.hasCapability(CapNegotiator.CHATHISTORY)) return;
+        String request = gaps.requestFor(target, historyPageSize());
+        if (request != null) q.enqueueRaw(request);
+    }
+
+    /**
+     * One page of CHATHISTORY: merged like live lines (the dedup window drops what we
+     * already have, the UI sorts by server time), then the next page if this one was full.
+     */
+    private void onHistoryReplay(String target, IrcBatch batch, List<ChatEvent> events) {
+        for (IrcLine line : batch.lines) {
+            ChatEvent e = dispatch(line);
+            if (e != null) events.add(e);
+        }
+        IrcLine last = batch.lines.isEmpty() ? null : batch.lines.get(batch.lines.size() - 1);
+        String next = gaps.onReplay(target, batch.lines.size(),
+                last != null ? ServerTime.of(last) : 0, last != null ? last.tag(TAG_MSGID) : null,
+                historyPageSize());
+        OutboundQueue q = outbound;
+        if (next != null && q != null) q.enqueueRaw(next);
+        if (!events.isEmpty()) {
+            events.add(ChatEvent.system("📜 " + events.size() + " missed messages restored in " + target));
+        }
+    }
+
+    /** Page size: ours, capped by the server's CHATHISTORY limit (0 = no limit). */
+    private int historyPageSize() {
+        int max = isupport.getInt(ISUPPORT_CHATHISTORY, 0);
+        return max > 0 ? Math.min(max, GapTracker.DEFAULT_PAGE) : GapTracker.DEFAULT_PAGE;
+    }
+
+    /** App in the background: the lag PINGs slow down to save battery. */
+    public void setBackground(boolean background) {
+        this.background = background;
+        PingScheduler p = pinger;
+        if (p != null) p.setBackground(background);
+    }
+
+    /** Last PING round trip in ms, or -1 if not measured yet. */
+    public long getLagMs() {
+        PingScheduler p = pinger;
+        return p != null ? p.lagMs() : -1;
+    }
+
+    /** Smoothed PING round trip in ms, or -1 if not measured yet. */
+    public long getSmoothedLagMs() {
+        PingScheduler p = pinger;
+        return p != null ? p.smoothedLagMs() : -1;
+    }
+
+    /** How this server compares channel names and nicks (rfc1459 until 005 says otherwise). */
+    public CaseMapping getCaseMapping() {
+        return names.caseMapping();
+    }
+
+    /** Interned nick/channel counters (hits = lookups served without a new String). */
+    public NamePool getNames() {
+        return names;
+    }
+
+    /** The channel joined on every (re)connect: the last one asked for. */
+    public String getChannel() {
+        return currentChannel;
+    }
+
+    /** The nickname the server knows us by (after any collision fallback). */
+    public String getNick() {
+        return self.name;
+    }
+
+    private void setNick(String nick) {
+        actualNick = nick;
+        self = names.intern(nick);
+    }
+
+    /** Inbound de-duplication counters (hits = duplicates dropped). */
+    public DedupWindow getDedup() {
+        return dedup;
+    }
+
+    private static boolean isChannelTarget(int firstByte) {
+        return firstByte == '#' || firstByte == '&' || firstByte == '+' || firstByte == '!';
+    }
+
+    /** The controller wants a fresh connection: drop this one quietly (unsent lines are kept). */
+    private void dropConnection() {
+        IrcConnection c = connection;
+        connection = null;
+        PingScheduler p = pinger;
+        pinger = null;
+        if (p != null) p.stop();
+        OutboundQueue q = outbound;
+        if (q != null) q.stop();
+        gaps.onDisconnected();
+        if (c != null) c.close();
+    }
+
+    private void describeState(ReconnectController.State state, long retryInMs) {
+        switch (state) {
+            case WAITING:
+                final Server nextServer = servers.get(serverIndex);
+                postSystem("🔄 Reconnecting to " + nextServer.host + " in " + (retryInMs + 500) / 1000 + "s... (server "
+                        + (serverIndex + 1) + "/" + servers.size() + ")");
+                break;
+            case OFFLINE:
+                postSystem("📴 No network - will reconnect when it is back");
+                break;
+            case PROBING:
+                postSystem("📶 Network changed - checking the connection...");
+                break;
+            case CONNECTED:
+                if (lastReconnectState == ReconnectController.State.PROBING) {
+                    postSystem("✅ Connection survived the network change");
+                }
+                break;
+            default:
+                break;
+        }
+        lastReconnectState = state;
+    }
+
+    /**
+     * ConnectivityManager: a network is available (bursts are debounced by the controller).
+     * {@code network} is its handle: only a new one cuts a backoff short.
+     */
+    public void onNetworkAvailable(long network) {
+        reconnect.onNetworkAvailable(network);
+    }
+
+    /** ConnectivityManager: the network is gone (the socket is kept; it may survive). */
+    public void onNetworkLost() {
+        reconnect.onNetworkLost();
+    }
+
+    // helpers
     private void postSystem(String t) {
+        publish(ChatEvent.system(t));
+    }
+    /** Only the first event of a batch schedules a frame; the rest just join the buffer. */
+    private void publish(ChatEvent e) {
         if (callback == null) return;
-        main.post(() -> callback.onSystem(t));
+        if (inbound.offer(laidOut(e))) main.post(scheduleDrain);
+    }
+    private void publishAll(List<ChatEvent> events) {
+        if (callback == null || events.isEmpty()) return;
+        if (rows != null) {
+            List<ChatEvent> out = new ArrayList<>(events.size());
+            for (ChatEvent e : events) out.add(laidOut(e));
+            events = out;
+        }
+        if (inbound.offerAll(events)) main.post(scheduleDrain);
+    }
+    private ChatEvent laidOut(ChatEvent e) {
+        RowModels r = rows;
+        if (r == null || e.isSystem() || e.row != null) return e;
+        return e.withRow(r.of(e.nick, e.text, e.timestamp, e.mine));
+    }
+    private void drainInbound() {
+        List<ChatEvent> batch = inbound.drain();
+        MessageCallback cb = callback;
+        if (cb != null && !batch.isEmpty()) cb.onEvents(batch);
+    }
+    private void postState(ConnectionState state) {
+        ConnectionCallback cb = connectionCallback;
+        if (cb == null) return;
+        main.post(() -> cb.onConnectionState(state));
+    }
+    private void postBacklog(int depth, long etaMs) {
+        BacklogCallback cb = backlogCallback;
+        if (cb == null) return;
+        main.post(() -> cb.onBacklog(depth, etaMs));
     }
 
     /** Strip forbidden control chars (CR/LF/NUL) and trim. IRC messages must be single-line. */
@@ -591,30 +1067,4 @@ public class IrcClientManager {
             return true; // Assume available if check fails
         }
     }
-
-    /** Chunk a UTF-8 string to keep each PRIVMSG well under the 512-byte limit (header + tags eat bytes). */
-    private static List<String> chunkForIrc(String text) {
-        // Very conservative: split by characters; servers enforce ~512 bytes including CRLF & prefix. :contentReference[oaicite:5]{index=5}
-        List<String> out = new ArrayList<>();
-        if (text.isEmpty()) return out;
-
-        int i = 0;
-        while (i < text.length()) {
-            int end = Math.min(text.length(), i + 400);
-
-            // try not to cut in the middle of a surrogate pair
-            if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
-                end--;
-            }
-
-            String chunk = text.substring(i, end);
-
-            // (Optional) if want to be byte-precise, you could shrink until UTF-8 bytes <= ~400:
-            // while (chunk.getBytes(StandardCharsets.UTF_8).length > 400 && end > i) { end--; chunk = text.substring(i, end); }
-
-            out.add(chunk);
-            i = end;
-        }
-        return out;
-    }
 }
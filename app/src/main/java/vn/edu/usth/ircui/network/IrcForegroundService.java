@@ -20,7 +20,7 @@ public class IrcForegroundService extends Service {
 
     public static final String EXTRA_NICK = "nick";
     public static final String EXTRA_CHANNEL = "channel";
-    public vn.edu.usth.ircui.network.NetworkMonitor monitor;
+    private NetworkMonitor.Callback networkCallback; // on the process-wide monitor while running
     private String lastNick, lastChannel, lastUser, lastPass; private boolean lastExt;
 
     private static final String CHANNEL_ID = "irc_fg";
@@ -49,7 +49,7 @@ public class IrcForegroundService extends Service {
 
         irc.setCallback(new IrcClientManager.MessageCallback() {
             @Override
-            public void onMessage(String u, String t, long ts, boolean mine) {
+            public void onMessage(String u, String target, String t, long ts, boolean mine, String msgid) {
                 /* no-op here */
             }
             @Override
@@ -59,24 +59,30 @@ public class IrcForegroundService extends Service {
         });
 
 
-        monitor = new vn.edu.usth.ircui.network.NetworkMonitor(getApplicationContext(),
-                new vn.edu.usth.ircui.network.NetworkMonitor.Callback() {
-            @Override public void onUp() {
-                // if not connected, try again
-                irc.disconnect();
-                irc.connectWithSasl(lastNick, lastChannel, lastUser, lastPass, lastExt);
-            }
-            @Override public void onDown() {
-                // optional: show “offline” in the notification
-            }
-        });
-        monitor.start();
+        lastNick = nick;
+        lastChannel = channel;
+        irc.connectWithSasl(lastNick, lastChannel, lastUser, lastPass, lastExt);
+
+        // Handovers and flaps go to the reconnect controller: it debounces them and
+        // checks the live link with a PING before replacing it
+        if (networkCallback == null) {
+            networkCallback = new NetworkMonitor.Callback() {
+                @Override public void onUp(long network) {
+                    irc.onNetworkAvailable(network);
+                }
+                @Override public void onDown() {
+                    irc.onNetworkLost();
+                }
+            };
+            NetworkMonitor.get(this).add(networkCallback);
+        }
 
         return START_STICKY;
     }
 
     @Override public void onDestroy() {
         super.onDestroy();
+        if (networkCallback != null) NetworkMonitor.get(this).remove(networkCallback);
         irc.disconnect();
     }
 
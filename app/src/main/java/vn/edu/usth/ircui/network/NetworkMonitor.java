@@ -3,30 +3,71 @@ package vn.edu.usth.ircui.network;
 import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.Network;
-import android.net.NetworkCapabilities;
 
 import androidx.annotation.NonNull;
 
-/**See network connectivity changes*/
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import vn.edu.usth.ircui.core.net.ReconnectController;
+
+/**
+ * See network connectivity changes.
+ * One per process ({@link #get}): a single system callback, fanned out to every
+ * {@link Callback} added, registered while there is at least one. A callback added
+ * later hears about the current network right away, as the first one did.
+ */
 public class NetworkMonitor {
     public interface Callback {
-        void onUp(); void onDown();
+        /** @param network the network's handle: a new one is a new network, the same one an update */
+        void onUp(long network); void onDown();
     }
 
+    private static NetworkMonitor instance;
+
     private final ConnectivityManager cm;
     private final ConnectivityManager.NetworkCallback cb;
+    private final List<Callback> callbacks = new CopyOnWriteArrayList<>();
+    private boolean registered;
+    private volatile long current = ReconnectController.NO_NETWORK; // default network, if any
 
-    public NetworkMonitor(Context ctx, Callback callback) {
+    public static synchronized NetworkMonitor get(Context ctx) {
+        if (instance == null) instance = new NetworkMonitor(ctx.getApplicationContext());
+        return instance;
+    }
+
+    private NetworkMonitor(Context ctx) {
         cm = (ConnectivityManager) ctx.getSystemService(Context.CONNECTIVITY_SERVICE);
         cb = new ConnectivityManager.NetworkCallback() {
-            @Override public void onAvailable(@NonNull Network network) { callback.onUp(); }
-            @Override public void onLost(@NonNull Network network) { callback.onDown(); }
+            @Override public void onAvailable(@NonNull Network network) {
+                long handle = network.getNetworkHandle();
+                current = handle;
+                for (Callback c : callbacks) c.onUp(handle);
+            }
+            @Override public void onLost(@NonNull Network network) {
+                current = ReconnectController.NO_NETWORK;
+                for (Callback c : callbacks) c.onDown();
+            }
         };
     }
-    public void start() {
-        cm.registerDefaultNetworkCallback(cb);
+
+    public synchronized void add(Callback callback) {
+        if (callbacks.contains(callback)) return;
+        callbacks.add(callback);
+        if (!registered) {
+            cm.registerDefaultNetworkCallback(cb);
+            registered = true;
+        } else if (current != ReconnectController.NO_NETWORK) {
+            callback.onUp(current);
+        }
     }
-    public void stop()  {
-        cm.unregisterNetworkCallback(cb);
+
+    public synchronized void remove(Callback callback) {
+        callbacks.remove(callback);
+        if (registered && callbacks.isEmpty()) {
+            cm.unregisterNetworkCallback(cb);
+            registered = false;
+            current = ReconnectController.NO_NETWORK;
+        }
     }
 }
@@ -1,26 +1,179 @@
 package vn.edu.usth.ircui.network;
 
 import android.content.Context;
+import android.os.Handler;
 import android.os.Looper;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+import vn.edu.usth.ircui.core.event.DedupWindow;
+import vn.edu.usth.ircui.core.history.ChannelLog;
+import vn.edu.usth.ircui.core.history.HistoryWindow;
+import vn.edu.usth.ircui.core.history.MessageLog;
+import vn.edu.usth.ircui.core.history.SearchPage;
+import vn.edu.usth.ircui.core.history.SearchQuery;
+import vn.edu.usth.ircui.core.net.IrcExecutors;
+import vn.edu.usth.ircui.core.net.IrcThreads;
+import vn.edu.usth.ircui.feature_chat.data.ChatManager;
+import vn.edu.usth.ircui.feature_chat.data.FileTransfers;
+import vn.edu.usth.ircui.feature_chat.data.Message;
+import vn.edu.usth.ircui.feature_chat.model.Channel;
 
 /**
  * Singleton IRC client that can be shared across all fragments
- * This ensures only one IRC connection per server and synchronized messaging
+ * - One session per network (keyed by server host); several can be connected at once
+ * - Every session runs on the same bounded I/O and event threads (IrcExecutors.shared())
+ * - Fragments follow the active session; switching is instant and nothing reconnects
+ * - Every session feeds its messages to {@link ChatManager}, on screen or not; screens
+ *   {@link #open} a conversation and attach to it
+ * - System lines of a background session are kept (bounded) and shown on switching back
+ * - Each session is the {@link FileTransfers.Link} of its network: DCC offers and replies
+ *   go through it
  */
 public class SharedIrcClient {
     
+    // System lines kept per background session until it becomes active again
+    private static final int BACKGROUND_BACKLOG = 500;
+
+    /** One IRC network: its client, what it was asked to join, and what the UI missed. */
+    private final class Session {
+        final String serverHost;
+        final IrcClientManager client;
+        final FileTransfers files;
+        volatile String username;
+        volatile String channel;
+        volatile boolean isConnecting = false;
+        final ArrayDeque<ChatEvent> missed = new ArrayDeque<>(); // main thread only
+        // channels asked for since connect(), folded -> as asked; all rejoined on reconnect. Main thread
+        final Map<String, String> joined = new LinkedHashMap<>();
+
+        Session(String serverHost, Context context) {
+            this.serverHost = serverHost;
+            this.client = new IrcClientManager(IrcExecutors.shared());
+            client.setContext(context);
+            client.setBackground(background);
+            client.setRowModels(Message.rows());
+            client.setCallback(new IrcClientManager.MessageCallback() {
+                @Override
+                public void onMessage(String user, String target, String text, long timestamp,
+                                      boolean isMine, String msgid) {
+                    // Only reached if events are delivered one by one (onEvents below batches them)
+                    onEvents(Collections.singletonList(
+                            ChatEvent.message(user, target, text, timestamp, isMine, msgid)));
+                }
+
+                @Override
+                public void onSystem(String text) {
+                    onEvents(Collections.singletonList(ChatEvent.system(text)));
+                }
+
+                @Override
+                public void onEvents(List<ChatEvent> events) {
+                    MessageLog l = log;
+                    boolean synced = false;
+                    for (ChatEvent e : events) {
+                        if (e.isSystem() || e.target == null) continue;
+                        if (!synced) {
+                            syncCaseMapping();
+                            synced = true;
+                        }
+                        // every network's messages are kept, on screen or not
+                        if (l != null) l.append(networkKey(serverHost), key(e.target), e);
+                    }
+                    // every conversation is kept up to date, shown or not
+                    chats.onEvents(serverHost, client.getNick(), events);
+                    if (active != Session.this) {
+                        // not on screen: keep the newest system lines for when the user switches back
+                        for (ChatEvent e : events) {
+                            if (!e.isSystem()) continue;
+                            if (missed.size() >= BACKGROUND_BACKLOG) missed.pollFirst();
+                            missed.addLast(e);
+                        }
+                        return;
+                    }
+                    deliver(events);
+                }
+            });
+            client.setConnectionCallback(state -> {
+                isConnecting = state == IrcClientManager.ConnectionState.CONNECTING;
+                if (state == IrcClientManager.ConnectionState.CONNECTED && client.isConnected()) {
+                    // the client rejoins the channel it was last asked for, the rest are ours
+                    String own = client.getChannel();
+                    String ownKey = own != null ? key(own) : null;
+                    for (Map.Entry<String, String> j : new ArrayList<>(joined.entrySet())) {
+                        if (!j.getKey().equals(ownKey)) client.joinChannel(j.getValue());
+                    }
+                }
+            });
+            client.setBacklogCallback((depth, etaMs) -> {
+                if (active == Session.this) notifyBacklog(depth, etaMs);
+            });
+            files = FileTransfers.get(context);
+            files.setLink(serverHost, new FileTransfers.Link() {
+                @Override
+                public boolean sendCtcp(String nick, String ctcp) {
+                    return client.isConnected() && client.sendCtcp(nick, ctcp);
+                }
+
+                @Override
+                public InetAddress localAddress() {
+                    return client.getLocalAddress();
+                }
+            });
+            client.setDccCallback((from, message) -> files.onDcc(serverHost, from, message));
+        }
+
+        /** {@code target} folded as this network compares names: the key of its conversation, log and join. */
+        String key(String target) {
+            return chats.caseMapping(serverHost).fold(target);
+        }
+
+        /**
+         * Key everything by the server's CASEMAPPING. Called with conversation traffic:
+         * the client reports rfc1459 from each connect until ISUPPORT, which comes
+         * before any. Main thread.
+         */
+        void syncCaseMapping() {
+            if (!chats.setCaseMapping(serverHost, client.getCaseMapping())) return;
+            List<String> asked = new ArrayList<>(joined.values());
+            joined.clear();
+            for (String channel : asked) joined.put(key(channel), channel);
+        }
+    }
+
     private static SharedIrcClient instance;
-    private IrcClientManager ircClient;
-    private final List<MessageCallback> callbacks = new CopyOnWriteArrayList<>();
+    private static Executor historyLoader;
+    // network key (lower-case host) -> session, in the order they were opened
+    private final Map<String, Session> sessions = new LinkedHashMap<>();
+    private volatile Session active;
+    private volatile boolean background;
+    private NetworkMonitor monitor; // followed from the first session on, feeds every session's reconnect controller
+    private final NetworkMonitor.Callback networkCallback = new NetworkMonitor.Callback() {
+        @Override public void onUp(long network) {
+            for (Session s : snapshot()) s.client.onNetworkAvailable(network);
+        }
+        @Override public void onDown() {
+            for (Session s : snapshot()) s.client.onNetworkLost();
+        }
+    };
+    private volatile MessageLog log; // on-device history of every network, opened with the first session
     private final List<SystemMessageCallback> systemCallbacks = new CopyOnWriteArrayList<>();
-    private String currentServer;
-    private String currentUsername;
-    private String currentChannel;
-    private volatile boolean isConnecting = false;
+    private final List<BacklogCallback> backlogCallbacks = new CopyOnWriteArrayList<>();
+    private final ChatManager chats = ChatManager.get();
     
     private SharedIrcClient() {
         // Private constructor for singleton
@@ -34,20 +187,34 @@ public class SharedIrcClient {
     }
     
     /**
-     * Connect to IRC server with shared connection
+     * Connect to IRC server with shared connection.
+     * Another network's session stays connected; this one becomes the active one.
      */
     public void connect(String serverHost, String username, String channel, Context context) {
-        // If already connected to the same server, just update channel
-        if (ircClient != null && ircClient.isConnected() && 
-            currentServer != null && currentServer.equals(serverHost)) {
-            
-            // Update current info
-            currentUsername = username;
-            currentChannel = channel;
-            
+        Session s;
+        boolean created = false;
+        openLog(context);
+        synchronized (sessions) {
+            s = sessions.get(networkKey(serverHost));
+            if (s == null) {
+                s = new Session(serverHost, context);
+                sessions.put(networkKey(serverHost), s);
+                created = true;
+            }
+        }
+        if (created && context != null) startNetworkMonitor(context);
+        activate(s);
+
+        // If already connected to this server, just update channel
+        if (s.client.isConnected()) {
+            String previous = s.channel;
+            s.username = username;
+            s.channel = channel;
+
             // Join new channel if different
-            if (!channel.equals(currentChannel)) {
-                ircClient.joinChannel(channel);
+            if (channel != null && !channel.equals(previous)) {
+                s.joined.put(s.key(channel), channel);
+                s.client.joinChannel(channel);
                 // Only notify when actually joining a new channel
                 notifySystem("📺 Joined channel: " + channel);
             }
@@ -56,79 +223,228 @@ public class SharedIrcClient {
         }
         
         // If already connecting, don't create another connection
-        if (isConnecting || (ircClient != null && ircClient.isConnecting())) {
+        if (!created && (s.isConnecting || s.client.isConnecting())) {
             notifySystem("ℹ️ Connection already in progress, please wait...");
             return;
         }
         
-        isConnecting = true;
-        
-        // Disconnect existing connection if different server
-        if (ircClient != null) {
-            ircClient.disconnect();
-            ircClient = null; // Clear reference immediately
-            // Wait a bit for cleanup
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }
-        
-        // Create new connection
-        currentServer = serverHost;
-        currentUsername = username;
-        currentChannel = channel;
-        
-        ircClient = new IrcClientManager();
-        ircClient.setContext(context);
-        ircClient.setCallback(new IrcClientManager.MessageCallback() {
-            @Override
-            public void onMessage(String user, String text, long timestamp, boolean isMine) {
-                // Forward to all registered callbacks
-                notifyMessage(user, text, timestamp, isMine);
-            }
-
-            @Override
-            public void onSystem(String text) {
-                // Reset connecting flag when we get system messages
-                if (text.contains("✅ Connected") || text.contains("❌") || text.contains("Failed")) {
-                    isConnecting = false;
-                }
-                // Forward to all registered callbacks
-                notifySystem(text);
-            }
-        });
+        s.isConnecting = true;
+        s.username = username;
+        s.channel = channel;
+        s.joined.clear();
+        if (channel != null) s.joined.put(s.key(channel), channel);
+        if (context != null) s.client.setContext(context);
 
-        // Configure server list with Libera priority
+        // Alternate hostnames of the same network only: a session never wanders to another network
         List<IrcClientManager.Server> servers = new ArrayList<>();
         servers.add(new IrcClientManager.Server(serverHost, 6697, true));
-        servers.add(new IrcClientManager.Server("irc.libera.chat", 6697, true));      // Primary Libera
-        servers.add(new IrcClientManager.Server("libera.chat", 6697, true));          // Alternative Libera hostname
-        servers.add(new IrcClientManager.Server("irc.libera.chat", 6697, true));      // Backup Libera
-        servers.add(new IrcClientManager.Server("irc.oftc.net", 6697, true));         // OFTC fallback
-        servers.add(new IrcClientManager.Server("irc.rizon.net", 6697, true));        // Rizon fallback
+        if (serverHost.toLowerCase(Locale.ROOT).contains("libera")) {
+            servers.add(new IrcClientManager.Server("irc.libera.chat", 6697, true));      // Primary Libera
+            servers.add(new IrcClientManager.Server("libera.chat", 6697, true));          // Alternative Libera hostname
+        }
         
-        ircClient.setServers(servers);
-        ircClient.connect(username, channel);
+        s.client.setServers(servers);
+        s.client.connect(username, channel);
         
         notifySystem("🔄 Connecting to " + serverHost + "...");
     }
-    
+
     /**
-     * Register a callback to receive messages
+     * The conversation with {@code target} on {@code serverHost}, ready to be shown: its
+     * network becomes the active one and, if it is a channel not joined yet, it is
+     * joined. A conversation that is already open costs a few hash lookups: nothing
+     * reconnects, rejoins or reloads. Connects first if the network has no session yet.
+     * Main thread.
      */
-    public void registerCallback(MessageCallback callback) {
-        if (!callbacks.contains(callback)) {
-            callbacks.add(callback);
+    public Channel open(String serverHost, String username, String target, Context context) {
+        Channel c = chats.conversation(serverHost, target);
+        Session s;
+        synchronized (sessions) {
+            s = sessions.get(networkKey(serverHost));
         }
+        if (s == null || (!s.client.isConnected() && !s.isConnecting && !s.client.isConnecting())) {
+            connect(serverHost, username, c.isPrivate() ? null : target, context);
+            return c;
+        }
+        activate(s);
+        if (!c.isPrivate() && !s.joined.containsKey(s.key(target))) {
+            s.joined.put(s.key(target), target);
+            s.channel = target;
+            // still connecting: joined with the rest once it is up
+            if (s.client.isConnected()) s.client.joinChannel(target);
+        }
+        return c;
     }
-    
+
     /**
-     * Unregister a callback
+     * The window of rows {@code rows} makes over {@code conversation}'s log: the one a
+     * previous screen left behind if there is one (same rows, same scroll position), else
+     * a new one opened on the newest page. Main thread.
      */
-    public void unregisterCallback(MessageCallback callback) {
-        callbacks.remove(callback);
+    public <T> HistoryWindow<T> window(Context context, Channel conversation, HistoryWindow.Rows<T> rows) {
+        HistoryWindow<T> w = conversation.getWindow(rows);
+        if (w != null) return w;
+        Handler main = new Handler(Looper.getMainLooper());
+        w = new HistoryWindow<>(history(context, conversation.getNetwork(), conversation.getName()),
+                historyLoader(), main::post, rows);
+        conversation.putWindow(rows, w);
+        List<ChatEvent> restored = conversation.takeRestored();
+        if (restored != null) w.seed(restored);
+        w.open();
+        return w;
+    }
+
+    /**
+     * Make an already open network the active one: no reconnect, and whatever it
+     * received in the background is delivered now. Returns false if there is no
+     * session for that host yet (use {@link #connect}).
+     */
+    public boolean switchTo(String serverHost) {
+        Session s;
+        synchronized (sessions) {
+            s = sessions.get(networkKey(serverHost));
+        }
+        if (s == null) return false;
+        activate(s);
+        return true;
+    }
+
+    /** Hosts of every open session, in the order they were opened. */
+    public List<String> getNetworks() {
+        List<String> out = new ArrayList<>();
+        synchronized (sessions) {
+            for (Session s : sessions.values()) out.add(s.serverHost);
+        }
+        return out;
+    }
+
+    /** Is the session for this host connected (active or not)? */
+    public boolean isConnected(String serverHost) {
+        Session s;
+        synchronized (sessions) {
+            s = sessions.get(networkKey(serverHost));
+        }
+        return s != null && s.client.isConnected();
+    }
+
+    private void activate(Session s) {
+        Session previous = active;
+        active = s;
+        if (previous == s) return;
+        if (previous != null) notifySystem("🔀 Switched to " + s.serverHost);
+        if (!s.missed.isEmpty()) {
+            List<ChatEvent> backlog = new ArrayList<>(s.missed);
+            s.missed.clear();
+            deliver(backlog);
+        }
+        notifyBacklog(s.client.getOutboundDepth(), 0);
+    }
+
+    /**
+     * The on-device log of a conversation, for a {@link HistoryWindow} to page through.
+     * Opened lazily on the history thread; reads near the end wait for the log's writer,
+     * so a page never stops short of what the view was already told about.
+     */
+    public HistoryWindow.Source history(Context context, String serverHost, String target) {
+        final Context app = context.getApplicationContext();
+        final String network = networkKey(serverHost);
+        final String key = chats.caseMapping(serverHost).fold(target);
+        return new HistoryWindow.Source() {
+            private ChannelLog channel; // history thread
+
+            private ChannelLog channel() throws IOException {
+                MessageLog l = openLog(app);
+                if (l == null) throw new IOException("No history");
+                if (channel == null) channel = l.channel(network, key);
+                return channel;
+            }
+
+            @Override
+            public long size() throws IOException {
+                flushLog();
+                return channel().size();
+            }
+
+            @Override
+            public List<ChatEvent> read(long from, int count) throws IOException {
+                ChannelLog c = channel();
+                if (from + count > c.size()) flushLog();
+                return c.read(from, count);
+            }
+        };
+    }
+
+    /**
+     * One page of messages in this conversation containing every word of {@code text}
+     * (and sent by {@code nick}, if given), newest first; {@code after} is the previous
+     * page's {@link SearchPage#next}, or null for the first. Blocking: call it on
+     * {@link #historyLoader()}.
+     */
+    public SearchPage search(Context context, String serverHost, String target, String text, String nick,
+                             SearchPage.Cursor after, int pageSize) throws IOException {
+        MessageLog l = openLog(context);
+        if (l == null) throw new IOException("No history");
+        flushLog();
+        SearchQuery q = SearchQuery.of(text).in(networkKey(serverHost), chats.caseMapping(serverHost).fold(target));
+        if (nick != null) q = q.from(nick);
+        return l.search(q, after, pageSize);
+    }
+
+    /** The thread history pages are read on: one, so scrolling never competes with itself. */
+    public static synchronized Executor historyLoader() {
+        if (historyLoader == null) {
+            historyLoader = Executors.newSingleThreadExecutor(IrcThreads.daemon("history"));
+        }
+        return historyLoader;
+    }
+
+    private void flushLog() throws IOException {
+        MessageLog l = log;
+        if (l == null) return;
+        try {
+            l.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+    }
+
+    private synchronized MessageLog openLog(Context context) {
+        if (log == null && context != null) {
+            final MessageLog l = new MessageLog(new File(context.getApplicationContext().getFilesDir(), "history"));
+            log = l;
+            // indexes left damaged or half-written by a crash are rebuilt before anyone searches
+            historyLoader().execute(() -> {
+                try {
+                    l.verifyIndexes(ForkJoinPool.commonPool());
+                } catch (IOException ignored) {
+                    // the segment is indexed again by the first search that needs it
+                }
+            });
+        }
+        return log;
+    }
+
+    private synchronized void startNetworkMonitor(Context context) {
+        if (monitor != null) return;
+        monitor = NetworkMonitor.get(context);
+        monitor.add(networkCallback);
+    }
+
+    private synchronized void stopNetworkMonitor() {
+        if (monitor == null) return;
+        monitor.remove(networkCallback);
+        monitor = null;
+    }
+
+    private List<Session> snapshot() {
+        synchronized (sessions) {
+            return new ArrayList<>(sessions.values());
+        }
+    }
+
+    private static String networkKey(String serverHost) {
+        return serverHost == null ? "" : serverHost.trim().toLowerCase(Locale.ROOT);
     }
     
     /**
@@ -147,12 +463,29 @@ public class SharedIrcClient {
         systemCallbacks.remove(callback);
     }
     
+    /**
+     * Register a callback for outbound backlog (queued lines + ETA)
+     */
+    public void registerBacklogCallback(BacklogCallback callback) {
+        if (!backlogCallbacks.contains(callback)) {
+            backlogCallbacks.add(callback);
+        }
+    }
+    
+    /**
+     * Unregister a backlog callback
+     */
+    public void unregisterBacklogCallback(BacklogCallback callback) {
+        backlogCallbacks.remove(callback);
+    }
+    
     /**
      * Send a channel message
      */
-    public void sendMessage(String text) {
-        if (ircClient != null && ircClient.isConnected()) {
-            ircClient.sendMessage(text);
+    public void sendMessage(String channel, String text) {
+        Session s = active;
+        if (s != null && s.client.isConnected()) {
+            s.client.sendMessage(channel, text);
         }
     }
     
@@ -160,8 +493,9 @@ public class SharedIrcClient {
      * Send a private message
      */
     public void sendPrivateMessage(String targetUser, String text) {
-        if (ircClient != null && ircClient.isConnected()) {
-            ircClient.sendPrivateMessage(targetUser, text);
+        Session s = active;
+        if (s != null && s.client.isConnected()) {
+            s.client.sendPrivateMessage(targetUser, text);
         }
     }
     
@@ -169,9 +503,11 @@ public class SharedIrcClient {
      * Join a channel
      */
     public void joinChannel(String channel) {
-        if (ircClient != null && ircClient.isConnected()) {
-            currentChannel = channel;
-            ircClient.joinChannel(channel);
+        Session s = active;
+        if (s != null && s.client.isConnected()) {
+            s.channel = channel;
+            s.joined.put(s.key(channel), channel);
+            s.client.joinChannel(channel);
         }
     }
     
@@ -179,8 +515,11 @@ public class SharedIrcClient {
      * Leave a channel
      */
     public void partChannel(String channel) {
-        if (ircClient != null && ircClient.isConnected()) {
-            ircClient.partChannel(channel);
+        Session s = active;
+        if (s != null && s.client.isConnected()) {
+            s.joined.remove(s.key(channel));
+            s.client.partChannel(channel);
+            chats.remove(s.serverHost, channel);
         }
     }
     
@@ -188,52 +527,111 @@ public class SharedIrcClient {
      * Check if connected
      */
     public boolean isConnected() {
-        return ircClient != null && ircClient.isConnected();
+        Session s = active;
+        return s != null && s.client.isConnected();
+    }
+    
+    /**
+     * App moved to / from the background: every network's lag PINGs back off, and the
+     * history written so far is forced to disk (the log's {@link MessageLog.Sync#ON_BACKGROUND})
+     */
+    public void setBackground(boolean background) {
+        this.background = background;
+        synchronized (sessions) {
+            for (Session s : sessions.values()) s.client.setBackground(background);
+        }
+        MessageLog l = log;
+        if (background && l != null) l.sync();
+    }
+    
+    /**
+     * Last and smoothed PING round trip of the active network in ms ({-1, -1} if unknown)
+     */
+    public long[] getLag() {
+        Session s = active;
+        return s != null ? new long[]{s.client.getLagMs(), s.client.getSmoothedLagMs()} : new long[]{-1, -1};
+    }
+    
+    /**
+     * Inbound de-duplication counters, or null when there is no client
+     */
+    public DedupWindow getDedup() {
+        Session s = active;
+        return s != null ? s.client.getDedup() : null;
     }
     
     /**
      * Get current server
      */
     public String getCurrentServer() {
-        return currentServer;
+        Session s = active;
+        return s != null ? s.serverHost : null;
     }
     
     /**
      * Get current username
      */
     public String getCurrentUsername() {
-        return currentUsername;
+        Session s = active;
+        return s != null ? s.username : null;
     }
     
     /**
      * Get current channel
      */
     public String getCurrentChannel() {
-        return currentChannel;
+        Session s = active;
+        return s != null ? s.channel : null;
     }
     
     /**
-     * Disconnect
+     * Disconnect every network
      */
     public void disconnect() {
-        isConnecting = false; // Reset connecting flag
-        if (ircClient != null) {
-            ircClient.disconnect();
-            ircClient = null;
+        List<Session> all;
+        synchronized (sessions) {
+            all = new ArrayList<>(sessions.values());
+            sessions.clear();
+        }
+        active = null;
+        for (Session s : all) {
+            s.isConnecting = false; // Reset connecting flag
+            s.client.disconnect();
+            s.files.setLink(s.serverHost, null);
         }
-        callbacks.clear();
+        stopNetworkMonitor();
+        chats.clear(null);
         systemCallbacks.clear();
-        currentServer = null;
-        currentUsername = null;
-        currentChannel = null;
+        backlogCallbacks.clear();
+    }
+
+    /**
+     * Disconnect one network; the others stay up. If it was active, the next open one takes over.
+     */
+    public void disconnect(String serverHost) {
+        Session s, next = null;
+        synchronized (sessions) {
+            s = sessions.remove(networkKey(serverHost));
+            if (!sessions.isEmpty()) next = sessions.values().iterator().next();
+        }
+        if (s == null) return;
+        s.isConnecting = false;
+        s.client.disconnect();
+        s.files.setLink(s.serverHost, null);
+        chats.clear(s.serverHost);
+        if (active == s) {
+            active = null;
+            if (next != null) activate(next);
+        }
     }
     
     /**
      * Reset connection (for reconnection)
      */
     public void resetConnection() {
-        if (ircClient != null) {
-            ircClient.resetConnection();
+        Session s = active;
+        if (s != null) {
+            s.client.resetConnection();
         }
     }
     
@@ -241,23 +639,20 @@ public class SharedIrcClient {
      * Manually trigger reconnection - useful for testing or manual retry
      */
     public void forceReconnect() {
-        if (ircClient != null) {
-            ircClient.forceReconnect();
+        Session s = active;
+        if (s != null) {
+            s.client.forceReconnect();
         }
     }
     
-    // Helper methods to notify all callbacks
-    private void notifyMessage(String user, String text, long timestamp, boolean isMine) {
-        for (MessageCallback callback : callbacks) {
-            try {
-                callback.onMessage(user, text, timestamp, isMine);
-            } catch (Exception e) {
-                // Remove faulty callback
-                callbacks.remove(callback);
-            }
+    /** System lines of the active session, in order; messages reach the screens through {@link ChatManager}. */
+    private void deliver(List<ChatEvent> events) {
+        for (ChatEvent e : events) {
+            if (e.isSystem()) notifySystem(e.text);
         }
     }
     
+    // Helper methods to notify all callbacks
     private void notifySystem(String text) {
         // Notify system message callbacks only
         for (SystemMessageCallback callback : systemCallbacks) {
@@ -270,11 +665,15 @@ public class SharedIrcClient {
         }
     }
     
-    /**
-     * Message callback interface
-     */
-    public interface MessageCallback {
-        void onMessage(String username, String text, long timestamp, boolean isMine);
+    private void notifyBacklog(int depth, long etaMs) {
+        for (BacklogCallback callback : backlogCallbacks) {
+            try {
+                callback.onBacklog(depth, etaMs);
+            } catch (Exception e) {
+                // Remove faulty callback
+                backlogCallbacks.remove(callback);
+            }
+        }
     }
     
     /**
@@ -283,4 +682,11 @@ public class SharedIrcClient {
     public interface SystemMessageCallback {
         void onSystem(String text);
     }
+    
+    /**
+     * Outbound backlog callback interface (called on the main thread)
+     */
+    public interface BacklogCallback {
+        void onBacklog(int depth, long etaMs);
+    }
 }
@@ -0,0 +1,24 @@
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+// Plain JVM module: no Android classes allowed here, so everything in it can be
+// unit-tested and benchmarked on the host.
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+dependencies {
+    testImplementation(libs.junit)
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    // Allocation figures come from the GC profiler (bytes allocated per op)
+    profilers.add("gc")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+}
@@ -0,0 +1,161 @@
+package vn.edu.usth.ircui.core.dcc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import vn.edu.usth.ircui.core.net.IrcThreads;
+
+/**
+ * One 256 MB file from a sender to a receiver over loopback, acknowledged DCC style.
+ *
+ * Run with: ./gradlew :irc-core:jmh -Pjmh.includes=DccTransfer
+ *
+ * - dcc:          {@link DccSend} (transferTo: sendfile) to {@link DccReceive} (one
+ *                 256 KB direct buffer, a positional write and an acknowledgement per fill)
+ * - streams:      file and socket streams with an 8 KB array on both sides and an
+ *                 acknowledgement per read, what a straightforward port of a desktop
+ *                 client does
+ * - transferFrom: the DccSend sender, received with FileChannel.transferFrom from the
+ *                 socket (the JDK copies that through a small temporary buffer)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DccTransferBenchmark {
+
+    private static final long SIZE = 256L << 20;
+
+    private final InetAddress loopback = InetAddress.getLoopbackAddress();
+    private ExecutorService threads;
+    private File dir;
+    private File in;
+    private File out;
+
+    @Setup
+    public void setup() throws IOException {
+        threads = Executors.newCachedThreadPool(IrcThreads.daemon("bench-dcc"));
+        dir = Files.createTempDirectory("dcc").toFile();
+        in = new File(dir, "in.bin");
+        out = new File(dir, "out.bin");
+        Random rnd = new Random(42);
+        ByteBuffer block = ByteBuffer.allocate(1 << 20);
+        try (FileChannel ch = FileChannel.open(in.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            for (long at = 0; at < SIZE; at += block.capacity()) {
+                rnd.nextBytes(block.array());
+                block.clear();
+                ch.write(block);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        threads.shutdownNow();
+        in.delete();
+        out.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public long dcc() throws Exception {
+        try (FileChannel src = FileChannel.open(in.toPath());
+             FileChannel dst = FileChannel.open(out.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            DccSend send = new DccSend("in.bin", src, SIZE, null);
+            int port = send.listen(loopback, 0);
+            Future<DccTransfer.State> sending = threads.submit(send::run);
+            DccReceive receive = new DccReceive("in.bin", dst, SIZE, new InetSocketAddress(loopback, port), null);
+            if (receive.run(0) != DccTransfer.State.DONE || sending.get() != DccTransfer.State.DONE) {
+                throw new IOException("failed: " + receive.error() + " / " + send.error());
+            }
+            send.close();
+            return receive.position();
+        }
+    }
+
+    @Benchmark
+    public long streams() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, loopback)) {
+            Future<Void> sending = threads.submit(() -> {
+                try (Socket s = server.accept(); InputStream file = new FileInputStream(in)) {
+                    OutputStream o = s.getOutputStream();
+                    DataInputStream acks = new DataInputStream(s.getInputStream());
+                    byte[] buf = new byte[8192];
+                    int n;
+                    while ((n = file.read(buf)) > 0) o.write(buf, 0, n);
+                    o.flush();
+                    while (acks.readInt() != (int) SIZE) { }
+                }
+                return null;
+            });
+            long got = 0;
+            try (Socket s = new Socket(loopback, server.getLocalPort()); OutputStream file = new FileOutputStream(out)) {
+                InputStream i = s.getInputStream();
+                DataOutputStream ack = new DataOutputStream(s.getOutputStream());
+                byte[] buf = new byte[8192];
+                int n;
+                while (got < SIZE && (n = i.read(buf)) > 0) {
+                    file.write(buf, 0, n);
+                    got += n;
+                    ack.writeInt((int) got);
+                }
+            }
+            sending.get();
+            return got;
+        }
+    }
+
+    @Benchmark
+    public long transferFrom() throws Exception {
+        try (FileChannel src = FileChannel.open(in.toPath())) {
+            DccSend send = new DccSend("in.bin", src, SIZE, null);
+            int port = send.listen(loopback, 0);
+            Future<DccTransfer.State> sending = threads.submit(send::run);
+            long got = 0;
+            try (SocketChannel s = SocketChannel.open(new InetSocketAddress(loopback, port));
+                 FileChannel dst = FileChannel.open(out.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                ByteBuffer ack = ByteBuffer.allocateDirect(4);
+                while (got < SIZE) {
+                    long n = dst.transferFrom(s, got, SIZE - got);
+                    if (n <= 0) break;
+                    got += n;
+                    ack.clear();
+                    ack.putInt((int) got);
+                    ack.flip();
+                    while (ack.hasRemaining()) s.write(ack);
+                }
+            }
+            sending.get();
+            send.close();
+            return got;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package vn.edu.usth.ircui.core.event;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Main-thread time to deliver 1,000 inbound messages to the chat views.
+ *
+ * Run with: ./gradlew :irc-core:jmh -Pjmh.includes=FrameBatching
+ * Each op is the whole 1,000-message burst, so the score reads directly as
+ * "µs of main thread per 1,000 messages". Queues are filled off the clock.
+ *
+ * - perMessagePost: one Looper post per line; every callback does add +
+ *   notifyItemInserted + scrollToPosition per message (the old path)
+ * - frameBatched:   lines go through MpscBuffer; one drain per frame hands each
+ *   callback a List, which does addAll + one range insert + one scroll
+ *
+ * "notifyCost" stands in for RecyclerView's per-notify bookkeeping and layout
+ * request (Blackhole.consumeCPU tokens); 0 shows the pure hand-off overhead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameBatchingBenchmark {
+
+    private static final int MESSAGES = 1000;
+
+    /** Fragments registered for messages (ChatFragment, channel, DM...). */
+    @Param({"1", "3"})
+    public int callbacks;
+
+    @Param({"0", "200"})
+    public int notifyCost;
+
+    private final List<ChatEvent> events = new ArrayList<>();
+    private final ArrayDeque<Runnable> looper = new ArrayDeque<>(); // stand-in for the main MessageQueue
+    private final MpscBuffer<ChatEvent> buffer = new MpscBuffer<>();
+    private List<List<ChatEvent>> views;
+
+    @Setup(Level.Trial)
+    public void setupTrial() {
+        for (int i = 0; i < MESSAGES; i++) {
+            events.add(ChatEvent.message("user" + (i % 50), "line " + i, i, false));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        views = new ArrayList<>();
+        for (int c = 0; c < callbacks; c++) views.add(new ArrayList<>());
+        looper.clear();
+        // what the network thread did before: one post per line
+        for (final ChatEvent e : events) {
+            synchronized (looper) {
+                looper.add(() -> {
+                    for (List<ChatEvent> rows : views) {
+                        rows.add(e);
+                        Blackhole.consumeCPU(notifyCost); // notifyItemInserted
+                        Blackhole.consumeCPU(notifyCost); // scrollToPosition
+                    }
+                });
+            }
+        }
+        // ... and what it does now
+        buffer.drain();
+        for (ChatEvent e : events) buffer.offer(e);
+    }
+
+    @Benchmark
+    public int perMessagePost() {
+        int n = 0;
+        while (true) {
+            Runnable r;
+            synchronized (looper) {
+                r = looper.poll();
+            }
+            if (r == null) return n;
+            r.run();
+            n++;
+        }
+    }
+
+    @Benchmark
+    public int frameBatched() {
+        List<ChatEvent> batch = buffer.drain();
+        for (List<ChatEvent> rows : views) {
+            rows.addAll(batch);
+            Blackhole.consumeCPU(notifyCost); // notifyItemRangeInserted
+            Blackhole.consumeCPU(notifyCost); // scrollToPosition
+        }
+        return batch.size();
+    }
+}
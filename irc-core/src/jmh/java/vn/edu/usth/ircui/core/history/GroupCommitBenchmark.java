@@ -0,0 +1,96 @@
+package vn.edu.usth.ircui.core.history;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+
+/**
+ * Lines persisted per second through the write-behind stage, by batch size and fsync policy.
+ *
+ * Run with: ./gradlew :irc-core:jmh -Pjmh.includes=GroupCommit
+ * Each op is a burst of 1,000 lines over 5 channels (what a busy network hands over in
+ * a few frames), appended and then flushed, so the score reads directly as lines/s.
+ *
+ * - maxBatch 1:    one write per line, the log without group commit
+ * - maxBatch 64:   a few writes per channel per burst
+ * - maxBatch 1024: the default, one write per channel per burst
+ *
+ * Write calls and forces per 1,000 lines (the log's own counters) are printed at the end
+ * of each trial: the syscalls the batching saves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GroupCommitBenchmark {
+
+    private static final int LINES = 1000;
+    private static final String[] CHANNELS = {"#android", "#java", "#linux", "#help", "#chat"};
+
+    @Param({"1", "64", "1024"})
+    public int maxBatch;
+
+    @Param({"ON_BACKGROUND", "INTERVAL", "EVERY_BATCH"})
+    public MessageLog.Sync sync;
+
+    private final ChatEvent[] events = new ChatEvent[LINES];
+    private File root;
+    private MessageLog log;
+    private long lines;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Random rnd = new Random(42);
+        long ts = 1_700_000_000_000L;
+        for (int i = 0; i < LINES; i++) {
+            String chan = CHANNELS[rnd.nextInt(CHANNELS.length)];
+            events[i] = ChatEvent.message("user" + rnd.nextInt(2000), chan,
+                    "this is a fairly ordinary chat line, about as long as most of them are: " + i,
+                    ts += rnd.nextInt(500), false, "msg" + i);
+        }
+        root = Files.createTempDirectory("group-commit").toFile();
+        log = new MessageLog(root);
+        log.setWriteBehind(MessageLog.DEFAULT_SLICE_MS, maxBatch);
+        log.setSync(sync, 1000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        log.close();
+        double per1k = lines > 0 ? 1000.0 / lines : 0;
+        System.out.printf(Locale.ROOT, "%n%d lines: %.1f writes, %.1f forces, %.1f commits per 1,000%n",
+                lines, log.batches() * per1k, log.syncs() * per1k, log.commits() * per1k);
+        delete(root);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long burst() throws InterruptedException {
+        for (ChatEvent e : events) log.append("irc.libera.chat", e.target, e);
+        log.flush();
+        lines += LINES;
+        return log.written();
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) for (File c : children) delete(c);
+        f.delete();
+    }
+}
@@ -0,0 +1,105 @@
+package vn.edu.usth.ircui.core.history;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+
+/**
+ * What opening a channel costs once its history is on disk.
+ *
+ * Run with: ./gradlew :irc-core:jmh -Pjmh.includes=MessageLog
+ * The log holds {@code messages} lines (~100 bytes of text each) in 4 MB segments.
+ *
+ * - openAndTail: new MessageLog, open the channel, read the last screenful (50 lines), close
+ *   (what a fragment pays after process death; the OS page cache is warm)
+ * - tail:        the last screenful from an open log (rotation, theme change)
+ * - seekByTime:  position of a timestamp in the middle, then a screenful from there
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageLogBenchmark {
+
+    private static final int SCREENFUL = 50;
+
+    @Param({"100000", "1000000"})
+    public int messages;
+
+    private File root;
+    private MessageLog log;
+    private ChannelLog channel;
+    private long middle;
+
+    @Setup
+    public void setup() throws Exception {
+        root = Files.createTempDirectory("message-log").toFile();
+        MessageLog writer = new MessageLog(root);
+        Random rnd = new Random(42);
+        long ts = 1_700_000_000_000L;
+        for (int i = 0; i < messages; i++) {
+            ts += rnd.nextInt(5000);
+            if (i == messages / 2) middle = ts;
+            writer.append("irc.libera.chat", "#android", ChatEvent.message("user" + rnd.nextInt(2000), "#android",
+                    "this is a fairly ordinary chat line, about as long as most of them are: " + i,
+                    ts, false, "msg" + i));
+        }
+        writer.close();
+        log = new MessageLog(root);
+        channel = log.channel("irc.libera.chat", "#android");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        log.close();
+        File[] networks = root.listFiles();
+        if (networks != null) {
+            for (File n : networks) {
+                File[] chans = n.listFiles();
+                if (chans != null) {
+                    for (File c : chans) {
+                        File[] files = c.listFiles();
+                        if (files != null) for (File f : files) f.delete();
+                        c.delete();
+                    }
+                }
+                n.delete();
+            }
+        }
+        root.delete();
+    }
+
+    @Benchmark
+    public List<ChatEvent> openAndTail() throws IOException {
+        MessageLog fresh = new MessageLog(root);
+        try {
+            return fresh.channel("irc.libera.chat", "#android").tail(SCREENFUL);
+        } finally {
+            fresh.close();
+        }
+    }
+
+    @Benchmark
+    public List<ChatEvent> tail() throws IOException {
+        return channel.tail(SCREENFUL);
+    }
+
+    @Benchmark
+    public List<ChatEvent> seekByTime() throws IOException {
+        return channel.read(channel.positionAt(middle), SCREENFUL);
+    }
+}
@@ -0,0 +1,126 @@
+package vn.edu.usth.ircui.core.history;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+
+/**
+ * Search over a large history: {@code messages} lines of ~12 words each, drawn from a
+ * 5000-word vocabulary with a few very common words, over 4 channels, in 4 MB segments.
+ *
+ * Run with: ./gradlew :irc-core:jmh -Pjmh.includes=Search
+ *
+ * - rareWord:        one word in 1 line of 10 000: every segment is looked at
+ * - commonWords:     two words in about a quarter of the lines each, first page
+ * - nickInRange:     a common word from one nick in one channel over a day in the middle
+ * - nextPage:        the fifth page of commonWords (cursor handling, no rescan)
+ * - openAndVerify:   a new MessageLog checking every segment's index (what startup pays)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SearchBenchmark {
+
+    private static final int PAGE = 50;
+    private static final String[] CHANNELS = {"#android", "#java", "#kotlin", "#linux"};
+
+    @Param({"1000000"})
+    public int messages;
+
+    private File root;
+    private MessageLog log;
+    private long dayStart;
+    private SearchPage.Cursor fourth;
+
+    @Setup
+    public void setup() throws Exception {
+        root = Files.createTempDirectory("search").toFile();
+        MessageLog writer = new MessageLog(root);
+        Random rnd = new Random(42);
+        String[] vocab = new String[5000];
+        for (int i = 0; i < vocab.length; i++) vocab[i] = "w" + Integer.toString(i * 7919 % 99991, 36);
+        vocab[0] = "the";
+        vocab[1] = "build";
+        vocab[2] = "release";
+        long ts = 1_700_000_000_000L;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < messages; i++) {
+            ts += rnd.nextInt(2000);
+            if (i == messages / 2) dayStart = ts;
+            sb.setLength(0);
+            for (int w = 0; w < 12; w++) {
+                // a rough Zipf: small ids far more often
+                int id = (int) (vocab.length * Math.pow(rnd.nextDouble(), 4));
+                sb.append(vocab[id]).append(' ');
+            }
+            if (i % 10_000 == 5_000) sb.append("zyzzyva");
+            String chan = CHANNELS[i % CHANNELS.length];
+            writer.append("irc.libera.chat", chan, ChatEvent.message("user" + rnd.nextInt(500), chan,
+                    sb.toString(), ts, false, null));
+        }
+        writer.close();
+        log = new MessageLog(root);
+        log.verifyIndexes(ForkJoinPool.commonPool());
+        SearchPage.Cursor c = null;
+        for (int i = 0; i < 4; i++) c = log.search(SearchQuery.of("build release"), c, PAGE).next;
+        fourth = c;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        log.close();
+        delete(root);
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) for (File c : children) delete(c);
+        f.delete();
+    }
+
+    @Benchmark
+    public SearchPage rareWord() throws IOException {
+        return log.search(SearchQuery.of("zyzzyva"), null, PAGE);
+    }
+
+    @Benchmark
+    public SearchPage commonWords() throws IOException {
+        return log.search(SearchQuery.of("build release"), null, PAGE);
+    }
+
+    @Benchmark
+    public SearchPage nickInRange() throws IOException {
+        return log.search(SearchQuery.of("the").from("user7").in("irc.libera.chat", "#java")
+                .between(dayStart, dayStart + 24 * 3600_000L), null, PAGE);
+    }
+
+    @Benchmark
+    public SearchPage nextPage() throws IOException {
+        return log.search(SearchQuery.of("build release"), fourth, PAGE);
+    }
+
+    @Benchmark
+    public int openAndVerify() throws IOException {
+        MessageLog fresh = new MessageLog(root);
+        try {
+            return fresh.verifyIndexes(ForkJoinPool.commonPool());
+        } finally {
+            fresh.close();
+        }
+    }
+}
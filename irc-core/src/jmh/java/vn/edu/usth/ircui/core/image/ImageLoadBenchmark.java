@@ -0,0 +1,143 @@
+package vn.edu.usth.ircui.core.image;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * What showing one phone photo in a chat row costs, by where the image comes from.
+ *
+ * Run with: ./gradlew :irc-core:jmh -Pjmh.includes=ImageLoad
+ * The source is a 4032 × 3024 JPEG (12 MP); the row's box is 660 × 960 px. ImageIO
+ * stands in for BitmapFactory, source subsampling for inSampleSize.
+ *
+ * - fullDecode:   the whole photo, what setImageURI did on the main thread at every bind
+ * - sampledDecode: at {@link ImageLoader#sampleSize} (4): a first view, on the pool
+ * - thumbnailHit: the JPEG thumbnail from the disk cache: scrolling back after the
+ *                 memory cache let it go, or a new process
+ * - memoryHit:    {@link ImageLoader#load} answered from memory: what most binds cost
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageLoadBenchmark {
+
+    private static final int BOX_WIDTH = 660;
+    private static final int BOX_HEIGHT = 960;
+
+    private static final class ImageIoCodec implements ImageLoader.Codec<BufferedImage> {
+        @Override
+        public BufferedImage decode(ImageLoader.Key key) throws IOException {
+            return sampled(new File(key.source), key.width, key.height);
+        }
+
+        @Override
+        public byte[] encode(BufferedImage image) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpg", out);
+            return out.toByteArray();
+        }
+
+        @Override
+        public BufferedImage decode(byte[] thumbnail) throws IOException {
+            return ImageIO.read(new ByteArrayInputStream(thumbnail));
+        }
+
+        @Override
+        public int sizeOf(BufferedImage image) {
+            return image.getWidth() * image.getHeight() * 4;
+        }
+    }
+
+    private final ImageIoCodec codec = new ImageIoCodec();
+    private final Object target = new Object();
+    private File dir;
+    private File photo;
+    private byte[] thumbnail;
+    private ImageLoader<Object, BufferedImage> loader;
+    private ImageLoader.Key key;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("image-load").toFile();
+        photo = new File(dir, "photo.jpg");
+        BufferedImage img = new BufferedImage(4032, 3024, BufferedImage.TYPE_3BYTE_BGR);
+        Random rnd = new Random(42);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                // smooth with some grain, so it compresses like a photo rather than a flat fill
+                int g = rnd.nextInt(24);
+                img.setRGB(x, y, ((x * 255 / 4032 + g) & 255) << 16 | ((y * 255 / 3024 + g) & 255) << 8 | ((x + y) & 255));
+            }
+        }
+        ImageIO.write(img, "jpg", photo);
+        key = new ImageLoader.Key(photo.getPath(), BOX_WIDTH, BOX_HEIGHT);
+        thumbnail = codec.encode(codec.decode(key));
+        loader = new ImageLoader<>(codec, 64L << 20, null, Runnable::run, Runnable::run);
+        loader.load(key, target, image -> { });
+    }
+
+    @TearDown
+    public void tearDown() {
+        photo.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public BufferedImage fullDecode() throws IOException {
+        return ImageIO.read(photo);
+    }
+
+    @Benchmark
+    public BufferedImage sampledDecode() throws IOException {
+        return codec.decode(key);
+    }
+
+    @Benchmark
+    public BufferedImage thumbnailHit() throws IOException {
+        return codec.decode(thumbnail);
+    }
+
+    @Benchmark
+    public BufferedImage memoryHit() {
+        return loader.load(key, target, image -> { });
+    }
+
+    /** {@code file} decoded at the sample size for the box. */
+    static BufferedImage sampled(File file, int boxWidth, int boxHeight) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in);
+                int s = ImageLoader.sampleSize(reader.getWidth(0), reader.getHeight(0), boxWidth, boxHeight);
+                ImageReadParam p = reader.getDefaultReadParam();
+                p.setSourceSubsampling(s, s, 0, 0);
+                return reader.read(0, p);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package vn.edu.usth.ircui.core.net;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A paste through the paced writer: how long 40 lines take to leave, and how many
+ * flushes that costs.
+ *
+ * Run with: ./gradlew :irc-core:jmh -Pjmh.includes=OutboundQueue
+ * Time is scaled down as in OutboundQueueTest (40 ms per line, a burst of 5), so the
+ * score should sit at (40 - 5) * 40 = 1400 ms; the sustained rate is 40 lines over the
+ * score, against a limit of 25 lines/s. The flush and line counters come out per paste:
+ * a burst is flushed once, so flushes stay well under lines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class OutboundQueueBenchmark {
+
+    private static final int LINES = 40;
+    private static final int BURST = 5;
+    private static final long MS_PER_LINE = 40;
+
+    /** What a paste cost on the wire. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Wire {
+        public long flushes;
+        public long lines;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            flushes = lines = 0;
+        }
+    }
+
+    @Benchmark
+    public long paste(Wire wire) throws InterruptedException {
+        CountDownLatch sent = new CountDownLatch(LINES);
+        OutboundQueue q = new OutboundQueue(new LineSink() {
+            @Override
+            public void write(String line) {
+                sent.countDown();
+            }
+
+            @Override
+            public void flush() {
+            }
+        }, new TokenBucket(BURST, MS_PER_LINE, 0));
+        for (int i = 0; i < LINES; i++) q.enqueue("#chan", "paste line " + i);
+        q.start("bench-writer");
+        sent.await();
+        q.stop();
+        wire.flushes += q.flushes();
+        wire.lines += q.linesSent();
+        return q.linesSent();
+    }
+}
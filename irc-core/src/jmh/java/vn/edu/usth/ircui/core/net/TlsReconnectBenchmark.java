@@ -0,0 +1,143 @@
+package vn.edu.usth.ircui.core.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Reconnect cost over TLS to a local server: TCP connect + handshake + first byte.
+ *
+ * Run with: ./gradlew :irc-core:jmh -Pjmh.includes=TlsReconnect
+ * The server is a loopback TLS socket with a throw-away keytool certificate that
+ * writes one byte per connection, so the score is the handshake itself; on a
+ * mobile link every extra round trip of the full handshake adds an RTT on top.
+ *
+ * - resumed: every reconnect goes through one {@link TlsSessionCache}, as the app does
+ * - full:    a fresh cache (fresh SSLContext) per reconnect, i.e. no session to resume
+ *
+ * A TLS 1.2 resumption also skips a round trip and the certificate check; a TLS 1.3
+ * one still does (EC)DHE, so on loopback it mostly saves the certificate path work.
+ *
+ * The benchmark prints the cache's own full/resumed split when a trial ends.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TlsReconnectBenchmark {
+
+    private static final String HOST = "localhost";
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    @Param({"resumed", "full"})
+    public String mode;
+
+    /** Highest version the client offers: 1.2 resumes by session ID, 1.3 by ticket (PSK). */
+    @Param({"TLSv1.2", "TLSv1.3"})
+    public String protocol;
+
+    private ServerSocket server;
+    private KeyStore keyStore;
+    private TlsSessionCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        keyStore = makeKeyStore();
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD);
+        SSLContext serverCtx = SSLContext.getInstance("TLS");
+        serverCtx.init(kmf.getKeyManagers(), null, null);
+        server = serverCtx.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread t = new Thread(this::serve, "bench-tls-server");
+        t.setDaemon(true);
+        t.start();
+        cache = new TlsSessionCache(clientContext());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.out.println(protocol + " " + mode + ": " + cache.summary());
+        server.close();
+    }
+
+    @Benchmark
+    public int reconnect() throws Exception {
+        if ("full".equals(mode)) cache = new TlsSessionCache(clientContext());
+        Socket raw = new Socket();
+        raw.setTcpNoDelay(true); // as IrcConnection does
+        raw.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort()), 5000);
+        try (SSLSocket ssl = cache.handshake(raw, HOST, server.getLocalPort(), 5000)) {
+            // reading is also what lets a TLS 1.3 client pick up the server's session ticket
+            return ssl.getInputStream().read();
+        }
+    }
+
+    private void serve() {
+        while (!server.isClosed()) {
+            try {
+                final Socket s = server.accept();
+                new Thread(() -> {
+                    try (Socket c = s) {
+                        c.setTcpNoDelay(true);
+                        c.getOutputStream().write(1);
+                        c.getOutputStream().flush();
+                        c.getInputStream().read(); // until the client closes
+                    } catch (IOException ignored) {
+                    }
+                }, "bench-tls-conn").start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private SSLContext clientContext() throws GeneralSecurityException {
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+        SSLContext ctx = SSLContext.getInstance(protocol);
+        ctx.init(null, tmf.getTrustManagers(), null);
+        return ctx;
+    }
+
+    private static KeyStore makeKeyStore() throws Exception {
+        File file = File.createTempFile("bench-tls", ".p12");
+        file.delete(); // keytool refuses to write into an existing empty file
+        file.deleteOnExit();
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process p = new ProcessBuilder(keytool, "-genkeypair", "-alias", "bench", "-keyalg", "EC",
+                "-keysize", "256", "-validity", "2", "-dname", "CN=" + HOST,
+                "-ext", "SAN=dns:" + HOST + ",ip:127.0.0.1",
+                "-keystore", file.getPath(), "-storetype", "PKCS12",
+                "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                .redirectErrorStream(true).start();
+        if (p.waitFor() != 0) throw new IOException("keytool failed with exit code " + p.exitValue());
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(file)) {
+            ks.load(in, PASSWORD);
+        }
+        return ks;
+    }
+}
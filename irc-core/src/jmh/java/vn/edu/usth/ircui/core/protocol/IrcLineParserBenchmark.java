@@ -0,0 +1,112 @@
+package vn.edu.usth.ircui.core.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lines/second and bytes allocated per line for a busy channel.
+ *
+ * Run with: ./gradlew :irc-core:jmh
+ * The gc profiler is enabled in build.gradle.kts; read "gc.alloc.rate.norm" as bytes per line.
+ *
+ * - framerOnly:   split + parse, touch nothing (what the dispatcher pays for lines it ignores)
+ * - framerRouted: split + parse + read command/nick/target/text (a displayed PRIVMSG)
+ * - stringSplit:  the usual String-based approach (decode whole line, split on spaces)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class IrcLineParserBenchmark {
+
+    private static final int LINES = 1000;
+
+    private byte[] stream;
+    private IrcLineFramer framer;
+    private long acc;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            String nick = "user" + rnd.nextInt(2000);
+            String line;
+            switch (i % 10) {
+                case 0:
+                    line = ":" + nick + "!~" + nick + "@host-" + rnd.nextInt(999) + ".example.net JOIN #busy";
+                    break;
+                case 1:
+                    line = ":" + nick + "!~" + nick + "@host.example.net QUIT :Ping timeout: 240 seconds";
+                    break;
+                case 2:
+                    line = "@time=2025-01-01T12:00:00.000Z;msgid=abc" + i + " :" + nick
+                            + "!~u@h PRIVMSG #busy :tin nhắn tiếng Việt có dấu 😀 " + i;
+                    break;
+                default:
+                    line = ":" + nick + "!~" + nick + "@gateway/web/irccloud.com/x-" + rnd.nextInt(99999)
+                            + " PRIVMSG #busy :this is a fairly ordinary chat line number " + i;
+                    break;
+            }
+            sb.append(line).append("\r\n");
+        }
+        stream = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        framer = new IrcLineFramer(line -> acc += line.numeric() + line.paramCount());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long framerOnly() {
+        framer.feed(ByteBuffer.wrap(stream));
+        return acc;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void framerRouted(Blackhole bh) {
+        IrcLineFramer f = new IrcLineFramer(line -> {
+            if (line.isCommand(IrcCommands.PRIVMSG)) {
+                bh.consume(line.nick());
+                bh.consume(line.param(0));
+                bh.consume(line.lastParam());
+            } else {
+                bh.consume(line.command());
+            }
+        });
+        f.feed(ByteBuffer.wrap(stream));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void stringSplit(Blackhole bh) {
+        String all = new String(stream, StandardCharsets.UTF_8);
+        for (String raw : all.split("\r\n")) {
+            String rest = raw;
+            if (rest.startsWith("@")) rest = rest.substring(rest.indexOf(' ') + 1);
+            String prefix = null;
+            if (rest.startsWith(":")) {
+                int sp = rest.indexOf(' ');
+                prefix = rest.substring(1, sp);
+                rest = rest.substring(sp + 1);
+            }
+            int colon = rest.indexOf(" :");
+            String trailing = colon >= 0 ? rest.substring(colon + 2) : null;
+            String[] parts = (colon >= 0 ? rest.substring(0, colon) : rest).split(" ");
+            bh.consume(prefix);
+            bh.consume(parts);
+            bh.consume(trailing);
+        }
+    }
+}
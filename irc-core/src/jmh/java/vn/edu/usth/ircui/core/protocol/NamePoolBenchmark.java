@@ -0,0 +1,93 @@
+package vn.edu.usth.ircui.core.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatcher cost of "who sent this, is it me, which conversation" for a busy
+ * channel: 10,000 PRIVMSGs from 2,000 nicks (mixed case, rfc1459 brackets).
+ *
+ * Run with: ./gradlew :irc-core:jmh -Pjmh.includes=NamePool
+ * Score is ns per message including framing + parsing (the same for both);
+ * "gc.alloc.rate.norm" is bytes allocated per message. Each op keeps the sender of
+ * every message in a history array, like the chat list does.
+ *
+ * - strings:  line.nick() / line.param(0) decoded per message, equalsIgnoreCase against our nick
+ * - interned: NamePool lookups straight from the line bytes, reference check against our nick
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NamePoolBenchmark {
+
+    private static final int MESSAGES = 10_000;
+    private static final int NICKS = 2_000;
+    private static final String ME = "Me[away]";
+
+    private byte[] stream;
+    private final String[] history = new String[MESSAGES];
+    private int next;
+    private int mine;
+    private IrcLineFramer strings;
+    private IrcLineFramer interned;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(42);
+        String[] nicks = new String[NICKS];
+        for (int i = 0; i < NICKS; i++) {
+            nicks[i] = (i % 3 == 0 ? "User" : "user") + i + (i % 7 == 0 ? "[m]" : "");
+        }
+        nicks[17] = "me{AWAY}"; // ourselves, echoed back under another spelling
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < MESSAGES; i++) {
+            String nick = nicks[rnd.nextInt(NICKS)];
+            sb.append(':').append(nick).append("!~").append(nick).append("@gateway/web/x-")
+                    .append(rnd.nextInt(99999)).append(" PRIVMSG #Busy :this is a fairly ordinary chat line number ")
+                    .append(i).append("\r\n");
+        }
+        stream = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        strings = new IrcLineFramer(line -> {
+            String from = line.nick();
+            if (from.equalsIgnoreCase(ME)) mine++;
+            mine += line.param(0).length();
+            history[next++] = from;
+        });
+        NamePool pool = new NamePool();
+        IrcName self = pool.intern(ME);
+        interned = new IrcLineFramer(line -> {
+            IrcName from = pool.nick(line);
+            if (from.same(self)) mine++;
+            mine += pool.param(line, 0).name.length();
+            history[next++] = from.name;
+        });
+        interned(); // the pool is warm in a running session
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public int strings() {
+        next = 0;
+        strings.feed(stream, 0, stream.length);
+        return mine;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public int interned() {
+        next = 0;
+        interned.feed(stream, 0, stream.length);
+        return mine;
+    }
+}
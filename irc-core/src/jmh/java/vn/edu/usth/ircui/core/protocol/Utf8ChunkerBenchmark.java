@@ -0,0 +1,79 @@
+package vn.edu.usth.ircui.core.protocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbound chunking: byte-exact chunker vs the old fixed 400-char substring loop.
+ *
+ * Compare throughput and gc.alloc.rate.norm; that the old loop's chunks overrun the
+ * byte budget on non-ASCII text is covered by Utf8ChunkerTest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Utf8ChunkerBenchmark {
+
+    @Param({"ascii", "vietnamese", "emoji"})
+    public String kind;
+
+    private String text;
+    private int budget;
+    private final Utf8Chunker chunker = new Utf8Chunker();
+
+    @Setup
+    public void setup() {
+        String unit;
+        switch (kind) {
+            case "vietnamese": unit = "Chúng tôi đang thử nghiệm ứng dụng trò chuyện IRC. "; break;
+            case "emoji":      unit = "ok 👍🏽 family 👨‍👩‍👧 flag 🇻🇳 "; break;
+            default:           unit = "the quick brown fox jumps over the lazy dog "; break;
+        }
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 4000) sb.append(unit);
+        text = sb.toString();
+        budget = Utf8Chunker.budgetFor("someNick", "~someNick", "user/someNick", "PRIVMSG", "#usth-ircui", 512);
+    }
+
+    @Benchmark
+    public void byteExact(Blackhole bh) {
+        chunker.chunk(text, budget, (t, from, to, utf8) -> bh.consume(utf8.remaining()));
+    }
+
+    @Benchmark
+    public List<String> byteExactStrings() {
+        return chunker.chunk(text, budget);
+    }
+
+    @Benchmark
+    public List<String> oldSubstringLoop() {
+        return substringLoop(text);
+    }
+
+    /** The previous IrcClientManager.chunkForIrc, kept verbatim as the baseline. */
+    private static List<String> substringLoop(String text) {
+        List<String> out = new ArrayList<>();
+        if (text.isEmpty()) return out;
+        int i = 0;
+        while (i < text.length()) {
+            int end = Math.min(text.length(), i + 400);
+            if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end--;
+            }
+            out.add(text.substring(i, end));
+            i = end;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,117 @@
+package vn.edu.usth.ircui.core.render;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Main-thread cost of binding one chat row, without the views (what is left is the
+ * work the adapter does to get the strings it sets).
+ *
+ * Run with: ./gradlew :irc-core:jmh -Pjmh.includes=RowBind
+ *
+ * - bindOld:  what MessageAdapter.onBindViewHolder did on every bind: SimpleDateFormat
+ *             on a new Date, the header concatenation, the nick hash, and for code lines
+ *             trim + two replaceFirst regexes
+ * - bindNew:  reading the prepared RowModel's fields
+ * - prepare:  RowModels.of, the once-per-line cost moved to the history/render thread
+ * - classifyOld: Message's toCharArray() code check, paid per inbound line
+ *
+ * {@code codePercent} is the share of lines that look like code.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RowBindBenchmark {
+
+    private static final int LINES = 1024;
+
+    @Param({"10", "50"})
+    public int codePercent;
+
+    private final String[] nicks = new String[LINES];
+    private final String[] texts = new String[LINES];
+    private final long[] times = new long[LINES];
+    private final boolean[] code = new boolean[LINES];
+    private final RowModel[] prepared = new RowModel[LINES];
+    private final SimpleDateFormat sdf = new SimpleDateFormat("HH:mm", Locale.getDefault());
+    private final RowModels rows = new RowModels(8, TimeZone.getDefault());
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(7);
+        long ts = 1_700_000_000_000L;
+        for (int i = 0; i < LINES; i++) {
+            nicks[i] = "user" + rnd.nextInt(200);
+            ts += rnd.nextInt(20_000);
+            times[i] = ts;
+            texts[i] = rnd.nextInt(100) < codePercent
+                    ? "```java\nfor (int i = 0; i < n; i++) { sum += a[i]; }\n```"
+                    : "did anyone try the new build on android 14? it crashes on start for me";
+            code[i] = oldLooksLikeCode(texts[i]);
+            prepared[i] = rows.of(nicks[i], texts[i], times[i], false);
+        }
+    }
+
+    @Benchmark
+    public void bindOld(Blackhole bh) {
+        int i = next++ & (LINES - 1);
+        String time = sdf.format(new Date(times[i]));
+        bh.consume(nicks[i] + "  •  " + time);
+        bh.consume(Math.abs(nicks[i].hashCode()) % 8);
+        if (code[i]) {
+            String t = texts[i].trim();
+            if (t.startsWith("```")) {
+                t = t.replaceFirst("^```[a-zA-Z0-9]*\\n?", "").replaceFirst("\\n?```$", "");
+            }
+            bh.consume(t);
+        } else {
+            bh.consume(texts[i]);
+        }
+    }
+
+    @Benchmark
+    public void bindNew(Blackhole bh) {
+        RowModel r = prepared[next++ & (LINES - 1)];
+        bh.consume(r.header);
+        bh.consume(r.colorIndex);
+        bh.consume(r.code);
+        bh.consume(r.display);
+    }
+
+    @Benchmark
+    public RowModel prepare() {
+        int i = next++ & (LINES - 1);
+        return rows.of(nicks[i], texts[i], times[i], false);
+    }
+
+    @Benchmark
+    public boolean classifyOld() {
+        return oldLooksLikeCode(texts[next++ & (LINES - 1)]);
+    }
+
+    private static boolean oldLooksLikeCode(String s) {
+        String t = s.trim();
+        if (t.startsWith("```") && t.endsWith("```")) return true;
+        int symbols = 0;
+        for (char c : t.toCharArray()) {
+            if ("{}[]();<>#=/\\$\"'`".indexOf(c) >= 0) symbols++;
+            if (symbols > 6) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,172 @@
+package vn.edu.usth.ircui.core.dcc;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The CTCP messages that set up a DCC file transfer, as sent in a PRIVMSG:
+ *
+ * <pre>
+ *   \1DCC SEND &lt;file&gt; &lt;address&gt; &lt;port&gt; [&lt;size&gt;]\1   the sender listens and offers a file
+ *   \1DCC RESUME &lt;file&gt; &lt;port&gt; &lt;position&gt;\1          the receiver has part of it already
+ *   \1DCC ACCEPT &lt;file&gt; &lt;port&gt; &lt;position&gt;\1          the sender will start there
+ * </pre>
+ *
+ * The address is an IPv4 address as one unsigned decimal number, or an IPv6 literal;
+ * a file name with spaces is quoted. RESUME and ACCEPT name the transfer by its port.
+ */
+public final class DccMessage {
+
+    public static final char CTCP = '\u0001';
+
+    public enum Type { SEND, RESUME, ACCEPT }
+
+    public final Type type;
+    public final String fileName;
+    /** SEND only: the address as sent (a number for IPv4), else null. */
+    public final String host;
+    public final int port;
+    /** The size for SEND (-1 if not given), the position for RESUME and ACCEPT. */
+    public final long value;
+
+    private DccMessage(Type type, String fileName, String host, int port, long value) {
+        this.type = type;
+        this.fileName = fileName;
+        this.host = host;
+        this.port = port;
+        this.value = value;
+    }
+
+    public static DccMessage send(String fileName, InetAddress address, int port, long size) {
+        return new DccMessage(Type.SEND, fileName, hostOf(address), port, size);
+    }
+
+    public static DccMessage resume(String fileName, int port, long position) {
+        return new DccMessage(Type.RESUME, fileName, null, port, position);
+    }
+
+    public static DccMessage accept(String fileName, int port, long position) {
+        return new DccMessage(Type.ACCEPT, fileName, null, port, position);
+    }
+
+    /**
+     * A DCC SEND / RESUME / ACCEPT from the text of a PRIVMSG (with or without the CTCP
+     * delimiters), or null if it is not one or does not make sense.
+     */
+    public static DccMessage parse(String text) {
+        if (text == null) return null;
+        int from = 0, to = text.length();
+        if (to > 0 && text.charAt(0) == CTCP) from++;
+        if (to > from && text.charAt(to - 1) == CTCP) to--;
+        List<String> f = fields(text.substring(from, to));
+        if (f.size() < 4 || !f.get(0).equalsIgnoreCase("DCC")) return null;
+        try {
+            String kind = f.get(1).toUpperCase(java.util.Locale.ROOT);
+            if (kind.equals("SEND") && f.size() >= 5) {
+                int port = port(f.get(4));
+                long size = f.size() >= 6 ? Long.parseLong(f.get(5)) : -1;
+                return new DccMessage(Type.SEND, f.get(2), f.get(3), port, size < 0 ? -1 : size);
+            }
+            if ((kind.equals("RESUME") || kind.equals("ACCEPT")) && f.size() >= 5) {
+                long position = Long.parseLong(f.get(4));
+                if (position < 0) return null;
+                return new DccMessage(kind.equals("RESUME") ? Type.RESUME : Type.ACCEPT,
+                        f.get(2), null, port(f.get(3)), position);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return null;
+    }
+
+    /** The message as PRIVMSG text, CTCP delimiters included. */
+    public String toCtcp() {
+        StringBuilder sb = new StringBuilder(64).append(CTCP).append("DCC ").append(type).append(' ');
+        if (fileName.indexOf(' ') >= 0) sb.append('"').append(fileName.replace("\"", "")).append('"');
+        else sb.append(fileName);
+        if (type == Type.SEND) sb.append(' ').append(host);
+        sb.append(' ').append(port);
+        if (type != Type.SEND || value >= 0) sb.append(' ').append(value);
+        return sb.append(CTCP).toString();
+    }
+
+    /** SEND: the address to connect to. */
+    public InetAddress address() throws UnknownHostException {
+        if (host == null) throw new UnknownHostException("no address");
+        if (host.indexOf(':') >= 0) return InetAddress.getByName(host); // an IPv6 literal: no lookup
+        long n;
+        try {
+            n = Long.parseLong(host);
+        } catch (NumberFormatException e) {
+            throw new UnknownHostException(host);
+        }
+        if (n < 0 || n > 0xFFFFFFFFL) throw new UnknownHostException(host);
+        return InetAddress.getByAddress(new byte[]{(byte) (n >>> 24), (byte) (n >>> 16), (byte) (n >>> 8), (byte) n});
+    }
+
+    /**
+     * The offered name made safe to save under: no directories, no control characters,
+     * no leading dots (a hidden file, or "..").
+     */
+    public String safeFileName() {
+        String name = fileName;
+        int slash = Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\'));
+        if (slash >= 0) name = name.substring(slash + 1);
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < 0x20 || c == 0x7F || c == ':' || c == '*' || c == '?' || c == '"' || c == '<' || c == '>' || c == '|') {
+                sb.append('_');
+            } else if (c != '.' || sb.length() > 0) {
+                sb.append(c);
+            }
+        }
+        return sb.length() > 0 ? sb.toString() : "file";
+    }
+
+    @Override
+    public String toString() {
+        return toCtcp().substring(1, toCtcp().length() - 1);
+    }
+
+    // ---------- internals ----------
+
+    private static String hostOf(InetAddress a) {
+        if (a instanceof Inet4Address) {
+            byte[] b = a.getAddress();
+            return Long.toString(((b[0] & 0xFFL) << 24) | ((b[1] & 0xFF) << 16) | ((b[2] & 0xFF) << 8) | (b[3] & 0xFF));
+        }
+        return a.getHostAddress();
+    }
+
+    private static int port(String s) {
+        int p = Integer.parseInt(s);
+        if (p < 0 || p > 65535) throw new NumberFormatException(s);
+        return p;
+    }
+
+    /** Space-separated fields; a field starting with a quote runs to the closing quote. */
+    private static List<String> fields(String s) {
+        List<String> out = new ArrayList<>(6);
+        int i = 0, n = s.length();
+        while (i < n) {
+            while (i < n && s.charAt(i) == ' ') i++;
+            if (i >= n) break;
+            if (s.charAt(i) == '"') {
+                int end = s.indexOf('"', i + 1);
+                if (end < 0) end = n;
+                out.add(s.substring(i + 1, end));
+                i = end + 1;
+            } else {
+                int end = s.indexOf(' ', i);
+                if (end < 0) end = n;
+                out.add(s.substring(i, end));
+                i = end;
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,135 @@
+package vn.edu.usth.ircui.core.dcc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The accepting side of a DCC SEND: connects to the sender and writes what comes into
+ * the file, acknowledging as it goes.
+ *
+ * <pre>
+ *   DccReceive receive = new DccReceive(name, channel, offer.value, offer.address-and-port, listener);
+ *   receive.run(0);                          // on a worker thread
+ *   // after a failure: PRIVMSG sender :DccMessage.resume(name, port, receive.resumePosition()),
+ *   // and on the ACCEPT: receive.run(accept.value)
+ * </pre>
+ *
+ * One direct buffer ({@value DccTransfer#BUFFER_BYTES} bytes) is filled from the socket
+ * and written to the file at its position, then acknowledged: a write and an
+ * acknowledgement per buffer, not per packet.
+ */
+public final class DccReceive extends DccTransfer {
+
+    private final FileChannel target;
+    private final InetSocketAddress sender;
+    private volatile long connectMillis = 15_000;
+
+    /**
+     * @param target   the file, writable; whatever it holds past the start position is
+     *                 replaced
+     * @param size     bytes offered, or -1 to read until the sender closes
+     */
+    public DccReceive(String fileName, FileChannel target, long size, InetSocketAddress sender, Listener listener) {
+        super(fileName, size, listener);
+        this.target = target;
+        this.sender = sender;
+    }
+
+    public void setConnectTimeout(long millis) {
+        connectMillis = millis;
+    }
+
+    /** Where a resumed transfer would start: what the file holds, up to the size offered. */
+    public long resumePosition() throws IOException {
+        long have = target.size();
+        return size >= 0 ? Math.min(have, size) : have;
+    }
+
+    /**
+     * Connects and receives from {@code from} (0, or the position the sender ACCEPTed)
+     * to the end. Returns the state it ended in.
+     */
+    public State run(long from) {
+        if (from < 0 || (size >= 0 && from > size)) throw new IllegalArgumentException("from " + from);
+        position = from;
+        return attempt(this::receive);
+    }
+
+    // ---------- internals ----------
+
+    private void receive(Selector selector) throws IOException {
+        if (target.size() > position) target.truncate(position);
+        try (SocketChannel ch = SocketChannel.open()) {
+            ch.configureBlocking(false);
+            SelectionKey key;
+            if (ch.connect(sender)) {
+                key = ch.register(selector, SelectionKey.OP_READ);
+            } else {
+                key = ch.register(selector, SelectionKey.OP_CONNECT);
+                do {
+                    select(selector, connectMillis, "could not connect to " + sender + " in " + connectMillis + " ms");
+                    selector.selectedKeys().clear();
+                } while (!ch.finishConnect());
+                key.interestOps(SelectionKey.OP_READ);
+            }
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            ByteBuffer ack = ByteBuffer.allocateDirect(4);
+            ack.flip(); // nothing to send yet
+            long acked = -1;
+            boolean eof = false;
+            started();
+            while (!eof && (size < 0 || position < size)) {
+                select(selector);
+                selector.selectedKeys().clear();
+                if (key.isWritable()) {
+                    ch.write(ack); // the rest of an acknowledgement the socket had no room for
+                    if (!ack.hasRemaining()) interest(key, SelectionKey.OP_READ);
+                }
+                if (!key.isReadable()) continue;
+                // fill the buffer (never past the offered size) before touching the file
+                buf.clear();
+                if (size >= 0) buf.limit((int) Math.min(buf.capacity(), size - position));
+                int n;
+                while ((n = ch.read(buf)) > 0 && buf.hasRemaining()) { }
+                eof = n < 0;
+                buf.flip();
+                while (buf.hasRemaining()) position += target.write(buf, position);
+                if (!ack.hasRemaining() && position != acked) {
+                    // a later acknowledgement replaces one that was never started, never one half sent
+                    ack.clear();
+                    putAck(ack, position);
+                    ack.flip();
+                    acked = position;
+                    ch.write(ack);
+                    if (ack.hasRemaining()) interest(key, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+                progress();
+            }
+            if (eof && size >= 0 && position < size) {
+                throw new EOFException("closed by the sender at " + position + " of " + size);
+            }
+            target.force(false);
+            if (!eof) finalAck(selector, key, ch, ack, acked);
+        }
+    }
+
+    /** Blocks until the last position is acknowledged: the sender waits for it to finish. */
+    private void finalAck(Selector selector, SelectionKey key, SocketChannel ch, ByteBuffer ack, long acked) throws IOException {
+        key.cancel();
+        selector.selectNow();
+        ch.configureBlocking(true);
+        while (ack.hasRemaining()) ch.write(ack);
+        if (acked != position) {
+            ack.clear();
+            putAck(ack, position);
+            ack.flip();
+            while (ack.hasRemaining()) ch.write(ack);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package vn.edu.usth.ircui.core.dcc;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The offering side of a DCC SEND: listens on a port of its own, and serves the file to
+ * the peer that connects.
+ *
+ * <pre>
+ *   DccSend send = new DccSend(name, channel, size, listener);
+ *   int port = send.listen(localAddress, 0);
+ *   // PRIVMSG peer :DccMessage.send(name, localAddress, port, size).toCtcp()
+ *   send.run();                  // on a worker thread
+ *   // on RESUME: if (send.resume(position)) reply ACCEPT, and run() again once the last run ended
+ *   send.close();
+ * </pre>
+ *
+ * The file goes out with {@code transferTo} straight from the file channel, a slice at
+ * a time on a non-blocking socket, with the acknowledgements read in between; the
+ * transfer is done when the receiver has acknowledged the last byte.
+ */
+public final class DccSend extends DccTransfer {
+
+    private final FileChannel source;
+    private volatile ServerSocketChannel server;
+    private volatile long acceptMillis = 120_000;
+    private volatile long resumeAt = -1; // asked for by the receiver, for the next connection
+    private volatile boolean connected;
+
+    /** {@code source} must be readable from any position and hold {@code size} bytes. */
+    public DccSend(String fileName, FileChannel source, long size, Listener listener) {
+        super(fileName, size, listener);
+        if (size < 0) throw new IllegalArgumentException("size " + size);
+        this.source = source;
+    }
+
+    /** Starts listening on {@code address} ({@code port} 0 for any); the port to offer. */
+    public synchronized int listen(InetAddress address, int port) throws IOException {
+        if (server != null) throw new IllegalStateException("already listening");
+        ServerSocketChannel s = ServerSocketChannel.open();
+        try {
+            s.bind(new InetSocketAddress(address, port), 1);
+            s.configureBlocking(false);
+        } catch (IOException e) {
+            s.close();
+            throw e;
+        }
+        server = s;
+        return s.socket().getLocalPort();
+    }
+
+    public int port() {
+        ServerSocketChannel s = server;
+        return s != null ? s.socket().getLocalPort() : -1;
+    }
+
+    /** How long {@link #run} waits for the peer to connect. */
+    public void setAcceptTimeout(long millis) {
+        acceptMillis = millis;
+    }
+
+    /**
+     * The receiver asked to start at {@code position} (DCC RESUME): false if that is past
+     * the end of the file. Otherwise the next connection starts there; a connection
+     * still going is dropped (the receiver has given up on it), and its run fails.
+     */
+    public boolean resume(long position) {
+        if (position < 0 || position > size) return false;
+        resumeAt = position;
+        if (connected) wakeup();
+        return true;
+    }
+
+    /**
+     * Waits for the peer to connect, sends from {@link #position()} and waits for the
+     * last acknowledgement. Returns the state it ended in.
+     */
+    public State run() {
+        if (server == null) throw new IllegalStateException("not listening");
+        return attempt(this::serve);
+    }
+
+    /** Stops listening. */
+    public void close() throws IOException {
+        ServerSocketChannel s = server;
+        if (s != null) s.close();
+    }
+
+    // ---------- internals ----------
+
+    @Override
+    boolean wokenFor() {
+        return connected && resumeAt >= 0;
+    }
+
+    private void serve(Selector selector) throws IOException {
+        try (SocketChannel ch = accept(selector)) {
+            connected = true;
+            long from = resumeAt;
+            if (from >= 0) {
+                position = from;
+                resumeAt = -1;
+            }
+            ch.configureBlocking(false);
+            SelectionKey key = ch.register(selector, position < size ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            ByteBuffer acks = ByteBuffer.allocateDirect(4 * 256);
+            boolean acked = false;
+            started();
+            while (!(position == size && acked)) {
+                select(selector);
+                selector.selectedKeys().clear();
+                if (resumeAt >= 0) throw new IOException("the receiver resumed at " + resumeAt);
+                if (key.isReadable()) {
+                    int n = ch.read(acks);
+                    if (n < 0) throw new EOFException("closed by the receiver at " + position + " of " + size);
+                    acks.flip();
+                    while (acks.remaining() >= 4) acked = acks(acks.getInt(), size) && position == size;
+                    acks.compact();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    long n = source.transferTo(position, Math.min(BUFFER_BYTES, size - position), ch);
+                    if (n > 0) {
+                        position += n;
+                    } else if (position >= source.size()) {
+                        throw new EOFException("the file ends at " + source.size() + ", " + size + " offered");
+                    }
+                    if (position == size) interest(key, SelectionKey.OP_READ);
+                }
+                progress();
+            }
+        } finally {
+            connected = false;
+        }
+    }
+
+    private SocketChannel accept(Selector selector) throws IOException {
+        SelectionKey key = server.register(selector, SelectionKey.OP_ACCEPT);
+        try {
+            while (true) {
+                select(selector, acceptMillis, "nobody connected in " + acceptMillis + " ms");
+                selector.selectedKeys().clear();
+                SocketChannel ch = server.accept();
+                if (ch != null) return ch;
+            }
+        } finally {
+            key.cancel();
+            selector.selectNow(); // deregistered: the next run registers it again
+        }
+    }
+}
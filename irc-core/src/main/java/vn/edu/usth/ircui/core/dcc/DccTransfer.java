@@ -0,0 +1,234 @@
+package vn.edu.usth.ircui.core.dcc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * One file going over its own TCP connection, DCC style: the receiver acknowledges what
+ * it has with the 4-byte big-endian count of bytes received (modulo 2<sup>32</sup>), and a
+ * transfer cut short picks up again at the receiver's length (DCC RESUME / ACCEPT).
+ *
+ * - {@link DccSend} serves the file with {@code FileChannel.transferTo}: the kernel
+ *   moves it from the page cache to the socket
+ * - {@link DccReceive} reads into one fixed direct buffer and writes it at its position
+ *   in the file
+ *
+ * A transfer runs on the thread that calls its {@code run}, until it is done, fails or
+ * is {@link #cancel cancelled}; a failed one can be run again from a position. Progress,
+ * throughput and the time left can be read from any thread, and are reported to the
+ * {@link Listener} on the transfer thread at most every {@value #PROGRESS_MILLIS} ms.
+ */
+public abstract class DccTransfer {
+
+    public enum State { WAITING, RUNNING, DONE, FAILED, CANCELLED }
+
+    /** Called on the transfer thread. */
+    public interface Listener {
+        void onProgress(DccTransfer transfer);
+
+        void onFinished(DccTransfer transfer);
+    }
+
+    /** The receive buffer, and the most one {@code transferTo} call is asked to send. */
+    static final int BUFFER_BYTES = 256 * 1024;
+    static final long PROGRESS_MILLIS = 100;
+    /** Throughput is measured over windows at least this long, then smoothed. */
+    static final long RATE_WINDOW_MILLIS = 500;
+    private static final double RATE_WEIGHT = 0.3; // of the newest window
+
+    public final String fileName;
+    /** Bytes in the file, or -1 if the sender did not say. */
+    public final long size;
+
+    /** Bytes of the file sent (handed to the socket) or received (in the file). */
+    volatile long position;
+    private volatile State state = State.WAITING;
+    private volatile IOException error;
+    private volatile boolean cancelled;
+    private volatile Selector selector;
+    private final Listener listener;
+    private volatile long stallMillis = 30_000;
+
+    // transfer thread; rate is read anywhere
+    private long startedAt;
+    private long startPosition;
+    private long windowAt;
+    private long windowPosition;
+    private long reportedAt;
+    private volatile double rate;
+
+    DccTransfer(String fileName, long size, Listener listener) {
+        this.fileName = fileName;
+        this.size = size;
+        this.listener = listener;
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /** Why the last run failed, or null. */
+    public IOException error() {
+        return error;
+    }
+
+    public long position() {
+        return position;
+    }
+
+    /** 0 to 100, or -1 if the size is not known. */
+    public int percent() {
+        if (size < 0) return -1;
+        return size == 0 ? 100 : (int) (position * 100 / size);
+    }
+
+    /** Smoothed bytes per second of the current (or last) run; 0 until there is a measure. */
+    public long bytesPerSecond() {
+        return (long) rate;
+    }
+
+    /** Estimated time left at the current rate, or -1 if it cannot be told. */
+    public long etaMillis() {
+        double r = rate;
+        if (size < 0 || r <= 0) return -1;
+        return (long) ((size - position) * 1000 / r);
+    }
+
+    /** How long a running transfer may go without moving a byte before it fails. */
+    public void setStallTimeout(long millis) {
+        stallMillis = millis;
+    }
+
+    /** Stop for good; the running side fails its socket at once. */
+    public void cancel() {
+        cancelled = true;
+        wakeup();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + '[' + fileName + ' ' + position + '/' + size + ' ' + state + ']';
+    }
+
+    // ---------- for the two sides ----------
+
+    interface Body {
+        void run(Selector selector) throws IOException;
+    }
+
+    /** Runs {@code body} as one attempt, with state, error and listener calls around it. */
+    final State attempt(Body body) {
+        if (cancelled) return finish(State.CANCELLED, null);
+        error = null;
+        rate = 0;
+        state = State.RUNNING;
+        try (Selector s = Selector.open()) {
+            selector = s;
+            body.run(s);
+            return finish(State.DONE, null);
+        } catch (IOException | RuntimeException e) {
+            if (cancelled) return finish(State.CANCELLED, null);
+            return finish(State.FAILED, e instanceof IOException ? (IOException) e : new IOException(e));
+        } finally {
+            selector = null;
+        }
+    }
+
+    /** The connection is up and bytes start to move from {@link #position}. */
+    final void started() {
+        long now = System.currentTimeMillis();
+        startedAt = windowAt = reportedAt = now;
+        startPosition = windowPosition = position;
+    }
+
+    /**
+     * Waits on {@code selector} for up to {@code timeoutMillis}: the number of ready keys
+     * (0 if {@link #wokenFor} something), or an exception if cancelled or if nothing at
+     * all happened for that long.
+     */
+    final int select(Selector selector, long timeoutMillis, String what) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            checkCancelled();
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) throw new SocketTimeoutException(what);
+            int n = selector.select(left);
+            checkCancelled();
+            if (n > 0 || wokenFor()) return n;
+        }
+    }
+
+    final int select(Selector selector) throws IOException {
+        return select(selector, stallMillis, "no data for " + stallMillis + " ms at " + position + " of " + size);
+    }
+
+    /** True if a {@link #wakeup} asks the running side to look at something other than its socket. */
+    boolean wokenFor() {
+        return false;
+    }
+
+    /** Makes a {@link #select} in progress return, to look at what changed. */
+    final void wakeup() {
+        Selector s = selector;
+        if (s != null) s.wakeup();
+    }
+
+    final void checkCancelled() throws InterruptedIOException {
+        if (cancelled) throw new InterruptedIOException("cancelled");
+    }
+
+    /** Measures and reports, at most every {@value #PROGRESS_MILLIS} ms. */
+    final void progress() {
+        long now = System.currentTimeMillis();
+        if (now - reportedAt < PROGRESS_MILLIS) return;
+        reportedAt = now;
+        measure(now);
+        if (listener != null) listener.onProgress(this);
+    }
+
+    static void putAck(ByteBuffer buf, long position) {
+        buf.putInt((int) position);
+    }
+
+    static boolean acks(int ack, long position) {
+        return ack == (int) position;
+    }
+
+    static void interest(SelectionKey key, int ops) {
+        if (key.interestOps() != ops) key.interestOps(ops);
+    }
+
+    // ---------- internals ----------
+
+    private void measure(long now) {
+        long elapsed = now - windowAt;
+        if (elapsed < RATE_WINDOW_MILLIS) {
+            // no full window yet: the average so far
+            if (rate == 0 && now > startedAt) rate = (position - startPosition) * 1000.0 / (now - startedAt);
+            return;
+        }
+        double sample = (position - windowPosition) * 1000.0 / elapsed;
+        rate = now - startedAt <= elapsed ? sample : rate + RATE_WEIGHT * (sample - rate);
+        windowAt = now;
+        windowPosition = position;
+    }
+
+    private State finish(State end, IOException e) {
+        if (end == State.DONE && startedAt > 0) {
+            long elapsed = System.currentTimeMillis() - startedAt;
+            if (elapsed > 0) rate = (position - startPosition) * 1000.0 / elapsed; // the run's average
+        }
+        error = e;
+        state = end;
+        if (listener != null) listener.onFinished(this);
+        return end;
+    }
+}
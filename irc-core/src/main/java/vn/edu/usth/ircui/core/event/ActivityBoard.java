@@ -0,0 +1,251 @@
+package vn.edu.usth.ircui.core.event;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import vn.edu.usth.ircui.core.protocol.CaseMapping;
+
+/**
+ * Unread and highlight counts and last activity of every conversation, kept as
+ * messages arrive so a conversation list can show badges and sort by activity
+ * without looking at any message.
+ *
+ * - Each message is O(1): a map lookup, two counters, and a move to the front of a
+ *   list kept in last-activity order (newest first). Only a message older than the
+ *   front one (replayed history) walks the list, from its entry towards the front
+ * - A conversation's read marker is the time of the newest message the user has
+ *   seen; messages at or before it are never counted, so replayed history and the
+ *   user's own lines do not show up as unread; after a restore, neither do replays
+ *   of messages the saved counts already include
+ * - Totals over every conversation are kept the same way
+ *
+ * Not thread-safe: every call on one thread (the main thread in the app).
+ */
+public final class ActivityBoard {
+
+    /** One conversation's counters; read by the list, changed only through the board. */
+    public static final class Entry {
+        public final String key;
+        public final String network;
+        public final String name;
+        private int unread;
+        private int highlights;
+        private long lastActivity;
+        private long readMarker;
+        private long restoredUpTo; // saved counts cover messages up to here; replays of them are not new
+        private Entry prev;
+        private Entry next;
+
+        Entry(String key, String network, String name) {
+            this.key = key;
+            this.network = network;
+            this.name = name;
+        }
+
+        public int unread() {
+            return unread;
+        }
+
+        public int highlights() {
+            return highlights;
+        }
+
+        public long lastActivity() {
+            return lastActivity;
+        }
+
+        public long readMarker() {
+            return readMarker;
+        }
+
+        /** The next conversation by activity (older), or null. */
+        public Entry next() {
+            return next;
+        }
+    }
+
+    /** A conversation's counters changed; {@code moved} if the order did too (moved, added or removed). */
+    public interface Listener {
+        void onActivity(Entry entry, boolean moved);
+    }
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private Entry head;
+    private Entry tail;
+    private int totalUnread;
+    private int totalHighlights;
+    private long version; // bumped by any change, for lists that redraw lazily
+    private Listener listener;
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** The entry for {@code key}, made (with no activity, at the end) on first use. */
+    public Entry entry(String key, String network, String name) {
+        Entry e = entries.get(key);
+        if (e != null) return e;
+        e = new Entry(key, network, name);
+        entries.put(key, e);
+        placeAfter(e, tail); // no activity yet: last
+        version++;
+        if (listener != null) listener.onActivity(e, true);
+        return e;
+    }
+
+    public Entry find(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * A message in {@code e}'s conversation. Counted unless it is the user's own (which
+     * also means everything before it was read) or at or before the read marker.
+     */
+    public void onMessage(Entry e, long timestamp, boolean mine, boolean highlight) {
+        boolean moved = touch(e, timestamp);
+        if (mine) {
+            clear(e, timestamp);
+        } else if (timestamp > e.readMarker && timestamp > e.restoredUpTo) {
+            e.unread++;
+            totalUnread++;
+            if (highlight) {
+                e.highlights++;
+                totalHighlights++;
+            }
+        }
+        version++;
+        if (listener != null) listener.onActivity(e, moved);
+    }
+
+    /** The user saw {@code e}'s conversation up to its newest message. */
+    public void markRead(Entry e) {
+        if (e.unread == 0 && e.highlights == 0 && e.readMarker >= e.lastActivity) return;
+        clear(e, e.lastActivity);
+        version++;
+        if (listener != null) listener.onActivity(e, false);
+    }
+
+    /** Put back saved counters (a cold start), before any message came in. */
+    public Entry restore(String key, String network, String name, int unread, int highlights,
+                        long lastActivity, long readMarker) {
+        Entry e = entry(key, network, name);
+        totalUnread += unread - e.unread;
+        totalHighlights += highlights - e.highlights;
+        e.unread = unread;
+        e.highlights = highlights;
+        e.readMarker = Math.max(e.readMarker, readMarker);
+        e.restoredUpTo = Math.max(e.restoredUpTo, lastActivity);
+        boolean moved = touch(e, lastActivity);
+        version++;
+        if (listener != null) listener.onActivity(e, moved);
+        return e;
+    }
+
+    public void remove(Entry e) {
+        if (entries.remove(e.key) != e) return;
+        totalUnread -= e.unread;
+        totalHighlights -= e.highlights;
+        unlink(e);
+        version++;
+        if (listener != null) listener.onActivity(e, true);
+    }
+
+    /** The most recently active conversation, or null; follow {@link Entry#next()}. */
+    public Entry first() {
+        return head;
+    }
+
+    /** Every entry of {@code network} (all if null), most recently active first, into {@code out}. */
+    public List<Entry> ordered(String network, List<Entry> out) {
+        for (Entry e = head; e != null; e = e.next) {
+            if (network == null || network.equals(e.network)) out.add(e);
+        }
+        return out;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int totalUnread() {
+        return totalUnread;
+    }
+
+    public int totalHighlights() {
+        return totalHighlights;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Whether {@code text} mentions {@code nick} as a word: bounded by the text's ends or by
+     * characters that cannot be in a nick, compared as {@code mapping} folds them.
+     */
+    public static boolean mentions(String text, String nick, CaseMapping mapping) {
+        int n = nick == null ? 0 : nick.length();
+        if (n == 0 || text == null) return false;
+        int last = text.length() - n;
+        for (int i = 0; i <= last; i++) {
+            if (i > 0 && isNickChar(text.charAt(i - 1))) continue;
+            if (i < last && isNickChar(text.charAt(i + n))) continue;
+            int j = 0;
+            while (j < n && mapping.fold(text.charAt(i + j)) == mapping.fold(nick.charAt(j))) j++;
+            if (j == n) return true;
+        }
+        return false;
+    }
+
+    // ---------- internals ----------
+
+    private static boolean isNickChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || "[]\\`_^{|}-".indexOf(c) >= 0;
+    }
+
+    private void clear(Entry e, long readUpTo) {
+        totalUnread -= e.unread;
+        totalHighlights -= e.highlights;
+        e.unread = 0;
+        e.highlights = 0;
+        e.readMarker = Math.max(e.readMarker, readUpTo);
+    }
+
+    /** Raise {@code e}'s last activity to {@code ts} and move it up to its place; whether it moved. */
+    private boolean touch(Entry e, long ts) {
+        if (ts <= e.lastActivity) return false;
+        e.lastActivity = ts;
+        if (e == head) return false;
+        Entry p;
+        if (ts >= head.lastActivity) {
+            p = null; // the usual case: the newest message there is
+        } else {
+            p = e.prev;
+            while (p != null && p.lastActivity < ts) p = p.prev;
+            if (p == e.prev) return false;
+        }
+        unlink(e);
+        placeAfter(e, p);
+        return true;
+    }
+
+    private void unlink(Entry e) {
+        if (e.prev != null) e.prev.next = e.next;
+        else head = e.next;
+        if (e.next != null) e.next.prev = e.prev;
+        else tail = e.prev;
+        e.prev = e.next = null;
+    }
+
+    /** Insert {@code e} after {@code p}, or at the front if {@code p} is null. */
+    private void placeAfter(Entry e, Entry p) {
+        e.prev = p;
+        e.next = p != null ? p.next : head;
+        if (e.next != null) e.next.prev = e;
+        else tail = e;
+        if (p != null) p.next = e;
+        else head = e;
+    }
+}
@@ -0,0 +1,69 @@
+package vn.edu.usth.ircui.core.event;
+
+import vn.edu.usth.ircui.core.render.RowModel;
+
+/**
+ * One thing to show in a chat view: a message from someone, or a system line.
+ * Immutable, so it can cross from the network thread to the UI thread as is.
+ */
+public final class ChatEvent {
+
+    public enum Kind { MESSAGE, SYSTEM }
+
+    public final Kind kind;
+    public final String nick;   // null for SYSTEM
+    public final String target; // conversation: the channel, or the other side of a private message; null if unknown
+    public final String text;
+    public final long timestamp; // server-time when the server stamped it, else local receive time
+    public final boolean mine;
+    public final String msgid;  // IRCv3 msgid, or null
+    public final RowModel row;  // what its chat row shows, worked out before it reached the UI thread; or null
+
+    private ChatEvent(Kind kind, String nick, String target, String text, long timestamp,
+                      boolean mine, String msgid) {
+        this(kind, nick, target, text, timestamp, mine, msgid, null);
+    }
+
+    private ChatEvent(Kind kind, String nick, String target, String text, long timestamp,
+                      boolean mine, String msgid, RowModel row) {
+        this.kind = kind;
+        this.nick = nick;
+        this.target = target;
+        this.text = text;
+        this.timestamp = timestamp;
+        this.mine = mine;
+        this.msgid = msgid;
+        this.row = row;
+    }
+
+    public static ChatEvent message(String nick, String text, long timestamp, boolean mine) {
+        return new ChatEvent(Kind.MESSAGE, nick, null, text, timestamp, mine, null);
+    }
+
+    public static ChatEvent message(String nick, String target, String text, long timestamp,
+                                    boolean mine, String msgid) {
+        return new ChatEvent(Kind.MESSAGE, nick, target, text, timestamp, mine, msgid);
+    }
+
+    public static ChatEvent system(String text) {
+        return system(text, System.currentTimeMillis());
+    }
+
+    public static ChatEvent system(String text, long timestamp) {
+        return new ChatEvent(Kind.SYSTEM, null, null, text, timestamp, false, null);
+    }
+
+    /** The same event with its chat row laid out. */
+    public ChatEvent withRow(RowModel row) {
+        return new ChatEvent(kind, nick, target, text, timestamp, mine, msgid, row);
+    }
+
+    public boolean isSystem() {
+        return kind == Kind.SYSTEM;
+    }
+
+    @Override
+    public String toString() {
+        return kind == Kind.SYSTEM ? "* " + text : "<" + nick + "> " + text;
+    }
+}
@@ -0,0 +1,171 @@
+package vn.edu.usth.ircui.core.event;
+
+import java.util.Arrays;
+
+/**
+ * Remembers recently seen inbound events so replays and double deliveries are shown once.
+ *
+ * Key, in order of preference:
+ * - IRCv3 msgid, when the server sends one
+ * - (kind, nick, target, text, server-time) when the server stamps the line
+ * - (kind, nick, target, text, local time bucket) otherwise
+ *
+ * Keys are 64-bit hashes held in two open-addressing generations. Lookups probe
+ * both; inserts go to the current one, which becomes "previous" after
+ * {@code windowMs} (or early, once it holds {@code capacity} keys). Every key is
+ * remembered for at least one window unless the capacity forces an early turn.
+ * Memory is fixed at construction and each event costs O(1).
+ *
+ * Thread-safe (synchronized); one instance can serve every connection.
+ */
+public final class DedupWindow {
+
+    private final int capacity;       // keys per generation
+    private final int mask;
+    private final long windowMs;
+    private final long bucketMs;
+
+    private long[] current;
+    private long[] previous;
+    private int currentSize;
+    private long currentSince;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity keys kept per generation (two tables of at most 4 × capacity longs)
+     * @param windowMs how long a key is remembered
+     * @param bucketMs width of the local-time bucket for events without msgid or server-time
+     */
+    public DedupWindow(int capacity, long windowMs, long bucketMs) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be >= 1");
+        int tableSize = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1; // load <= 0.5
+        this.capacity = capacity;
+        this.mask = tableSize - 1;
+        this.windowMs = windowMs;
+        this.bucketMs = Math.max(1, bucketMs);
+        this.current = new long[tableSize];
+        this.previous = new long[tableSize];
+        this.currentSince = Long.MIN_VALUE;
+    }
+
+    /**
+     * Record an event. Returns true the first time it is seen, false for a duplicate.
+     *
+     * @param msgid      IRCv3 msgid tag, or null
+     * @param kind       event kind, so a JOIN and a PRIVMSG never collide (e.g. "PRIVMSG")
+     * @param serverTime server-time in ms, or 0 if the line was not stamped
+     * @param now        local clock in ms
+     */
+    public synchronized boolean firstSeen(String msgid, String kind, String nick, String target,
+                                          String text, long serverTime, long now) {
+        long key;
+        if (msgid != null && !msgid.isEmpty()) {
+            key = mix(hash(hash(FNV_OFFSET, "msgid"), msgid));
+        } else {
+            long h = hash(FNV_OFFSET, kind);
+            h = hash(h, nick);
+            h = hash(h, target);
+            h = hash(h, text);
+            // stamped lines match exactly; unstamped ones only within a local bucket
+            h = serverTime > 0 ? hash(h, serverTime) : hash(h, ~(now / bucketMs));
+            key = mix(h);
+        }
+        return firstSeen(key, now);
+    }
+
+    /** Same as above for a precomputed 64-bit key. */
+    public synchronized boolean firstSeen(long key, long now) {
+        if (key == 0) key = 1; // 0 marks an empty slot
+        turnIfDue(now);
+        if (contains(current, key) || contains(previous, key)) {
+            hits++;
+            return false;
+        }
+        if (currentSize >= capacity) turn(now);
+        insert(current, key);
+        currentSize++;
+        misses++;
+        return true;
+    }
+
+    /** Duplicates dropped so far. */
+    public synchronized long hits() { return hits; }
+
+    /** Distinct events let through so far. */
+    public synchronized long misses() { return misses; }
+
+    public synchronized void clear() {
+        Arrays.fill(current, 0);
+        Arrays.fill(previous, 0);
+        currentSize = 0;
+        currentSince = Long.MIN_VALUE;
+    }
+
+    // ---------- generations ----------
+
+    private void turnIfDue(long now) {
+        if (currentSince == Long.MIN_VALUE) {
+            currentSince = now;
+        } else if (now - currentSince >= 2 * windowMs) {
+            // idle for two windows: both generations are stale
+            turn(now);
+            turn(now);
+        } else if (now - currentSince >= windowMs) {
+            turn(now);
+        }
+    }
+
+    private void turn(long now) {
+        long[] t = previous;
+        previous = current;
+        current = t;
+        Arrays.fill(current, 0);
+        currentSize = 0;
+        currentSince = now;
+    }
+
+    private boolean contains(long[] table, long key) {
+        int i = (int) key & mask;
+        while (true) {
+            long k = table[i];
+            if (k == key) return true;
+            if (k == 0) return false;
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void insert(long[] table, long key) {
+        int i = (int) key & mask;
+        while (table[i] != 0) i = (i + 1) & mask;
+        table[i] = key;
+    }
+
+    // ---------- hashing (FNV-1a over chars, finished with a 64-bit mixer) ----------
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static long hash(long h, CharSequence s) {
+        if (s == null) return (h ^ 0xFF) * FNV_PRIME;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            h = (h ^ s.charAt(i)) * FNV_PRIME;
+        }
+        return (h ^ 0x1F) * FNV_PRIME; // field separator
+    }
+
+    private static long hash(long h, long v) {
+        for (int i = 0; i < 8; i++) {
+            h = (h ^ (v & 0xFF)) * FNV_PRIME;
+            v >>>= 8;
+        }
+        return h;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
@@ -0,0 +1,79 @@
+package vn.edu.usth.ircui.core.event;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free multi-producer / single-consumer hand-off buffer.
+ *
+ * Producers push onto a Treiber stack with one CAS; the consumer detaches the
+ * whole stack with one getAndSet and reverses it, so a drain costs O(batch) and
+ * never blocks a producer.
+ *
+ * {@link #offer} reports when the buffer went from empty to non-empty: that is
+ * the only time the consumer needs waking up (e.g. one frame callback per batch).
+ */
+public final class MpscBuffer<E> {
+
+    private static final class Node<E> {
+        final E item;
+        Node<E> next;
+
+        Node(E item) {
+            this.item = item;
+        }
+    }
+
+    private final AtomicReference<Node<E>> head = new AtomicReference<>();
+
+    /** Append an item. Safe from any thread. @return true if the buffer was empty */
+    public boolean offer(E item) {
+        if (item == null) throw new NullPointerException();
+        Node<E> node = new Node<>(item);
+        Node<E> h;
+        do {
+            h = head.get();
+            node.next = h;
+        } while (!head.compareAndSet(h, node));
+        return h == null;
+    }
+
+    /**
+     * Append several items with one CAS, so the consumer sees all of them or none
+     * (a server batch never straddles two drains). @return true if the buffer was empty
+     */
+    public boolean offerAll(List<? extends E> items) {
+        if (items.isEmpty()) return false;
+        Node<E> first = null, last = null;
+        for (E item : items) {
+            if (item == null) throw new NullPointerException();
+            Node<E> node = new Node<>(item);
+            // stack order: the newest item is on top
+            if (last == null) last = node;
+            node.next = first;
+            first = node;
+        }
+        Node<E> h;
+        do {
+            h = head.get();
+            last.next = h;
+        } while (!head.compareAndSet(h, first));
+        return h == null;
+    }
+
+    public boolean isEmpty() {
+        return head.get() == null;
+    }
+
+    /** Take everything offered so far, oldest first. Consumer thread only. */
+    public List<E> drain() {
+        Node<E> h = head.getAndSet(null);
+        if (h == null) return new ArrayList<>(0);
+        List<E> out = new ArrayList<>();
+        for (Node<E> p = h; p != null; p = p.next) out.add(p.item);
+        Collections.reverse(out); // stack order -> arrival order
+        return out;
+    }
+}
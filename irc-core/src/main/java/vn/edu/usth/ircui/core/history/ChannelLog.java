@@ -0,0 +1,304 @@
+package vn.edu.usth.ircui.core.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+
+/**
+ * The persistent history of one conversation: an append-only run of segment files.
+ *
+ * - Positions count records from 0 (the oldest kept) in the order they were appended
+ * - {@link #read} / {@link #tail} go straight to the right segment and index entry and
+ *   decode only the records asked for, from a memory mapping; nothing else is on the heap
+ * - {@link #positionAt} finds the first record at or after a time
+ * - Only the newest segment is opened eagerly; older ones load when first read
+ * - {@link #search} walks the segments' search indexes newest first (see {@link MessageLog#search})
+ *
+ * Reads are safe from any thread; appends come only from {@link MessageLog}'s writer.
+ */
+public final class ChannelLog {
+
+    private final File dir;
+    private final String target;
+    private final int segmentBytes;
+    private final int indexEvery;
+    private volatile LogSegment[] segments; // oldest first; the last one is appended to
+    private final CRC32 crc = new CRC32();  // writer
+    private ByteBuffer scratch = ByteBuffer.allocate(16 * 1024); // writer
+
+    ChannelLog(File dir, String target, int segmentBytes, int indexEvery) throws IOException {
+        this.dir = dir;
+        this.target = target;
+        this.segmentBytes = segmentBytes;
+        this.indexEvery = indexEvery;
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        List<Long> bases = new ArrayList<>();
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                long base = LogSegment.parseBase(name);
+                if (base >= 0) bases.add(base);
+            }
+        }
+        Collections.sort(bases);
+        if (bases.isEmpty()) bases.add(0L);
+        LogSegment[] s = new LogSegment[bases.size()];
+        for (int i = 0; i < s.length; i++) s[i] = new LogSegment(dir, bases.get(i), indexEvery);
+        LogSegment last = s[s.length - 1];
+        last.openForAppend(Long.MIN_VALUE);
+        segments = s;
+    }
+
+    /** The conversation this log belongs to, as given to {@link MessageLog}. */
+    public String target() {
+        return target;
+    }
+
+    /** Records in the log (the next position to be written). */
+    public long size() {
+        LogSegment[] s = segments;
+        LogSegment last = s[s.length - 1];
+        return last.base + last.count();
+    }
+
+    /** Number of segment files. */
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    /** Up to {@code count} records from position {@code from}, oldest first. */
+    public List<ChatEvent> read(long from, int count) throws IOException {
+        List<ChatEvent> out = new ArrayList<>(Math.max(0, Math.min(count, 1024)));
+        LogSegment[] s = segments;
+        long end = Math.min(size(), from + count);
+        int i = find(s, Math.max(0, from));
+        for (long pos = Math.max(0, from); pos < end && i < s.length; i++) {
+            LogSegment seg = loaded(s, i);
+            long segEnd = seg.base + seg.count();
+            if (pos >= segEnd) continue;
+            int n = (int) (Math.min(end, segEnd) - pos);
+            seg.read((int) (pos - seg.base), n, target, out);
+            pos += n;
+        }
+        return out;
+    }
+
+    /** The newest {@code count} records, oldest first: what a chat view shows when it opens. */
+    public List<ChatEvent> tail(int count) throws IOException {
+        long size = size();
+        return read(Math.max(0, size - count), count);
+    }
+
+    /**
+     * Position of the first record stamped at or after {@code timestamp}, or {@link #size()}
+     * if there is none. Records appended out of order (replayed history) are found by
+     * the first position at which the log reaches that time.
+     */
+    public long positionAt(long timestamp) throws IOException {
+        LogSegment[] s = segments;
+        // newest-so-far never decreases across segments: the first one that reaches ts holds it
+        for (int i = 0; i < s.length; i++) {
+            LogSegment seg = loaded(s, i);
+            if (seg.newest() >= timestamp) return seg.base + seg.search(timestamp);
+        }
+        return size();
+    }
+
+    /**
+     * Positions below {@code before} whose records match {@code q}, newest first: up to
+     * {@code limit} of them go into {@code pos} / {@code ts}. Returns how many.
+     */
+    int search(SearchQuery q, long before, int limit, long[] pos, long[] ts) throws IOException {
+        if (q.unmatchable) return 0;
+        LogSegment[] s = segments;
+        long top = Math.min(before, size());
+        int n = 0;
+        if (top <= 0) return 0;
+        for (int i = find(s, top - 1); i >= 0 && n < limit; i--) {
+            LogSegment seg = loaded(s, i);
+            TermIndex idx = seg.terms(target, i < s.length - 1);
+            int end = (int) Math.min(Math.min(idx.records(), seg.count()), top - seg.base);
+            if (end <= 0 || idx.maxTimestamp() < q.since || idx.minTimestamp() >= q.until) continue;
+            int nick = -1;
+            if (q.nick != null && (nick = idx.nickId(q.nick)) < 0) continue;
+            int[] hits = null; // null: no terms, every record is a candidate
+            boolean none = false;
+            for (String term : q.terms) {
+                int[] p = idx.postings(term);
+                if (p == null) {
+                    none = true;
+                    break;
+                }
+                hits = hits == null ? p : intersect(hits, p);
+            }
+            if (none) continue;
+            int j = hits == null ? end : upperBound(hits, end);
+            while (--j >= 0 && n < limit) {
+                int r = hits == null ? j : hits[j];
+                if (nick >= 0 && idx.nick(r) != nick) continue;
+                long t = idx.timestamp(r);
+                if (t < q.since || t >= q.until) continue;
+                pos[n] = seg.base + r;
+                ts[n] = t;
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /** Check (or build) the search index of every segment, one fork-join subtask each; yields how many were built. */
+    RecursiveTask<Integer> indexCheck() {
+        return new IndexCheck(this, -1);
+    }
+
+    private static final class IndexCheck extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+        private final transient ChannelLog log;
+        private final int segment; // -1: the whole log
+
+        IndexCheck(ChannelLog log, int segment) {
+            this.log = log;
+            this.segment = segment;
+        }
+
+        @Override
+        protected Integer compute() {
+            try {
+                LogSegment[] s = log.segments;
+                if (segment >= 0) {
+                    return s[segment].ensureTerms(log.target, segment < s.length - 1) ? 1 : 0;
+                }
+                // loaded in order: each segment's timestamps carry on from the one before
+                for (int i = 0; i < s.length; i++) loaded(s, i);
+                List<IndexCheck> parts = new ArrayList<>(s.length);
+                for (int i = 0; i < s.length; i++) parts.add(new IndexCheck(log, i));
+                int built = 0;
+                for (IndexCheck t : invokeAll(parts)) built += t.join();
+                return built;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // ---------- writer ----------
+
+    /** Encode and append; rolls over to a new segment at {@code segmentBytes}. Writer thread. */
+    void append(List<ChatEvent> events) throws IOException {
+        LogSegment active = segments[segments.length - 1];
+        scratch.clear();
+        int pending = 0;
+        int first = 0; // first event going to the active segment
+        for (int i = 0; i < events.size(); i++) {
+            int before = scratch.position();
+            scratch = LogRecords.encode(events.get(i), scratch, crc);
+            int len = scratch.position() - before;
+            if (active.count() + pending > 0 && active.bytes() + before + len > segmentBytes) {
+                // this record starts the next segment
+                int rec = active.count();
+                flushScratch(active, before);
+                active.indexAppended(target, rec, events.subList(first, i));
+                active = roll(active);
+                first = i;
+                pending = 0;
+            }
+            pending++;
+        }
+        int rec = active.count();
+        flushScratch(active, scratch.position());
+        active.indexAppended(target, rec, events.subList(first, events.size()));
+    }
+
+    /** Write the first {@code upTo} bytes of the scratch buffer, keep the rest for the next segment. */
+    private void flushScratch(LogSegment seg, int upTo) throws IOException {
+        if (upTo == 0) return;
+        int end = scratch.position();
+        scratch.flip();
+        scratch.limit(upTo);
+        seg.append(scratch);
+        scratch.limit(end);
+        scratch.position(upTo);
+        scratch.compact();
+    }
+
+    /** Force everything appended so far to the storage device. Writer thread. */
+    void force() throws IOException {
+        segments[segments.length - 1].force();
+    }
+
+    /** The full segment is forced before it is closed: {@link #force} only reaches the active one. */
+    private LogSegment roll(LogSegment active) throws IOException {
+        active.force();
+        active.seal();
+        active.sealIndex();
+        LogSegment next = new LogSegment(dir, active.base + active.count(), indexEvery);
+        next.openForAppend(active.newest());
+        LogSegment[] s = Arrays.copyOf(segments, segments.length + 1);
+        s[s.length - 1] = next;
+        segments = s;
+        return next;
+    }
+
+    void close() throws IOException {
+        for (LogSegment seg : segments) seg.close();
+    }
+
+    // ---------- internals ----------
+
+    /** Index of the segment holding position {@code pos} (the last one if past the end). */
+    private static int find(LogSegment[] s, long pos) {
+        int lo = 0, hi = s.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (s[mid].base <= pos) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        if (a.length > b.length) {
+            int[] t = a;
+            a = b;
+            b = t;
+        }
+        int[] out = new int[a.length];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /** Number of values below {@code limit} in an ascending array. */
+    private static int upperBound(int[] a, int limit) {
+        int lo = 0, hi = a.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < limit) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static LogSegment loaded(LogSegment[] s, int i) throws IOException {
+        LogSegment seg = s[i];
+        if (!seg.isLoaded()) seg.load(i > 0 && s[i - 1].isLoaded() ? s[i - 1].newest() : Long.MIN_VALUE);
+        return seg;
+    }
+}
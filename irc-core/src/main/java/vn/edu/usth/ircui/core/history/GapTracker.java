@@ -0,0 +1,181 @@
+package vn.edu.usth.ircui.core.history;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import vn.edu.usth.ircui.core.protocol.CaseMapping;
+import vn.edu.usth.ircui.core.protocol.IrcCommands;
+import vn.edu.usth.ircui.core.protocol.ServerTime;
+
+/**
+ * Remembers the newest message seen per conversation, so that after a reconnect
+ * only the missing window is asked for with IRCv3 CHATHISTORY.
+ *
+ * - {@link #seen} is called for every shown message (live or replayed)
+ * - {@link #onDisconnected} pins where each gap starts, so live lines that arrive
+ *   before the replay do not move it
+ * - after re-registration, {@link #requestFor} gives "CHATHISTORY AFTER target ref limit"
+ * - {@link #onReplay} pages on from the last replayed line while pages come back full
+ * - with IRCv3 labeled-response ({@link #setLabeled}) each request carries a label, and
+ *   {@link #targetFor} tells which conversation a labeled reply (batch, ACK or FAIL) answers
+ *
+ * The reference is the msgid when known (exact), else the server timestamp.
+ * Targets are compared under the server's CASEMAPPING ({@link #setCaseMapping}, RFC 1459
+ * until told otherwise), as everywhere else names are. Thread-safe.
+ */
+public final class GapTracker {
+
+    public static final String BATCH_TYPE = "chathistory";
+    public static final int DEFAULT_PAGE = 100;
+    public static final int DEFAULT_MAX_PAGES = 5;
+
+    private static final class Marker {
+        final String target;   // as first seen, for the request line
+        long time;             // newest seen
+        String msgid;
+        long gapTime;          // where the gap starts (pinned at disconnect), 0 if none
+        String gapMsgid;
+        int pages;             // pages fetched in the current fill
+        String label;          // of the request in flight, if labeled
+
+        Marker(String target) {
+            this.target = target;
+        }
+    }
+
+    private final Map<String, Marker> markers = new HashMap<>();
+    private final Map<String, Marker> labels = new HashMap<>();
+    private final int maxPages;
+    private CaseMapping caseMapping = CaseMapping.RFC1459;
+    private boolean labeled;
+    private long nextLabel;
+
+    public GapTracker() {
+        this(DEFAULT_MAX_PAGES);
+    }
+
+    /** @param maxPages most pages fetched per conversation and reconnect */
+    public GapTracker(int maxPages) {
+        this.maxPages = Math.max(1, maxPages);
+    }
+
+    /** The server's CASEMAPPING (from ISUPPORT): markers are re-keyed under it. */
+    public synchronized void setCaseMapping(CaseMapping mapping) {
+        if (mapping == caseMapping) return;
+        caseMapping = mapping;
+        List<Marker> all = new ArrayList<>(markers.values());
+        markers.clear();
+        for (Marker m : all) {
+            Marker same = markers.get(key(m.target));
+            if (same == null || m.time > same.time) markers.put(key(m.target), m);
+        }
+    }
+
+    /** The server acknowledged labeled-response: requests from now on carry a label tag. */
+    public synchronized void setLabeled(boolean labeled) {
+        this.labeled = labeled;
+    }
+
+    /** Record a message. Older ones than the current marker are ignored. */
+    public synchronized void seen(String target, long serverTime, String msgid) {
+        if (target == null || serverTime <= 0) return;
+        String key = key(target);
+        Marker m = markers.get(key);
+        if (m == null) {
+            m = new Marker(target);
+            markers.put(key, m);
+        }
+        if (serverTime >= m.time) {
+            m.time = serverTime;
+            m.msgid = msgid;
+        }
+    }
+
+    /** Newest server time seen for a target, or 0. */
+    public synchronized long lastSeen(String target) {
+        Marker m = markers.get(key(target));
+        return m != null ? m.time : 0;
+    }
+
+    /** The link dropped: everything after the current markers is the gap to fill. */
+    public synchronized void onDisconnected() {
+        for (Marker m : markers.values()) {
+            if (m.gapTime > 0) continue; // still unfilled from an earlier drop
+            m.gapTime = m.time;
+            m.gapMsgid = m.msgid;
+        }
+    }
+
+    /** Targets with a marker (e.g. private conversations to fill after registration). */
+    public synchronized List<String> targets() {
+        List<String> out = new ArrayList<>(markers.size());
+        for (Marker m : markers.values()) out.add(m.target);
+        return out;
+    }
+
+    /**
+     * First request for a target after reconnecting, or null if nothing was seen there.
+     * @param limit page size, at most the server's CHATHISTORY ISUPPORT value
+     */
+    public synchronized String requestFor(String target, int limit) {
+        Marker m = markers.get(key(target));
+        if (m == null || m.gapTime <= 0) return null;
+        m.pages = 1;
+        return after(m, m.gapTime, m.gapMsgid, limit);
+    }
+
+    /**
+     * The conversation whose request carried {@code label}, or null if it is not one of
+     * ours (or that page was already answered). An ACK or FAIL for it means no history:
+     * pass it to {@link #onReplay} with no lines to end the fill.
+     */
+    public synchronized String targetFor(String label) {
+        Marker m = label != null ? labels.get(label) : null;
+        return m != null ? m.target : null;
+    }
+
+    /**
+     * A CHATHISTORY batch for {@code target} ended with {@code lines} lines, the last
+     * one stamped {@code lastTime} / {@code lastMsgid}.
+     * @return the next page's request, or null when caught up (or out of pages)
+     */
+    public synchronized String onReplay(String target, int lines, long lastTime, String lastMsgid, int limit) {
+        Marker m = markers.get(key(target));
+        if (m == null) return null;
+        if (m.label != null) labels.remove(m.label);
+        m.label = null;
+        if (lines < limit || lastTime <= 0 || m.pages >= maxPages) {
+            m.gapTime = 0; // filled (or given up on)
+            m.gapMsgid = null;
+            return null;
+        }
+        m.gapTime = lastTime;
+        m.gapMsgid = lastMsgid;
+        m.pages++;
+        return after(m, lastTime, lastMsgid, limit);
+    }
+
+    public synchronized void clear() {
+        markers.clear();
+        labels.clear();
+    }
+
+    private String after(Marker m, long time, String msgid, int limit) {
+        String ref = msgid != null && !msgid.isEmpty()
+                ? "msgid=" + msgid
+                : "timestamp=" + ServerTime.format(time);
+        String request = IrcCommands.CHATHISTORY + " AFTER " + m.target + " " + ref + " " + limit;
+        if (m.label != null) labels.remove(m.label);
+        m.label = null;
+        if (!labeled) return request;
+        m.label = "gap" + ++nextLabel;
+        labels.put(m.label, m);
+        return "@label=" + m.label + " " + request;
+    }
+
+    private String key(String target) {
+        return caseMapping.fold(target);
+    }
+}
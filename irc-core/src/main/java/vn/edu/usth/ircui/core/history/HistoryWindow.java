@@ -0,0 +1,436 @@
+package vn.edu.usth.ircui.core.history;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+
+/**
+ * What a chat list shows of one conversation: a bounded run of rows around the
+ * viewport, paged in from the on-device log as the user scrolls.
+ *
+ * - The window covers log positions {@code [start, end)}; the log goes on to
+ *   {@code liveEnd}, the position the next live message will take
+ * - It opens on the newest page; while it reaches the live end ("following") live
+ *   messages are added as they come, otherwise they are only counted
+ * - Near the top of the window the page before {@code start} is read, near the bottom
+ *   the page after {@code end}; reads run on {@code loader}, rows are published on {@code main}
+ * - Past {@code maxPages} pages, whole pages are dropped from the end farther from the
+ *   viewport, so the heap holds at most {@link #capacity()} rows however long the session
+ * - Local rows (status lines, attachments) are shown but take no log position
+ * - Seeded rows (a saved snapshot of the newest lines) stand in for the newest page
+ *   until it has been read, then give way to it
+ *
+ * Everything but the loading is confined to the {@code main} executor's thread.
+ */
+public final class HistoryWindow<T> {
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int DEFAULT_MAX_PAGES = 4;
+
+    /** The persistent history being paged: positions as in {@link ChannelLog}. Called on the loader only. */
+    public interface Source {
+        long size() throws IOException;
+
+        List<ChatEvent> read(long from, int count) throws IOException;
+    }
+
+    /** Turns log records into list rows (on the loader) and reads their time. */
+    public interface Rows<T> extends Timeline.Clock<T> {
+        T rowOf(ChatEvent event);
+    }
+
+    /** Row changes, in the terms of RecyclerView.Adapter's range notifications. */
+    public interface Listener {
+        void onInserted(int at, int count);
+
+        void onRemoved(int at, int count);
+    }
+
+    private static final class Slot<T> {
+        final T row;
+        final boolean logged;
+
+        Slot(T row, boolean logged) {
+            this.row = row;
+            this.logged = logged;
+        }
+    }
+
+    private final Source source;
+    private final Executor loader;
+    private final Executor main;
+    private final Rows<T> rows;
+    private final int pageSize;
+    private final int maxPages;
+    private final ArrayList<Slot<T>> slots = new ArrayList<>();
+    private final List<T> view = new AbstractList<T>() {
+        @Override
+        public T get(int index) {
+            return slots.get(index).row;
+        }
+
+        @Override
+        public int size() {
+            return slots.size();
+        }
+    };
+    private Listener listener;
+
+    private long start;      // log position of the oldest logged row
+    private long end;        // log position after the newest logged row
+    private long liveEnd;    // log position of the next live message
+    private long floor;      // no paging above this (cleared history)
+    private int earlyLive;   // live messages added before the first page came in
+    private int seeded;      // rows at the top standing in for the newest page until it comes in
+    private boolean opened;
+    private boolean clearOnOpen;
+    private boolean loading;
+    private boolean failed;  // the log could not be read: live rows only
+    private boolean closed;
+    private int generation;  // bumped to drop loads still in flight
+    private int first = -1;  // viewport, as last reported
+    private int last = -1;
+    private long pagesLoaded;
+    private long rowsEvicted;
+
+    public HistoryWindow(Source source, Executor loader, Executor main, Rows<T> rows) {
+        this(source, loader, main, rows, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+    }
+
+    /**
+     * @param maxPages at least 4: a page each side of a screenful, and one to spare so
+     *                 dropping a page never brings the window right back to the edge
+     */
+    public HistoryWindow(Source source, Executor loader, Executor main, Rows<T> rows, int pageSize, int maxPages) {
+        this.source = source;
+        this.loader = loader;
+        this.main = main;
+        this.rows = rows;
+        this.pageSize = Math.max(1, pageSize);
+        this.maxPages = Math.max(4, maxPages);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Read the newest page. Rows added before it arrives stay below it. */
+    public void open() {
+        if (closed) return;
+        final int gen = ++generation;
+        opened = false;
+        loading = true;
+        earlyLive = 0;
+        loader.execute(() -> {
+            long size = -1;
+            List<T> page = Collections.emptyList();
+            try {
+                size = source.size();
+                page = toRows(source.read(Math.max(0, size - pageSize), pageSize));
+            } catch (IOException e) {
+                size = -1;
+            }
+            final long s = size;
+            final List<T> p = page;
+            main.execute(() -> opened(gen, s, p));
+        });
+    }
+
+    /** The rows, oldest first; a live view for the adapter. */
+    public List<T> rows() {
+        return view;
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    public T get(int index) {
+        return slots.get(index).row;
+    }
+
+    /** Most rows the window will hold. */
+    public int capacity() {
+        return pageSize * maxPages;
+    }
+
+    /** True while the window reaches the newest message, so live ones are shown as they come. */
+    public boolean isFollowing() {
+        return !opened || end == liveEnd;
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    public long pagesLoaded() {
+        return pagesLoaded;
+    }
+
+    public long rowsEvicted() {
+        return rowsEvicted;
+    }
+
+    /**
+     * Show {@code events} (the newest lines, oldest first, as saved before) while the
+     * newest page is being read; they are replaced by it. Only before that page came
+     * in and before any other row was added; false if it was too late.
+     */
+    public boolean seed(List<ChatEvent> events) {
+        if (closed || opened || !slots.isEmpty() || events.isEmpty()) return false;
+        for (ChatEvent e : events) slots.add(new Slot<>(rows.rowOf(e), false));
+        seeded = slots.size();
+        if (listener != null) listener.onInserted(0, seeded);
+        return true;
+    }
+
+    /**
+     * Messages of this conversation as they arrive (they are being written to the log too).
+     * Each goes in at its server time: a run added at the bottom is reported as one range,
+     * a late one (replayed history) as a single insert where it landed.
+     */
+    public void addLive(List<ChatEvent> events) {
+        if (closed || events.isEmpty()) return;
+        boolean following = isFollowing();
+        liveEnd += events.size();
+        if (!following) return; // in the log: read when the user scrolls down to it
+        if (opened) end += events.size();
+        else earlyLive += events.size();
+        int runAt = slots.size(); // rows appended at the bottom, not reported yet
+        for (ChatEvent e : events) {
+            T row = rows.rowOf(e);
+            int at = Timeline.insertionPoint(view, rows.timestampOf(row), rows);
+            slots.add(at, new Slot<>(row, true));
+            if (at == slots.size() - 1) continue;
+            // out of order: report the run so far, then this row where it went
+            if (listener != null) {
+                if (slots.size() - 1 > runAt) listener.onInserted(runAt, slots.size() - 1 - runAt);
+                listener.onInserted(at, 1);
+            }
+            if (first >= 0 && at <= first) {
+                first++;
+                last++;
+            }
+            runAt = slots.size();
+        }
+        if (listener != null && slots.size() > runAt) listener.onInserted(runAt, slots.size() - runAt);
+        trim();
+    }
+
+    /**
+     * A row that is not in the log, at the bottom. If the window is scrolled back into
+     * history it first jumps to the newest page: what was just sent belongs there.
+     */
+    public void addLocal(T row) {
+        if (closed) return;
+        if (!isFollowing()) {
+            drop();
+            open();
+        }
+        slots.add(new Slot<>(row, false));
+        if (listener != null) listener.onInserted(slots.size() - 1, 1);
+        trim();
+    }
+
+    /** Take the bottom row off (a send that did not go out). */
+    public void removeLast() {
+        if (slots.isEmpty()) return;
+        Slot<T> s = slots.remove(slots.size() - 1);
+        if (s.logged) {
+            if (opened) end--;
+            else earlyLive--;
+        }
+        if (listener != null) listener.onRemoved(slots.size(), 1);
+    }
+
+    /** Empty the list; history before now is no longer paged in. */
+    public void clear() {
+        if (closed) return;
+        if (!opened) {
+            clearOnOpen = true;
+            earlyLive = 0;
+        } else {
+            generation++;
+            loading = false;
+            start = end = floor = liveEnd;
+        }
+        int n = slots.size();
+        slots.clear();
+        seeded = 0;
+        first = last = -1;
+        if (n > 0 && listener != null) listener.onRemoved(0, n);
+    }
+
+    /** First and last visible positions (from the layout manager) after a scroll or layout. */
+    public void onViewport(int first, int last) {
+        this.first = first;
+        this.last = last;
+        check();
+    }
+
+    /** Stop loading; results still in flight are dropped. */
+    public void close() {
+        closed = true;
+        generation++;
+    }
+
+    // ---------- paging ----------
+
+    private void opened(int gen, long size, List<T> page) {
+        if (gen != generation || closed) return;
+        loading = false;
+        opened = true;
+        failed = size < 0;
+        long s = Math.max(0, size);
+        liveEnd = end = s + earlyLive;
+        if (seeded > 0 && !failed) {
+            // the log has these lines (and whatever came since): show its page instead
+            slots.subList(0, seeded).clear();
+            if (first >= 0) {
+                first = Math.max(0, first - seeded);
+                last = Math.max(0, last - seeded);
+            }
+            if (listener != null) listener.onRemoved(0, seeded);
+        }
+        seeded = 0;
+        if (clearOnOpen || failed) {
+            clearOnOpen = false;
+            start = floor = end;
+            return;
+        }
+        start = s - page.size();
+        insertAtTop(page);
+        trim();
+        check();
+    }
+
+    private void check() {
+        if (!opened || loading || failed || closed || first < 0) return;
+        int margin = Math.max(1, pageSize / 2);
+        if (first < margin && start > floor) {
+            final long from = Math.max(floor, start - pageSize);
+            load(from, (int) (start - from), true);
+        } else if (last >= slots.size() - margin && end < liveEnd) {
+            load(end, (int) Math.min(pageSize, liveEnd - end), false);
+        }
+    }
+
+    private void load(final long from, final int count, final boolean older) {
+        final int gen = generation;
+        loading = true;
+        loader.execute(() -> {
+            List<T> page = null;
+            try {
+                page = toRows(source.read(from, count));
+            } catch (IOException ignored) {
+                // published as a failed page
+            }
+            final List<T> p = page;
+            main.execute(() -> loaded(gen, from, count, older, p));
+        });
+    }
+
+    private void loaded(int gen, long from, int count, boolean older, List<T> page) {
+        if (gen != generation || closed) return;
+        loading = false;
+        if (page == null) {
+            failed = true;
+            return;
+        }
+        pagesLoaded++;
+        if (older) {
+            if (from + page.size() != start) {
+                floor = start; // the log is shorter than it was: nothing more up there
+                return;
+            }
+            start = from;
+            insertAtTop(page);
+        } else {
+            if (from != end) return;
+            if (page.isEmpty()) {
+                liveEnd = end; // counted more live messages than were logged: catch up here
+                return;
+            }
+            int at = slots.size();
+            for (T row : page) slots.add(new Slot<>(row, true));
+            end += page.size();
+            if (listener != null) listener.onInserted(at, page.size());
+        }
+        trim();
+        check();
+    }
+
+    private void insertAtTop(List<T> page) {
+        if (page.isEmpty()) return;
+        List<Slot<T>> top = new ArrayList<>(page.size());
+        for (T row : page) top.add(new Slot<>(row, true));
+        slots.addAll(0, top);
+        if (first >= 0) {
+            first += page.size();
+            last += page.size();
+        }
+        if (listener != null) listener.onInserted(0, page.size());
+    }
+
+    /**
+     * Drop pages from the end farther from the viewport until the window fits, keeping a
+     * page beyond the viewport on both sides (so the next scroll does not page right back).
+     */
+    private void trim() {
+        if (!opened) return;
+        int cap = capacity();
+        while (slots.size() > cap) {
+            int size = slots.size();
+            int f = first < 0 ? size - 1 : Math.min(first, size - 1);
+            int l = last < 0 ? size - 1 : Math.min(last, size - 1);
+            int above = f - pageSize;
+            int below = size - 1 - l - pageSize;
+            int k = Math.max(size - cap, pageSize);
+            if (above >= below && above > 0) {
+                k = Math.min(k, above);
+                long logged = 0;
+                for (int i = 0; i < k; i++) if (slots.get(i).logged) logged++;
+                slots.subList(0, k).clear();
+                start += logged;
+                if (first >= 0) {
+                    first -= k;
+                    last -= k;
+                }
+                if (listener != null) listener.onRemoved(0, k);
+            } else if (below > 0) {
+                k = Math.min(k, below);
+                long logged = 0;
+                for (int i = size - k; i < size; i++) if (slots.get(i).logged) logged++;
+                slots.subList(size - k, size).clear();
+                end -= logged;
+                if (listener != null) listener.onRemoved(size - k, k);
+            } else {
+                break; // the viewport itself is larger than the window
+            }
+            rowsEvicted += k;
+        }
+    }
+
+    /** Forget every row and any load in flight, before opening again. */
+    private void drop() {
+        generation++;
+        loading = false;
+        opened = false;
+        int n = slots.size();
+        slots.clear();
+        seeded = 0;
+        first = last = -1;
+        if (n > 0 && listener != null) listener.onRemoved(0, n);
+    }
+
+    private List<T> toRows(List<ChatEvent> events) {
+        List<T> out = new ArrayList<>(events.size());
+        for (ChatEvent e : events) out.add(rows.rowOf(e));
+        return out;
+    }
+}
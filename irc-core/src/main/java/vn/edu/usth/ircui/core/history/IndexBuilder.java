@@ -0,0 +1,194 @@
+package vn.edu.usth.ircui.core.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+import vn.edu.usth.ircui.core.protocol.CaseMapping;
+
+/**
+ * The search index of the segment being appended to, kept in memory and grown one
+ * record at a time by the log's writer. When the segment is sealed it is written out
+ * as an {@link IndexFile} and dropped.
+ *
+ * Searches run concurrently with appends: every method holds the builder's lock.
+ */
+final class IndexBuilder implements TermIndex {
+
+    private static final class Postings {
+        int[] recs = new int[4];
+        int n;
+
+        void add(int rec) {
+            if (n == recs.length) recs = Arrays.copyOf(recs, n * 2);
+            recs[n++] = rec;
+        }
+    }
+
+    private final Map<String, Postings> terms = new HashMap<>();
+    private final Map<String, Integer> nickIds = new HashMap<>();
+    private final List<String> nicks = new ArrayList<>();
+    private int[] nickOf = new int[256];
+    private long[] timeOf = new long[256];
+    private int records;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    /** Index record number {@code rec}; records already indexed are skipped (a rebuild raced the writer). */
+    synchronized void add(int rec, ChatEvent e) {
+        if (rec != records) return;
+        if (records == nickOf.length) {
+            nickOf = Arrays.copyOf(nickOf, records * 2);
+            timeOf = Arrays.copyOf(timeOf, records * 2);
+        }
+        String nick = e.nick != null ? CaseMapping.RFC1459.fold(e.nick) : "";
+        Integer id = nickIds.get(nick);
+        if (id == null) {
+            id = nicks.size();
+            nickIds.put(nick, id);
+            nicks.add(nick);
+        }
+        nickOf[records] = id;
+        timeOf[records] = e.timestamp;
+        min = Math.min(min, e.timestamp);
+        max = Math.max(max, e.timestamp);
+        for (String t : Tokens.of(e.text)) {
+            Postings p = terms.get(t);
+            if (p == null) terms.put(t, p = new Postings());
+            p.add(records);
+        }
+        records++;
+    }
+
+    @Override
+    public synchronized int records() {
+        return records;
+    }
+
+    @Override
+    public synchronized long minTimestamp() {
+        return min;
+    }
+
+    @Override
+    public synchronized long maxTimestamp() {
+        return max;
+    }
+
+    @Override
+    public synchronized int nickId(String folded) {
+        Integer id = nickIds.get(folded);
+        return id != null ? id : -1;
+    }
+
+    @Override
+    public synchronized int nick(int record) {
+        return nickOf[record];
+    }
+
+    @Override
+    public synchronized long timestamp(int record) {
+        return timeOf[record];
+    }
+
+    @Override
+    public synchronized int[] postings(String term) {
+        Postings p = terms.get(term);
+        return p != null ? Arrays.copyOf(p.recs, p.n) : null;
+    }
+
+    /** Write the index of a segment of {@code dataBytes} bytes (see {@link IndexFile} for the layout). */
+    synchronized void write(File file, int dataBytes) throws IOException {
+        String[] sorted = terms.keySet().toArray(new String[0]);
+        byte[][] termBytes = new byte[sorted.length][];
+        for (int i = 0; i < sorted.length; i++) termBytes[i] = sorted[i].getBytes(StandardCharsets.UTF_8);
+        Integer[] order = new Integer[sorted.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> IndexFile.compare(termBytes[a], termBytes[b]));
+
+        byte[][] nickBytes = new byte[nicks.size()][];
+        int nickBlob = 0;
+        for (int i = 0; i < nickBytes.length; i++) {
+            nickBytes[i] = nicks.get(i).getBytes(StandardCharsets.UTF_8);
+            nickBlob += 2 + Math.min(nickBytes[i].length, 0xFFFF);
+        }
+        int termBlob = 0;
+        int postBlob = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            termBlob += termBytes[i].length;
+            Postings p = terms.get(sorted[i]);
+            int prev = -1;
+            for (int j = 0; j < p.n; j++) {
+                postBlob += IndexFile.varintSize(p.recs[j] - prev);
+                prev = p.recs[j];
+            }
+        }
+
+        int nickOff = IndexFile.HEADER;
+        int recOff = nickOff + nickBlob;
+        int termTabOff = recOff + records * 12;
+        int termBlobOff = termTabOff + (sorted.length + 1) * 12;
+        int postOff = termBlobOff + termBlob;
+        int end = postOff + postBlob;
+        ByteBuffer out = ByteBuffer.allocate(end);
+
+        out.position(nickOff);
+        for (byte[] b : nickBytes) {
+            int len = Math.min(b.length, 0xFFFF);
+            out.putShort((short) len).put(b, 0, len);
+        }
+        for (int r = 0; r < records; r++) out.putInt(nickOf[r]);
+        for (int r = 0; r < records; r++) out.putLong(timeOf[r]);
+        int tAt = 0;
+        int pAt = 0;
+        ByteBuffer blob = out.duplicate();
+        blob.position(postOff);
+        for (int k = 0; k < order.length; k++) {
+            int i = order[k];
+            Postings p = terms.get(sorted[i]);
+            out.putInt(tAt).putInt(pAt).putInt(p.n);
+            tAt += termBytes[i].length;
+            int before = blob.position();
+            int prev = -1;
+            for (int j = 0; j < p.n; j++) {
+                IndexFile.putVarint(blob, p.recs[j] - prev);
+                prev = p.recs[j];
+            }
+            pAt += blob.position() - before;
+        }
+        out.putInt(tAt).putInt(pAt).putInt(0);
+        out.position(termBlobOff);
+        for (int i : order) out.put(termBytes[i]);
+
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), IndexFile.HEADER, end - IndexFile.HEADER);
+        out.position(0);
+        out.putInt(IndexFile.MAGIC).putInt(IndexFile.VERSION);
+        out.putInt(records).putInt(dataBytes);
+        out.putLong(min).putLong(max);
+        out.putInt(nicks.size()).putInt(sorted.length);
+        out.putInt(nickOff).putInt(recOff).putInt(termTabOff).putInt(termBlobOff).putInt(postOff).putInt(end);
+        out.putInt((int) crc.getValue());
+        out.position(0);
+
+        // written next to the final name and renamed: a crash never leaves half an index behind
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile f = new RandomAccessFile(tmp, "rw")) {
+            f.setLength(0);
+            while (out.hasRemaining()) f.getChannel().write(out);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Cannot write " + file);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package vn.edu.usth.ircui.core.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The search index of a sealed segment, next to it as {@code <base>.tix} and read
+ * through a memory mapping (big-endian):
+ *
+ * <pre>
+ *   header   magic, version, records, segment bytes covered, min ts, max ts,
+ *            nick count, term count, six section offsets, CRC32 of everything after the header
+ *   nicks    short length + folded nick (UTF-8), in id order
+ *   records  int nick id per record, then long timestamp per record
+ *   terms    (int term offset, int postings offset, int count) per term in byte order, plus an end row
+ *   term blob, postings blob (per term: varint gaps between record numbers, from -1)
+ * </pre>
+ *
+ * An index that does not match its segment (records, bytes) or fails its CRC is not
+ * opened: the segment is indexed again.
+ */
+final class IndexFile implements TermIndex {
+
+    static final String SUFFIX = ".tix";
+    static final int MAGIC = 0x54495831; // "TIX1"
+    static final int VERSION = 1;
+    static final int HEADER = 68;
+
+    private final ByteBuffer map; // absolute reads only, shared by every searcher
+    private final int records;
+    private final long min;
+    private final long max;
+    private final int terms;
+    private final int recOff;
+    private final int termTabOff;
+    private final int termBlobOff;
+    private final int postOff;
+    private final Map<String, Integer> nickIds;
+
+    private IndexFile(ByteBuffer map) {
+        this.map = map;
+        records = map.getInt(8);
+        min = map.getLong(16);
+        max = map.getLong(24);
+        int nicks = map.getInt(32);
+        terms = map.getInt(36);
+        int nickOff = map.getInt(40);
+        recOff = map.getInt(44);
+        termTabOff = map.getInt(48);
+        termBlobOff = map.getInt(52);
+        postOff = map.getInt(56);
+        nickIds = new HashMap<>(nicks * 2);
+        ByteBuffer in = map.duplicate();
+        in.position(nickOff);
+        for (int i = 0; i < nicks; i++) {
+            byte[] b = new byte[in.getShort() & 0xFFFF];
+            in.get(b);
+            nickIds.put(new String(b, StandardCharsets.UTF_8), i);
+        }
+    }
+
+    /** The index of a segment with {@code records} records in {@code dataBytes} bytes, or null if there is no valid one. */
+    static IndexFile open(File file, int records, int dataBytes) throws IOException {
+        if (!file.isFile() || file.length() < HEADER || file.length() > Integer.MAX_VALUE) return null;
+        MappedByteBuffer map;
+        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            map = f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+        }
+        if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) return null;
+        if (map.getInt(8) != records || map.getInt(12) != dataBytes) return null;
+        int end = map.getInt(60);
+        if (end != map.capacity()) return null;
+        byte[] body = new byte[end - HEADER];
+        ByteBuffer view = map.duplicate();
+        view.position(HEADER);
+        view.get(body);
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        if ((int) crc.getValue() != map.getInt(64)) return null;
+        return new IndexFile(map);
+    }
+
+    @Override
+    public int records() {
+        return records;
+    }
+
+    @Override
+    public long minTimestamp() {
+        return min;
+    }
+
+    @Override
+    public long maxTimestamp() {
+        return max;
+    }
+
+    @Override
+    public int nickId(String folded) {
+        Integer id = nickIds.get(folded);
+        return id != null ? id : -1;
+    }
+
+    @Override
+    public int nick(int record) {
+        return map.getInt(recOff + record * 4);
+    }
+
+    @Override
+    public long timestamp(int record) {
+        return map.getLong(recOff + records * 4 + record * 8);
+    }
+
+    @Override
+    public int[] postings(String term) {
+        byte[] key = term.getBytes(StandardCharsets.UTF_8);
+        int lo = 0, hi = terms - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareAt(mid, key);
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return decode(mid);
+        }
+        return null;
+    }
+
+    // ---------- internals ----------
+
+    /** Term {@code i} against {@code key}, unsigned byte order. */
+    private int compareAt(int i, byte[] key) {
+        int row = termTabOff + i * 12;
+        int from = termBlobOff + map.getInt(row);
+        int len = map.getInt(row + 12) - map.getInt(row);
+        int n = Math.min(len, key.length);
+        for (int j = 0; j < n; j++) {
+            int d = (map.get(from + j) & 0xFF) - (key[j] & 0xFF);
+            if (d != 0) return d;
+        }
+        return len - key.length;
+    }
+
+    private int[] decode(int i) {
+        int row = termTabOff + i * 12;
+        int at = postOff + map.getInt(row + 4);
+        int[] out = new int[map.getInt(row + 8)];
+        int rec = -1;
+        for (int j = 0; j < out.length; j++) {
+            int v = 0;
+            int shift = 0;
+            int b;
+            do {
+                b = map.get(at++);
+                v |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            rec += v;
+            out[j] = rec;
+        }
+        return out;
+    }
+
+    static int compare(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int d = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (d != 0) return d;
+        }
+        return a.length - b.length;
+    }
+
+    static int varintSize(int v) {
+        int n = 1;
+        while ((v >>>= 7) != 0) n++;
+        return n;
+    }
+
+    static void putVarint(ByteBuffer out, int v) {
+        while ((v & ~0x7F) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+}
@@ -0,0 +1,114 @@
+package vn.edu.usth.ircui.core.history;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+
+/**
+ * On-disk form of one logged message (big-endian):
+ *
+ * <pre>
+ *   int   body length (everything after the CRC)
+ *   int   CRC32 of the body
+ *   long  timestamp
+ *   byte  flags: 1 = system line, 2 = mine
+ *   short nick length, nick (UTF-8)
+ *   short msgid length (0xFFFF = none), msgid (ASCII)
+ *   int   text length, text (UTF-8)
+ * </pre>
+ *
+ * The target is not stored: every record in a channel's log belongs to that channel.
+ * The CRC only matters for the last few records of a log, where a crash can leave a
+ * torn write behind.
+ */
+final class LogRecords {
+
+    static final int HEADER = 8;
+    /** Anything larger is garbage, not a record (IRC lines are at most a few KB). */
+    static final int MAX_BODY = 1 << 20;
+
+    private static final int FLAG_SYSTEM = 1;
+    private static final int FLAG_MINE = 2;
+    private static final int NO_MSGID = 0xFFFF;
+    private static final byte[] EMPTY = new byte[0];
+
+    private LogRecords() {}
+
+    /** Append the record for {@code e} to {@code out}, growing it if needed; returns the buffer written to. */
+    static ByteBuffer encode(ChatEvent e, ByteBuffer out, CRC32 crc) {
+        byte[] nick = e.nick != null ? e.nick.getBytes(StandardCharsets.UTF_8) : EMPTY;
+        byte[] msgid = e.msgid != null ? e.msgid.getBytes(StandardCharsets.UTF_8) : null;
+        byte[] text = e.text != null ? e.text.getBytes(StandardCharsets.UTF_8) : EMPTY;
+        int nickLen = Math.min(nick.length, 0xFFFE);
+        int msgidLen = msgid != null ? Math.min(msgid.length, 0xFFFE) : 0;
+        int body = 8 + 1 + 2 + nickLen + 2 + msgidLen + 4 + text.length;
+        if (out.remaining() < HEADER + body) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + HEADER + body));
+            out.flip();
+            bigger.put(out);
+            out = bigger;
+        }
+        int start = out.position();
+        out.putInt(body).putInt(0);
+        out.putLong(e.timestamp);
+        out.put((byte) ((e.isSystem() ? FLAG_SYSTEM : 0) | (e.mine ? FLAG_MINE : 0)));
+        out.putShort((short) nickLen).put(nick, 0, nickLen);
+        out.putShort((short) (msgid != null ? msgidLen : NO_MSGID));
+        if (msgid != null) out.put(msgid, 0, msgidLen);
+        out.putInt(text.length).put(text);
+        crc.reset();
+        crc.update(out.array(), out.arrayOffset() + start + HEADER, body);
+        out.putInt(start + 4, (int) crc.getValue());
+        return out;
+    }
+
+    /** Total length of the record at {@code at}. */
+    static int length(ByteBuffer buf, int at) {
+        return HEADER + buf.getInt(at);
+    }
+
+    static long timestamp(ByteBuffer buf, int at) {
+        return buf.getLong(at + HEADER);
+    }
+
+    /**
+     * Length of the record at {@code at} if it is whole and intact within {@code limit},
+     * else -1 (a torn or corrupt tail).
+     */
+    static int check(ByteBuffer buf, int at, int limit, CRC32 crc) {
+        if (limit - at < HEADER) return -1;
+        int body = buf.getInt(at);
+        if (body < 8 + 1 + 2 + 2 + 4 || body > MAX_BODY || body > limit - at - HEADER) return -1;
+        byte[] bytes = new byte[body];
+        ByteBuffer view = buf.duplicate();
+        view.position(at + HEADER);
+        view.get(bytes);
+        crc.reset();
+        crc.update(bytes, 0, body);
+        return (int) crc.getValue() == buf.getInt(at + 4) ? HEADER + body : -1;
+    }
+
+    /** The record at {@code view.position()}; leaves the position after it. */
+    static ChatEvent decode(ByteBuffer view, String target) {
+        view.position(view.position() + HEADER);
+        long ts = view.getLong();
+        int flags = view.get();
+        String nick = utf8(view, view.getShort() & 0xFFFF);
+        int msgidLen = view.getShort() & 0xFFFF;
+        String msgid = msgidLen == NO_MSGID ? null : utf8(view, msgidLen);
+        String text = utf8(view, view.getInt());
+        if ((flags & FLAG_SYSTEM) != 0) {
+            return ChatEvent.system(text, ts);
+        }
+        return ChatEvent.message(nick, target, text, ts, (flags & FLAG_MINE) != 0, msgid);
+    }
+
+    private static String utf8(ByteBuffer view, int len) {
+        if (len == 0) return "";
+        byte[] b = new byte[len];
+        view.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
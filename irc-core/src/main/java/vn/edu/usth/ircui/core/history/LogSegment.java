@@ -0,0 +1,392 @@
+package vn.edu.usth.ircui.core.history;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+
+/**
+ * One file of a {@link ChannelLog}: records {@code base ..} in append order, plus a
+ * sparse index file with one entry every {@code indexEvery} records:
+ *
+ * <pre>  int record (relative), int byte offset, long newest timestamp before that record</pre>
+ *
+ * "Newest before" is a running maximum over the whole log, so it never decreases and a
+ * binary search finds the first record at or after a time even when replayed history
+ * was appended out of order.
+ *
+ * Written only by the log's writer thread; read from any thread through read-only
+ * mappings of the bytes published so far, in chunks of {@value #CHUNK} bytes: a full
+ * chunk is mapped once, only the last one is mapped again as the segment grows.
+ *
+ * The search index ({@link TermIndex}) is made on first use: read from {@code <base>.tix}
+ * for a sealed segment, else built from the records; the active segment's is made by
+ * the first append, grows with every one after and is written out when the segment is sealed.
+ */
+final class LogSegment {
+
+    static final String SUFFIX = ".log";
+    static final String INDEX_SUFFIX = ".idx";
+    private static final int ENTRY = 16;
+    static final int CHUNK = 256 << 10;
+
+    final long base;
+    private final File file;
+    private final File indexFile;
+    private final File termFile;
+    private final int indexEvery;
+
+    // sparse index: grown by the writer, replaced (not resized) so readers never see a torn copy
+    private volatile int[] entryOffset = new int[16];
+    private volatile long[] entryNewest = new long[16];
+    private int entries;                           // writer
+    private volatile long newest = Long.MIN_VALUE; // newest timestamp in the log up to the end of this segment
+    private volatile int bytes;
+    private volatile int count;                    // records readable; published last
+
+    private boolean loaded;       // guarded by this
+    private MappedByteBuffer[] chunks = new MappedByteBuffer[0]; // guarded by this
+    private FileChannel out;      // writer, while this is the active segment
+    private FileChannel indexOut;
+    private TermIndex terms;      // guarded by this; null until first searched
+
+    LogSegment(File dir, long base, int indexEvery) {
+        this.base = base;
+        this.indexEvery = indexEvery;
+        String name = String.format(Locale.ROOT, "%020d", base);
+        this.file = new File(dir, name + SUFFIX);
+        this.indexFile = new File(dir, name + INDEX_SUFFIX);
+        this.termFile = new File(dir, name + IndexFile.SUFFIX);
+    }
+
+    /** Base position encoded in a segment file name, or -1 if it is not one. */
+    static long parseBase(String fileName) {
+        if (!fileName.endsWith(SUFFIX)) return -1;
+        try {
+            return Long.parseLong(fileName.substring(0, fileName.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    int count() {
+        return count;
+    }
+
+    int bytes() {
+        return bytes;
+    }
+
+    long newest() {
+        return newest;
+    }
+
+    synchronized boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Read the index and check the records after its last entry, cutting off a torn
+     * write left by a crash. Cheap: at most {@code indexEvery} records are scanned.
+     * @param newestBefore newest timestamp in the segments before this one, if known
+     */
+    synchronized void load(long newestBefore) throws IOException {
+        if (loaded) return;
+        int len = (int) file.length();
+        int n = readIndex(len);
+        int fromFile = n;
+        ByteBuffer data = len > 0 ? mapFile(0, len) : ByteBuffer.allocate(0); // for the check only
+        CRC32 crc = new CRC32();
+        // an index entry may point at a record that never made it to disk
+        while (n > 0 && LogRecords.check(data, entryOffset[n - 1], len, crc) < 0) n--;
+        entries = n;
+
+        int at = n > 0 ? entryOffset[n - 1] : 0;
+        int rec = n > 0 ? (n - 1) * indexEvery : 0;
+        long nw = n > 0 ? entryNewest[n - 1] : newestBefore;
+        while (at < len) {
+            int l = LogRecords.check(data, at, len, crc);
+            if (l < 0) break;
+            if (rec % indexEvery == 0 && rec / indexEvery >= entries) addEntry(at, nw);
+            nw = Math.max(nw, LogRecords.timestamp(data, at));
+            at += l;
+            rec++;
+        }
+        if (at < len) {
+            try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+                f.setLength(at);
+            }
+        }
+        if (entries != fromFile || at < len) rewriteIndex();
+        newest = nw;
+        bytes = at;
+        count = rec;
+        loaded = true;
+    }
+
+    // ---------- writer ----------
+
+    /** Make this the segment being appended to. */
+    void openForAppend(long newestBefore) throws IOException {
+        load(newestBefore);
+        out = new RandomAccessFile(file, "rw").getChannel();
+        out.position(bytes);
+        indexOut = new RandomAccessFile(indexFile, "rw").getChannel();
+        indexOut.position((long) entries * ENTRY);
+    }
+
+    /** Append whole encoded records (position to limit) and publish them to readers. */
+    void append(ByteBuffer batch) throws IOException {
+        int at = batch.position();
+        int end = batch.limit();
+        int rec = count;
+        int off = bytes;
+        long nw = newest;
+        int firstNew = entries;
+        while (at < end) {
+            int l = LogRecords.length(batch, at);
+            if (rec % indexEvery == 0) addEntry(off, nw);
+            nw = Math.max(nw, LogRecords.timestamp(batch, at));
+            at += l;
+            off += l;
+            rec++;
+        }
+        while (batch.hasRemaining()) out.write(batch);
+        if (entries > firstNew) {
+            ByteBuffer idx = ByteBuffer.allocate((entries - firstNew) * ENTRY);
+            for (int i = firstNew; i < entries; i++) {
+                idx.putInt(i * indexEvery).putInt(entryOffset[i]).putLong(entryNewest[i]);
+            }
+            idx.flip();
+            while (idx.hasRemaining()) indexOut.write(idx);
+        }
+        newest = nw;
+        bytes = off;
+        count = rec;
+    }
+
+    /**
+     * Add records {@code first ..} (just appended) to the search index. The first append
+     * of a session builds it from what the segment already holds.
+     */
+    synchronized void indexAppended(String target, int first, List<ChatEvent> events) throws IOException {
+        ensureTerms(target, false);
+        if (!(terms instanceof IndexBuilder)) return;
+        IndexBuilder b = (IndexBuilder) terms;
+        for (int i = 0; i < events.size(); i++) b.add(first + i, events.get(i));
+    }
+
+    /** Sealed: write the in-memory index out and search the file from now on. */
+    synchronized void sealIndex() throws IOException {
+        if (!(terms instanceof IndexBuilder)) return;
+        ((IndexBuilder) terms).write(termFile, bytes);
+        IndexFile f = IndexFile.open(termFile, count, bytes);
+        if (f != null) terms = f;
+    }
+
+    /** Force what was appended (records and index) to the storage device. */
+    void force() throws IOException {
+        if (out != null) out.force(false);
+        if (indexOut != null) indexOut.force(false);
+    }
+
+    /** No more appends: close the files (reads keep working through the mapping). */
+    void seal() throws IOException {
+        if (out != null) out.close();
+        if (indexOut != null) indexOut.close();
+        out = null;
+        indexOut = null;
+    }
+
+    // ---------- readers ----------
+
+    /** Decode records {@code from ..} (relative to this segment) into {@code out}, at most {@code n}. */
+    void read(int from, int n, String target, List<ChatEvent> out) throws IOException {
+        int c = count;
+        n = Math.min(n, c - from);
+        if (n <= 0) return;
+        int e = from / indexEvery;
+        int at = entryOffset[e];
+        for (int r = e * indexEvery; r < from; r++) at += recordLength(at);
+        for (int i = 0; i < n; i++) {
+            int len = recordLength(at);
+            out.add(LogRecords.decode(bytes(at, len), target));
+            at += len;
+        }
+    }
+
+    /** First record (relative) stamped at or after {@code ts}, or {@link #count()} if none. */
+    int search(long ts) throws IOException {
+        int c = count;
+        if (c == 0) return 0;
+        long[] nws = entryNewest;
+        int[] offs = entryOffset;
+        // last entry whose records before it are all older than ts
+        int lo = -1, hi = (c - 1) / indexEvery;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (nws[mid] < ts) lo = mid;
+            else hi = mid - 1;
+        }
+        if (lo < 0) return 0;
+        int at = offs[lo];
+        for (int rec = lo * indexEvery; rec < c; rec++) {
+            ByteBuffer head = bytes(at, LogRecords.HEADER + 8);
+            if (LogRecords.timestamp(head, 0) >= ts) return rec;
+            at += LogRecords.length(head, 0);
+        }
+        return c;
+    }
+
+    /** The search index, made first if needed. */
+    synchronized TermIndex terms(String target, boolean sealed) throws IOException {
+        ensureTerms(target, sealed);
+        return terms;
+    }
+
+    /**
+     * Make the search index if there is none yet: a sealed segment's is read from its file
+     * if that matches the segment, else built from the records (and written, if sealed).
+     * @return true if it had to be built
+     */
+    synchronized boolean ensureTerms(String target, boolean sealed) throws IOException {
+        if (terms != null) return false;
+        int c = count;
+        int b = bytes;
+        if (sealed) {
+            IndexFile f = IndexFile.open(termFile, c, b);
+            if (f != null) {
+                terms = f;
+                return false;
+            }
+        }
+        IndexBuilder builder = new IndexBuilder();
+        List<ChatEvent> chunk = new ArrayList<>(1024);
+        for (int from = 0; from < c; from += 1024) {
+            chunk.clear();
+            read(from, Math.min(1024, c - from), target, chunk);
+            for (int i = 0; i < chunk.size(); i++) builder.add(from + i, chunk.get(i));
+        }
+        terms = builder;
+        if (sealed) {
+            builder.write(termFile, b);
+            IndexFile f = IndexFile.open(termFile, c, b);
+            if (f != null) terms = f;
+        }
+        return true;
+    }
+
+    synchronized void close() throws IOException {
+        seal();
+        chunks = new MappedByteBuffer[0];
+    }
+
+    // ---------- internals ----------
+
+    /** Writer or load (lock held). */
+    private void addEntry(int offset, long newestBefore) {
+        if (entries == entryOffset.length) {
+            int[] o = Arrays.copyOf(entryOffset, entries * 2);
+            long[] t = Arrays.copyOf(entryNewest, entries * 2);
+            o[entries] = offset;
+            t[entries] = newestBefore;
+            entryNewest = t;
+            entryOffset = o;
+        } else {
+            entryOffset[entries] = offset;
+            entryNewest[entries] = newestBefore;
+        }
+        entries++;
+    }
+
+    /** Entries that are in order and point inside the data. */
+    private int readIndex(int dataLen) throws IOException {
+        if (!indexFile.exists()) return 0;
+        byte[] raw;
+        try (RandomAccessFile f = new RandomAccessFile(indexFile, "r")) {
+            raw = new byte[(int) f.length() / ENTRY * ENTRY];
+            f.readFully(raw);
+        }
+        ByteBuffer in = ByteBuffer.wrap(raw);
+        int n = 0;
+        entries = 0;
+        while (in.remaining() >= ENTRY) {
+            int rec = in.getInt();
+            int off = in.getInt();
+            long nw = in.getLong();
+            if (rec != n * indexEvery || off < 0 || off >= dataLen || (n > 0 && off <= entryOffset[n - 1])) break;
+            addEntry(off, nw);
+            n++;
+        }
+        return n;
+    }
+
+    private void rewriteIndex() throws IOException {
+        ByteBuffer idx = ByteBuffer.allocate(entries * ENTRY);
+        for (int i = 0; i < entries; i++) {
+            idx.putInt(i * indexEvery).putInt(entryOffset[i]).putLong(entryNewest[i]);
+        }
+        idx.flip();
+        try (RandomAccessFile f = new RandomAccessFile(indexFile, "rw")) {
+            f.setLength(0);
+            while (idx.hasRemaining()) f.getChannel().write(idx);
+        }
+    }
+
+    private int recordLength(int at) throws IOException {
+        return LogRecords.length(bytes(at, LogRecords.HEADER), 0);
+    }
+
+    /**
+     * Bytes {@code at .. at + len} (published), from index 0: a view of the chunk they are
+     * in, or a copy if they cross into the next one.
+     */
+    private ByteBuffer bytes(int at, int len) throws IOException {
+        int k = at / CHUNK;
+        int off = at - k * CHUNK;
+        if (off + len <= CHUNK) {
+            ByteBuffer c = chunk(k, off + len).duplicate();
+            c.limit(off + len).position(off);
+            return c.slice();
+        }
+        byte[] copy = new byte[len];
+        for (int got = 0; got < len; ) {
+            k = (at + got) / CHUNK;
+            off = at + got - k * CHUNK;
+            int n = Math.min(len - got, CHUNK - off);
+            ByteBuffer c = chunk(k, off + n).duplicate();
+            c.position(off);
+            c.get(copy, got, n);
+            got += n;
+        }
+        return ByteBuffer.wrap(copy);
+    }
+
+    /** Chunk {@code k}, mapped over at least its first {@code need} bytes. */
+    private synchronized MappedByteBuffer chunk(int k, int need) throws IOException {
+        if (k >= chunks.length) chunks = Arrays.copyOf(chunks, Math.max(k + 1, chunks.length * 2));
+        MappedByteBuffer c = chunks[k];
+        if (c == null || c.capacity() < need) {
+            // as much as is published: the last chunk is not mapped again for every record
+            int len = Math.min(CHUNK, Math.max(need, bytes - k * CHUNK));
+            chunks[k] = c = mapFile((long) k * CHUNK, len);
+        }
+        return c;
+    }
+
+    private MappedByteBuffer mapFile(long from, int len) throws IOException {
+        // the mapping stays valid after the channel is closed
+        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            return f.getChannel().map(FileChannel.MapMode.READ_ONLY, from, len);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package vn.edu.usth.ircui.core.history;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A conversation's scrollback kept as columns in a ring: the newest {@code capacity}
+ * messages, the oldest dropped as new ones come in.
+ *
+ * <pre>
+ *   long[]   timestamp
+ *   int[]    nick id     into a table of the nicks still on screen (one String per nick)
+ *   byte[]   flags       {@link #MINE} | {@link #CODE} | {@link #SYSTEM} | caller bits
+ *   String[] text
+ * </pre>
+ *
+ * That is 17 bytes a message plus its text, where an object per message costs a
+ * header, the fields and, usually, a copy of the sender's nick. Row objects for the
+ * UI are only made when asked for, through {@link #view}.
+ *
+ * Thread-safe: every method holds the store's lock.
+ */
+public final class MessageColumns {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    public static final int MINE = 1;
+    public static final int CODE = 1 << 1;
+    public static final int SYSTEM = 1 << 2;
+
+    /** Makes the UI's object for row {@code i}; called with the store's lock held. */
+    public interface Rows<T> {
+        T rowOf(MessageColumns store, int i);
+    }
+
+    private final int capacity;
+    private final long[] timestamp;
+    private final int[] nick;
+    private final byte[] flags;
+    private final String[] text;
+    private int head; // slot of the oldest row
+    private int size;
+    private long first; // sequence number of the oldest row; grows forever
+
+    private final Map<String, Integer> nickIds = new HashMap<>();
+    private String[] nicks = new String[16];
+    private int[] refs = new int[16]; // rows using each nick; 0 means the id is free
+    private int[] free = new int[16];
+    private int freeCount;
+    private int nickCount;
+
+    public MessageColumns() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public MessageColumns(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity " + capacity);
+        this.capacity = capacity;
+        timestamp = new long[capacity];
+        nick = new int[capacity];
+        flags = new byte[capacity];
+        text = new String[capacity];
+    }
+
+    /** Append a message, dropping the oldest if full. Returns its sequence number. */
+    public synchronized long add(String nick, String text, long timestamp, int flags) {
+        if (size == capacity) {
+            release(this.nick[head]);
+            this.text[head] = null;
+            head = next(head);
+            size--;
+            first++;
+        }
+        int at = slot(size);
+        this.timestamp[at] = timestamp;
+        this.nick[at] = acquire(nick);
+        this.flags[at] = (byte) flags;
+        this.text[at] = text;
+        size++;
+        return first + size - 1;
+    }
+
+    /** Drop every message. Sequence numbers keep counting. */
+    public synchronized void clear() {
+        first += size;
+        head = 0;
+        size = 0;
+        Arrays.fill(text, null);
+        nickIds.clear();
+        Arrays.fill(nicks, null);
+        Arrays.fill(refs, 0);
+        freeCount = 0;
+        nickCount = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Sequence number of row 0: how many messages were dropped or cleared so far. */
+    public synchronized long first() {
+        return first;
+    }
+
+    public synchronized long timestamp(int i) {
+        return timestamp[slot(check(i))];
+    }
+
+    public synchronized String nick(int i) {
+        return nicks[nick[slot(check(i))]];
+    }
+
+    public synchronized String text(int i) {
+        return text[slot(check(i))];
+    }
+
+    public synchronized int flags(int i) {
+        return flags[slot(check(i))] & 0xFF;
+    }
+
+    public synchronized boolean has(int i, int flag) {
+        return (flags[slot(check(i))] & flag) != 0;
+    }
+
+    /** Distinct nicks among the rows held. */
+    public synchronized int nickCount() {
+        return nickCount - freeCount;
+    }
+
+    /** Heap taken by the columns and the nick table, message text not included. */
+    public synchronized long columnBytes() {
+        long rows = 16L * 4 + capacity * (8L + 4 + 1 + 4); // four array headers, then per row
+        long table = 3 * 16L + nicks.length * (4L + 4 + 4);
+        for (int id = 0; id < nickCount; id++) {
+            if (refs[id] > 0) table += 72 + 2L * nicks[id].length(); // roughly: String, its chars, a map entry
+        }
+        return rows + table;
+    }
+
+    /**
+     * The rows as a read-only list of {@code T}, oldest first, made on each {@code get}.
+     * The last few made are kept, so rebinding the rows on screen allocates nothing.
+     * The list follows the store: appends and drops show through.
+     */
+    public <T> List<T> view(final Rows<T> rows) {
+        return new AbstractList<T>() {
+            private final Object[] recent = new Object[64];
+            private final long[] recentSeq = newSeqs(recent.length);
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T get(int index) {
+                synchronized (MessageColumns.this) {
+                    long seq = first + check(index);
+                    int k = (int) (seq & (recent.length - 1));
+                    if (recentSeq[k] == seq) return (T) recent[k];
+                    T row = rows.rowOf(MessageColumns.this, index);
+                    recent[k] = row;
+                    recentSeq[k] = seq;
+                    return row;
+                }
+            }
+
+            @Override
+            public int size() {
+                return MessageColumns.this.size();
+            }
+        };
+    }
+
+    // ---------- internals ----------
+
+    private static long[] newSeqs(int n) {
+        long[] s = new long[n];
+        Arrays.fill(s, -1);
+        return s;
+    }
+
+    private int check(int i) {
+        if (i < 0 || i >= size) throw new IndexOutOfBoundsException("row " + i + " of " + size);
+        return i;
+    }
+
+    private int slot(int i) {
+        int s = head + i;
+        return s < capacity ? s : s - capacity;
+    }
+
+    private int next(int s) {
+        return s + 1 < capacity ? s + 1 : 0;
+    }
+
+    /** The id of {@code s}, interning it (equal strings share one id and one String). */
+    private int acquire(String s) {
+        if (s == null) s = "";
+        Integer id = nickIds.get(s);
+        if (id == null) {
+            if (freeCount > 0) {
+                id = free[--freeCount];
+            } else {
+                if (nickCount == nicks.length) {
+                    nicks = Arrays.copyOf(nicks, nickCount * 2);
+                    refs = Arrays.copyOf(refs, nickCount * 2);
+                    free = Arrays.copyOf(free, nickCount * 2);
+                }
+                id = nickCount++;
+            }
+            nicks[id] = s;
+            nickIds.put(s, id);
+        }
+        refs[id]++;
+        return id;
+    }
+
+    /** A row using nick {@code id} is gone; the last one frees the id. */
+    private void release(int id) {
+        if (--refs[id] > 0) return;
+        nickIds.remove(nicks[id]);
+        nicks[id] = null;
+        free[freeCount++] = id;
+    }
+}
@@ -0,0 +1,453 @@
+package vn.edu.usth.ircui.core.history;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+
+/**
+ * On-device message history: one {@link ChannelLog} per network and conversation,
+ * under {@code root/<network>/<conversation>/}.
+ *
+ * - {@link #append} only queues: one writer thread gathers what arrives for a time slice
+ *   (or until a batch is full) and writes each conversation's share with a single write
+ *   call; {@link #queueDepth}, {@link #lastBatch} and the counters show how it keeps up
+ * - {@link #channel} opens a log for reading (lazily, then cached)
+ * - {@link #search} finds messages by words, nick, time and conversation, a page at a
+ *   time; every segment has an inverted index, kept up to date as messages are written
+ *   and saved next to the segment once it is full ({@link #verifyIndexes} at startup)
+ * - Directory names are the keys with anything but [a-z0-9._-] percent-encoded;
+ *   callers pass case-folded conversation names so "#Chan" and "#chan" share a log
+ *
+ * A process crash loses what is still queued (at most a time slice); what the writer
+ * has written survives it. A power cut may also lose what was written but not yet forced
+ * to the storage device, as the {@link Sync} policy allows (and a torn record is cut off
+ * on open). {@link #close} forces everything whatever the policy.
+ */
+public final class MessageLog implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_BYTES = 4 << 20;
+    public static final int DEFAULT_INDEX_EVERY = 32;
+    public static final long DEFAULT_SLICE_MS = 50;
+    public static final int DEFAULT_MAX_BATCH = 1024;
+    private static final long WRITER_CHECK_MS = 100; // how often a flush looks whether the writer is still there
+
+    /** When written messages are forced to the storage device (fsync). */
+    public enum Sync {
+        /** After every batch: nothing written is lost to a power cut; one force per batch. */
+        EVERY_BATCH,
+        /** After the batch that is due, at most once an interval (and an interval after the last write). */
+        INTERVAL,
+        /** Only when asked ({@link #sync}, which the app does on going to the background) and on close. */
+        ON_BACKGROUND
+    }
+
+    private static final class Pending {
+        final String network;
+        final String target;
+        final ChatEvent event;
+        final CountDownLatch done; // flush / close marker when set
+
+        Pending(String network, String target, ChatEvent event, CountDownLatch done) {
+            this.network = network;
+            this.target = target;
+            this.event = event;
+            this.done = done;
+        }
+    }
+
+    private final File root;
+    private final int segmentBytes;
+    private final int indexEvery;
+    private final Map<String, ChannelLog> logs = new HashMap<>(); // guarded by itself
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final Pending stop = new Pending(null, null, null, new CountDownLatch(1));
+    private final Pending syncNow = new Pending(null, null, null, null);
+    private volatile long sliceNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLICE_MS);
+    private volatile int maxBatch = DEFAULT_MAX_BATCH;
+    private volatile Sync sync = Sync.ON_BACKGROUND;
+    private volatile long syncIntervalNanos;
+    private volatile boolean closed;
+    private volatile long written;
+    private volatile long batches;
+    private volatile long commits;
+    private volatile long syncs;
+    private volatile int lastBatch;
+    private volatile int largestBatch;
+    private volatile long errors;
+    private volatile IOException lastError;
+
+    public MessageLog(File root) {
+        this(root, DEFAULT_SEGMENT_BYTES, DEFAULT_INDEX_EVERY);
+    }
+
+    public MessageLog(File root, int segmentBytes, int indexEvery) {
+        this.root = root;
+        this.segmentBytes = segmentBytes;
+        this.indexEvery = Math.max(1, indexEvery);
+        writer = new Thread(this::writeLoop, "message-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /** Queue one message for the log of {@code target} on {@code network}. Any thread, never blocks. */
+    public void append(String network, String target, ChatEvent event) {
+        if (closed || network == null || target == null) return;
+        queue.add(new Pending(network, target, event, null));
+    }
+
+    /**
+     * Group commit: after the first queued message the writer keeps gathering for up to
+     * {@code sliceMillis}, or until {@code maxBatch} messages, then writes them together;
+     * 0 writes whatever has piled up straight away. A {@link #flush} ends the slice early.
+     */
+    public void setWriteBehind(long sliceMillis, int maxBatch) {
+        this.sliceNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, sliceMillis));
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    /** The fsync policy; {@code intervalMillis} is only used by {@link Sync#INTERVAL}. */
+    public void setSync(Sync sync, long intervalMillis) {
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, intervalMillis));
+        this.sync = sync;
+    }
+
+    /**
+     * Force everything written so far to the storage device, soon, on the writer thread
+     * and whatever the policy. Any thread, never blocks.
+     */
+    public void sync() {
+        if (closed) return;
+        queue.add(syncNow);
+    }
+
+    /** The log of one conversation, opened on first use. */
+    public ChannelLog channel(String network, String target) throws IOException {
+        String key = dirName(network) + File.separatorChar + dirName(target);
+        synchronized (logs) {
+            ChannelLog log = logs.get(key);
+            if (log == null) {
+                log = new ChannelLog(new File(root, key), target, segmentBytes, indexEvery);
+                logs.put(key, log);
+            }
+            return log;
+        }
+    }
+
+    /** Every conversation with a log on disk, as {network, conversation}. */
+    public List<String[]> conversations() {
+        List<String[]> out = new ArrayList<>();
+        File[] networks = root.listFiles();
+        if (networks == null) return out;
+        for (File n : networks) {
+            File[] convs = n.isDirectory() ? n.listFiles() : null;
+            if (convs == null) continue;
+            for (File c : convs) {
+                if (c.isDirectory()) out.add(new String[]{keyOf(n.getName()), keyOf(c.getName())});
+            }
+        }
+        return out;
+    }
+
+    /**
+     * One page of messages matching {@code query}, newest first (by time across
+     * conversations, by position within one).
+     * @param after the previous page's {@link SearchPage#next}, or null for the first page
+     */
+    public SearchPage search(SearchQuery query, SearchPage.Cursor after, int pageSize) throws IOException {
+        List<String[]> where = query.channels.isEmpty() ? conversations() : query.channels;
+        int k = where.size();
+        ChannelLog[] logs = new ChannelLog[k];
+        String[] keys = new String[k];
+        long[][] pos = new long[k][];
+        long[][] ts = new long[k][];
+        int[] found = new int[k];
+        for (int i = 0; i < k; i++) {
+            String[] w = where.get(i);
+            keys[i] = w[0] + '\n' + w[1];
+            if (!new File(new File(root, dirName(w[0])), dirName(w[1])).isDirectory()) continue;
+            long before = after != null ? after.before(keys[i]) : Long.MAX_VALUE;
+            if (before <= 0) continue;
+            logs[i] = channel(w[0], w[1]);
+            pos[i] = new long[pageSize];
+            ts[i] = new long[pageSize];
+            found[i] = logs[i].search(query, before, pageSize, pos[i], ts[i]);
+        }
+
+        // merge: newest first across conversations
+        List<SearchHit> hits = new ArrayList<>(pageSize);
+        int[] taken = new int[k];
+        while (hits.size() < pageSize) {
+            int best = -1;
+            for (int i = 0; i < k; i++) {
+                if (taken[i] < found[i] && (best < 0 || ts[i][taken[i]] > ts[best][taken[best]])) best = i;
+            }
+            if (best < 0) break;
+            long p = pos[best][taken[best]++];
+            String[] w = where.get(best);
+            hits.add(new SearchHit(w[0], w[1], p, logs[best].read(p, 1).get(0)));
+        }
+
+        Map<String, Long> next = new HashMap<>(after != null ? after.before : new HashMap<String, Long>());
+        boolean more = false;
+        for (int i = 0; i < k; i++) {
+            if (logs[i] == null) {
+                next.put(keys[i], 0L);
+            } else if (taken[i] < found[i] || found[i] == pageSize) {
+                // this conversation has more (or may have): continue after what was shown
+                if (taken[i] > 0) next.put(keys[i], pos[i][taken[i] - 1]);
+                more = true;
+            } else {
+                next.put(keys[i], 0L);
+            }
+        }
+        return new SearchPage(hits, more ? new SearchPage.Cursor(next) : null);
+    }
+
+    /**
+     * Open every conversation on disk and check the search index of each segment,
+     * building the missing or stale ones; conversations and segments in parallel on
+     * {@code pool}. Returns how many segment indexes were built.
+     */
+    public int verifyIndexes(ForkJoinPool pool) throws IOException {
+        List<ForkJoinTask<Integer>> tasks = new ArrayList<>();
+        for (String[] c : conversations()) tasks.add(pool.submit(channel(c[0], c[1]).indexCheck()));
+        int built = 0;
+        IOException failed = null;
+        for (ForkJoinTask<Integer> t : tasks) {
+            try {
+                built += t.join();
+            } catch (UncheckedIOException e) {
+                if (failed == null) failed = e.getCause();
+            }
+        }
+        if (failed != null) throw failed;
+        return built;
+    }
+
+    /**
+     * Wait until everything queued so far is written. Stops waiting if the writer is gone
+     * (closed meanwhile, or it died): nothing queued will be written then.
+     */
+    public void flush() throws InterruptedException {
+        if (closed) return;
+        CountDownLatch done = new CountDownLatch(1);
+        queue.add(new Pending(null, null, null, done));
+        while (!done.await(WRITER_CHECK_MS, TimeUnit.MILLISECONDS)) {
+            if (!writer.isAlive()) return;
+        }
+    }
+
+    /** Write what is queued, force it to disk, stop the writer and close the files. */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        // a marker, not an interrupt: interrupting a FileChannel write closes the channel
+        queue.add(stop);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (logs) {
+            for (ChannelLog log : logs.values()) log.close();
+            logs.clear();
+        }
+    }
+
+    /** Messages written so far. */
+    public long written() {
+        return written;
+    }
+
+    /** Write calls so far: {@link #written()} / batches is the average batch. */
+    public long batches() {
+        return batches;
+    }
+
+    /** Group commits so far: batches gathered and written in one go (one per conversation in it). */
+    public long commits() {
+        return commits;
+    }
+
+    /** Forces so far (fsync of every conversation written since the one before). */
+    public long syncs() {
+        return syncs;
+    }
+
+    /** Messages (and flush / sync requests) waiting for the writer. */
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    /** Messages in the last group commit. */
+    public int lastBatch() {
+        return lastBatch;
+    }
+
+    public int largestBatch() {
+        return largestBatch;
+    }
+
+    public long errors() {
+        return errors;
+    }
+
+    public IOException lastError() {
+        return lastError;
+    }
+
+    private void writeLoop() {
+        List<Pending> drained = new ArrayList<>();
+        Set<ChannelLog> unsynced = new LinkedHashSet<>(); // written since the last force
+        long lastSync = System.nanoTime();
+        boolean stopping = false;
+        while (!stopping) {
+            boolean syncRequested = false;
+            try {
+                Pending first;
+                if (sync == Sync.INTERVAL && !unsynced.isEmpty()) {
+                    // nothing may stay unforced longer than the interval, even when no more comes
+                    long wait = syncIntervalNanos - (System.nanoTime() - lastSync);
+                    first = queue.poll(Math.max(0, wait), TimeUnit.NANOSECONDS);
+                } else {
+                    first = queue.take();
+                }
+                if (first != null) {
+                    drained.add(first);
+                    gather(drained);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            // one write per conversation, in arrival order within each
+            Map<String, List<ChatEvent>> byLog = new LinkedHashMap<>();
+            Map<String, String[]> names = new HashMap<>();
+            List<CountDownLatch> markers = new ArrayList<>();
+            int messages = 0;
+            for (Pending p : drained) {
+                if (p == stop) {
+                    stopping = true;
+                } else if (p == syncNow) {
+                    syncRequested = true;
+                } else if (p.done != null) {
+                    markers.add(p.done);
+                }
+                if (p.event == null) continue;
+                String key = p.network + '\n' + p.target;
+                List<ChatEvent> events = byLog.get(key);
+                if (events == null) {
+                    byLog.put(key, events = new ArrayList<>());
+                    names.put(key, new String[]{p.network, p.target});
+                }
+                events.add(p.event);
+                messages++;
+            }
+            drained.clear();
+            for (Map.Entry<String, List<ChatEvent>> e : byLog.entrySet()) {
+                String[] n = names.get(e.getKey());
+                try {
+                    ChannelLog log = channel(n[0], n[1]);
+                    log.append(e.getValue());
+                    unsynced.add(log);
+                    written += e.getValue().size();
+                    batches++;
+                } catch (IOException ex) {
+                    errors++;
+                    lastError = ex;
+                }
+            }
+            if (messages > 0) {
+                commits++;
+                lastBatch = messages;
+                if (messages > largestBatch) largestBatch = messages;
+            }
+            long now = System.nanoTime();
+            Sync policy = sync;
+            if (!unsynced.isEmpty() && (stopping || syncRequested || policy == Sync.EVERY_BATCH
+                    || (policy == Sync.INTERVAL && now - lastSync >= syncIntervalNanos))) {
+                for (ChannelLog log : unsynced) {
+                    try {
+                        log.force();
+                    } catch (IOException ex) {
+                        errors++;
+                        lastError = ex;
+                    }
+                }
+                unsynced.clear();
+                lastSync = now;
+                syncs++;
+            }
+            for (CountDownLatch m : markers) m.countDown();
+        }
+    }
+
+    /**
+     * Keep adding to {@code drained} (which holds the first arrival) for the time slice or
+     * until the batch is full. A flush, sync or stop ends it at once: someone is waiting.
+     */
+    private void gather(List<Pending> drained) throws InterruptedException {
+        int max = maxBatch;
+        long deadline = System.nanoTime() + sliceNanos;
+        int seen = 0;
+        while (true) {
+            if (drained.size() < max) queue.drainTo(drained, max - drained.size());
+            for (; seen < drained.size(); seen++) {
+                if (drained.get(seen).event == null) return;
+            }
+            long left = deadline - System.nanoTime();
+            if (drained.size() >= max || left <= 0) return;
+            Pending p = queue.poll(left, TimeUnit.NANOSECONDS);
+            if (p == null) return;
+            drained.add(p);
+        }
+    }
+
+    /** The key a directory name was made from. */
+    static String keyOf(String dirName) {
+        byte[] out = new byte[dirName.length()];
+        int n = 0;
+        for (int i = 0; i < dirName.length(); i++) {
+            char c = dirName.charAt(i);
+            if (c == '%' && i + 2 < dirName.length()) {
+                out[n++] = (byte) Integer.parseInt(dirName.substring(i + 1, i + 3), 16);
+                i += 2;
+            } else {
+                out[n++] = (byte) c;
+            }
+        }
+        return new String(out, 0, n, StandardCharsets.UTF_8);
+    }
+
+    static String dirName(String key) {
+        StringBuilder sb = new StringBuilder(key.length() + 8);
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            int c = b & 0xFF;
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_'
+                    || (c == '.' && sb.length() > 0)) {
+                sb.append((char) c);
+            } else {
+                sb.append('%').append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 15, 16));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,24 @@
+package vn.edu.usth.ircui.core.history;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+
+/** One message found by {@link MessageLog#search}, and where it is in its log. */
+public final class SearchHit {
+
+    public final String network;
+    public final String target;
+    public final long position;
+    public final ChatEvent event;
+
+    SearchHit(String network, String target, long position, ChatEvent event) {
+        this.network = network;
+        this.target = target;
+        this.position = position;
+        this.event = event;
+    }
+
+    @Override
+    public String toString() {
+        return network + "/" + target + "@" + position + " " + event;
+    }
+}
@@ -0,0 +1,36 @@
+package vn.edu.usth.ircui.core.history;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/** One page of search results, newest first, and where the next page starts. */
+public final class SearchPage {
+
+    /** Where a search left off in each conversation: opaque, pass it back for the next page. */
+    public static final class Cursor {
+        final Map<String, Long> before; // network + '\n' + conversation -> first position not yet searched
+
+        Cursor(Map<String, Long> before) {
+            this.before = before;
+        }
+
+        long before(String key) {
+            Long b = before.get(key);
+            return b != null ? b : Long.MAX_VALUE;
+        }
+    }
+
+    public final List<SearchHit> hits;
+    /** Null when there is nothing more to find. */
+    public final Cursor next;
+
+    SearchPage(List<SearchHit> hits, Cursor next) {
+        this.hits = Collections.unmodifiableList(hits);
+        this.next = next;
+    }
+
+    public boolean hasMore() {
+        return next != null;
+    }
+}
@@ -0,0 +1,63 @@
+package vn.edu.usth.ircui.core.history;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import vn.edu.usth.ircui.core.protocol.CaseMapping;
+
+/**
+ * What to look for in the message log: every word of {@code text} (whole words, case
+ * and accents ignored), optionally only from one nick, within a time range and in some
+ * conversations. Immutable; each refinement returns a new query.
+ *
+ * <pre>  SearchQuery.of("release notes").from("alice").in("irc.libera.chat", "#android")</pre>
+ */
+public final class SearchQuery {
+
+    public final String text;
+    final List<String> terms;
+    final boolean unmatchable;  // words were given, none of them searchable
+    final String nick;          // folded, or null for anyone
+    final long since;           // inclusive
+    final long until;           // exclusive
+    final List<String[]> channels; // {network, conversation}; empty for all
+
+    private SearchQuery(String text, List<String> terms, String nick, long since, long until, List<String[]> channels) {
+        this.text = text;
+        this.terms = terms;
+        this.unmatchable = terms.isEmpty() && text != null && !text.trim().isEmpty();
+        this.nick = nick;
+        this.since = since;
+        this.until = until;
+        this.channels = channels;
+    }
+
+    /** Messages containing every word of {@code text}; null or blank for any message. */
+    public static SearchQuery of(String text) {
+        return new SearchQuery(text, Collections.unmodifiableList(Tokens.of(text)), null,
+                Long.MIN_VALUE, Long.MAX_VALUE, Collections.<String[]>emptyList());
+    }
+
+    /** Only messages sent by {@code nick} (compared case-insensitively). */
+    public SearchQuery from(String nick) {
+        return new SearchQuery(text, terms, nick == null ? null : CaseMapping.RFC1459.fold(nick), since, until, channels);
+    }
+
+    /** Only messages stamped at or after {@code since} and before {@code until} (epoch ms). */
+    public SearchQuery between(long since, long until) {
+        return new SearchQuery(text, terms, nick, since, until, channels);
+    }
+
+    /** Only this conversation (the keys it is logged under); may be given several times. */
+    public SearchQuery in(String network, String target) {
+        List<String[]> c = new ArrayList<>(channels);
+        c.add(new String[]{network, target});
+        return new SearchQuery(text, terms, nick, since, until, Collections.unmodifiableList(c));
+    }
+
+    @Override
+    public String toString() {
+        return "SearchQuery" + terms + (nick != null ? " from " + nick : "") + (channels.isEmpty() ? "" : " in " + channels.size());
+    }
+}
@@ -0,0 +1,286 @@
+package vn.edu.usth.ircui.core.history;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+
+/**
+ * What the chat screens showed, saved so a cold start can show it again before the
+ * network or the log is read: the last server, nick and conversation, and per
+ * conversation its members, unread and highlight counts, last activity, read marker
+ * and last lines. One file, big-endian, read through a memory mapping in one pass:
+ *
+ * <pre>
+ *   header        magic, version, body length, CRC32 of the body, saved at
+ *   body          server, nick, active, conversation count, then per conversation:
+ *                 name, private, unread, highlights, last activity, read marker,
+ *                 member count + members,
+ *                 line count, timestamps (long each), flags (byte each), nicks, texts
+ *   strings       int UTF-8 length (-1 for null) + bytes
+ * </pre>
+ *
+ * Written to a temporary file, forced to disk and renamed over the old one, so a
+ * crash while saving leaves the previous snapshot. A file that is short, of another
+ * version or fails its CRC reads as no snapshot.
+ */
+public final class SessionSnapshot {
+
+    static final int MAGIC = 0x534E5031; // "SNP1"
+    static final int VERSION = 2;
+    static final int HEADER = 24;
+
+    /** One conversation's part of the snapshot; its lines are oldest first. */
+    public static final class Conversation {
+        public final String name;
+        public final boolean isPrivate;
+        public final int unread;
+        public final int highlights;
+        public final long lastActivity;
+        public final long readMarker;
+        public final List<String> members;
+        private final long[] timestamps;
+        private final byte[] flags;
+        private final String[] nicks;
+        private final String[] texts;
+
+        Conversation(String name, boolean isPrivate, int unread, int highlights, long lastActivity,
+                     long readMarker, List<String> members,
+                     long[] timestamps, byte[] flags, String[] nicks, String[] texts) {
+            this.name = name;
+            this.isPrivate = isPrivate;
+            this.unread = unread;
+            this.highlights = highlights;
+            this.lastActivity = lastActivity;
+            this.readMarker = readMarker;
+            this.members = members;
+            this.timestamps = timestamps;
+            this.flags = flags;
+            this.nicks = nicks;
+            this.texts = texts;
+        }
+
+        /** The newest {@code lines} rows of {@code store} (flags as in {@link MessageColumns}). */
+        public static Conversation of(String name, boolean isPrivate, int unread, int highlights,
+                                      long lastActivity, long readMarker, List<String> members,
+                                      MessageColumns store, int lines) {
+            long[] ts;
+            byte[] fl;
+            String[] ni;
+            String[] tx;
+            synchronized (store) {
+                int n = Math.min(Math.max(0, lines), store.size());
+                int from = store.size() - n;
+                ts = new long[n];
+                fl = new byte[n];
+                ni = new String[n];
+                tx = new String[n];
+                for (int i = 0; i < n; i++) {
+                    ts[i] = store.timestamp(from + i);
+                    fl[i] = (byte) store.flags(from + i);
+                    ni[i] = store.nick(from + i);
+                    tx[i] = store.text(from + i);
+                }
+            }
+            return new Conversation(name, isPrivate, unread, highlights, lastActivity, readMarker,
+                    Collections.unmodifiableList(new ArrayList<>(members)), ts, fl, ni, tx);
+        }
+
+        public int lines() {
+            return timestamps.length;
+        }
+
+        public long timestamp(int i) {
+            return timestamps[i];
+        }
+
+        public int flags(int i) {
+            return flags[i];
+        }
+
+        public String nick(int i) {
+            return nicks[i];
+        }
+
+        public String text(int i) {
+            return texts[i];
+        }
+
+        /** The lines as messages of this conversation, oldest first. */
+        public List<ChatEvent> events() {
+            List<ChatEvent> out = new ArrayList<>(lines());
+            for (int i = 0; i < lines(); i++) {
+                out.add(ChatEvent.message(nicks[i], name, texts[i], timestamps[i],
+                        (flags[i] & MessageColumns.MINE) != 0, null));
+            }
+            return out;
+        }
+    }
+
+    public final long savedAt;
+    public final String server;
+    public final String nick;
+    public final String active;
+    public final List<Conversation> conversations;
+
+    public SessionSnapshot(long savedAt, String server, String nick, String active,
+                           List<Conversation> conversations) {
+        this.savedAt = savedAt;
+        this.server = server;
+        this.nick = nick;
+        this.active = active;
+        this.conversations = Collections.unmodifiableList(new ArrayList<>(conversations));
+    }
+
+    /** The conversation called {@code name} (exact), or null. */
+    public Conversation find(String name) {
+        for (Conversation c : conversations) {
+            if (c.name != null && c.name.equals(name)) return c;
+        }
+        return null;
+    }
+
+    // ---------- file ----------
+
+    /** Replace {@code file} with this snapshot; the old one stays if this fails. */
+    public void write(File file) throws IOException {
+        byte[] body = encode();
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        ByteBuffer out = ByteBuffer.allocate(HEADER + body.length);
+        out.putInt(MAGIC).putInt(VERSION).putInt(body.length).putInt((int) crc.getValue())
+                .putLong(savedAt).put(body);
+        out.flip();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream f = new FileOutputStream(tmp)) {
+            FileChannel ch = f.getChannel();
+            while (out.hasRemaining()) ch.write(out);
+            ch.force(false);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("could not replace " + file);
+        }
+    }
+
+    /** The snapshot in {@code file}, or null if there is none or it is not intact. */
+    public static SessionSnapshot read(File file) throws IOException {
+        if (!file.isFile() || file.length() < HEADER || file.length() > Integer.MAX_VALUE) return null;
+        MappedByteBuffer map;
+        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            map = f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+        }
+        if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) return null;
+        int length = map.getInt(8);
+        if (length != map.capacity() - HEADER) return null;
+        byte[] body = new byte[length];
+        map.position(HEADER);
+        map.get(body);
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        if ((int) crc.getValue() != map.getInt(12)) return null;
+        try {
+            return decode(map.getLong(16), ByteBuffer.wrap(body));
+        } catch (RuntimeException e) {
+            return null; // intact but not ours to read (written by a broken build)
+        }
+    }
+
+    private byte[] encode() {
+        List<byte[]> strings = new ArrayList<>();
+        int size = 4;
+        size += utf(strings, server) + utf(strings, nick) + utf(strings, active);
+        for (Conversation c : conversations) {
+            size += utf(strings, c.name) + 1 + 4 + 4 + 8 + 8 + 4;
+            for (String m : c.members) size += utf(strings, m);
+            size += 4 + c.lines() * 9;
+            for (int i = 0; i < c.lines(); i++) size += utf(strings, c.nicks[i]);
+            for (int i = 0; i < c.lines(); i++) size += utf(strings, c.texts[i]);
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        int s = 0;
+        put(out, strings.get(s++));
+        put(out, strings.get(s++));
+        put(out, strings.get(s++));
+        out.putInt(conversations.size());
+        for (Conversation c : conversations) {
+            put(out, strings.get(s++));
+            out.put((byte) (c.isPrivate ? 1 : 0));
+            out.putInt(c.unread);
+            out.putInt(c.highlights);
+            out.putLong(c.lastActivity);
+            out.putLong(c.readMarker);
+            out.putInt(c.members.size());
+            for (int i = 0; i < c.members.size(); i++) put(out, strings.get(s++));
+            out.putInt(c.lines());
+            for (long t : c.timestamps) out.putLong(t);
+            out.put(c.flags);
+            for (int i = 0; i < c.lines() * 2; i++) put(out, strings.get(s++));
+        }
+        return out.array();
+    }
+
+    private static SessionSnapshot decode(long savedAt, ByteBuffer in) {
+        String server = string(in);
+        String nick = string(in);
+        String active = string(in);
+        int count = in.getInt();
+        List<Conversation> conversations = new ArrayList<>(count);
+        for (int c = 0; c < count; c++) {
+            String name = string(in);
+            boolean isPrivate = in.get() != 0;
+            int unread = in.getInt();
+            int highlights = in.getInt();
+            long lastActivity = in.getLong();
+            long readMarker = in.getLong();
+            int m = in.getInt();
+            List<String> members = new ArrayList<>(m);
+            for (int i = 0; i < m; i++) members.add(string(in));
+            int n = in.getInt();
+            long[] ts = new long[n];
+            for (int i = 0; i < n; i++) ts[i] = in.getLong();
+            byte[] fl = new byte[n];
+            in.get(fl);
+            String[] ni = new String[n];
+            for (int i = 0; i < n; i++) ni[i] = string(in);
+            String[] tx = new String[n];
+            for (int i = 0; i < n; i++) tx[i] = string(in);
+            conversations.add(new Conversation(name, isPrivate, unread, highlights, lastActivity, readMarker,
+                    Collections.unmodifiableList(members), ts, fl, ni, tx));
+        }
+        return new SessionSnapshot(savedAt, server, nick, active, conversations);
+    }
+
+    /** Encode {@code s} into {@code strings}; its size in the body. */
+    private static int utf(List<byte[]> strings, String s) {
+        byte[] b = s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+        strings.add(b);
+        return 4 + (b == null ? 0 : b.length);
+    }
+
+    private static void put(ByteBuffer out, byte[] b) {
+        if (b == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(b.length).put(b);
+        }
+    }
+
+    private static String string(ByteBuffer in) {
+        int n = in.getInt();
+        if (n < 0) return null;
+        String s = new String(in.array(), in.arrayOffset() + in.position(), n, StandardCharsets.UTF_8);
+        in.position(in.position() + n);
+        return s;
+    }
+}
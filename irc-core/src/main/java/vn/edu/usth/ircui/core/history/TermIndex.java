@@ -0,0 +1,29 @@
+package vn.edu.usth.ircui.core.history;
+
+/**
+ * The search index of one log segment: which records hold a term, and each record's
+ * author and time. Record numbers are relative to the segment.
+ *
+ * Either an {@link IndexBuilder} (the segment being appended to, in memory) or an
+ * {@link IndexFile} (a sealed segment, mapped from disk).
+ */
+interface TermIndex {
+
+    /** Records covered: 0 .. records() - 1. */
+    int records();
+
+    /** Oldest and newest timestamp in the segment (MAX / MIN when empty). */
+    long minTimestamp();
+
+    long maxTimestamp();
+
+    /** Id of a nick (folded) in this segment, or -1 if it never spoke here. */
+    int nickId(String folded);
+
+    int nick(int record);
+
+    long timestamp(int record);
+
+    /** Records containing {@code term}, ascending; null if none. */
+    int[] postings(String term);
+}
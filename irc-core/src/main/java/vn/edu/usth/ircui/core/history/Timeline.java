@@ -0,0 +1,34 @@
+package vn.edu.usth.ircui.core.history;
+
+import java.util.List;
+
+/**
+ * Ordered insertion for message lists that are (almost) always appended to:
+ * replayed history is older than what is already on screen and has to go in
+ * between, without disturbing lines that share its timestamp.
+ */
+public final class Timeline {
+
+    /** Reads a row's timestamp. */
+    public interface Clock<T> {
+        long timestampOf(T row);
+    }
+
+    private Timeline() {}
+
+    /**
+     * Index at which a row stamped {@code ts} belongs: after every row with a
+     * timestamp <= ts (upper bound). O(1) for the common append, O(log n) otherwise.
+     */
+    public static <T> int insertionPoint(List<T> rows, long ts, Clock<? super T> clock) {
+        int n = rows.size();
+        if (n == 0 || clock.timestampOf(rows.get(n - 1)) <= ts) return n;
+        int lo = 0, hi = n - 1; // answer in [lo, hi]
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (clock.timestampOf(rows.get(mid)) <= ts) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,57 @@
+package vn.edu.usth.ircui.core.history;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * How message text is cut into search terms: runs of letters and digits, lower-cased,
+ * with accents taken off ("Việt" and "viet" are the same term). Terms shorter than
+ * {@link #MIN_LENGTH} are not indexed; longer than {@link #MAX_LENGTH} are cut.
+ * The same rules apply to stored text and to queries.
+ */
+final class Tokens {
+
+    static final int MIN_LENGTH = 2;
+    static final int MAX_LENGTH = 32;
+
+    private Tokens() {}
+
+    /** The distinct terms of {@code text}, in order of first appearance. */
+    static List<String> of(String text) {
+        if (text == null || text.isEmpty()) return new ArrayList<>(0);
+        Set<String> out = new LinkedHashSet<>();
+        StringBuilder term = new StringBuilder(MAX_LENGTH);
+        boolean ascii = true;
+        int n = text.length();
+        for (int i = 0; i <= n; i++) {
+            char c = i < n ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (term.length() < MAX_LENGTH) term.append(Character.toLowerCase(c));
+                if (c >= 0x80) ascii = false;
+            } else if (Character.getType(c) == Character.NON_SPACING_MARK && term.length() > 0) {
+                ascii = false; // a combining accent inside a word: dropped by fold()
+            } else if (term.length() > 0) {
+                String t = ascii ? term.toString() : fold(term);
+                if (t.length() >= MIN_LENGTH) out.add(t);
+                term.setLength(0);
+                ascii = true;
+            }
+        }
+        return new ArrayList<>(out);
+    }
+
+    /** Lower-case letters without their accents; đ is d. */
+    private static String fold(CharSequence term) {
+        String d = Normalizer.normalize(term, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(d.length());
+        for (int i = 0; i < d.length(); i++) {
+            char c = d.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            sb.append(c == '\u0111' ? 'd' : c);
+        }
+        return sb.toString();
+    }
+}
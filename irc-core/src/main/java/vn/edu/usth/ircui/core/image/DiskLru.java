@@ -0,0 +1,181 @@
+package vn.edu.usth.ircui.core.image;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Small files (downsampled thumbnails) by key in one directory, least recently used
+ * deleted first once they add up to more than a byte budget.
+ *
+ * - File names are the SHA-1 of the key, so any key is a safe name
+ * - Recency is the file's modification time, bumped on every hit, so the order
+ *   survives a restart: opening sorts what is there by it
+ * - A file is written under a temporary name and renamed, so a reader (or a crash)
+ *   never sees half of one
+ *
+ * Thread-safe: the bookkeeping is synchronized, reads and writes of the files are not.
+ * A file deleted while being read reads as a miss.
+ */
+public final class DiskLru {
+
+    private static final String TMP = ".tmp";
+
+    private final File dir;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true); // name -> bytes
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private int tmpSeq;
+
+    public DiskLru(File dir, long maxBytes) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        File[] found = dir.listFiles();
+        List<File> kept = new ArrayList<>();
+        if (found != null) {
+            for (File f : found) {
+                if (f.getName().endsWith(TMP)) f.delete(); // a write cut short
+                else if (f.isFile()) kept.add(f);
+            }
+        }
+        final long[] stamp = new long[kept.size()];
+        for (int i = 0; i < stamp.length; i++) stamp[i] = kept.get(i).lastModified();
+        Integer[] order = new Integer[kept.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(stamp[a], stamp[b]));
+        for (Integer i : order) {
+            File f = kept.get(i);
+            files.put(f.getName(), f.length());
+            bytes += f.length();
+        }
+        evict();
+    }
+
+    /** The bytes stored for {@code key}, or null. */
+    public byte[] get(String key) {
+        String name = nameOf(key);
+        File f = new File(dir, name);
+        synchronized (this) {
+            if (files.get(name) == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+        }
+        try (FileInputStream in = new FileInputStream(f)) {
+            byte[] data = new byte[(int) f.length()];
+            int n = 0;
+            while (n < data.length) {
+                int r = in.read(data, n, data.length - n);
+                if (r < 0) break;
+                n += r;
+            }
+            if (n < data.length) return null;
+            f.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch (IOException e) {
+            synchronized (this) {
+                forget(name);
+            }
+            return null;
+        }
+    }
+
+    /** Store {@code data} for {@code key}, replacing what was there; least recently used files go if over budget. */
+    public void put(String key, byte[] data) throws IOException {
+        if (data.length > maxBytes) return;
+        String name = nameOf(key);
+        File tmp;
+        synchronized (this) {
+            tmp = new File(dir, name + '.' + (tmpSeq++) + TMP);
+        }
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(data);
+        }
+        synchronized (this) {
+            if (!tmp.renameTo(new File(dir, name))) {
+                tmp.delete();
+                throw new IOException("Cannot store " + name);
+            }
+            forget(name);
+            files.put(name, (long) data.length);
+            bytes += data.length;
+            evict();
+        }
+    }
+
+    public synchronized void remove(String key) {
+        String name = nameOf(key);
+        if (files.containsKey(name)) {
+            forget(name);
+            new File(dir, name).delete();
+        }
+    }
+
+    public synchronized int size() {
+        return files.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /** Stored keys' file names, least recently used first. */
+    synchronized List<String> names() {
+        return Collections.unmodifiableList(new ArrayList<>(files.keySet()));
+    }
+
+    static String nameOf(String key) {
+        try {
+            byte[] h = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(h.length * 2);
+            for (byte b : h) sb.append(Character.forDigit((b >> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every Java platform has SHA-1
+        }
+    }
+
+    private void forget(String name) {
+        Long old = files.remove(name);
+        if (old != null) bytes -= old;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            new File(dir, e.getKey()).delete();
+            bytes -= e.getValue();
+            it.remove();
+            evictions++;
+        }
+    }
+}
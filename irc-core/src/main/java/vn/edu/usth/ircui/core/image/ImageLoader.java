@@ -0,0 +1,268 @@
+package vn.edu.usth.ircui.core.image;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Images for views that come and go (chat rows), decoded off the main thread to the
+ * size they are shown at.
+ *
+ * - {@link #load} answers from memory at once when it can; otherwise a job on the pool
+ *   reads the downsampled thumbnail from disk or, failing that, decodes the source at
+ *   a {@link #sampleSize} for the view and stores a thumbnail for next time
+ * - A target (a view) waits for one image at a time: loading another, or
+ *   {@link #cancel} when the view is recycled, drops what it waited for; a job no
+ *   view waits for any more is skipped if it has not started
+ * - Several targets asking for the same key share one job
+ * - Results are handed over on the {@code main} executor, and only to targets that
+ *   still want them
+ *
+ * {@link #load} and {@link #cancel} are main-thread only; the codec runs on the pool.
+ */
+public final class ImageLoader<T, V> {
+
+    /** An image at a size: the source and the box it is shown in, in pixels. */
+    public static final class Key {
+        public final String source;
+        public final int width;
+        public final int height;
+
+        public Key(String source, int width, int height) {
+            this.source = source;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return width == k.width && height == k.height && source.equals(k.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return (source.hashCode() * 31 + width) * 31 + height;
+        }
+
+        @Override
+        public String toString() {
+            return source + '@' + width + 'x' + height;
+        }
+    }
+
+    /** What the platform does with images; every call on a pool thread. */
+    public interface Codec<V> {
+        /** The source of {@code key}, decoded at about its size ({@link #sampleSize}); null if unreadable. */
+        V decode(Key key) throws IOException;
+
+        /** A thumbnail of {@code image} for the disk cache, or null to keep none. */
+        byte[] encode(V image) throws IOException;
+
+        /** A thumbnail read back from the disk cache. */
+        V decode(byte[] thumbnail) throws IOException;
+
+        /** Bytes {@code image} holds in memory. */
+        int sizeOf(V image);
+    }
+
+    /** The image a target waited for; null if it could not be read. Called on the main executor. */
+    public interface Callback<V> {
+        void onResult(V image);
+    }
+
+    private final class Job implements Runnable {
+        final Key key;
+        final List<T> waiting = new ArrayList<>(1); // main thread
+        volatile boolean cancelled;                 // no one waits: skip if not started
+
+        Job(Key key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                skipped.incrementAndGet();
+                return;
+            }
+            V image = null;
+            try {
+                image = fetch(key);
+            } catch (IOException | RuntimeException e) {
+                failures.incrementAndGet();
+            }
+            if (image != null) memory.put(key, image);
+            final V result = image;
+            main.execute(() -> finish(this, result));
+        }
+    }
+
+    private final class Request {
+        final Job job;
+        final Callback<V> callback;
+
+        Request(Job job, Callback<V> callback) {
+            this.job = job;
+            this.callback = callback;
+        }
+    }
+
+    private final Codec<V> codec;
+    private final MemoryLru<Key, V> memory;
+    private final DiskLru disk; // may be null
+    private final Executor pool;
+    private final Executor main;
+    private final Map<Key, Job> jobs = new HashMap<>();                   // main thread
+    private final Map<T, Request> requests = new IdentityHashMap<>();     // main thread
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong decodes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private long cancelled; // main thread
+
+    /**
+     * @param memoryBytes budget of decoded images kept in memory
+     * @param disk        thumbnails on disk, or null for none
+     */
+    public ImageLoader(Codec<V> codec, long memoryBytes, DiskLru disk, Executor pool, Executor main) {
+        this.codec = codec;
+        this.memory = new MemoryLru<>(memoryBytes, codec::sizeOf);
+        this.disk = disk;
+        this.pool = pool;
+        this.main = main;
+    }
+
+    /**
+     * Show {@code key} in {@code target}: the image if it is in memory (and nothing more
+     * happens), else null and {@code callback} gets it later, unless the target is given
+     * another image or cancelled first.
+     */
+    public V load(Key key, T target, Callback<V> callback) {
+        Request current = requests.get(target);
+        if (current != null) {
+            if (current.job.key.equals(key)) {
+                requests.put(target, new Request(current.job, callback));
+                return null; // already on its way
+            }
+            cancel(target);
+        }
+        V image = memory.get(key);
+        if (image != null) return image;
+        Job job = jobs.get(key);
+        boolean fresh = job == null;
+        if (fresh) {
+            job = new Job(key);
+            jobs.put(key, job);
+        }
+        job.waiting.add(target);
+        requests.put(target, new Request(job, callback));
+        if (fresh) pool.execute(job);
+        return null;
+    }
+
+    /** {@code target} does not want its image any more (its view was recycled). */
+    public void cancel(T target) {
+        Request r = requests.remove(target);
+        if (r == null) return;
+        r.job.waiting.remove(target);
+        if (r.job.waiting.isEmpty()) {
+            r.job.cancelled = true;
+            jobs.remove(r.job.key);
+            cancelled++;
+        }
+    }
+
+    /** The image if it is in memory, else null; any thread. */
+    public V cached(Key key) {
+        return memory.get(key);
+    }
+
+    /** Drop decoded images down to {@code fraction} of the memory budget (0 drops all). */
+    public void trimMemory(double fraction) {
+        memory.trimTo((long) (memory.maxBytes() * fraction));
+    }
+
+    public MemoryLru<Key, V> memory() {
+        return memory;
+    }
+
+    /** Targets waiting for an image. */
+    public int pending() {
+        return requests.size();
+    }
+
+    public long diskHits() {
+        return diskHits.get();
+    }
+
+    /** Sources decoded (thumbnails missing or not kept). */
+    public long decodes() {
+        return decodes.get();
+    }
+
+    public long failures() {
+        return failures.get();
+    }
+
+    /** Jobs no target waited for any more by the time they were done or started. */
+    public long cancelled() {
+        return cancelled;
+    }
+
+    /** Of those, jobs skipped before any decoding. */
+    public long skipped() {
+        return skipped.get();
+    }
+
+    /**
+     * The power of two to divide a {@code width} × {@code height} source by so it still
+     * covers a {@code boxWidth} × {@code boxHeight} box when fitted inside it: the image is
+     * never decoded smaller than shown, and at most twice as big. A box side of 0 or less
+     * does not limit.
+     */
+    public static int sampleSize(int width, int height, int boxWidth, int boxHeight) {
+        // shown scaled by min(boxWidth / width, boxHeight / height): any factor up to the larger ratio keeps that
+        long ratio = Math.max(boxWidth > 0 ? width / boxWidth : 0, boxHeight > 0 ? height / boxHeight : 0);
+        return ratio <= 1 ? 1 : (int) Long.highestOneBit(Math.min(ratio, 1 << 30));
+    }
+
+    // ---------- internals ----------
+
+    private V fetch(Key key) throws IOException {
+        String name = key.toString();
+        byte[] thumb = disk != null ? disk.get(name) : null;
+        if (thumb != null) {
+            V image = codec.decode(thumb);
+            if (image != null) {
+                diskHits.incrementAndGet();
+                return image;
+            }
+            disk.remove(name); // unreadable: decode the source again
+        }
+        V image = codec.decode(key);
+        decodes.incrementAndGet();
+        if (image != null && disk != null) {
+            byte[] out = codec.encode(image);
+            if (out != null) disk.put(name, out);
+        }
+        return image;
+    }
+
+    private void finish(Job job, V image) {
+        if (jobs.get(job.key) == job) jobs.remove(job.key);
+        for (T target : job.waiting) {
+            Request r = requests.get(target);
+            if (r == null || r.job != job) continue;
+            requests.remove(target);
+            r.callback.onResult(image);
+        }
+        job.waiting.clear();
+    }
+}
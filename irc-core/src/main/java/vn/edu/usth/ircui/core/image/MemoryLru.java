@@ -0,0 +1,103 @@
+package vn.edu.usth.ircui.core.image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoded images by key, least recently used dropped first once they add up to more
+ * than a byte budget (in the app, a fraction of the heap).
+ *
+ * - A value bigger than the whole budget is not kept at all, so one huge image
+ *   cannot empty the cache
+ * - {@link #trimTo} shrinks it on demand (the system asking the app to use less memory)
+ *
+ * Thread-safe (synchronized): decoders put from the pool, the main thread gets.
+ */
+public final class MemoryLru<K, V> {
+
+    /** Bytes a value holds (for a bitmap, its allocation). */
+    public interface Sizer<V> {
+        int sizeOf(V value);
+    }
+
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+    private final Sizer<V> sizer;
+    private long maxBytes;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public MemoryLru(long maxBytes, Sizer<V> sizer) {
+        if (maxBytes < 1) throw new IllegalArgumentException("maxBytes must be >= 1");
+        this.maxBytes = maxBytes;
+        this.sizer = sizer;
+    }
+
+    public synchronized V get(K key) {
+        V v = map.get(key);
+        if (v != null) hits++;
+        else misses++;
+        return v;
+    }
+
+    /** Keep {@code value} as the most recently used, dropping the least recently used ones over budget. */
+    public synchronized void put(K key, V value) {
+        int size = sizer.sizeOf(value);
+        V old = map.remove(key);
+        if (old != null) bytes -= sizer.sizeOf(old);
+        if (size > maxBytes) return;
+        map.put(key, value);
+        bytes += size;
+        evict(maxBytes);
+    }
+
+    public synchronized void remove(K key) {
+        V old = map.remove(key);
+        if (old != null) bytes -= sizer.sizeOf(old);
+    }
+
+    /** Drop least recently used values until at most {@code maxBytes} are held (the budget stays). */
+    public synchronized void trimTo(long maxBytes) {
+        evict(Math.max(0, maxBytes));
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized long maxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    private void evict(long limit) {
+        Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+        while (bytes > limit && it.hasNext()) {
+            bytes -= sizer.sizeOf(it.next().getValue());
+            it.remove();
+            evictions++;
+        }
+    }
+}
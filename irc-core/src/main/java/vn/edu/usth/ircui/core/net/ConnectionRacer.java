@@ -0,0 +1,254 @@
+package vn.edu.usth.ircui.core.net;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+
+import vn.edu.usth.ircui.core.protocol.IrcLine;
+
+/**
+ * "Happy eyeballs" for IRC (after RFC 8305): races TCP + TLS + registration to the
+ * first {@code width} candidates instead of trying them one by one.
+ *
+ * - Candidate i starts {@code staggerMs} after candidate i-1, or at once if i-1 failed
+ * - The first connection to reach 001 wins; the others are closed (QUIT if registered)
+ * - Every attempt keeps its own timings for the report
+ *
+ * One racer runs one race; create a new one for the next attempt.
+ */
+public final class ConnectionRacer {
+
+    public enum Outcome { NOT_STARTED, PENDING, WON, CANCELLED, FAILED }
+
+    /** Report for one candidate. */
+    public static final class Attempt {
+        public final ServerEndpoint endpoint;
+        private volatile Outcome outcome = Outcome.NOT_STARTED;
+        private volatile IrcConnection connection;
+        private volatile Exception error;
+
+        Attempt(ServerEndpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public Outcome outcome() { return outcome; }
+
+        public Exception error() { return error; }
+
+        public long connectMs() { return connection != null ? connection.connectMs() : -1; }
+
+        public long handshakeMs() { return connection != null ? connection.handshakeMs() : -1; }
+
+        public long timeToReadyMs() { return connection != null ? connection.timeToReadyMs() : -1; }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(endpoint.host).append(' ');
+            switch (outcome) {
+                case WON:
+                    sb.append("ready in ").append(timeToReadyMs()).append(" ms");
+                    break;
+                case FAILED:
+                    sb.append("failed");
+                    if (error != null && error.getMessage() != null) sb.append(" (").append(error.getMessage()).append(')');
+                    break;
+                case CANCELLED:
+                    sb.append("cancelled");
+                    if (connectMs() >= 0) sb.append(" after connect ").append(connectMs()).append(" ms");
+                    break;
+                default:
+                    sb.append(outcome.name().toLowerCase(Locale.ROOT).replace('_', ' '));
+            }
+            return sb.toString();
+        }
+    }
+
+    public interface Listener {
+        /**
+         * A connection won. Runs on its reader thread before the next line is read:
+         * install the real listener here with {@link IrcConnection#setListener}.
+         */
+        void onWinner(IrcConnection winner, List<Attempt> attempts);
+
+        /** Every candidate failed. */
+        void onAllFailed(List<Attempt> attempts);
+    }
+
+    private final List<Attempt> attempts;
+    private final IrcConnection.Registration registration;
+    private final long staggerMs;
+    private final Executor io;
+    private final ScheduledExecutorService timer;
+    private final TlsSessionCache tls;
+    private final int connectTimeoutMs;
+    private final int registrationTimeoutMs;
+
+    private Listener listener;
+    private int next;                       // index of the next candidate to launch
+    private ScheduledFuture<?> pendingLaunch;
+    private IrcConnection winner;
+    private boolean finished;
+
+    /**
+     * @param candidates servers in preference order; only the first {@code width} take part
+     * @param io runs each attempt's blocking {@link IrcConnection#run()}; needs one thread per attempt
+     */
+    public ConnectionRacer(List<ServerEndpoint> candidates, int width, long staggerMs,
+                           IrcConnection.Registration registration,
+                           Executor io, ScheduledExecutorService timer, TlsSessionCache tls,
+                           int connectTimeoutMs, int registrationTimeoutMs) {
+        List<Attempt> list = new ArrayList<>();
+        for (ServerEndpoint e : candidates) {
+            if (list.size() >= Math.max(1, width)) break;
+            list.add(new Attempt(e));
+        }
+        this.attempts = Collections.unmodifiableList(list);
+        this.registration = registration;
+        this.staggerMs = staggerMs;
+        this.io = io;
+        this.timer = timer;
+        this.tls = tls;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.registrationTimeoutMs = registrationTimeoutMs;
+    }
+
+    public List<Attempt> attempts() {
+        return attempts;
+    }
+
+    public void start(Listener listener) {
+        synchronized (this) {
+            if (this.listener != null) throw new IllegalStateException("race already started");
+            this.listener = listener;
+            if (attempts.isEmpty()) finished = true;
+            else launchNext();
+        }
+        if (attempts.isEmpty()) listener.onAllFailed(attempts);
+    }
+
+    /** Abort the race; any connection not yet handed to {@link Listener#onWinner} is closed. */
+    public void cancel() {
+        List<IrcConnection> losers = new ArrayList<>();
+        synchronized (this) {
+            if (finished) return;
+            finished = true;
+            cancelPendingLaunch();
+            for (Attempt a : attempts) cancelAttempt(a, losers);
+        }
+        quitAll(losers);
+    }
+
+    // ---------- internals (all state changes under "this", socket writes outside it) ----------
+
+    private void launchNext() {
+        if (finished || next >= attempts.size()) return;
+        cancelPendingLaunch();
+        final Attempt a = attempts.get(next++);
+        a.outcome = Outcome.PENDING;
+        a.connection = new IrcConnection(a.endpoint, registration, new AttemptListener(a),
+                tls, connectTimeoutMs, registrationTimeoutMs);
+        io.execute(a.connection::run);
+        if (next < attempts.size()) {
+            pendingLaunch = timer.schedule(() -> {
+                synchronized (ConnectionRacer.this) {
+                    pendingLaunch = null;
+                    launchNext();
+                }
+            }, staggerMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void cancelPendingLaunch() {
+        if (pendingLaunch != null) {
+            pendingLaunch.cancel(false);
+            pendingLaunch = null;
+        }
+    }
+
+    /** Marks a pending attempt cancelled and adds its connection to {@code losers}. */
+    private static void cancelAttempt(Attempt a, List<IrcConnection> losers) {
+        if (a.outcome != Outcome.PENDING) return;
+        a.outcome = Outcome.CANCELLED;
+        losers.add(a.connection);
+    }
+
+    /**
+     * QUIT writes to the socket, and a loser's may be stuck: never under the lock, so the
+     * winner's hand-off and the other attempts' callbacks do not wait on it.
+     */
+    private static void quitAll(List<IrcConnection> losers) {
+        for (IrcConnection c : losers) c.quit("Connected elsewhere");
+    }
+
+    private final class AttemptListener implements IrcConnection.Listener {
+        private final Attempt attempt;
+
+        AttemptListener(Attempt attempt) {
+            this.attempt = attempt;
+        }
+
+        @Override
+        public void onRegistered(IrcConnection c) {
+            Listener l;
+            List<IrcConnection> losers = new ArrayList<>();
+            synchronized (ConnectionRacer.this) {
+                if (finished || attempt.outcome != Outcome.PENDING) {
+                    // lost by a hair, or the race was cancelled
+                    cancelAttempt(attempt, losers);
+                    l = null;
+                } else {
+                    finished = true;
+                    winner = c;
+                    attempt.outcome = Outcome.WON;
+                    cancelPendingLaunch();
+                    for (Attempt other : attempts) {
+                        if (other != attempt) cancelAttempt(other, losers);
+                    }
+                    l = listener;
+                }
+            }
+            if (l != null) l.onWinner(c, attempts);
+            quitAll(losers);
+        }
+
+        @Override
+        public void onLine(IrcConnection c, IrcLine line) {
+            // pre-registration chatter (NOTICE AUTH etc.) is not interesting
+        }
+
+        @Override
+        public void onClosed(IrcConnection c, Exception cause) {
+            boolean allFailed;
+            Listener l;
+            synchronized (ConnectionRacer.this) {
+                if (attempt.outcome != Outcome.PENDING) return; // cancelled or handed over
+                attempt.outcome = Outcome.FAILED;
+                attempt.error = cause;
+                if (finished) return;
+                // a failure frees the slot at once instead of waiting out the stagger
+                launchNext();
+                allFailed = true;
+                for (Attempt a : attempts) {
+                    if (a.outcome == Outcome.PENDING || a.outcome == Outcome.NOT_STARTED) {
+                        allFailed = false;
+                        break;
+                    }
+                }
+                if (allFailed) finished = true;
+                l = listener;
+            }
+            if (allFailed) l.onAllFailed(attempts);
+        }
+    }
+
+    /** The connection that won, or null. */
+    public synchronized IrcConnection winner() {
+        return winner;
+    }
+}
@@ -0,0 +1,338 @@
+package vn.edu.usth.ircui.core.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+
+import vn.edu.usth.ircui.core.protocol.BatchAssembler;
+import vn.edu.usth.ircui.core.protocol.CapNegotiator;
+import vn.edu.usth.ircui.core.protocol.IrcBatch;
+import vn.edu.usth.ircui.core.protocol.IrcCommands;
+import vn.edu.usth.ircui.core.protocol.IrcLine;
+import vn.edu.usth.ircui.core.protocol.IrcLineFramer;
+
+/**
+ * One IRC connection on a plain blocking socket.
+ *
+ * {@link #run()} does everything on the calling thread: TCP connect, TLS handshake,
+ * CAP negotiation and NICK/USER registration up to 001, then reads lines until the
+ * socket closes. PING is answered here; every line (registration included) goes to
+ * the listener, except that with the batch capability a whole batch arrives at once.
+ *
+ * Writes are serialized, so the reader (PONG) and an {@link OutboundQueue} writer
+ * can share the socket. Timings are kept for each phase so callers can compare servers.
+ */
+public final class IrcConnection {
+
+    public static final int RPL_WELCOME = 1;
+    private static final int ERR_ERRONEUSNICKNAME = 432;
+    private static final int ERR_NICKNAMEINUSE = 433;
+    private static final int ERR_NICKCOLLISION = 436;
+    private static final int MAX_NICK_RETRIES = 3;
+
+    public interface Listener {
+        /** 001 arrived. Called on the reader thread before the next line is read. */
+        void onRegistered(IrcConnection c);
+
+        /** Any inbound line. The IrcLine is reused after this returns. */
+        void onLine(IrcConnection c, IrcLine line);
+
+        /** A complete server batch (batch capability only). Default: its lines one by one. */
+        default void onBatch(IrcConnection c, IrcBatch batch) {
+            for (IrcLine line : batch.lines) onLine(c, line);
+        }
+
+        /** The connection is gone. {@code cause} is null when it was closed locally. */
+        void onClosed(IrcConnection c, Exception cause);
+    }
+
+    /** The IRCv3 capabilities the app knows how to use. */
+    public static final List<String> DEFAULT_CAPS = Collections.unmodifiableList(Arrays.asList(
+            CapNegotiator.SERVER_TIME, CapNegotiator.MESSAGE_TAGS, CapNegotiator.BATCH,
+            CapNegotiator.ECHO_MESSAGE, CapNegotiator.LABELED_RESPONSE, CapNegotiator.CHATHISTORY));
+
+    /** What we tell the server about ourselves. */
+    public static final class Registration {
+        public final String nick;
+        public final String user;
+        public final String realName;
+        public final String password; // server PASS, may be null
+        public final Set<String> caps; // IRCv3 capabilities to request; empty skips CAP entirely
+
+        public Registration(String nick, String user, String realName, String password) {
+            this(nick, user, realName, password, Collections.<String>emptySet());
+        }
+
+        public Registration(String nick, String user, String realName, String password,
+                            Collection<String> caps) {
+            this.nick = nick;
+            this.user = user;
+            this.realName = realName;
+            this.password = password;
+            this.caps = Collections.unmodifiableSet(new LinkedHashSet<>(caps));
+        }
+    }
+
+    private final ServerEndpoint endpoint;
+    private final Registration registration;
+    private final TlsSessionCache tls;
+    private final int connectTimeoutMs;
+    private final int registrationTimeoutMs;
+    private final Object writeLock = new Object();
+
+    private volatile Listener listener;
+    private volatile Socket rawSocket;
+    private volatile Socket socket; // rawSocket, or the TLS socket layered on it
+    private volatile boolean closed;
+    private volatile IOException failure; // set by abort()
+    private volatile boolean registered;
+    private volatile String nick;
+    private OutputStreamLineSink out;
+    private int nickRetries;
+    private final CapNegotiator caps;       // null when no capabilities were asked for
+    private final BatchAssembler batches;
+    private volatile Set<String> enabledCaps = Collections.emptySet();
+
+    private volatile long startedAt, connectedAt, handshakeAt, readyAt;
+
+    public IrcConnection(ServerEndpoint endpoint, Registration registration, Listener listener,
+                         TlsSessionCache tls, int connectTimeoutMs, int registrationTimeoutMs) {
+        this.endpoint = endpoint;
+        this.registration = registration;
+        this.listener = listener;
+        this.tls = tls != null ? tls : TlsSessionCache.shared();
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.registrationTimeoutMs = registrationTimeoutMs;
+        this.nick = registration.nick;
+        this.caps = registration.caps.isEmpty() ? null : new CapNegotiator(registration.caps);
+        this.batches = new BatchAssembler(this::deliverBatch);
+    }
+
+    public ServerEndpoint endpoint() { return endpoint; }
+
+    /** Our nick as the server accepted it (may differ from the requested one). */
+    public String nick() { return nick; }
+
+    public boolean isRegistered() { return registered && !closed; }
+
+    public boolean isClosed() { return closed; }
+
+    /** IRCv3 capabilities the server acknowledged (empty until negotiated). */
+    public Set<String> capabilities() { return enabledCaps; }
+
+    public boolean hasCapability(String cap) { return enabledCaps.contains(cap); }
+
+    /** The local end of the socket (what a DCC offer gives peers to connect to), or null if not connected. */
+    public InetAddress localAddress() {
+        Socket s = rawSocket;
+        return s != null && s.isConnected() ? s.getLocalAddress() : null;
+    }
+
+    /** Swap the listener, e.g. when a race is won. Takes effect from the next line. */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** ms from start to TCP connected, or -1. */
+    public long connectMs() { return since(connectedAt); }
+
+    /** ms from start to TLS handshake done (same as connect for plain text), or -1. */
+    public long handshakeMs() { return since(handshakeAt); }
+
+    /** ms from start to 001, or -1. */
+    public long timeToReadyMs() { return since(readyAt); }
+
+    private long since(long t) {
+        return t == 0 || startedAt == 0 ? -1 : (t - startedAt) / 1_000_000;
+    }
+
+    /**
+     * Connect, register and read until closed. Blocks; run it on an I/O thread.
+     * The listener's onClosed is always the last callback.
+     */
+    public void run() {
+        Exception cause = null;
+        try {
+            startedAt = System.nanoTime();
+            Socket s = new Socket();
+            rawSocket = s;
+            socket = s;
+            if (closed) return;
+            s.setTcpNoDelay(true);
+            s.setKeepAlive(true);
+            s.connect(new InetSocketAddress(endpoint.host, endpoint.port), connectTimeoutMs);
+            connectedAt = System.nanoTime();
+
+            if (endpoint.tls) {
+                // resumes the session of an earlier connection to this host:port when it can
+                socket = tls.handshake(s, endpoint.host, endpoint.port, connectTimeoutMs);
+            }
+            handshakeAt = System.nanoTime();
+            if (closed) return;
+
+            Socket sock = socket;
+            synchronized (writeLock) {
+                out = new OutputStreamLineSink(sock.getOutputStream());
+            }
+            sock.setSoTimeout(registrationTimeoutMs);
+            // CAP LS first: the server holds registration until CAP END
+            if (caps != null) send(caps.start());
+            if (registration.password != null) send("PASS " + registration.password);
+            send("NICK " + nick);
+            send("USER " + registration.user + " 0 * :" + registration.realName);
+
+            readLoop(sock.getInputStream());
+        } catch (SocketTimeoutException e) {
+            cause = registered ? e : new IOException("registration timed out on " + endpoint, e);
+        } catch (IOException | RuntimeException e) {
+            cause = e;
+        } finally {
+            boolean local = closed;
+            if (failure != null) cause = failure;
+            closed = true;
+            closeSocket();
+            Listener l = listener;
+            if (l != null) l.onClosed(this, local ? null : cause);
+        }
+    }
+
+    private void readLoop(InputStream in) throws IOException {
+        IrcLineFramer framer = new IrcLineFramer(this::handle);
+        byte[] buf = new byte[8192];
+        int n;
+        while (!closed && (n = in.read(buf)) >= 0) {
+            framer.feed(buf, 0, n);
+        }
+        if (!closed) throw new EOFException("connection closed by " + endpoint.host);
+    }
+
+    private void handle(IrcLine line) {
+        try {
+            if (line.isCommand(IrcCommands.PING)) {
+                send(line.paramCount() > 0 ? "PONG :" + line.lastParam() : "PONG");
+            } else if (line.isCommand(IrcCommands.CAP)) {
+                if (caps != null) {
+                    for (String reply : caps.onCap(line)) send(reply);
+                    enabledCaps = Collections.unmodifiableSet(new LinkedHashSet<>(caps.enabled()));
+                }
+            } else if (!registered) {
+                int numeric = line.numeric();
+                if (numeric == RPL_WELCOME) {
+                    if (line.paramCount() > 0) nick = line.param(0);
+                    if (caps != null) caps.onRegistered();
+                    registered = true;
+                    readyAt = System.nanoTime();
+                    socket.setSoTimeout(0);
+                    Listener l = listener;
+                    if (l != null) l.onRegistered(this);
+                } else if (numeric == ERR_NICKNAMEINUSE || numeric == ERR_NICKCOLLISION
+                        || numeric == ERR_ERRONEUSNICKNAME) {
+                    if (++nickRetries > MAX_NICK_RETRIES) throw new IOException("nickname rejected: " + nick);
+                    nick = nick + "_";
+                    send("NICK " + nick);
+                }
+            }
+        } catch (IOException e) {
+            close(); // reader notices on its next read
+            return;
+        }
+        if (enabledCaps.contains(CapNegotiator.BATCH) && batches.offer(line)) return;
+        Listener l = listener;
+        if (l != null) l.onLine(this, line);
+    }
+
+    private void deliverBatch(IrcBatch batch) {
+        Listener l = listener;
+        if (l != null) l.onBatch(this, batch);
+    }
+
+    /** Write one line and flush it. Safe from any thread. */
+    public void send(String line) throws IOException {
+        synchronized (writeLock) {
+            if (out == null || closed) throw new IOException("not connected");
+            out.write(line);
+            out.flush();
+        }
+    }
+
+    /** A sink for {@link OutboundQueue}: writes are buffered until the queue flushes. */
+    public LineSink sink() {
+        return new LineSink() {
+            @Override
+            public void write(String line) throws IOException {
+                synchronized (writeLock) {
+                    if (out == null || closed) throw new IOException("not connected");
+                    out.write(line);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                synchronized (writeLock) {
+                    if (out == null || closed) throw new IOException("not connected");
+                    out.flush();
+                }
+            }
+        };
+    }
+
+    /** Say goodbye if we got that far, then close. */
+    public void quit(String reason) {
+        if (registered && !closed) {
+            try {
+                send("QUIT :" + reason);
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+        }
+        close();
+    }
+
+    /**
+     * Drop the link as failed, e.g. when the server stopped answering PINGs: unlike
+     * {@link #close()}, the listener's onClosed receives {@code cause}.
+     */
+    public void abort(IOException cause) {
+        if (closed) return;
+        failure = cause;
+        closeSocket();
+    }
+
+    /** Close the socket; unblocks a pending connect, handshake or read. Idempotent. */
+    public void close() {
+        closed = true;
+        closeSocket();
+    }
+
+    private void closeSocket() {
+        // close the TCP socket first: closing an SSLSocket mid-handshake can block on its locks
+        closeQuietly(rawSocket);
+        Socket s = socket;
+        if (s != rawSocket) closeQuietly(s);
+    }
+
+    private static void closeQuietly(Socket s) {
+        if (s == null) return;
+        try {
+            s.close();
+        } catch (IOException ignored) {
+            // nothing left to do
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "IrcConnection[" + endpoint + (registered ? ", " + nick : "") + "]";
+    }
+}
@@ -0,0 +1,71 @@
+package vn.edu.usth.ircui.core.net;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The threads every IRC session in the process shares, however many networks are open.
+ *
+ * - {@code io}: blocking socket readers, one per live or racing connection, at most
+ *   {@code maxIoThreads}; attempts beyond that wait in line for a free thread
+ * - {@code writers}: blocking socket writes (outbound bursts, lag PINGs), at most
+ *   {@code maxIoThreads} as well: a socket stuck on a full send buffer holds only its
+ *   own thread, and writes beyond that many wait in line
+ * - {@code events}: a few threads for timers (race stagger, reconnect, PING, when the
+ *   next outbound line is due); their tasks never block, they hand writes to {@code writers}
+ *
+ * Idle I/O and writer threads time out, so a quiet process holds only the event threads.
+ */
+public final class IrcExecutors {
+
+    public static final int DEFAULT_MAX_IO_THREADS = 16;
+    public static final int DEFAULT_EVENT_THREADS = 2;
+    private static final long IO_KEEP_ALIVE_S = 30;
+
+    private static IrcExecutors shared;
+
+    public final ExecutorService io;
+    public final ExecutorService writers;
+    public final ScheduledExecutorService events;
+    private final ThreadPoolExecutor ioPool;
+
+    public IrcExecutors(int maxIoThreads, int eventThreads) {
+        ioPool = new ThreadPoolExecutor(maxIoThreads, maxIoThreads, IO_KEEP_ALIVE_S, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), IrcThreads.daemon("irc-io"));
+        ioPool.allowCoreThreadTimeOut(true);
+        ThreadPoolExecutor writerPool = new ThreadPoolExecutor(maxIoThreads, maxIoThreads, IO_KEEP_ALIVE_S,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), IrcThreads.daemon("irc-writer"));
+        writerPool.allowCoreThreadTimeOut(true);
+        writers = writerPool;
+        ScheduledThreadPoolExecutor ev = new ScheduledThreadPoolExecutor(eventThreads, IrcThreads.daemon("irc-events"));
+        ev.setRemoveOnCancelPolicy(true); // cancelled stagger/reconnect timers do not pile up
+        io = ioPool;
+        events = ev;
+    }
+
+    /** The process-wide instance. */
+    public static synchronized IrcExecutors shared() {
+        if (shared == null) shared = new IrcExecutors(DEFAULT_MAX_IO_THREADS, DEFAULT_EVENT_THREADS);
+        return shared;
+    }
+
+    /** I/O threads currently running a connection. */
+    public int activeIoThreads() {
+        return ioPool.getActiveCount();
+    }
+
+    /** Connections waiting for an I/O thread. */
+    public int queuedIo() {
+        return ioPool.getQueue().size();
+    }
+
+    public void shutdownNow() {
+        io.shutdownNow();
+        writers.shutdownNow();
+        events.shutdownNow();
+    }
+}
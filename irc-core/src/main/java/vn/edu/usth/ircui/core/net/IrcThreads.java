@@ -0,0 +1,19 @@
+package vn.edu.usth.ircui.core.net;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Thread factories for the network layer: named daemon threads, so a stuck socket never keeps the process alive. */
+public final class IrcThreads {
+
+    private IrcThreads() {}
+
+    public static ThreadFactory daemon(final String prefix) {
+        final AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
@@ -0,0 +1,11 @@
+package vn.edu.usth.ircui.core.net;
+
+import java.io.IOException;
+
+/** Where the writer thread puts finished lines (without CR LF). */
+public interface LineSink {
+    void write(String line) throws IOException;
+
+    /** Push buffered lines to the wire; called once per burst, not per line. */
+    void flush() throws IOException;
+}
@@ -0,0 +1,385 @@
+package vn.edu.usth.ircui.core.net;
+
+import vn.edu.usth.ircui.core.protocol.Utf8Chunker;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-connection outbound queue drained by a single writer: its own thread
+ * ({@link #start(String)}), or tasks on a shared writer pool
+ * ({@link #start(ScheduledExecutorService, Executor)}) so an idle connection holds no thread.
+ *
+ * - Callers (UI thread included) only enqueue; nothing here blocks them
+ * - Every line pays the {@link TokenBucket} before it is written, so pastes are
+ *   paced at the server's rate instead of tripping "Excess Flood"
+ * - Lines are written back-to-back and flushed once per burst
+ * - Depth and ETA are reported through {@link Listener} for UI backpressure
+ */
+public final class OutboundQueue {
+
+    /** Lines waiting beyond this are refused; the caller tells the user instead. */
+    public static final int DEFAULT_MAX_DEPTH = 500;
+
+    /** One outbound line: "COMMAND target :text", or a raw line when command is null. */
+    public static final class Item {
+        public final String command;
+        public final String target;
+        public final String text;
+        public final long enqueuedAt;
+
+        Item(String command, String target, String text) {
+            this.command = command;
+            this.target = target;
+            this.text = text;
+            this.enqueuedAt = System.currentTimeMillis();
+        }
+
+        public String toLine() {
+            if (command == null) return text;
+            return command + " " + target + " :" + text;
+        }
+    }
+
+    public interface Listener {
+        /** Queue depth changed. {@code etaMs} is the estimated time until it is empty. Writer thread. */
+        void onBacklog(int depth, long etaMs);
+
+        /** The sink failed; the writer stopped and unsent items stay queued. Writer thread. */
+        void onSendFailed(IOException e);
+    }
+
+    private final LineSink sink;
+    private final TokenBucket bucket;
+    private final int maxDepth;
+    private final ArrayDeque<Item> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private volatile Listener listener;
+    private Thread writer;
+    private boolean running;
+    private ScheduledExecutorService timer;    // shared-pool mode, else null
+    private Executor writers;
+    private boolean pumpScheduled;             // a pump task is due, queued or running
+    private ScheduledFuture<?> pumpTimer;
+
+    private volatile long linesSent; // written by the writer thread only
+    private volatile long flushes;
+
+    public OutboundQueue(LineSink sink, TokenBucket bucket) {
+        this(sink, bucket, DEFAULT_MAX_DEPTH);
+    }
+
+    public OutboundQueue(LineSink sink, TokenBucket bucket, int maxDepth) {
+        this.sink = sink;
+        this.bucket = bucket;
+        this.maxDepth = maxDepth;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void start(String name) {
+        lock.lock();
+        try {
+            if (running) return;
+            running = true;
+            writer = new Thread(this::drain, name);
+            writer.setDaemon(true);
+            writer.start();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drain on shared threads: a task on {@code writers} writes what the token bucket
+     * allows, then {@code timer} hands the next one to {@code writers} when tokens are
+     * due (none while the queue is empty). The writes may block on a full socket, so
+     * {@code writers} should have room for the connections that write at once (a
+     * queued drain waits its turn); {@code timer} only ever waits.
+     */
+    public void start(ScheduledExecutorService timer, Executor writers) {
+        lock.lock();
+        try {
+            if (running) return;
+            running = true;
+            this.timer = timer;
+            this.writers = writers;
+            schedulePump(0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Stop the writer; queued items are kept (see {@link #drainPending()}). */
+    public void stop() {
+        Thread t;
+        lock.lock();
+        try {
+            running = false;
+            t = writer;
+            writer = null;
+            // a pump that never started will not clear the flag itself
+            if (pumpTimer != null && pumpTimer.cancel(false)) pumpScheduled = false;
+            pumpTimer = null;
+            timer = null;
+            writers = null;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (t != null && t != Thread.currentThread()) t.interrupt();
+    }
+
+    /** Queue "PRIVMSG target :text". Returns false if the queue is full. */
+    public boolean enqueue(String target, String text) {
+        return offer(new Item("PRIVMSG", target, text));
+    }
+
+    /** Queue "COMMAND target :text" (e.g. NOTICE). Returns false if the queue is full. */
+    public boolean enqueue(String command, String target, String text) {
+        return offer(new Item(command, target, text));
+    }
+
+    /** Queue an already formatted line; it is rate limited like any other. */
+    public boolean enqueueRaw(String line) {
+        return offer(new Item(null, null, line));
+    }
+
+    /** Remove and return everything not yet written, e.g. to replay on a new connection. */
+    public List<Item> drainPending() {
+        lock.lock();
+        try {
+            List<Item> out = new ArrayList<>(queue);
+            queue.clear();
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int depth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Estimated ms until everything currently queued has been written. */
+    public long etaMs() {
+        int depth = depth();
+        synchronized (bucket) {
+            return bucket.etaMs(depth);
+        }
+    }
+
+    public long linesSent() { return linesSent; }
+
+    public long flushes() { return flushes; }
+
+    private boolean offer(Item item) {
+        int depth;
+        lock.lock();
+        try {
+            if (queue.size() >= maxDepth) return false;
+            queue.addLast(item);
+            depth = queue.size();
+            changed.signalAll();
+            if (timer != null) schedulePump(0);
+        } finally {
+            lock.unlock();
+        }
+        report(depth);
+        return true;
+    }
+
+    private void drain() {
+        int unflushed = 0;
+        try {
+            while (true) {
+                Item head;
+                lock.lock();
+                try {
+                    while (running && queue.isEmpty()) changed.await();
+                    if (!running) break;
+                    head = queue.peekFirst();
+                } finally {
+                    lock.unlock();
+                }
+
+                String line = head.toLine();
+                long wait;
+                synchronized (bucket) {
+                    wait = bucket.tryAcquire(Utf8Chunker.utf8Length(line) + 2);
+                }
+                if (wait > 0) {
+                    // out of tokens: put the burst on the wire before sleeping
+                    if (unflushed > 0) {
+                        sink.flush();
+                        flushes++;
+                        unflushed = 0;
+                    }
+                    lock.lock();
+                    try {
+                        if (running) changed.await(wait, TimeUnit.MILLISECONDS);
+                    } finally {
+                        lock.unlock();
+                    }
+                    continue;
+                }
+
+                sink.write(line);
+                linesSent++;
+                unflushed++;
+
+                int depth;
+                lock.lock();
+                try {
+                    queue.pollFirst();
+                    depth = queue.size();
+                } finally {
+                    lock.unlock();
+                }
+                if (depth == 0) {
+                    sink.flush();
+                    flushes++;
+                    unflushed = 0;
+                }
+                report(depth);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            lock.lock();
+            try {
+                running = false;
+                writer = null;
+            } finally {
+                lock.unlock();
+            }
+            Listener l = listener;
+            if (l != null) l.onSendFailed(e);
+        }
+    }
+
+    /** Lock held. At most one pump is due, queued or running at a time. */
+    private void schedulePump(long delayMs) {
+        if (!running || timer == null || pumpScheduled) return;
+        pumpScheduled = true;
+        if (delayMs <= 0) {
+            handOff(writers);
+        } else {
+            final Executor w = writers;
+            pumpTimer = timer.schedule(() -> handOff(w), delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** From the timer (or under the lock): the pump itself runs on a writer thread. */
+    private void handOff(Executor w) {
+        try {
+            w.execute(this::pump);
+        } catch (RejectedExecutionException e) {
+            lock.lock();
+            try {
+                pumpScheduled = false; // shut down: nothing will write again
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** One turn on a writer thread: write until out of tokens or lines. */
+    private void pump() {
+        int unflushed = 0;
+        try {
+            while (true) {
+                Item head;
+                lock.lock();
+                try {
+                    if (!running || queue.isEmpty()) {
+                        pumpScheduled = false;
+                        break;
+                    }
+                    head = queue.peekFirst();
+                } finally {
+                    lock.unlock();
+                }
+
+                String line = head.toLine();
+                long wait;
+                synchronized (bucket) {
+                    wait = bucket.tryAcquire(Utf8Chunker.utf8Length(line) + 2);
+                }
+                if (wait > 0) {
+                    if (unflushed > 0) {
+                        sink.flush();
+                        flushes++;
+                    }
+                    lock.lock();
+                    try {
+                        pumpScheduled = false;
+                        schedulePump(wait); // come back when the next token is due
+                    } finally {
+                        lock.unlock();
+                    }
+                    return;
+                }
+
+                sink.write(line);
+                linesSent++;
+                unflushed++;
+
+                int depth;
+                lock.lock();
+                try {
+                    queue.pollFirst();
+                    depth = queue.size();
+                } finally {
+                    lock.unlock();
+                }
+                if (depth == 0) {
+                    sink.flush();
+                    flushes++;
+                    unflushed = 0;
+                }
+                report(depth);
+            }
+        } catch (IOException e) {
+            lock.lock();
+            try {
+                running = false;
+                pumpScheduled = false;
+                timer = null;
+                writers = null;
+            } finally {
+                lock.unlock();
+            }
+            Listener l = listener;
+            if (l != null) l.onSendFailed(e);
+        }
+    }
+
+    private void report(int depth) {
+        Listener l = listener;
+        if (l == null) return;
+        long eta;
+        synchronized (bucket) {
+            eta = bucket.etaMs(depth);
+        }
+        l.onBacklog(depth, eta);
+    }
+}
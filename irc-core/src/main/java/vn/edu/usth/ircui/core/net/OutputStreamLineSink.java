@@ -0,0 +1,29 @@
+package vn.edu.usth.ircui.core.net;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/** Buffers lines as UTF-8 + CR LF and only hits the socket on {@link #flush()}. */
+public final class OutputStreamLineSink implements LineSink {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final OutputStream out;
+
+    public OutputStreamLineSink(OutputStream out) {
+        this.out = new BufferedOutputStream(out, 4096);
+    }
+
+    @Override
+    public void write(String line) throws IOException {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.write(CRLF);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+}
@@ -0,0 +1,223 @@
+package vn.edu.usth.ircui.core.net;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import vn.edu.usth.ircui.core.protocol.IrcCommands;
+import vn.edu.usth.ircui.core.protocol.IrcLine;
+
+/**
+ * Client-side PING for one connection: measures round-trip lag and notices a dead
+ * (half-open) link long before TCP does.
+ *
+ * - Sends "PING :lag-N" every interval and times the matching PONG
+ * - A PING not answered within {@code pongTimeoutMs} is missed; the next probe goes
+ *   out right away, and after {@code maxMissed} misses in a row the connection is
+ *   aborted with {@link DeadLinkException} so the reconnect path runs at once
+ * - Any inbound line proves the link is alive and clears the miss count
+ * - The interval backs off when the user has been idle and further in the
+ *   background, so an unattended phone wakes the radio rarely
+ *
+ * Feed it every inbound line with {@link #onLine} (or {@link #onTraffic}). Timers run on a shared
+ * scheduler; the PING itself is written on {@code writer}, so a stalled socket never holds a timer thread.
+ */
+public final class PingScheduler {
+
+    public static final long DEFAULT_INTERVAL_MS = 30_000;
+    public static final long DEFAULT_IDLE_INTERVAL_MS = 120_000;
+    public static final long DEFAULT_BACKGROUND_INTERVAL_MS = 240_000; // below typical ircd ping timeouts
+    public static final long DEFAULT_PONG_TIMEOUT_MS = 15_000;
+    public static final int DEFAULT_MAX_MISSED = 2;
+    public static final long IDLE_AFTER_MS = 120_000;
+
+    private static final String TOKEN_PREFIX = "lag-";
+
+    /** The server stopped answering; {@code onClosed} receives this as the cause. */
+    public static final class DeadLinkException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public DeadLinkException(String message) {
+            super(message);
+        }
+    }
+
+    public interface Listener {
+        /** A PONG came back after {@code rttMs}; {@code smoothedMs} is the running average. Scheduler or reader thread. */
+        void onLag(long rttMs, long smoothedMs);
+    }
+
+    private final IrcConnection connection;
+    private final ScheduledExecutorService timer;
+    private final Executor writer;
+    private final long intervalMs;
+    private final long idleIntervalMs;
+    private final long backgroundIntervalMs;
+    private final long pongTimeoutMs;
+    private final int maxMissed;
+
+    private volatile Listener listener;
+    private ScheduledFuture<?> next;
+    private boolean running;
+    private boolean background;
+    private long sequence;
+    private String outstanding;     // token of the unanswered PING, or null
+    private long sentAt;            // nanoTime of that PING
+    private int missed;
+    private volatile long lastActivity = System.nanoTime(); // last thing the user did
+    private volatile long lastLagMs = -1;
+    private volatile long smoothedLagMs = -1;
+    private volatile long pongs;
+
+    public PingScheduler(IrcConnection connection, ScheduledExecutorService timer, Executor writer) {
+        this(connection, timer, writer, DEFAULT_INTERVAL_MS, DEFAULT_IDLE_INTERVAL_MS, DEFAULT_BACKGROUND_INTERVAL_MS,
+                DEFAULT_PONG_TIMEOUT_MS, DEFAULT_MAX_MISSED);
+    }
+
+    public PingScheduler(IrcConnection connection, ScheduledExecutorService timer, Executor writer,
+                         long intervalMs, long idleIntervalMs, long backgroundIntervalMs, long pongTimeoutMs,
+                         int maxMissed) {
+        this.connection = connection;
+        this.timer = timer;
+        this.writer = writer;
+        this.intervalMs = intervalMs;
+        this.idleIntervalMs = Math.max(intervalMs, idleIntervalMs);
+        this.backgroundIntervalMs = Math.max(this.idleIntervalMs, backgroundIntervalMs);
+        this.pongTimeoutMs = pongTimeoutMs;
+        this.maxMissed = Math.max(1, maxMissed);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** First probe after one interval. */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        schedule(currentInterval());
+    }
+
+    public synchronized void stop() {
+        running = false;
+        cancel();
+    }
+
+    /** App went to / came back from the background. Coming back probes at once. */
+    public synchronized void setBackground(boolean background) {
+        if (this.background == background) return;
+        this.background = background;
+        if (!background) lastActivity = System.nanoTime();
+        if (running && outstanding == null) schedule(background ? currentInterval() : 0);
+    }
+
+    /** PING now instead of at the next interval, e.g. to check the link after a network change. */
+    public synchronized void probeNow() {
+        if (running && outstanding == null) schedule(0);
+    }
+
+    /** The user did something (sent, switched channel...): stay on the short interval. */
+    public void onUserActivity() {
+        lastActivity = System.nanoTime();
+    }
+
+    /** Inbound traffic that does not go through {@link #onLine} (e.g. a whole batch): the link is alive. */
+    public synchronized void onTraffic() {
+        missed = 0;
+    }
+
+    /** Every inbound line. Returns true if it was the answer to our PING (nothing else to do with it). */
+    public boolean onLine(IrcLine line) {
+        boolean ours = line.isCommand(IrcCommands.PONG) && line.paramCount() > 0
+                && line.lastParam().startsWith(TOKEN_PREFIX);
+        long rtt = -1, smoothed = -1;
+        synchronized (this) {
+            missed = 0;
+            if (ours && line.lastParam().equals(outstanding)) {
+                rtt = (System.nanoTime() - sentAt) / 1_000_000;
+                outstanding = null;
+                lastLagMs = rtt;
+                // same weight as TCP's SRTT (1/8), so one slow reply does not swing it
+                smoothed = smoothedLagMs = smoothedLagMs < 0 ? rtt : (7 * smoothedLagMs + rtt) / 8;
+                pongs++;
+                if (running) schedule(currentInterval());
+            }
+        }
+        Listener l = listener;
+        if (rtt >= 0 && l != null) l.onLag(rtt, smoothed);
+        return ours;
+    }
+
+    /** Round trip of the last answered PING in ms, or -1. */
+    public long lagMs() { return lastLagMs; }
+
+    /** Running average of the round trip in ms, or -1. */
+    public long smoothedLagMs() { return smoothedLagMs; }
+
+    /** ms since the unanswered PING went out, or 0 if none is pending. */
+    public synchronized long pendingMs() {
+        return outstanding == null ? 0 : (System.nanoTime() - sentAt) / 1_000_000;
+    }
+
+    public long pongs() { return pongs; }
+
+    /** Interval in force right now (ms). */
+    public synchronized long currentInterval() {
+        if (background) return backgroundIntervalMs;
+        long idle = (System.nanoTime() - lastActivity) / 1_000_000;
+        return idle >= IDLE_AFTER_MS ? idleIntervalMs : intervalMs;
+    }
+
+    private void probe() {
+        DeadLinkException dead = null;
+        String ping;
+        synchronized (this) {
+            next = null;
+            if (!running) return;
+            if (outstanding != null && ++missed >= maxMissed) {
+                running = false;
+                dead = new DeadLinkException("no PONG to " + missed + " PINGs ("
+                        + pongTimeoutMs / 1000 + " s each)");
+                ping = null;
+            } else {
+                outstanding = TOKEN_PREFIX + (++sequence);
+                sentAt = System.nanoTime();
+                ping = IrcCommands.PING + " :" + outstanding;
+                schedule(pongTimeoutMs);
+            }
+        }
+        if (dead != null) {
+            connection.abort(dead);
+            return;
+        }
+        final String line = ping;
+        try {
+            writer.execute(() -> {
+                try {
+                    connection.send(line); // outside the lock: a stalled socket must not block onLine
+                } catch (IOException e) {
+                    stop(); // the reader sees the same failure
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            stop(); // shutting down
+        }
+    }
+
+    /** Lock held. */
+    private void schedule(long delayMs) {
+        cancel();
+        next = timer.schedule(this::probe, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Lock held. */
+    private void cancel() {
+        if (next != null) {
+            next.cancel(false);
+            next = null;
+        }
+    }
+}
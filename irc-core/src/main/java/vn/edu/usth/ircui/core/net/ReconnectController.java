@@ -0,0 +1,314 @@
+package vn.edu.usth.ircui.core.net;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The one place that decides when to (re)connect, so network flaps do not tear down
+ * a link that still works.
+ *
+ * - Network callbacks are debounced: a burst of available/lost (Wi-Fi to LTE handover)
+ *   is acted on once, {@code debounceMs} after it settles, on the final state
+ * - Network back while connected: the link is probed with a PING first and only torn
+ *   down if that goes unanswered within {@code probeTimeoutMs}
+ * - A new network while waiting, or any network after being offline: retry at once,
+ *   the backoff starts over. The same network announced again keeps the backoff
+ * - Failed attempts and lost connections retry with jittered exponential backoff
+ *   ("equal jitter": half the delay fixed, half random, so clients do not sync up)
+ * - No retries are burned while the network is down
+ *
+ * All timers run on one scheduler; {@link Actions} are never called under the lock.
+ */
+public final class ReconnectController {
+
+    public static final long DEFAULT_BASE_DELAY_MS = 1000;
+    public static final long DEFAULT_MAX_DELAY_MS = 30_000;
+    public static final long DEFAULT_DEBOUNCE_MS = 1500;
+    public static final long DEFAULT_PROBE_TIMEOUT_MS = 5000;
+    /** Not a network handle: none known yet. */
+    public static final long NO_NETWORK = 0;
+
+    public enum State {
+        /** Not wanted (never started, or stopped). */
+        IDLE,
+        /** An attempt is running. */
+        CONNECTING,
+        CONNECTED,
+        /** Network changed under a live link: waiting for the probe's PONG. */
+        PROBING,
+        /** Backing off before the next attempt. */
+        WAITING,
+        /** No network: waiting for it to come back. */
+        OFFLINE
+    }
+
+    /** What the controller drives. Called on the scheduler's thread or the caller's, never under the lock. */
+    public interface Actions {
+        /** Start one connect attempt; report it with {@link #onConnected} or {@link #onConnectFailed}. */
+        void connect();
+
+        /** PING the live link now; report the answer with {@link #onLinkAlive}. */
+        void probe();
+
+        /** Close the live link without reporting it as lost (a new attempt follows). */
+        void teardown();
+
+        /** State changed; {@code retryInMs} is the wait before the next attempt (WAITING only). */
+        default void onState(State state, long retryInMs) {}
+    }
+
+    private final Actions actions;
+    private final ScheduledExecutorService timer;
+    private final Random random;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final long debounceMs;
+    private final long probeTimeoutMs;
+
+    private State state = State.IDLE;
+    private boolean networkUp = true;   // as last reported (settled or not)
+    private long network = NO_NETWORK;  // handle last reported available (settled or not)
+    private long settledNetwork = NO_NETWORK; // handle the last settle acted on
+    private int failures;               // attempts since the last success
+    private ScheduledFuture<?> retry;   // WAITING
+    private ScheduledFuture<?> settle;  // debounce of network events
+    private ScheduledFuture<?> probeTimeout;
+    private long flapsAbsorbed;
+    private long probesSurvived;
+
+    public ReconnectController(Actions actions, ScheduledExecutorService timer) {
+        this(actions, timer, new Random(), DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS,
+                DEFAULT_DEBOUNCE_MS, DEFAULT_PROBE_TIMEOUT_MS);
+    }
+
+    public ReconnectController(Actions actions, ScheduledExecutorService timer, Random random,
+                               long baseDelayMs, long maxDelayMs, long debounceMs, long probeTimeoutMs) {
+        this.actions = actions;
+        this.timer = timer;
+        this.random = random;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = Math.max(baseDelayMs, maxDelayMs);
+        this.debounceMs = debounceMs;
+        this.probeTimeoutMs = probeTimeoutMs;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    /** Network events that were absorbed by the debounce (no action taken for them). */
+    public synchronized long flapsAbsorbed() {
+        return flapsAbsorbed;
+    }
+
+    /** Network changes after which the existing link answered the probe and was kept. */
+    public synchronized long probesSurvived() {
+        return probesSurvived;
+    }
+
+    /** Attempts failed since the last success. */
+    public synchronized int failures() {
+        return failures;
+    }
+
+    /** The user wants to be connected. */
+    public void start() {
+        State s;
+        synchronized (this) {
+            if (state != State.IDLE) return;
+            failures = 0;
+            s = state = networkUp ? State.CONNECTING : State.OFFLINE;
+        }
+        actions.onState(s, 0);
+        if (s == State.CONNECTING) actions.connect();
+    }
+
+    /** The user disconnected: cancel everything pending. */
+    public void stop() {
+        synchronized (this) {
+            if (state == State.IDLE) return;
+            cancelAll();
+            state = State.IDLE;
+        }
+        actions.onState(State.IDLE, 0);
+    }
+
+    public void onConnected() {
+        synchronized (this) {
+            if (state != State.CONNECTING) return;
+            failures = 0;
+            state = State.CONNECTED;
+        }
+        actions.onState(State.CONNECTED, 0);
+    }
+
+    public void onConnectFailed() {
+        retryLater();
+    }
+
+    /**
+     * The live connection ended on its own.
+     * @param immediate retry without waiting, e.g. the link was found dead by PING
+     *                  (the network itself is most likely fine)
+     */
+    public void onConnectionLost(boolean immediate) {
+        boolean now;
+        synchronized (this) {
+            if (state != State.CONNECTED && state != State.PROBING) return;
+            cancelProbe();
+            state = State.CONNECTING; // from here on it is handled like a failed attempt
+            now = immediate && networkUp;
+        }
+        if (now) {
+            actions.onState(State.CONNECTING, 0);
+            actions.connect();
+        } else {
+            retryLater();
+        }
+    }
+
+    /** The probe (or any PING) was answered: the link survived the network change. */
+    public void onLinkAlive() {
+        synchronized (this) {
+            if (state != State.PROBING) return;
+            cancelProbe();
+            probesSurvived++;
+            state = State.CONNECTED;
+        }
+        actions.onState(State.CONNECTED, 0);
+    }
+
+    /**
+     * ConnectivityManager reported a usable network (may come in bursts).
+     *
+     * @param networkHandle which network ({@code Network.getNetworkHandle()}): the same one
+     *                      again does not reset the backoff
+     */
+    public void onNetworkAvailable(long networkHandle) {
+        onNetworkEvent(true, networkHandle);
+    }
+
+    /** ConnectivityManager reported the network gone (may come in bursts). */
+    public void onNetworkLost() {
+        onNetworkEvent(false, NO_NETWORK);
+    }
+
+    private synchronized void onNetworkEvent(boolean up, long handle) {
+        networkUp = up;
+        if (up) network = handle;
+        if (settle != null) {
+            settle.cancel(false);
+            flapsAbsorbed++;
+        }
+        settle = timer.schedule(this::onNetworkSettled, debounceMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void onNetworkSettled() {
+        State s;
+        synchronized (this) {
+            settle = null;
+            State before = state;
+            if (networkUp) {
+                boolean fresh = network != settledNetwork || network == NO_NETWORK;
+                settledNetwork = network;
+                if (state == State.CONNECTED) {
+                    // the old socket may well have survived the handover: ask it first
+                    state = State.PROBING;
+                    probeTimeout = timer.schedule(this::onProbeTimeout, probeTimeoutMs, TimeUnit.MILLISECONDS);
+                } else if (state == State.OFFLINE || (state == State.WAITING && fresh)) {
+                    // a new network is the best moment to retry: no need to sit out the backoff
+                    cancelRetry();
+                    failures = 0;
+                    state = State.CONNECTING;
+                }
+                // WAITING on the network it already failed on: the backoff stands
+                // CONNECTING / PROBING already under way, IDLE not wanted
+            } else if (state == State.WAITING) {
+                // nothing to retry on: wait for the network instead of burning attempts
+                cancelRetry();
+                state = State.OFFLINE;
+            }
+            // CONNECTED while down: keep the socket, it may carry on over the next network
+            if (state == before) return;
+            s = state;
+        }
+        actions.onState(s, 0);
+        if (s == State.PROBING) actions.probe();
+        else if (s == State.CONNECTING) actions.connect();
+    }
+
+    private void onProbeTimeout() {
+        synchronized (this) {
+            probeTimeout = null;
+            if (state != State.PROBING) return;
+            state = State.CONNECTING;
+        }
+        actions.onState(State.CONNECTING, 0);
+        actions.teardown();
+        actions.connect();
+    }
+
+    /** From CONNECTING: wait out the backoff, or for the network. */
+    private void retryLater() {
+        State s;
+        long delay = 0;
+        synchronized (this) {
+            if (state != State.CONNECTING) return;
+            cancelRetry();
+            if (networkUp) {
+                delay = backoff(failures++);
+                retry = timer.schedule(this::onRetryDue, delay, TimeUnit.MILLISECONDS);
+                state = State.WAITING;
+            } else {
+                state = State.OFFLINE;
+            }
+            s = state;
+        }
+        actions.onState(s, delay);
+    }
+
+    private void onRetryDue() {
+        synchronized (this) {
+            retry = null;
+            if (state != State.WAITING) return;
+            state = State.CONNECTING;
+        }
+        actions.onState(State.CONNECTING, 0);
+        actions.connect();
+    }
+
+    /** Equal jitter: min(max, base * 2^n), half of it fixed and half random. */
+    long backoff(int n) {
+        long ceiling = baseDelayMs << Math.min(n, 20);
+        if (ceiling <= 0 || ceiling > maxDelayMs) ceiling = maxDelayMs;
+        long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * (ceiling - half));
+    }
+
+    // ---------- lock held ----------
+
+    private void cancelAll() {
+        cancelRetry();
+        cancelProbe();
+        if (settle != null) {
+            settle.cancel(false);
+            settle = null;
+        }
+    }
+
+    private void cancelRetry() {
+        if (retry != null) {
+            retry.cancel(false);
+            retry = null;
+        }
+    }
+
+    private void cancelProbe() {
+        if (probeTimeout != null) {
+            probeTimeout.cancel(false);
+            probeTimeout = null;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package vn.edu.usth.ircui.core.net;
+
+import java.util.Locale;
+
+/** host:port and whether to speak TLS. */
+public final class ServerEndpoint {
+    public final String host;
+    public final int port;
+    public final boolean tls;
+
+    public ServerEndpoint(String host, int port, boolean tls) {
+        this.host = host;
+        this.port = port;
+        this.tls = tls;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ServerEndpoint)) return false;
+        ServerEndpoint e = (ServerEndpoint) o;
+        return port == e.port && tls == e.tls && host.equalsIgnoreCase(e.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * host.toLowerCase(Locale.ROOT).hashCode() + port * 2 + (tls ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + (tls ? "+" : "") + port;
+    }
+}
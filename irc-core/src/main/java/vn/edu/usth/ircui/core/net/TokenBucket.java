@@ -0,0 +1,82 @@
+package vn.edu.usth.ircui.core.net;
+
+/**
+ * Client-side model of ircd flood control.
+ *
+ * RFC 1459 (8.10) style servers charge every line a fixed penalty and kill the
+ * client once it gets too far ahead ("Excess Flood"). That is a token bucket:
+ * - capacity         = how many lines may go out back-to-back (burst)
+ * - refillIntervalMs = penalty per line (one token comes back per interval)
+ * - penaltyBytes     = optional extra token per N bytes, like ircu/hybrid fake lag
+ *
+ * Not thread-safe; owned by the writer thread.
+ */
+public final class TokenBucket {
+
+    /** 5 lines burst, then one line every 2 s: safe on Libera, OFTC and Rizon. */
+    public static TokenBucket rfc1459() {
+        return new TokenBucket(5, 2000, 0);
+    }
+
+    private final double capacity;
+    private final long nanosPerToken;
+    private final int penaltyBytes;
+
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(int capacity, long refillIntervalMs, int penaltyBytes) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be >= 1");
+        if (refillIntervalMs < 1) throw new IllegalArgumentException("refill interval must be >= 1 ms");
+        this.capacity = capacity;
+        this.nanosPerToken = refillIntervalMs * 1_000_000L;
+        this.penaltyBytes = penaltyBytes;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /** Tokens charged for a line of {@code lineBytes} bytes. */
+    public double costOf(int lineBytes) {
+        double cost = 1;
+        if (penaltyBytes > 0) cost += (double) lineBytes / penaltyBytes;
+        return Math.min(cost, capacity); // a single line must always be sendable eventually
+    }
+
+    /**
+     * Take the tokens for one line if they are available.
+     * @return 0 if the line may be sent now, otherwise the wait in ms (nothing is consumed)
+     */
+    public long tryAcquire(int lineBytes) {
+        refill(System.nanoTime());
+        double cost = costOf(lineBytes);
+        if (tokens >= cost) {
+            tokens -= cost;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((cost - tokens) * nanosPerToken / 1_000_000d));
+    }
+
+    /** Estimated ms until {@code lines} more single-token lines have been sent. */
+    public long etaMs(int lines) {
+        refill(System.nanoTime());
+        double missing = lines - tokens;
+        return missing <= 0 ? 0 : (long) Math.ceil(missing * nanosPerToken / 1_000_000d);
+    }
+
+    /** Sustained rate once the burst is used up. */
+    public double linesPerSecond() {
+        return 1_000_000_000d / nanosPerToken;
+    }
+
+    public double available() {
+        refill(System.nanoTime());
+        return tokens;
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed <= 0) return;
+        tokens = Math.min(capacity, tokens + (double) elapsed / nanosPerToken);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,122 @@
+package vn.edu.usth.ircui.core.protocol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects IRCv3 batches ("BATCH +ref type ..." ... "BATCH -ref") so a whole
+ * history playback or netsplit is handed over in one call instead of line by line.
+ *
+ * Nested batches are folded into their outermost batch. A runaway batch is handed
+ * over in slices of {@code maxLines} so memory stays bounded.
+ *
+ * Not thread-safe; the connection's reader thread owns it.
+ */
+public final class BatchAssembler {
+
+    public static final String TAG = "batch";
+    public static final int DEFAULT_MAX_LINES = 5000;
+
+    public interface Sink {
+        void onBatch(IrcBatch batch);
+    }
+
+    private static final class Open {
+        final String ref, type, label;
+        final List<String> params;
+        final Open root;            // this for an outermost batch
+        List<IrcLine> lines;
+
+        Open(String ref, String type, List<String> params, String label, Open root) {
+            this.ref = ref;
+            this.type = type;
+            this.params = params;
+            this.label = label;
+            this.root = root != null ? root : this;
+            this.lines = root != null ? null : new ArrayList<IrcLine>();
+        }
+    }
+
+    private final Map<String, Open> open = new HashMap<>();
+    private final Sink sink;
+    private final int maxLines;
+
+    public BatchAssembler(Sink sink) {
+        this(sink, DEFAULT_MAX_LINES);
+    }
+
+    public BatchAssembler(Sink sink, int maxLines) {
+        this.sink = sink;
+        this.maxLines = Math.max(1, maxLines);
+    }
+
+    /**
+     * Offer a line. @return true if it was taken (a BATCH line or a member of an
+     * open batch); false if the caller should handle it as a normal line.
+     */
+    public boolean offer(IrcLine line) {
+        if (line.isCommand(IrcCommands.BATCH) && line.paramCount() >= 1) {
+            String p0 = line.param(0);
+            if (p0.length() < 2) return true;
+            String ref = p0.substring(1);
+            if (p0.charAt(0) == '+') {
+                begin(line, ref);
+            } else if (p0.charAt(0) == '-') {
+                end(ref);
+            }
+            return true;
+        }
+        if (open.isEmpty() || !line.hasTags()) return false;
+        String ref = line.tag(TAG);
+        Open b = ref != null ? open.get(ref) : null;
+        if (b == null) return false;
+        Open root = b.root;
+        root.lines.add(line.copy());
+        if (root.lines.size() >= maxLines) {
+            // hand over what we have and keep collecting for the same batch
+            sink.onBatch(toBatch(root));
+            root.lines = new ArrayList<>();
+        }
+        return true;
+    }
+
+    /** Batches still waiting for their closing line. */
+    public int openCount() {
+        return open.size();
+    }
+
+    /** Forget unfinished batches, e.g. when the connection drops. */
+    public void clear() {
+        open.clear();
+    }
+
+    private void begin(IrcLine line, String ref) {
+        String type = line.paramCount() >= 2 ? line.param(1) : "";
+        List<String> params = new ArrayList<>();
+        for (int i = 2; i < line.paramCount(); i++) params.add(line.param(i));
+        String parentRef = line.hasTags() ? line.tag(TAG) : null;
+        Open parent = parentRef != null ? open.get(parentRef) : null;
+        String label = line.hasTags() ? line.tag("label") : null;
+        open.put(ref, new Open(ref, type, params, label, parent != null ? parent.root : null));
+    }
+
+    private void end(String ref) {
+        Open b = open.remove(ref);
+        if (b == null || b.root != b) return;
+        // drop nested batches that were never closed
+        if (!open.isEmpty()) {
+            List<String> orphans = new ArrayList<>();
+            for (Map.Entry<String, Open> e : open.entrySet()) {
+                if (e.getValue().root == b) orphans.add(e.getKey());
+            }
+            for (String o : orphans) open.remove(o);
+        }
+        sink.onBatch(toBatch(b));
+    }
+
+    private static IrcBatch toBatch(Open b) {
+        return new IrcBatch(b.ref, b.type, b.params, b.label, b.lines);
+    }
+}
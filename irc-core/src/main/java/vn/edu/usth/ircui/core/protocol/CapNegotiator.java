@@ -0,0 +1,139 @@
+package vn.edu.usth.ircui.core.protocol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * IRCv3 capability negotiation (CAP LS 302 / REQ / ACK / NAK / END, plus NEW and DEL).
+ *
+ * Pure state machine: feed it the CAP lines the server sends, write back whatever it
+ * returns. Only the capabilities asked for at construction are ever requested.
+ *
+ * Not thread-safe; the connection's reader thread owns it.
+ */
+public final class CapNegotiator {
+
+    public static final String SERVER_TIME = "server-time";
+    public static final String MESSAGE_TAGS = "message-tags";
+    public static final String BATCH = "batch";
+    public static final String ECHO_MESSAGE = "echo-message";
+    public static final String LABELED_RESPONSE = "labeled-response";
+    public static final String CHATHISTORY = "draft/chathistory";
+
+    private final Set<String> wanted;
+    private final Set<String> offered = new LinkedHashSet<>();
+    private final Set<String> enabled = new LinkedHashSet<>();
+    private int pendingRequests;
+    private boolean done;
+
+    public CapNegotiator(Collection<String> wanted) {
+        this.wanted = Collections.unmodifiableSet(new LinkedHashSet<>(wanted));
+    }
+
+    /** First line to send, before NICK/USER. */
+    public String start() {
+        return "CAP LS 302";
+    }
+
+    /** Handle one CAP line. @return lines to send back, possibly none */
+    public List<String> onCap(IrcLine line) {
+        if (line.paramCount() < 3) return Collections.emptyList();
+        String sub = line.param(1);
+        String caps = line.lastParam();
+        List<String> out = new ArrayList<>(1);
+        switch (sub) {
+            case "LS": {
+                addNames(caps, offered);
+                // "CAP * LS * :..." means more LS lines follow
+                boolean more = line.paramCount() >= 4 && "*".equals(line.param(2));
+                if (!more && !done) request(offered, out);
+                break;
+            }
+            case "NEW": {
+                Set<String> added = new LinkedHashSet<>();
+                addNames(caps, added);
+                offered.addAll(added);
+                request(added, out);
+                break;
+            }
+            case "DEL": {
+                Set<String> removed = new LinkedHashSet<>();
+                addNames(caps, removed);
+                offered.removeAll(removed);
+                enabled.removeAll(removed);
+                break;
+            }
+            case "ACK":
+                for (String cap : caps.split(" ")) {
+                    if (cap.isEmpty()) continue;
+                    if (cap.charAt(0) == '-') enabled.remove(cap.substring(1));
+                    else enabled.add(cap);
+                }
+                answered(out);
+                break;
+            case "NAK":
+                // a REQ is all or nothing: nothing from it was enabled
+                answered(out);
+                break;
+            default:
+                break;
+        }
+        return out;
+    }
+
+    /** 001 arrived: a server that ignored CAP LS is done negotiating too. */
+    public void onRegistered() {
+        done = true;
+        pendingRequests = 0;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public boolean has(String cap) {
+        return enabled.contains(cap);
+    }
+
+    /** Capabilities the server acknowledged, in the order they were enabled. */
+    public Set<String> enabled() {
+        return Collections.unmodifiableSet(enabled);
+    }
+
+    private void request(Set<String> available, List<String> out) {
+        StringBuilder req = new StringBuilder();
+        for (String cap : wanted) {
+            if (!available.contains(cap) || enabled.contains(cap)) continue;
+            if (req.length() > 0) req.append(' ');
+            req.append(cap);
+        }
+        if (req.length() > 0) {
+            pendingRequests++;
+            out.add("CAP REQ :" + req);
+        } else if (!done) {
+            done = true;
+            out.add("CAP END");
+        }
+    }
+
+    private void answered(List<String> out) {
+        if (pendingRequests > 0) pendingRequests--;
+        if (pendingRequests == 0 && !done) {
+            done = true;
+            out.add("CAP END");
+        }
+    }
+
+    /** "sasl=PLAIN,EXTERNAL multi-prefix" -> {sasl, multi-prefix} */
+    private static void addNames(String caps, Set<String> into) {
+        for (String cap : caps.split(" ")) {
+            if (cap.isEmpty()) continue;
+            int eq = cap.indexOf('=');
+            into.add(eq >= 0 ? cap.substring(0, eq) : cap);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package vn.edu.usth.ircui.core.protocol;
+
+/**
+ * How the server compares nicks and channel names (ISUPPORT CASEMAPPING).
+ *
+ * - ascii:          A-Z fold to a-z
+ * - strict-rfc1459: also [ ] \ fold to { } |
+ * - rfc1459:        also ~ folds to ^ (the default when the server says nothing)
+ *
+ * {@link #fold} is allocation-free when the name is already folded, which on IRC
+ * (lower-case channels, mostly lower-case nicks) is the common case.
+ */
+public enum CaseMapping {
+
+    ASCII("ascii", 'Z', false),
+    STRICT_RFC1459("strict-rfc1459", ']', false),
+    RFC1459("rfc1459", ']', true);
+
+    public static final String ISUPPORT_TOKEN = "CASEMAPPING";
+
+    public final String token;
+    private final char upperEnd; // 'A'..upperEnd fold by +32
+    private final boolean tilde; // '~' folds to '^'
+
+    CaseMapping(String token, char upperEnd, boolean tilde) {
+        this.token = token;
+        this.upperEnd = upperEnd;
+        this.tilde = tilde;
+    }
+
+    /** The mapping for an ISUPPORT value; null or unknown values give the RFC 1459 default. */
+    public static CaseMapping fromToken(String value) {
+        if (value != null) {
+            for (CaseMapping m : values()) {
+                if (m.token.equalsIgnoreCase(value)) return m;
+            }
+        }
+        return RFC1459;
+    }
+
+    /** Mapping advertised by the server. */
+    public static CaseMapping of(ISupport isupport) {
+        return fromToken(isupport.get(ISUPPORT_TOKEN));
+    }
+
+    public char fold(char c) {
+        if (c >= 'A' && c <= upperEnd) return (char) (c + 32);
+        if (tilde && c == '~') return '^';
+        return c;
+    }
+
+    /** Lower-case form of {@code s}; the same instance if nothing changes. */
+    public String fold(String s) {
+        int n = s.length();
+        int i = 0;
+        while (i < n && fold(s.charAt(i)) == s.charAt(i)) i++;
+        if (i == n) return s;
+        char[] out = s.toCharArray();
+        for (; i < n; i++) out[i] = fold(out[i]);
+        return new String(out);
+    }
+
+    /** Same name under this mapping. */
+    public boolean same(String a, String b) {
+        if (a == null || b == null) return a == b;
+        int n = a.length();
+        if (n != b.length()) return false;
+        for (int i = 0; i < n; i++) {
+            if (fold(a.charAt(i)) != fold(b.charAt(i))) return false;
+        }
+        return true;
+    }
+}
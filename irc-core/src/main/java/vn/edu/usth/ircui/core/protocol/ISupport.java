@@ -0,0 +1,58 @@
+package vn.edu.usth.ircui.core.protocol;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server features advertised in RPL_ISUPPORT (005), e.g. LINELEN, CASEMAPPING.
+ *
+ * Written from the connection's input thread, read from anywhere.
+ */
+public final class ISupport {
+
+    public static final int RPL_ISUPPORT = 5;
+
+    private final Map<String, String> tokens = new ConcurrentHashMap<>();
+
+    /** Absorb one 005 line: ":server 005 nick TOKEN=value TOKEN -TOKEN :are supported by this server" */
+    public void update(IrcLine line) {
+        if (line.numeric() != RPL_ISUPPORT) return;
+        // first param is our nick, last one is the human readable text
+        int last = line.hasTrailing() ? line.paramCount() - 1 : line.paramCount();
+        for (int i = 1; i < last; i++) {
+            String token = line.param(i);
+            if (token.isEmpty()) continue;
+            if (token.charAt(0) == '-') {
+                tokens.remove(token.substring(1));
+                continue;
+            }
+            int eq = token.indexOf('=');
+            if (eq < 0) tokens.put(token, "");
+            else tokens.put(token.substring(0, eq), token.substring(eq + 1));
+        }
+    }
+
+    public void clear() {
+        tokens.clear();
+    }
+
+    /** Raw value, "" for value-less tokens, or null if not advertised. */
+    public String get(String key) {
+        return tokens.get(key);
+    }
+
+    public int getInt(String key, int def) {
+        String v = tokens.get(key);
+        if (v == null || v.isEmpty()) return def;
+        try {
+            return Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    /** Maximum line length in bytes including CR LF (512 unless the server says otherwise). */
+    public int lineLen() {
+        return Math.max(Utf8Chunker.DEFAULT_LINE_LEN, getInt("LINELEN", Utf8Chunker.DEFAULT_LINE_LEN));
+    }
+}
@@ -0,0 +1,34 @@
+package vn.edu.usth.ircui.core.protocol;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A complete IRCv3 batch: every line tagged with its reference (nested batches
+ * included), oldest first. The lines are detached copies and stay valid.
+ */
+public final class IrcBatch {
+
+    public final String ref;
+    public final String type;           // e.g. "chathistory", "netsplit", "labeled-response"
+    public final List<String> params;   // parameters after the type
+    public final String label;          // label tag of the opening BATCH line, or null
+    public final List<IrcLine> lines;
+
+    IrcBatch(String ref, String type, List<String> params, String label, List<IrcLine> lines) {
+        this.ref = ref;
+        this.type = type;
+        this.params = Collections.unmodifiableList(params);
+        this.label = label;
+        this.lines = Collections.unmodifiableList(lines);
+    }
+
+    public boolean isType(String t) {
+        return t.equalsIgnoreCase(type);
+    }
+
+    @Override
+    public String toString() {
+        return "IrcBatch[" + ref + " " + type + ", " + lines.size() + " lines]";
+    }
+}
@@ -0,0 +1,64 @@
+package vn.edu.usth.ircui.core.protocol;
+
+/** Shared constants for the commands we see on every busy channel, so parsing them never allocates. */
+public final class IrcCommands {
+
+    public static final String PRIVMSG = "PRIVMSG";
+    public static final String NOTICE = "NOTICE";
+    public static final String JOIN = "JOIN";
+    public static final String PART = "PART";
+    public static final String QUIT = "QUIT";
+    public static final String NICK = "NICK";
+    public static final String KICK = "KICK";
+    public static final String MODE = "MODE";
+    public static final String TOPIC = "TOPIC";
+    public static final String PING = "PING";
+    public static final String PONG = "PONG";
+    public static final String CAP = "CAP";
+    public static final String BATCH = "BATCH";
+    public static final String AWAY = "AWAY";
+    public static final String ACCOUNT = "ACCOUNT";
+    public static final String CHGHOST = "CHGHOST";
+    public static final String TAGMSG = "TAGMSG";
+    public static final String AUTHENTICATE = "AUTHENTICATE";
+    public static final String ERROR = "ERROR";
+    public static final String USER = "USER";
+    public static final String INVITE = "INVITE";
+    public static final String CHATHISTORY = "CHATHISTORY";
+
+    private static final String[] KNOWN = {
+            PRIVMSG, NOTICE, JOIN, PART, QUIT, NICK, KICK, MODE, TOPIC, PING, PONG,
+            CAP, BATCH, AWAY, ACCOUNT, CHGHOST, TAGMSG, AUTHENTICATE, ERROR, USER, INVITE,
+            CHATHISTORY
+    };
+
+    // KNOWN bucketed by length so a lookup touches at most a handful of candidates
+    private static final String[][] BY_LENGTH = new String[13][];
+
+    static {
+        for (int len = 0; len < BY_LENGTH.length; len++) {
+            int n = 0;
+            for (String k : KNOWN) if (k.length() == len) n++;
+            BY_LENGTH[len] = new String[n];
+            n = 0;
+            for (String k : KNOWN) if (k.length() == len) BY_LENGTH[len][n++] = k;
+        }
+    }
+
+    private IrcCommands() {}
+
+    /** Canonical constant for an ASCII command (case-insensitive), or null if it is not a known one. */
+    static String lookup(byte[] buf, int off, int len) {
+        if (len <= 0 || len >= BY_LENGTH.length) return null;
+        outer:
+        for (String k : BY_LENGTH[len]) {
+            for (int i = 0; i < len; i++) {
+                int b = buf[off + i];
+                if (b >= 'a' && b <= 'z') b -= 32;
+                if (b != k.charAt(i)) continue outer;
+            }
+            return k;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,267 @@
+package vn.edu.usth.ircui.core.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A parsed IRC line that only stores offsets into the bytes it was parsed from.
+ *
+ * - Tags, prefix, command and params are located once by {@link IrcLineParser}
+ * - No String is built until a getter is actually called
+ * - Common commands are returned as shared constants (no allocation)
+ *
+ * Instances are reused by the parser: they are only valid until the next line
+ * is parsed into them. Call {@link #copy()} to keep one around.
+ */
+public final class IrcLine {
+
+    /** RFC 1459 limit (14 middle params + trailing) */
+    public static final int MAX_PARAMS = 15;
+
+    byte[] buf;
+    int start, end;
+
+    int tagsStart = -1, tagsEnd = -1;
+    int prefixStart = -1, prefixEnd = -1;
+    int nickEnd = -1, userStart = -1, hostStart = -1;
+    int cmdStart, cmdEnd;
+
+    int paramCount;
+    final int[] paramStart = new int[MAX_PARAMS];
+    final int[] paramEnd = new int[MAX_PARAMS];
+    boolean hasTrailing;
+
+    private String command; // lazily resolved
+
+    void reset(byte[] buf, int start, int end) {
+        this.buf = buf;
+        this.start = start;
+        this.end = end;
+        tagsStart = tagsEnd = -1;
+        prefixStart = prefixEnd = -1;
+        nickEnd = userStart = hostStart = -1;
+        cmdStart = cmdEnd = start;
+        paramCount = 0;
+        hasTrailing = false;
+        command = null;
+    }
+
+    // ---------- command ----------
+
+    /** Command name (upper case as sent) or the 3-digit numeric as text. */
+    public String command() {
+        if (command == null) {
+            command = IrcCommands.lookup(buf, cmdStart, cmdEnd - cmdStart);
+            if (command == null) command = ascii(cmdStart, cmdEnd);
+        }
+        return command;
+    }
+
+    /** Compare the command against an ASCII name without allocating. */
+    public boolean isCommand(String name) {
+        int len = cmdEnd - cmdStart;
+        if (name.length() != len) return false;
+        for (int i = 0; i < len; i++) {
+            int b = buf[cmdStart + i];
+            if (b >= 'a' && b <= 'z') b -= 32;
+            if (b != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /** Numeric reply code (e.g. 001, 433), or -1 if the command is not numeric. */
+    public int numeric() {
+        if (cmdEnd - cmdStart != 3) return -1;
+        int n = 0;
+        for (int i = cmdStart; i < cmdEnd; i++) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) return -1;
+            n = n * 10 + d;
+        }
+        return n;
+    }
+
+    // ---------- prefix ----------
+
+    public boolean hasPrefix() { return prefixStart >= 0; }
+
+    /** Full prefix (servername or nick!user@host), or null. */
+    public String prefix() {
+        return prefixStart < 0 ? null : utf8(prefixStart, prefixEnd);
+    }
+
+    /** Nick part of the prefix (or server name), or null if there is no prefix. */
+    public String nick() {
+        return prefixStart < 0 ? null : utf8(prefixStart, nickEnd);
+    }
+
+    /** Length in bytes of the nick part of the prefix, -1 if there is no prefix. */
+    public int nickLength() {
+        return prefixStart < 0 ? -1 : nickEnd - prefixStart;
+    }
+
+    public String user() {
+        if (userStart < 0) return null;
+        return utf8(userStart, hostStart >= 0 ? hostStart - 1 : prefixEnd);
+    }
+
+    public String host() {
+        return hostStart < 0 ? null : utf8(hostStart, prefixEnd);
+    }
+
+    // ---------- params ----------
+
+    public int paramCount() { return paramCount; }
+
+    /** True if the last param was sent as a ':' trailing param. */
+    public boolean hasTrailing() { return hasTrailing; }
+
+    public String param(int i) {
+        if (i < 0 || i >= paramCount) return null;
+        return utf8(paramStart[i], paramEnd[i]);
+    }
+
+    public int paramLength(int i) {
+        if (i < 0 || i >= paramCount) return -1;
+        return paramEnd[i] - paramStart[i];
+    }
+
+    /** Last param (usually the message text), or null if there are none. */
+    public String lastParam() {
+        return paramCount == 0 ? null : param(paramCount - 1);
+    }
+
+    /** First byte of a param, or -1. Handy for channel-vs-nick checks without a String. */
+    public int paramFirstByte(int i) {
+        if (i < 0 || i >= paramCount || paramEnd[i] == paramStart[i]) return -1;
+        return buf[paramStart[i]] & 0xFF;
+    }
+
+    // ---------- tags ----------
+
+    public boolean hasTags() { return tagsStart >= 0; }
+
+    /** Raw (still escaped) tag section without the leading '@', or null. */
+    public String rawTags() {
+        return tagsStart < 0 ? null : utf8(tagsStart, tagsEnd);
+    }
+
+    public boolean hasTag(String key) {
+        return findTag(key) != -1;
+    }
+
+    /**
+     * Unescaped value of a message tag.
+     * @return null if the tag is absent, "" if present without a value
+     */
+    public String tag(String key) {
+        int pos = findTag(key);
+        if (pos == -1) return null;
+        if (pos == -2) return "";
+        int valEnd = pos;
+        while (valEnd < tagsEnd && buf[valEnd] != ';') valEnd++;
+        return unescapeTagValue(pos, valEnd);
+    }
+
+    /**
+     * Locate a tag key. Returns the offset of its value, -2 if the key has no
+     * value, or -1 if the key is absent.
+     */
+    private int findTag(String key) {
+        if (tagsStart < 0) return -1;
+        int klen = key.length();
+        int i = tagsStart;
+        while (i < tagsEnd) {
+            int keyEnd = i;
+            while (keyEnd < tagsEnd && buf[keyEnd] != '=' && buf[keyEnd] != ';') keyEnd++;
+            if (keyEnd - i == klen && regionEqualsAscii(i, key)) {
+                if (keyEnd < tagsEnd && buf[keyEnd] == '=') return keyEnd + 1;
+                return -2;
+            }
+            // skip to next tag
+            i = keyEnd;
+            while (i < tagsEnd && buf[i] != ';') i++;
+            i++;
+        }
+        return -1;
+    }
+
+    private String unescapeTagValue(int from, int to) {
+        boolean escaped = false;
+        for (int i = from; i < to; i++) {
+            if (buf[i] == '\\') { escaped = true; break; }
+        }
+        if (!escaped) return utf8(from, to);
+
+        byte[] out = new byte[to - from];
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buf[i];
+            if (b != '\\') { out[n++] = b; continue; }
+            if (++i >= to) break; // trailing backslash is dropped
+            switch (buf[i]) {
+                case ':': out[n++] = ';'; break;
+                case 's': out[n++] = ' '; break;
+                case '\\': out[n++] = '\\'; break;
+                case 'r': out[n++] = '\r'; break;
+                case 'n': out[n++] = '\n'; break;
+                default: out[n++] = buf[i]; break;
+            }
+        }
+        return new String(out, 0, n, StandardCharsets.UTF_8);
+    }
+
+    // ---------- misc ----------
+
+    /** Length of the line in bytes (without CR/LF). */
+    public int length() { return end - start; }
+
+    /** Detached copy that stays valid after the parser reuses this instance. */
+    public IrcLine copy() {
+        byte[] own = new byte[end - start];
+        System.arraycopy(buf, start, own, 0, own.length);
+        IrcLine c = new IrcLine();
+        int shift = -start;
+        c.reset(own, 0, own.length);
+        c.tagsStart = shiftOrKeep(tagsStart, shift);
+        c.tagsEnd = shiftOrKeep(tagsEnd, shift);
+        c.prefixStart = shiftOrKeep(prefixStart, shift);
+        c.prefixEnd = shiftOrKeep(prefixEnd, shift);
+        c.nickEnd = shiftOrKeep(nickEnd, shift);
+        c.userStart = shiftOrKeep(userStart, shift);
+        c.hostStart = shiftOrKeep(hostStart, shift);
+        c.cmdStart = cmdStart + shift;
+        c.cmdEnd = cmdEnd + shift;
+        c.paramCount = paramCount;
+        for (int i = 0; i < paramCount; i++) {
+            c.paramStart[i] = paramStart[i] + shift;
+            c.paramEnd[i] = paramEnd[i] + shift;
+        }
+        c.hasTrailing = hasTrailing;
+        c.command = command;
+        return c;
+    }
+
+    private static int shiftOrKeep(int v, int shift) {
+        return v < 0 ? v : v + shift;
+    }
+
+    @Override
+    public String toString() {
+        return utf8(start, end);
+    }
+
+    private boolean regionEqualsAscii(int from, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (buf[from + i] != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private String utf8(int from, int to) {
+        return new String(buf, from, to - from, StandardCharsets.UTF_8);
+    }
+
+    private String ascii(int from, int to) {
+        return new String(buf, from, to - from, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,113 @@
+package vn.edu.usth.ircui.core.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits a raw inbound byte stream into IRC lines and parses each one.
+ *
+ * - Complete lines inside the input buffer are parsed in place (no copy)
+ * - Only a line split across two reads is copied into a small carry buffer
+ * - Lines longer than {@link #MAX_LINE_BYTES} are dropped instead of growing memory
+ *
+ * One {@link IrcLine} is reused for every line; the handler must not keep it.
+ */
+public final class IrcLineFramer {
+
+    public interface LineHandler {
+        void onLine(IrcLine line);
+    }
+
+    /** 8191 bytes of tags + 512 bytes of message, per IRCv3 message-tags */
+    public static final int MAX_LINE_BYTES = 8191 + 512;
+
+    private final IrcLineParser parser = new IrcLineParser();
+    private final IrcLine line = new IrcLine();
+    private final LineHandler handler;
+
+    private byte[] carry = new byte[512];
+    private byte[] directScratch; // staging for direct buffers, allocated on first use
+    private int carryLen = 0;
+    private boolean discarding = false; // inside an overlong line, skip until LF
+
+    private long lines;
+    private long bytes;
+
+    public IrcLineFramer(LineHandler handler) {
+        this.handler = handler;
+    }
+
+    /** Consume all remaining bytes of {@code in}; its position ends at its limit. */
+    public void feed(ByteBuffer in) {
+        if (in.hasArray()) {
+            int off = in.arrayOffset() + in.position();
+            int len = in.remaining();
+            feed(in.array(), off, len);
+            in.position(in.limit());
+        } else {
+            if (directScratch == null) directScratch = new byte[4096];
+            while (in.hasRemaining()) {
+                int n = Math.min(directScratch.length, in.remaining());
+                in.get(directScratch, 0, n);
+                feed(directScratch, 0, n);
+            }
+        }
+    }
+
+    public void feed(byte[] buf, int off, int len) {
+        bytes += len;
+        int end = off + len;
+        int lineStart = off;
+        for (int i = off; i < end; i++) {
+            if (buf[i] != '\n') continue;
+
+            if (discarding) {
+                discarding = false;
+            } else if (carryLen > 0) {
+                // tail of a line that started in a previous read
+                appendCarry(buf, lineStart, i - lineStart);
+                if (!discarding) emit(carry, 0, carryLen);
+                discarding = false;
+            } else {
+                emit(buf, lineStart, i - lineStart);
+            }
+            carryLen = 0;
+            lineStart = i + 1;
+        }
+        if (lineStart < end && !discarding) appendCarry(buf, lineStart, end - lineStart);
+    }
+
+    /** Total lines handed to the handler so far. */
+    public long lineCount() { return lines; }
+
+    /** Total bytes fed so far. */
+    public long byteCount() { return bytes; }
+
+    /** Drop any partial line (e.g. after the socket was replaced). */
+    public void reset() {
+        carryLen = 0;
+        discarding = false;
+    }
+
+    private void emit(byte[] buf, int off, int len) {
+        if (parser.parse(buf, off, len, line)) {
+            lines++;
+            handler.onLine(line);
+        }
+    }
+
+    private void appendCarry(byte[] buf, int off, int len) {
+        int need = carryLen + len;
+        if (need > MAX_LINE_BYTES) {
+            carryLen = 0;
+            discarding = true;
+            return;
+        }
+        if (need > carry.length) {
+            byte[] bigger = new byte[Math.min(MAX_LINE_BYTES, Math.max(need, carry.length * 2))];
+            System.arraycopy(carry, 0, bigger, 0, carryLen);
+            carry = bigger;
+        }
+        System.arraycopy(buf, off, carry, carryLen, len);
+        carryLen = need;
+    }
+}
@@ -0,0 +1,107 @@
+package vn.edu.usth.ircui.core.protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Zero-copy IRC line parser.
+ *
+ * Grammar (IRCv3): ['@' tags ' '] [':' prefix ' '] command [' ' params] [CR LF]
+ *
+ * The parser only records offsets into the caller's bytes, so parsing a line
+ * allocates nothing. Strings are created later, and only for the fields the
+ * caller reads from the {@link IrcLine}.
+ */
+public final class IrcLineParser {
+
+    private byte[] scratch = new byte[1024]; // used for direct (non-array) buffers only
+
+    /**
+     * Parse bytes [off, off+len) into {@code out}. Trailing CR/LF is ignored.
+     * @return false for empty or malformed lines (no command)
+     */
+    public boolean parse(byte[] buf, int off, int len, IrcLine out) {
+        int end = off + len;
+        while (end > off && (buf[end - 1] == '\n' || buf[end - 1] == '\r')) end--;
+        out.reset(buf, off, end);
+
+        int i = off;
+        // leading spaces are tolerated by most servers
+        while (i < end && buf[i] == ' ') i++;
+        if (i >= end) return false;
+
+        // tags
+        if (buf[i] == '@') {
+            int s = ++i;
+            while (i < end && buf[i] != ' ') i++;
+            out.tagsStart = s;
+            out.tagsEnd = i;
+            while (i < end && buf[i] == ' ') i++;
+            if (i >= end) return false;
+        }
+
+        // prefix: servername | nick [ [ "!" user ] "@" host ]
+        if (buf[i] == ':') {
+            int s = ++i;
+            int nickEnd = -1;
+            while (i < end && buf[i] != ' ') {
+                byte b = buf[i];
+                if (b == '!' && nickEnd < 0) {
+                    nickEnd = i;
+                    out.userStart = i + 1;
+                } else if (b == '@' && out.hostStart < 0) {
+                    if (nickEnd < 0) nickEnd = i;
+                    out.hostStart = i + 1;
+                }
+                i++;
+            }
+            out.prefixStart = s;
+            out.prefixEnd = i;
+            out.nickEnd = nickEnd < 0 ? i : nickEnd;
+            while (i < end && buf[i] == ' ') i++;
+            if (i >= end) return false;
+        }
+
+        // command
+        out.cmdStart = i;
+        while (i < end && buf[i] != ' ') i++;
+        out.cmdEnd = i;
+        if (out.cmdEnd == out.cmdStart) return false;
+
+        // params
+        int n = 0;
+        while (i < end) {
+            while (i < end && buf[i] == ' ') i++;
+            if (i >= end) break;
+            if (buf[i] == ':' || n == IrcLine.MAX_PARAMS - 1) {
+                if (buf[i] == ':') i++;
+                out.paramStart[n] = i;
+                out.paramEnd[n] = end;
+                out.hasTrailing = true;
+                n++;
+                break;
+            }
+            int s = i;
+            while (i < end && buf[i] != ' ') i++;
+            out.paramStart[n] = s;
+            out.paramEnd[n] = i;
+            n++;
+        }
+        out.paramCount = n;
+        return true;
+    }
+
+    /**
+     * Parse the remaining bytes of {@code buf} (position..limit) without moving its position.
+     * Heap buffers are parsed in place; direct buffers are copied once into a reused scratch array.
+     */
+    public boolean parse(ByteBuffer buf, IrcLine out) {
+        int len = buf.remaining();
+        if (buf.hasArray()) {
+            return parse(buf.array(), buf.arrayOffset() + buf.position(), len, out);
+        }
+        if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+        ByteBuffer dup = buf.duplicate();
+        dup.get(scratch, 0, len);
+        return parse(scratch, 0, len, out);
+    }
+}
@@ -0,0 +1,57 @@
+package vn.edu.usth.ircui.core.protocol;
+
+/**
+ * A nick or channel name handed out by a {@link NamePool}: one instance per name
+ * (under the server's CASEMAPPING), with its hash computed once.
+ *
+ * - Names from the same pool compare with {@code ==}; {@link #equals} checks that first
+ *   and only falls back to the folded form for instances from before a pool reset
+ * - {@link #name} is shared by every message from that nick, so a long history keeps
+ *   one String per nick instead of one per line
+ */
+public final class IrcName {
+
+    /** Spelling as first seen. */
+    public final String name;
+    /** Lower-case form under the pool's case mapping. */
+    public final String folded;
+
+    final byte[] key; // folded UTF-8, what the pool compares raw line bytes against
+    final long k0, k1; // key bytes 0-7 and 8-15, little-endian: most nicks compare in two words
+    final int hash;
+
+    IrcName(String name, String folded, byte[] key, int hash) {
+        this.name = name;
+        this.folded = folded;
+        this.key = key;
+        this.k0 = word(key, 0);
+        this.k1 = word(key, 8);
+        this.hash = hash;
+    }
+
+    static long word(byte[] key, int from) {
+        long w = 0;
+        for (int i = Math.min(key.length, from + 8) - 1; i >= from; i--) w = (w << 8) | (key[i] & 0xFF);
+        return w;
+    }
+
+    /** Same nick/channel as {@code other}: a reference comparison for names from the same pool. */
+    public boolean same(IrcName other) {
+        return this == other || (other != null && hash == other.hash && folded.equals(other.folded));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof IrcName && same((IrcName) o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
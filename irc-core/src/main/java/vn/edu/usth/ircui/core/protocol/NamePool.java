@@ -0,0 +1,176 @@
+package vn.edu.usth.ircui.core.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Interns nicks and channel names under the server's CASEMAPPING, so that
+ * "Alice", "alice" (and, with rfc1459, "nick[a]" / "NICK{A}") are one {@link IrcName}.
+ *
+ * - {@link #nick(IrcLine)} / {@link #param} look the name up straight from the line's
+ *   bytes: a known name costs one pass over the bytes and, for names up to 16 bytes,
+ *   two word compares; no String and no lock
+ * - Hashes are computed once, over the folded bytes, and kept in the name
+ * - Open addressing, linear probing; at {@code maxSize} names the pool starts over
+ *   (nick churn in big channels never stops), {@link IrcName#same} still holds across it
+ * - A new case mapping (ISUPPORT CASEMAPPING) empties the pool: keys fold differently
+ *
+ * Thread-safe: lookups read a published table, only new names take the lock.
+ */
+public final class NamePool {
+
+    public static final int DEFAULT_MAX_SIZE = 8192;
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Slots plus the ASCII fold table they were keyed with; replaced, never resized in place. */
+    private static final class Table {
+        final CaseMapping mapping;
+        final byte[] fold = new byte[128];
+        final IrcName[] slots;
+
+        Table(CaseMapping mapping, int capacity) {
+            this.mapping = mapping;
+            for (int c = 0; c < 128; c++) fold[c] = (byte) mapping.fold((char) c);
+            this.slots = new IrcName[capacity];
+        }
+
+        /** Case mapping only ever touches ASCII; UTF-8 lead/continuation bytes pass through. */
+        int fold(int b) {
+            return b >= 0 ? fold[b] : b;
+        }
+
+        /** The interned name for the bytes buf[from, to), or null. */
+        IrcName find(byte[] buf, int from, int to) {
+            int len = to - from;
+            long k0 = 0, k1 = 0;
+            for (int i = Math.min(len, 8) - 1; i >= 0; i--) k0 = (k0 << 8) | (fold(buf[from + i]) & 0xFF);
+            for (int i = Math.min(len, 16) - 1; i >= 8; i--) k1 = (k1 << 8) | (fold(buf[from + i]) & 0xFF);
+            int h = hash(k0, k1, buf, from + 16, to);
+            IrcName[] t = slots;
+            int mask = t.length - 1;
+            for (int i = h & mask; ; i = (i + 1) & mask) {
+                IrcName n = t[i];
+                if (n == null) return null;
+                if (n.hash == h && n.k0 == k0 && n.k1 == k1 && n.key.length == len
+                        && (len <= 16 || tailMatches(n.key, buf, from))) return n;
+            }
+        }
+
+        /** Hash of a folded key: its first 16 bytes come in as two words. */
+        int hash(long k0, long k1, byte[] buf, int tailFrom, int to) {
+            long x = k0 * 0x9E3779B97F4A7C15L + k1 * 0xC2B2AE3D27D4EB4FL;
+            for (int i = tailFrom; i < to; i++) x = 31 * x + fold(buf[i]);
+            int h = (int) (x ^ (x >>> 32));
+            return h ^ (h >>> 16);
+        }
+
+        private boolean tailMatches(byte[] key, byte[] buf, int from) {
+            for (int i = 16; i < key.length; i++) {
+                if (key[i] != fold(buf[from + i])) return false;
+            }
+            return true;
+        }
+
+        void put(IrcName n) {
+            int mask = slots.length - 1;
+            int i = n.hash & mask;
+            while (slots[i] != null) i = (i + 1) & mask;
+            slots[i] = n;
+        }
+    }
+
+    private final int maxSize;
+    private volatile Table table;
+    private int size;      // guarded by this
+    private long misses;   // guarded by this
+    private long resets;   // guarded by this
+
+    public NamePool() {
+        this(CaseMapping.RFC1459, DEFAULT_MAX_SIZE);
+    }
+
+    public NamePool(CaseMapping mapping, int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+        this.table = new Table(mapping, INITIAL_CAPACITY);
+    }
+
+    public CaseMapping caseMapping() {
+        return table.mapping;
+    }
+
+    /** The server advertised its CASEMAPPING; a change drops every name interned so far. */
+    public synchronized void setCaseMapping(CaseMapping mapping) {
+        if (mapping == null || mapping == table.mapping) return;
+        table = new Table(mapping, INITIAL_CAPACITY);
+        size = 0;
+    }
+
+    /** The canonical name for {@code s}, or null for null. */
+    public IrcName intern(String s) {
+        if (s == null) return null;
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        return intern(utf8, 0, utf8.length, s);
+    }
+
+    /** The prefix nick of {@code line}, or null if it has none. */
+    public IrcName nick(IrcLine line) {
+        if (line.prefixStart < 0) return null;
+        return intern(line.buf, line.prefixStart, line.nickEnd, null);
+    }
+
+    /** Param {@code i} of {@code line} (a channel or nick), or null if absent. */
+    public IrcName param(IrcLine line, int i) {
+        if (i < 0 || i >= line.paramCount) return null;
+        return intern(line.buf, line.paramStart[i], line.paramEnd[i], null);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /** Lookups that had to create a name (the rest were served from the pool). */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /** Times the pool filled up and started over. */
+    public synchronized long resets() {
+        return resets;
+    }
+
+    /** @param known the decoded name if the caller already has it, else null */
+    private IrcName intern(byte[] buf, int from, int to, String known) {
+        IrcName n = table.find(buf, from, to);
+        if (n != null) return n;
+        synchronized (this) {
+            Table t = table;
+            n = t.find(buf, from, to);
+            if (n != null) return n;
+            misses++;
+            String name = known != null ? known : new String(buf, from, to - from, StandardCharsets.UTF_8);
+            byte[] key = new byte[to - from];
+            for (int i = 0; i < key.length; i++) key[i] = (byte) t.fold(buf[from + i]);
+            int h = t.hash(IrcName.word(key, 0), IrcName.word(key, 8), key, Math.min(16, key.length), key.length);
+            return add(new IrcName(name, t.mapping.fold(name), key, h));
+        }
+    }
+
+    /** Lock held. Publishes the (possibly new) table with a volatile write. */
+    private IrcName add(IrcName n) {
+        Table t = table;
+        if (size >= maxSize) {
+            t = new Table(t.mapping, INITIAL_CAPACITY);
+            size = 0;
+            resets++;
+        } else if ((size + 1) * 2 > t.slots.length) {
+            Table bigger = new Table(t.mapping, t.slots.length * 2);
+            for (IrcName o : t.slots) {
+                if (o != null) bigger.put(o);
+            }
+            t = bigger;
+        }
+        t.put(n);
+        size++;
+        table = t;
+        return n;
+    }
+}
@@ -0,0 +1,95 @@
+package vn.edu.usth.ircui.core.protocol;
+
+/**
+ * The IRCv3 {@code time} tag: "YYYY-MM-DDThh:mm:ss.sssZ", always UTC.
+ *
+ * Hand-rolled so it runs on every Android API level without java.time and without
+ * allocating per message.
+ */
+public final class ServerTime {
+
+    public static final String TAG = "time";
+
+    private ServerTime() {}
+
+    /** Epoch ms of the line's {@code time} tag, or 0 if it has none (or a malformed one). */
+    public static long of(IrcLine line) {
+        return line.hasTags() ? parse(line.tag(TAG)) : 0;
+    }
+
+    /** Epoch ms, or 0 if {@code s} is null or not a server-time stamp. */
+    public static long parse(String s) {
+        if (s == null || s.length() < 20) return 0;
+        if (s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T'
+                || s.charAt(13) != ':' || s.charAt(16) != ':') return 0;
+        int year = digits(s, 0, 4), month = digits(s, 5, 2), day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2), minute = digits(s, 14, 2), second = digits(s, 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60) return 0;
+
+        int i = 19, millis = 0;
+        if (s.charAt(i) == '.') {
+            int scale = 100;
+            for (i++; i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9'; i++) {
+                millis += (s.charAt(i) - '0') * scale;
+                scale /= 10;
+            }
+        }
+        if (i != s.length() - 1 || s.charAt(i) != 'Z') return 0;
+
+        long days = daysFromCivil(year, month, day);
+        return ((days * 24 + hour) * 60 + minute) * 60_000L + second * 1000L + millis;
+    }
+
+    /** Format epoch ms as a server-time stamp, e.g. for CHATHISTORY timestamp= references. */
+    public static String format(long epochMs) {
+        long days = Math.floorDiv(epochMs, 86_400_000L);
+        long msOfDay = Math.floorMod(epochMs, 86_400_000L);
+        // civil from days (H. Hinnant), inverse of daysFromCivil
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long d = doy - (153 * mp + 2) / 5 + 1;
+        long m = mp < 10 ? mp + 3 : mp - 9;
+        long y = yoe + era * 400 + (m <= 2 ? 1 : 0);
+
+        StringBuilder sb = new StringBuilder(24);
+        pad(sb, y, 4).append('-');
+        pad(sb, m, 2).append('-');
+        pad(sb, d, 2).append('T');
+        pad(sb, msOfDay / 3_600_000, 2).append(':');
+        pad(sb, msOfDay / 60_000 % 60, 2).append(':');
+        pad(sb, msOfDay / 1000 % 60, 2).append('.');
+        pad(sb, msOfDay % 1000, 3).append('Z');
+        return sb.toString();
+    }
+
+    private static StringBuilder pad(StringBuilder sb, long v, int width) {
+        String s = Long.toString(v);
+        for (int i = s.length(); i < width; i++) sb.append('0');
+        return sb.append(s);
+    }
+
+    private static int digits(String s, int from, int n) {
+        int v = 0;
+        for (int i = from; i < from + n; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    /** Days since 1970-01-01 in the proleptic Gregorian calendar (H. Hinnant's algorithm). */
+    private static long daysFromCivil(int y, int m, int d) {
+        y -= m <= 2 ? 1 : 0;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yoe = y - era * 400;
+        int doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+}
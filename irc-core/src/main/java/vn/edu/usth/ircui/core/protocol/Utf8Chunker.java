@@ -0,0 +1,238 @@
+package vn.edu.usth.ircui.core.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits outbound text into chunks whose UTF-8 encoding fits a byte budget.
+ *
+ * - Single pass: each grapheme cluster is encoded once into a reused ByteBuffer
+ * - Never cuts inside a grapheme (surrogate pairs, combining marks, ZWJ emoji, flags)
+ * - Prefers to cut after a space, as long as that keeps at least half the budget
+ *
+ * Not thread-safe: keep one instance per sending thread.
+ */
+public final class Utf8Chunker {
+
+    /** Default line length (RFC 1459), including CR LF */
+    public static final int DEFAULT_LINE_LEN = 512;
+
+    /** Smallest budget {@link #chunk} accepts: one code point of up to 4 bytes */
+    public static final int MIN_BUDGET = 4;
+
+    /** Worst-case user/host lengths when our own prefix is not known yet */
+    private static final int FALLBACK_USER_LEN = 10;
+    private static final int FALLBACK_HOST_LEN = 63;
+
+    /** Receives each chunk: chars [from, to) of the input and its encoded bytes. */
+    public interface ChunkSink {
+        void onChunk(CharSequence text, int from, int to, ByteBuffer utf8);
+    }
+
+    private ByteBuffer buf = ByteBuffer.allocate(DEFAULT_LINE_LEN);
+
+    /**
+     * Bytes available for the text of "PRIVMSG target :text" as other clients will
+     * receive it, i.e. ":nick!user@host PRIVMSG target :text\r\n" must fit in lineLen.
+     *
+     * @param user null if not known yet (a worst-case length is assumed)
+     * @param host null if not known yet (a worst-case length is assumed)
+     * @param lineLen server LINELEN from ISUPPORT, or {@link #DEFAULT_LINE_LEN}
+     */
+    public static int budgetFor(String nick, String user, String host,
+                                String command, String target, int lineLen) {
+        int prefix = 1 + utf8Length(nick)
+                + 1 + (user != null ? utf8Length(user) : FALLBACK_USER_LEN)
+                + 1 + (host != null ? utf8Length(host) : FALLBACK_HOST_LEN)
+                + 1;
+        int header = utf8Length(command) + 1 + utf8Length(target) + 2;
+        return lineLen - 2 - prefix - header;
+    }
+
+    /** Convenience wrapper collecting the chunks as Strings. */
+    public List<String> chunk(CharSequence text, int budgetBytes) {
+        final List<String> out = new ArrayList<>();
+        chunk(text, budgetBytes, (t, from, to, utf8) -> out.add(t.subSequence(from, to).toString()));
+        return out;
+    }
+
+    /**
+     * Split {@code text} into chunks of at most {@code budgetBytes} UTF-8 bytes.
+     * The ByteBuffer handed to the sink is only valid during the callback.
+     */
+    public void chunk(CharSequence text, int budgetBytes, ChunkSink sink) {
+        if (budgetBytes < MIN_BUDGET) throw new IllegalArgumentException("budget too small: " + budgetBytes);
+        int len = text.length();
+        if (len == 0) return;
+        if (buf.capacity() < budgetBytes + 4) buf = ByteBuffer.allocate(budgetBytes + 4);
+        byte[] out = buf.array();
+
+        int chunkStart = 0;     // char index where the current chunk begins
+        int used = 0;           // bytes encoded for the current chunk
+        int spaceChar = -1;     // char index of the last space in the chunk
+        int spaceBytes = -1;    // bytes before that space
+
+        int i = 0;
+        while (i < len) {
+            int clusterEnd = nextClusterEnd(text, i);
+            int clusterBytes = clusterEnd - i == 1 && text.charAt(i) < 0x80
+                    ? 1 : utf8Length(text, i, clusterEnd);
+
+            if (used + clusterBytes > budgetBytes) {
+                if (used == 0) {
+                    // a single cluster larger than the budget: fall back to code points
+                    clusterEnd = emitOversized(text, i, clusterEnd, budgetBytes, out, sink);
+                    chunkStart = i = clusterEnd;
+                    continue;
+                }
+                if (spaceChar > chunkStart && spaceBytes * 2 >= budgetBytes) {
+                    // cut at the space: emit what's before it, re-start after it
+                    emit(sink, text, chunkStart, spaceChar, out, spaceBytes);
+                    int carryFrom = spaceBytes + 1;
+                    int carry = used - carryFrom;
+                    System.arraycopy(out, carryFrom, out, 0, carry);
+                    chunkStart = spaceChar + 1;
+                    used = carry;
+                } else {
+                    emit(sink, text, chunkStart, i, out, used);
+                    chunkStart = i;
+                    used = 0;
+                }
+                spaceChar = spaceBytes = -1;
+                continue; // re-encode this cluster at the new position
+            }
+
+            if (clusterBytes == 1) {
+                char c = text.charAt(i);
+                if (c == ' ') {
+                    spaceChar = i;
+                    spaceBytes = used;
+                }
+                out[used] = (byte) c;
+            } else {
+                encode(text, i, clusterEnd, out, used);
+            }
+            used += clusterBytes;
+            i = clusterEnd;
+        }
+        if (used > 0) emit(sink, text, chunkStart, len, out, used);
+    }
+
+    private void emit(ChunkSink sink, CharSequence text, int from, int to, byte[] out, int n) {
+        buf.clear();
+        buf.limit(n);
+        sink.onChunk(text, from, to, buf);
+    }
+
+    /** Emit one over-long cluster split at code point boundaries; returns where it ended. */
+    private int emitOversized(CharSequence text, int from, int to, int budget, byte[] out, ChunkSink sink) {
+        int start = from, used = 0, i = from;
+        while (i < to) {
+            int cpEnd = i + (Character.isHighSurrogate(text.charAt(i)) && i + 1 < to ? 2 : 1);
+            int n = encode(text, i, cpEnd, out, used);
+            if (used + n > budget) {
+                emit(sink, text, start, i, out, used);
+                start = i;
+                used = 0;
+                continue;
+            }
+            used += n;
+            i = cpEnd;
+        }
+        if (used > 0) emit(sink, text, start, to, out, used);
+        return to;
+    }
+
+    // ---------- UTF-8 ----------
+
+    /** Encode chars [from, to) at out[pos]; returns bytes written (out must have room for 4 per char). */
+    private static int encode(CharSequence s, int from, int to, byte[] out, int pos) {
+        int p = pos;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out[p++] = (byte) c;
+            } else if (c < 0x800) {
+                out[p++] = (byte) (0xC0 | (c >> 6));
+                out[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                out[p++] = (byte) (0xF0 | (cp >> 18));
+                out[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                out[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                out[p++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out[p++] = '?'; // lone surrogate, same as String.getBytes(UTF_8)
+            } else {
+                out[p++] = (byte) (0xE0 | (c >> 12));
+                out[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                out[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return p - pos;
+    }
+
+    /** Exact UTF-8 length of a string without encoding it. */
+    public static int utf8Length(CharSequence s) {
+        return utf8Length(s, 0, s.length());
+    }
+
+    static int utf8Length(CharSequence s, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) n += 1;
+            else if (c < 0x800) n += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(s.charAt(i + 1))) {
+                n += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) n += 1;
+            else n += 3;
+        }
+        return n;
+    }
+
+    // ---------- grapheme clusters (simplified UAX #29) ----------
+
+    /** End (exclusive) of the grapheme cluster starting at {@code i}. */
+    static int nextClusterEnd(CharSequence s, int i) {
+        int len = s.length();
+        int cp = Character.codePointAt(s, i);
+        int j = i + Character.charCount(cp);
+
+        if (isRegionalIndicator(cp) && j < len) {
+            int next = Character.codePointAt(s, j);
+            if (isRegionalIndicator(next)) j += Character.charCount(next); // flag = pair of RIs
+        }
+        while (j < len) {
+            int next = Character.codePointAt(s, j);
+            if (isExtend(next)) {
+                j += Character.charCount(next);
+            } else if (next == 0x200D) {
+                // ZWJ joins the following pictograph into this cluster
+                j += 1;
+                if (j < len) j += Character.charCount(Character.codePointAt(s, j));
+            } else {
+                break;
+            }
+        }
+        return j;
+    }
+
+    private static boolean isRegionalIndicator(int cp) {
+        return cp >= 0x1F1E6 && cp <= 0x1F1FF;
+    }
+
+    private static boolean isExtend(int cp) {
+        if (cp < 0x300) return false; // fast path for ASCII/Latin-1
+        if (cp >= 0xFE00 && cp <= 0xFE0F) return true;      // variation selectors
+        if (cp >= 0x1F3FB && cp <= 0x1F3FF) return true;    // emoji skin tones
+        if (cp >= 0xE0020 && cp <= 0xE007F) return true;    // emoji tag sequences
+        if (cp >= 0xE0100 && cp <= 0xE01EF) return true;    // variation selectors supplement
+        int type = Character.getType(cp);
+        return type == Character.NON_SPACING_MARK
+                || type == Character.ENCLOSING_MARK
+                || type == Character.COMBINING_SPACING_MARK;
+    }
+}
@@ -0,0 +1,36 @@
+package vn.edu.usth.ircui.core.render;
+
+/**
+ * Everything a chat row shows, worked out before it is bound: binding only copies
+ * these fields into views. Made by {@link RowModels}, off the main thread where possible.
+ */
+public final class RowModel {
+
+    public final String nick;
+    public final String text;      // as received
+    public final String display;   // what the bubble shows: code fences taken off
+    public final long timestamp;
+    public final String timeLabel; // "HH:mm", local time
+    public final String header;    // "nick  •  HH:mm"
+    public final int colorIndex;   // into the UI's nick palette
+    public final boolean mine;
+    public final boolean code;
+
+    RowModel(String nick, String text, String display, long timestamp, String timeLabel,
+             int colorIndex, boolean mine, boolean code) {
+        this.nick = nick;
+        this.text = text;
+        this.display = display;
+        this.timestamp = timestamp;
+        this.timeLabel = timeLabel;
+        this.header = nick + "  •  " + timeLabel;
+        this.colorIndex = colorIndex;
+        this.mine = mine;
+        this.code = code;
+    }
+
+    @Override
+    public String toString() {
+        return header + " " + display;
+    }
+}
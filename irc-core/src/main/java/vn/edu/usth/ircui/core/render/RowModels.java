@@ -0,0 +1,127 @@
+package vn.edu.usth.ircui.core.render;
+
+import java.util.TimeZone;
+
+/**
+ * Turns messages into {@link RowModel}s, once per message instead of once per bind:
+ *
+ * - Code detection and fence stripping are single passes over the chars (no regex,
+ *   no {@code toCharArray()} copy)
+ * - Time labels come from arithmetic on the zone offset, cached per minute: a busy
+ *   channel shares one label String per minute, and no {@code Date} or
+ *   {@code SimpleDateFormat} is involved
+ * - The nick color is picked from the nick's hash, as the adapter always did
+ *
+ * Thread-safe: the label cache holds immutable entries, a lost race only costs a
+ * label made twice. The zone can change ({@link #setZone}); cached labels of the
+ * old one are not used again.
+ */
+public final class RowModels {
+
+    private static final int LABELS = 256; // minutes cached, direct-mapped
+
+    private static final class Label {
+        final TimeZone zone;
+        final long minute;
+        final String text;
+
+        Label(TimeZone zone, long minute, String text) {
+            this.zone = zone;
+            this.minute = minute;
+            this.text = text;
+        }
+    }
+
+    private final int palette;
+    private volatile TimeZone zone;
+    private final Label[] labels = new Label[LABELS];
+
+    public RowModels(int paletteSize, TimeZone zone) {
+        if (paletteSize < 1) throw new IllegalArgumentException("palette " + paletteSize);
+        this.palette = paletteSize;
+        this.zone = (TimeZone) zone.clone();
+    }
+
+    /** Time labels made from now on are in {@code zone} (the device's changed). */
+    public void setZone(TimeZone zone) {
+        this.zone = (TimeZone) zone.clone();
+    }
+
+    public RowModel of(String nick, String text, long timestamp, boolean mine) {
+        return of(nick, text, timestamp, mine, looksLikeCode(text));
+    }
+
+    /** For a line whose code detection was already done (stored with the message). */
+    public RowModel of(String nick, String text, long timestamp, boolean mine, boolean code) {
+        if (nick == null) nick = "";
+        if (text == null) text = "";
+        return new RowModel(nick, text, code ? stripFences(text) : text, timestamp,
+                timeLabel(timestamp), colorIndex(nick, palette), mine, code);
+    }
+
+    /** "HH:mm" of {@code timestamp} in this zone. */
+    public String timeLabel(long timestamp) {
+        TimeZone z = zone;
+        long minute = Math.floorDiv(timestamp, 60_000L);
+        int k = (int) (minute & (LABELS - 1));
+        Label l = labels[k];
+        if (l != null && l.minute == minute && l.zone == z) return l.text;
+        long local = timestamp + z.getOffset(timestamp);
+        int m = (int) Math.floorMod(Math.floorDiv(local, 60_000L), 24 * 60L);
+        char[] c = {(char) ('0' + m / 600), (char) ('0' + m / 60 % 10), ':',
+                (char) ('0' + m % 60 / 10), (char) ('0' + m % 10)};
+        l = new Label(z, minute, new String(c));
+        labels[k] = l;
+        return l.text;
+    }
+
+    /** Fenced with ``` at both ends, or more than six code-ish symbols. */
+    public static boolean looksLikeCode(String s) {
+        if (s == null) return false;
+        int from = 0;
+        int to = s.length();
+        while (from < to && s.charAt(from) <= ' ') from++;
+        while (to > from && s.charAt(to - 1) <= ' ') to--;
+        if (s.startsWith("```", from) && to - from >= 3 && s.startsWith("```", to - 3)) return true;
+        int symbols = 0;
+        for (int i = from; i < to; i++) {
+            switch (s.charAt(i)) {
+                case '{': case '}': case '[': case ']': case '(': case ')': case ';':
+                case '<': case '>': case '#': case '=': case '/': case '\\': case '$':
+                case '"': case '\'': case '`':
+                    if (++symbols > 6) return true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The text of a code line: trimmed, and if it opens with a fence, without the
+     * opening {@code ```lang} (and its newline) and the closing {@code ```}.
+     */
+    public static String stripFences(String s) {
+        String t = s.trim();
+        if (!t.startsWith("```")) return t;
+        int from = 3;
+        while (from < t.length() && isAsciiLetterOrDigit(t.charAt(from))) from++;
+        if (from < t.length() && t.charAt(from) == '\n') from++;
+        int to = t.length();
+        if (to - from >= 3 && t.startsWith("```", to - 3)) {
+            to -= 3;
+            if (to > from && t.charAt(to - 1) == '\n') to--;
+        }
+        return t.substring(from, to);
+    }
+
+    /** Index into a palette of {@code size} colors; the same nick always gets the same one. */
+    public static int colorIndex(String nick, int size) {
+        return Math.abs(nick.hashCode() % size);
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+}
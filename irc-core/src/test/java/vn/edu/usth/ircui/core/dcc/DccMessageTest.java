@@ -0,0 +1,57 @@
+package vn.edu.usth.ircui.core.dcc;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.*;
+
+public class DccMessageTest {
+
+    @Test
+    public void sendOffersRoundTripWithTheAddressAsANumber() throws Exception {
+        DccMessage offer = DccMessage.send("holiday photos.zip", InetAddress.getByName("192.168.1.20"), 5000, 123456789L);
+        assertEquals("\u0001DCC SEND \"holiday photos.zip\" 3232235796 5000 123456789\u0001", offer.toCtcp());
+
+        DccMessage back = DccMessage.parse(offer.toCtcp());
+        assertEquals(DccMessage.Type.SEND, back.type);
+        assertEquals("holiday photos.zip", back.fileName);
+        assertEquals(InetAddress.getByName("192.168.1.20"), back.address());
+        assertEquals(5000, back.port);
+        assertEquals(123456789L, back.value);
+
+        // no size given, and an IPv6 literal
+        DccMessage old = DccMessage.parse("\u0001DCC SEND notes.txt ::1 4000\u0001");
+        assertEquals(-1, old.value);
+        assertEquals(InetAddress.getByName("::1"), old.address());
+    }
+
+    @Test
+    public void resumeAndAcceptNameTheTransferByPort() {
+        DccMessage resume = DccMessage.parse(DccMessage.resume("a.bin", 5000, 1 << 20).toCtcp());
+        assertEquals(DccMessage.Type.RESUME, resume.type);
+        assertEquals(5000, resume.port);
+        assertEquals(1 << 20, resume.value);
+        assertEquals("DCC ACCEPT a.bin 5000 1048576", DccMessage.accept("a.bin", 5000, 1 << 20).toString());
+        assertEquals(DccMessage.Type.ACCEPT, DccMessage.parse("dcc accept a.bin 5000 7").type);
+    }
+
+    @Test
+    public void rejectsWhatIsNotADccOffer() {
+        assertNull(DccMessage.parse("\u0001ACTION waves\u0001"));
+        assertNull(DccMessage.parse("\u0001DCC CHAT chat 2130706433 5000\u0001"));
+        assertNull(DccMessage.parse("\u0001DCC SEND a.bin 2130706433 99999 10\u0001")); // no such port
+        assertNull(DccMessage.parse("\u0001DCC RESUME a.bin 5000 -3\u0001"));
+        assertNull(DccMessage.parse("\u0001DCC SEND a.bin 2130706433\u0001"));
+        assertNull(DccMessage.parse(null));
+    }
+
+    @Test
+    public void offeredNamesCannotEscapeTheDownloadFolder() {
+        assertEquals("passwd", DccMessage.parse("DCC SEND ../../etc/passwd 1 1 1").safeFileName());
+        assertEquals("evil.exe", DccMessage.parse("DCC SEND C:\\Windows\\evil.exe 1 1 1").safeFileName());
+        assertEquals("bashrc", DccMessage.parse("DCC SEND .bashrc 1 1 1").safeFileName());
+        assertEquals("file", DccMessage.parse("DCC SEND .. 1 1 1").safeFileName());
+        assertEquals("a_b.txt", DccMessage.parse("DCC SEND a?b.txt 1 1 1").safeFileName());
+    }
+}
@@ -0,0 +1,217 @@
+package vn.edu.usth.ircui.core.dcc;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import vn.edu.usth.ircui.core.net.IrcThreads;
+
+import static org.junit.Assert.*;
+
+public class DccTransferTest {
+
+    private static final long SIZE = 48L << 20;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final InetAddress loopback = InetAddress.getLoopbackAddress();
+    private final ExecutorService threads = Executors.newCachedThreadPool(IrcThreads.daemon("test-dcc"));
+
+    @After
+    public void tearDown() {
+        threads.shutdownNow();
+    }
+
+    /** Keeps the states transfers finished in. */
+    private static final class Seen implements DccTransfer.Listener {
+        final CopyOnWriteArrayList<DccTransfer.State> finished = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onProgress(DccTransfer t) {
+            assertTrue(t.position() <= t.size);
+        }
+
+        @Override
+        public void onFinished(DccTransfer t) {
+            finished.add(t.state());
+        }
+    }
+
+    @Test
+    public void aLargeFileCrossesLoopbackIntact() throws Exception {
+        File in = file("in.bin", SIZE);
+        File out = tmp.newFile("out.bin");
+        Seen sent = new Seen(), received = new Seen();
+        try (FileChannel src = FileChannel.open(in.toPath());
+             FileChannel dst = FileChannel.open(out.toPath(), StandardOpenOption.WRITE)) {
+            DccSend send = new DccSend("in.bin", src, SIZE, sent);
+            int port = send.listen(loopback, 0);
+            Future<DccTransfer.State> sending = threads.submit(send::run);
+            DccReceive receive = new DccReceive("in.bin", dst, SIZE, new InetSocketAddress(loopback, port), received);
+
+            assertEquals(DccTransfer.State.DONE, receive.run(0));
+            assertEquals(DccTransfer.State.DONE, sending.get(30, TimeUnit.SECONDS));
+            send.close();
+
+            assertEquals(SIZE, receive.position());
+            assertEquals(100, receive.percent());
+            assertEquals(0, receive.etaMillis());
+            assertTrue(receive.bytesPerSecond() > 0);
+            assertEquals(Arrays.asList(DccTransfer.State.DONE), received.finished);
+            assertEquals(Arrays.asList(DccTransfer.State.DONE), sent.finished);
+        }
+        assertArrayEquals(sha1(in), sha1(out));
+    }
+
+    @Test
+    public void aTransferCutShortResumesWhereTheReceiverStopped() throws Exception {
+        File in = file("in.bin", SIZE);
+        File out = tmp.newFile("out.bin");
+        try (FileChannel src = FileChannel.open(in.toPath());
+             FileChannel dst = FileChannel.open(out.toPath(), StandardOpenOption.WRITE)) {
+            DccSend send = new DccSend("in.bin", src, SIZE, null);
+            int port = send.listen(loopback, 0);
+
+            // the first attempt goes through a link that drops after 20 MB
+            Future<DccTransfer.State> sending = threads.submit(send::run);
+            int proxy = flap(port, 20L << 20);
+            DccReceive receive = new DccReceive("in.bin", dst, SIZE, new InetSocketAddress(loopback, proxy), null);
+            assertEquals(DccTransfer.State.FAILED, receive.run(0));
+            assertNotNull(receive.error());
+            assertFalse(sending.isDone()); // the sender's side of the link is still up, as far as it knows
+            long have = receive.resumePosition();
+            assertTrue("kept " + have, have > 0 && have <= 20L << 20);
+
+            // RESUME drops the dead connection; after the ACCEPT the rest goes straight to the sender
+            assertFalse(send.resume(SIZE + 1));
+            assertTrue(send.resume(have));
+            assertEquals(DccTransfer.State.FAILED, sending.get(5, TimeUnit.SECONDS));
+            assertTrue(String.valueOf(send.error()), send.error().getMessage().startsWith("the receiver resumed"));
+            sending = threads.submit(send::run);
+            DccReceive again = new DccReceive("in.bin", dst, SIZE, new InetSocketAddress(loopback, port), null);
+            assertEquals(DccTransfer.State.DONE, again.run(have));
+            assertEquals(DccTransfer.State.DONE, sending.get(30, TimeUnit.SECONDS));
+            send.close();
+        }
+        assertEquals(SIZE, out.length());
+        assertArrayEquals(sha1(in), sha1(out));
+    }
+
+    @Test
+    public void aSilentPeerOrACancelEndsTheTransfer() throws Exception {
+        File in = file("in.bin", 1 << 20);
+        try (FileChannel src = FileChannel.open(in.toPath())) {
+            // nobody connects
+            DccSend lonely = new DccSend("in.bin", src, 1 << 20, null);
+            lonely.listen(loopback, 0);
+            lonely.setAcceptTimeout(200);
+            assertEquals(DccTransfer.State.FAILED, lonely.run());
+            lonely.close();
+
+            // a receiver that connects and never acknowledges: the sender stalls, then gives up
+            DccSend stalled = new DccSend("in.bin", src, 1 << 20, null);
+            int port = stalled.listen(loopback, 0);
+            stalled.setStallTimeout(300);
+            try (Socket mute = new Socket()) {
+                mute.setReceiveBufferSize(4096);
+                mute.connect(new InetSocketAddress(loopback, port));
+                assertEquals(DccTransfer.State.FAILED, stalled.run());
+            }
+            assertTrue(String.valueOf(stalled.error()), stalled.error().getMessage().startsWith("no data"));
+
+            // cancelled while waiting
+            Future<DccTransfer.State> waiting = threads.submit(stalled::run);
+            Thread.sleep(100);
+            stalled.cancel();
+            assertEquals(DccTransfer.State.CANCELLED, waiting.get(5, TimeUnit.SECONDS));
+            stalled.close();
+        }
+    }
+
+    // ---------- helpers ----------
+
+    /** A file of {@code size} pseudo-random bytes. */
+    private File file(String name, long size) throws IOException {
+        File f = tmp.newFile(name);
+        Random rnd = new Random(size);
+        byte[] block = new byte[1 << 20];
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+            for (long at = 0; at < size; at += block.length) {
+                rnd.nextBytes(block);
+                ch.write(ByteBuffer.wrap(block, 0, (int) Math.min(block.length, size - at)));
+            }
+        }
+        return f;
+    }
+
+    private static byte[] sha1(File f) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        try (FileChannel ch = FileChannel.open(f.toPath())) {
+            ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+            while (ch.read(buf) > 0) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+        }
+        return md.digest();
+    }
+
+    /**
+     * A link to {@code port} that carries the first {@code cutAt} bytes toward the
+     * receiver and then drops the receiver's side, as a network change would; the
+     * sender's side stays open and silent. Its port.
+     */
+    private int flap(int port, long cutAt) throws IOException {
+        ServerSocket server = new ServerSocket(0, 1, loopback);
+        threads.submit(() -> {
+            try (ServerSocket s = server;
+                 Socket down = s.accept();
+                 Socket up = new Socket(loopback, port)) {
+                threads.submit(() -> pipe(down.getInputStream(), up.getOutputStream(), Long.MAX_VALUE)); // acks
+                pipe(up.getInputStream(), down.getOutputStream(), cutAt);
+                down.shutdownOutput(); // the receiver sees the link end short of the file
+                Thread.sleep(Long.MAX_VALUE); // until the test ends
+            }
+            return null;
+        });
+        return server.getLocalPort();
+    }
+
+    private static Void pipe(InputStream from, OutputStream to, long limit) {
+        byte[] buf = new byte[64 * 1024];
+        long moved = 0;
+        try {
+            int n;
+            while (moved < limit && (n = from.read(buf, 0, (int) Math.min(buf.length, limit - moved))) > 0) {
+                to.write(buf, 0, n);
+                moved += n;
+            }
+        } catch (IOException e) {
+            // the other direction closed the link
+        }
+        return null;
+    }
+}
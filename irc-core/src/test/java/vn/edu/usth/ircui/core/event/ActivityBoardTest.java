@@ -0,0 +1,108 @@
+package vn.edu.usth.ircui.core.event;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import vn.edu.usth.ircui.core.protocol.CaseMapping;
+
+import static org.junit.Assert.*;
+
+public class ActivityBoardTest {
+
+    private static List<String> names(ActivityBoard board) {
+        List<String> out = new ArrayList<>();
+        for (ActivityBoard.Entry e : board.ordered(null, new ArrayList<ActivityBoard.Entry>())) out.add(e.name);
+        return out;
+    }
+
+    @Test
+    public void countsAndOrdersAsMessagesArrive() {
+        ActivityBoard board = new ActivityBoard();
+        final int[] moves = new int[1];
+        board.setListener((e, moved) -> {
+            if (moved) moves[0]++;
+        });
+        ActivityBoard.Entry a = board.entry("n\n#a", "n", "#a");
+        ActivityBoard.Entry b = board.entry("n\n#b", "n", "#b");
+        ActivityBoard.Entry c = board.entry("n\n#c", "n", "#c");
+        assertSame(a, board.entry("n\n#a", "n", "#a"));
+        assertEquals(3, board.size());
+
+        board.onMessage(b, 100, false, false);
+        board.onMessage(c, 110, false, true);
+        board.onMessage(b, 120, false, false);
+        board.onMessage(b, 130, false, false);   // already first: no move
+        assertEquals(Arrays.asList("#b", "#c", "#a"), names(board));
+        assertEquals(3, b.unread());
+        assertEquals(1, c.highlights());
+        assertEquals(4, board.totalUnread());
+        assertEquals(1, board.totalHighlights());
+        assertEquals(6, moves[0]); // three added, three moved
+
+        // replayed history goes to its place by time, not to the front
+        board.onMessage(a, 115, false, false);
+        assertEquals(Arrays.asList("#b", "#a", "#c"), names(board));
+
+        // read: nothing up to the marker counts again, even replayed
+        board.markRead(b);
+        assertEquals(0, b.unread());
+        assertEquals(130, b.readMarker());
+        board.onMessage(b, 125, false, true);
+        assertEquals(0, b.unread());
+        assertEquals(0, b.highlights());
+        board.onMessage(b, 140, false, false);
+        assertEquals(1, b.unread());
+
+        // the user's own line means they read the conversation
+        board.onMessage(c, 150, true, false);
+        assertEquals(0, c.unread());
+        assertEquals(0, c.highlights());
+        assertEquals(150, c.readMarker());
+        assertEquals("#c", board.first().name);
+        assertEquals(2, board.totalUnread());
+        assertEquals(0, board.totalHighlights());
+
+        board.remove(a);
+        assertEquals(1, board.totalUnread());
+        assertEquals(Arrays.asList("#c", "#b"), names(board));
+        assertNull(board.find("n\n#a"));
+    }
+
+    @Test
+    public void restoresSavedCountersInActivityOrder() {
+        ActivityBoard board = new ActivityBoard();
+        board.restore("n\n#old", "n", "#old", 2, 0, 100, 90);
+        board.restore("n\n#new", "n", "#new", 5, 1, 300, 250);
+        board.restore("m\n#other", "m", "#other", 1, 1, 200, 0);
+        assertEquals(Arrays.asList("#new", "#other", "#old"), names(board));
+        assertEquals(8, board.totalUnread());
+        assertEquals(2, board.totalHighlights());
+        List<ActivityBoard.Entry> n = board.ordered("n", new ArrayList<ActivityBoard.Entry>());
+        assertEquals(2, n.size());
+        assertEquals("#new", n.get(0).name);
+
+        ActivityBoard.Entry old = board.find("n\n#old");
+        board.onMessage(old, 85, false, false);  // before its read marker
+        board.onMessage(old, 95, false, false);  // replayed: one of the two already counted
+        assertEquals(2, old.unread());
+        board.onMessage(old, 105, false, false); // new
+        assertEquals(3, old.unread());
+    }
+
+    @Test
+    public void mentionsAreWholeNicks() {
+        CaseMapping m = CaseMapping.RFC1459;
+        assertTrue(ActivityBoard.mentions("alice: ping", "Alice", m));
+        assertTrue(ActivityBoard.mentions("hey ALICE", "alice", m));
+        assertTrue(ActivityBoard.mentions("ask [bob]", "{bob}", m)); // rfc1459 folds [] to {}
+        assertTrue(ActivityBoard.mentions("bob", "bob", m));
+        assertFalse(ActivityBoard.mentions("alicia is here", "alice", m));
+        assertFalse(ActivityBoard.mentions("malice", "alice", m));
+        assertFalse(ActivityBoard.mentions("alice_ said", "alice", m));
+        assertFalse(ActivityBoard.mentions("al", "alice", m));
+        assertFalse(ActivityBoard.mentions("anything", "", m));
+    }
+}
@@ -0,0 +1,55 @@
+package vn.edu.usth.ircui.core.event;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DedupWindowTest {
+
+    @Test
+    public void interleavedDuplicatesAreCaught() {
+        DedupWindow d = new DedupWindow(64, 60_000, 1000);
+        assertTrue(d.firstSeen(null, "PRIVMSG", "alice", "#c", "hi", 0, 1000));
+        assertTrue(d.firstSeen(null, "PRIVMSG", "bob", "#c", "yo", 0, 1001));
+        assertFalse(d.firstSeen(null, "PRIVMSG", "alice", "#c", "hi", 0, 1002));
+        assertFalse(d.firstSeen(null, "PRIVMSG", "bob", "#c", "yo", 0, 1003));
+        // same text, other kind or target: not a duplicate
+        assertTrue(d.firstSeen(null, "NOTICE", "alice", "#c", "hi", 0, 1004));
+        assertTrue(d.firstSeen(null, "PRIVMSG", "alice", "#d", "hi", 0, 1005));
+        assertEquals(2, d.hits());
+        assertEquals(4, d.misses());
+    }
+
+    @Test
+    public void msgidAndServerTimeBeatTheBucket() {
+        DedupWindow d = new DedupWindow(64, 60_000, 1000);
+        // a legitimate repeat within the bucket is kept when the server tells them apart
+        assertTrue(d.firstSeen("id1", "PRIVMSG", "alice", "#c", "+1", 5000, 5000));
+        assertTrue(d.firstSeen("id2", "PRIVMSG", "alice", "#c", "+1", 5200, 5200));
+        assertTrue(d.firstSeen(null, "PRIVMSG", "carol", "#c", "+1", 5300, 5300));
+        assertTrue(d.firstSeen(null, "PRIVMSG", "carol", "#c", "+1", 5350, 5350));
+        // ...and a replay after reconnect, much later locally, is still caught
+        assertFalse(d.firstSeen("id1", "PRIVMSG", "alice", "#c", "+1", 5000, 40_000));
+        assertFalse(d.firstSeen(null, "PRIVMSG", "carol", "#c", "+1", 5300, 40_000));
+    }
+
+    @Test
+    public void keysExpireAfterTheWindow() {
+        DedupWindow d = new DedupWindow(64, 1000, 10);
+        assertTrue(d.firstSeen("x", "PRIVMSG", "a", "#c", "t", 0, 0));
+        assertFalse(d.firstSeen("x", "PRIVMSG", "a", "#c", "t", 0, 999));
+        assertFalse(d.firstSeen("x", "PRIVMSG", "a", "#c", "t", 0, 1500)); // previous generation
+        assertTrue(d.firstSeen("x", "PRIVMSG", "a", "#c", "t", 0, 5000));
+    }
+
+    @Test
+    public void memoryStaysBounded() {
+        DedupWindow d = new DedupWindow(100, 60_000, 1000);
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(d.firstSeen("m" + i, "PRIVMSG", "a", "#c", "t", 0, 1000));
+        }
+        // the most recent keys are still known, the oldest were evicted
+        assertFalse(d.firstSeen("m99999", "PRIVMSG", "a", "#c", "t", 0, 1000));
+        assertTrue(d.firstSeen("m0", "PRIVMSG", "a", "#c", "t", 0, 1000));
+    }
+}
@@ -0,0 +1,81 @@
+package vn.edu.usth.ircui.core.event;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MpscBufferTest {
+
+    @Test
+    public void drainsInArrivalOrder() {
+        MpscBuffer<Integer> b = new MpscBuffer<>();
+        assertTrue(b.offer(1));   // empty -> non-empty: wake the consumer
+        assertFalse(b.offer(2));
+        assertFalse(b.offer(3));
+        List<Integer> got = b.drain();
+        assertEquals(3, got.size());
+        assertEquals(Integer.valueOf(1), got.get(0));
+        assertEquals(Integer.valueOf(3), got.get(2));
+        assertTrue(b.isEmpty());
+        assertTrue(b.drain().isEmpty());
+        assertTrue(b.offer(4));
+    }
+
+    @Test
+    public void offerAllKeepsOrderAndLandsTogether() {
+        MpscBuffer<Integer> b = new MpscBuffer<>();
+        assertTrue(b.offer(1));
+        assertFalse(b.offerAll(Arrays.asList(2, 3, 4)));
+        assertFalse(b.offer(5));
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), b.drain());
+        assertTrue(b.offerAll(Arrays.asList(6, 7)));
+        assertEquals(Arrays.asList(6, 7), b.drain());
+    }
+
+    @Test
+    public void concurrentProducersLoseNothing() throws Exception {
+        final MpscBuffer<int[]> b = new MpscBuffer<>();
+        final int producers = 4, perProducer = 50_000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger wakeups = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int id = p;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    if (b.offer(new int[]{id, i})) wakeups.incrementAndGet();
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+
+        int[] next = new int[producers];
+        int total = 0, drains = 0;
+        while (total < producers * perProducer) {
+            List<int[]> batch = b.drain();
+            if (!batch.isEmpty()) drains++;
+            for (int[] e : batch) {
+                // each producer's items come out in the order it offered them
+                assertEquals(next[e[0]]++, e[1]);
+                total++;
+            }
+        }
+        for (Thread t : threads) t.join();
+        assertTrue(b.isEmpty());
+        // one wake-up per non-empty drain at most (plus the one that found it empty first)
+        assertTrue(wakeups.get() <= drains + 1);
+    }
+}
@@ -0,0 +1,244 @@
+package vn.edu.usth.ircui.core.history;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+
+import static org.junit.Assert.*;
+
+public class HistoryWindowTest {
+
+    /** The log: appended to before the view hears about a message, as the real writer does. */
+    private static final class ListSource implements HistoryWindow.Source {
+        final List<ChatEvent> log = new ArrayList<>();
+        int reads;
+
+        @Override
+        public long size() {
+            return log.size();
+        }
+
+        @Override
+        public List<ChatEvent> read(long from, int count) {
+            reads++;
+            int f = (int) Math.min(from, log.size());
+            return new ArrayList<>(log.subList(f, (int) Math.min(log.size(), from + count)));
+        }
+    }
+
+    /** Runs tasks only when told to, so a test sees the window mid-load. */
+    private static final class Queue implements Executor {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable r) {
+            tasks.add(r);
+        }
+    }
+
+    private static final HistoryWindow.Rows<String> TEXT = new HistoryWindow.Rows<String>() {
+        @Override
+        public String rowOf(ChatEvent e) {
+            return e.text;
+        }
+
+        @Override
+        public long timestampOf(String row) {
+            return row.startsWith("m") ? Long.parseLong(row.substring(1)) : Long.MAX_VALUE;
+        }
+    };
+
+    private final ListSource source = new ListSource();
+    private final Queue loader = new Queue();
+    private final Queue main = new Queue();
+
+    private static ChatEvent msg(int i) {
+        return ChatEvent.message("nick", "#chan", "m" + i, i, false, null);
+    }
+
+    private void live(HistoryWindow<String> w, int i) {
+        source.log.add(msg(i));
+        w.addLive(Collections.singletonList(msg(i)));
+    }
+
+    private void settle() {
+        while (!loader.tasks.isEmpty() || !main.tasks.isEmpty()) {
+            while (!loader.tasks.isEmpty()) loader.tasks.poll().run();
+            while (!main.tasks.isEmpty()) main.tasks.poll().run();
+        }
+    }
+
+    /** Rows are consecutive messages, oldest first; returns the first one's number. */
+    private static int contiguous(HistoryWindow<String> w) {
+        int first = Integer.parseInt(w.get(0).substring(1));
+        for (int i = 0; i < w.size(); i++) assertEquals("m" + (first + i), w.get(i));
+        return first;
+    }
+
+    @Test
+    public void pagesThroughHistoryWithinAFixedBudget() {
+        for (int i = 0; i < 1000; i++) source.log.add(msg(i));
+        HistoryWindow<String> w = new HistoryWindow<>(source, loader, main, TEXT, 20, 4);
+        final int[] inserted = new int[1];
+        final int[] removed = new int[1];
+        w.setListener(new HistoryWindow.Listener() {
+            @Override public void onInserted(int at, int count) { inserted[0] += count; }
+            @Override public void onRemoved(int at, int count) { removed[0] += count; }
+        });
+        w.open();
+        assertEquals(0, w.size());
+        settle();
+        assertEquals(20, w.size());
+        assertEquals(980, contiguous(w));
+        assertTrue(w.isFollowing());
+
+        // a long busy session on screen: the oldest rows go, the heap does not grow
+        for (int i = 1000; i < 5000; i++) {
+            live(w, i);
+            assertTrue(w.size() <= w.capacity());
+        }
+        assertEquals("m4999", w.get(w.size() - 1));
+        contiguous(w);
+
+        // scroll all the way up: a page at a time, the newest pages dropped behind
+        int reads = source.reads;
+        int top = contiguous(w);
+        int pages = (top + 19) / 20;
+        for (int step = 0; step < 400 && top > 0; step++) {
+            w.onViewport(0, 9);
+            assertTrue(w.isLoading());
+            settle();
+            assertTrue(w.size() <= w.capacity());
+            top = contiguous(w);
+        }
+        assertEquals(0, top);
+        assertFalse(w.isFollowing());
+        assertEquals(pages, source.reads - reads); // one read per page, none repeated
+        assertTrue(w.rowsEvicted() > 4900); // the newest rows were dropped on the way up
+
+        // while up there new messages are only counted, then read when scrolled down to
+        for (int i = 5000; i < 5010; i++) live(w, i);
+        assertEquals(0, contiguous(w));
+        for (int step = 0; step < 400 && !w.isFollowing(); step++) {
+            w.onViewport(w.size() - 10, w.size() - 1);
+            settle();
+            assertTrue(w.size() <= w.capacity());
+        }
+        assertTrue(w.isFollowing());
+        assertEquals("m5009", w.get(w.size() - 1));
+        contiguous(w);
+        live(w, 5010);
+        assertEquals("m5010", w.get(w.size() - 1));
+        assertEquals(w.size(), inserted[0] - removed[0]);
+    }
+
+    @Test
+    public void localRowsJumpToTheNewestPageAndStaleLoadsAreDropped() {
+        for (int i = 0; i < 500; i++) source.log.add(msg(i));
+        HistoryWindow<String> w = new HistoryWindow<>(source, loader, main, TEXT, 10, 4);
+        w.open();
+        w.addLocal("hello");           // before the first page: stays below it
+        settle();
+        assertEquals(11, w.size());
+        assertEquals("m490", w.get(0));
+        assertEquals("hello", w.get(10));
+
+        for (int i = 0; i < 10; i++) {
+            w.onViewport(0, 3);
+            settle();
+        }
+        assertFalse(w.isFollowing());
+        assertTrue(contiguous(w) < 460);
+
+        w.addLocal("sent!");           // back to the bottom
+        assertEquals(1, w.size());
+        settle();
+        assertEquals("m490", w.get(0));
+        assertEquals("m499", w.get(9));
+        assertEquals("sent!", w.get(10));
+        assertTrue(w.isFollowing());
+
+        // a page still being read when the list is cleared never shows up
+        w.onViewport(0, 3);
+        assertTrue(w.isLoading());
+        w.clear();
+        settle();
+        assertEquals(0, w.size());
+        live(w, 500);
+        assertEquals(1, w.size());
+        w.onViewport(0, 0);
+        settle();
+        assertEquals(1, w.size()); // cleared history is not paged back in
+
+        w.close();
+        live(w, 501);
+        assertEquals(1, w.size());
+    }
+
+    @Test
+    public void lateLiveRowsAreReportedWhereTheyLand() {
+        for (int i = 0; i < 10; i++) source.log.add(msg(i * 10));
+        HistoryWindow<String> w = new HistoryWindow<>(source, loader, main, TEXT, 20, 4);
+        final List<String> calls = new ArrayList<>();
+        w.setListener(new HistoryWindow.Listener() {
+            @Override public void onInserted(int at, int count) { calls.add("+" + at + "x" + count); }
+            @Override public void onRemoved(int at, int count) { calls.add("-" + at + "x" + count); }
+        });
+        w.open();
+        settle();
+        calls.clear();
+
+        // two new lines, one replayed from history between m30 and m40, then one more new
+        List<ChatEvent> batch = new ArrayList<>();
+        for (int t : new int[]{100, 110, 35, 120}) {
+            source.log.add(msg(t));
+            batch.add(msg(t));
+        }
+        w.addLive(batch);
+        assertEquals(Arrays.asList("+10x2", "+4x1", "+13x1"), calls);
+        assertEquals("m35", w.get(4));
+        assertEquals("m120", w.get(13));
+
+        // replaying every line inside the window one by one still touches one row each
+        calls.clear();
+        w.addLive(Collections.singletonList(msg(5)));
+        assertEquals(Collections.singletonList("+1x1"), calls);
+    }
+
+    @Test
+    public void seededRowsShowUntilTheNewestPageReplacesThem() {
+        for (int i = 0; i < 100; i++) source.log.add(msg(i));
+        HistoryWindow<String> w = new HistoryWindow<>(source, loader, main, TEXT, 10, 4);
+        w.open();
+        List<ChatEvent> saved = new ArrayList<>();
+        for (int i = 95; i < 100; i++) saved.add(msg(i));
+        assertTrue(w.seed(saved));
+        assertEquals(5, w.size());
+        assertEquals("m95", w.get(0));
+
+        w.addLive(Collections.singletonList(msg(100))); // came in before the page: stays below it
+        assertEquals(6, w.size());
+        settle();
+        assertEquals(11, w.size());
+        assertEquals(90, contiguous(w));
+        assertTrue(w.isFollowing());
+        assertFalse(w.seed(saved));    // too late
+
+        HistoryWindow<String> failed = new HistoryWindow<>(new HistoryWindow.Source() {
+            @Override public long size() throws IOException { throw new IOException("gone"); }
+            @Override public List<ChatEvent> read(long from, int count) { return Collections.emptyList(); }
+        }, loader, main, TEXT, 10, 4);
+        failed.open();
+        failed.seed(saved);
+        settle();
+        assertEquals(5, failed.size()); // no log to read: the saved lines are all there is
+    }
+}
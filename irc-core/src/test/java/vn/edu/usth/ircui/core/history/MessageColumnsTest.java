@@ -0,0 +1,71 @@
+package vn.edu.usth.ircui.core.history;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageColumnsTest {
+
+    @Test
+    public void keepsTheNewestRowsAndSharesNicks() {
+        MessageColumns c = new MessageColumns(100);
+        for (int i = 0; i < 250; i++) {
+            // a fresh String each time, as decoded off the wire
+            c.add(new String("nick" + (i % 7)), "line " + i, 1000L + i, i % 3 == 0 ? MessageColumns.MINE : 0);
+        }
+        assertEquals(100, c.size());
+        assertEquals(150, c.first());
+        for (int i = 0; i < 100; i++) {
+            int n = 150 + i;
+            assertEquals("line " + n, c.text(i));
+            assertEquals(1000L + n, c.timestamp(i));
+            assertEquals("nick" + (n % 7), c.nick(i));
+            assertEquals(n % 3 == 0, c.has(i, MessageColumns.MINE));
+            assertFalse(c.has(i, MessageColumns.CODE));
+        }
+        assertEquals(7, c.nickCount());
+        assertSame(c.nick(0), c.nick(7));
+
+        // nicks whose last row scrolled away are dropped from the table
+        for (int i = 0; i < 100; i++) c.add("solo", "x", 0, MessageColumns.SYSTEM | MessageColumns.CODE);
+        assertEquals(1, c.nickCount());
+        assertEquals(MessageColumns.SYSTEM | MessageColumns.CODE, c.flags(99));
+
+        c.clear();
+        assertEquals(0, c.size());
+        assertEquals(350, c.first());
+        c.add(null, "after clear", 5, 0);
+        assertEquals("", c.nick(0));
+        try {
+            c.text(1);
+            fail();
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void viewMaterialisesRowsOnlyWhenAskedAndReusesThem() {
+        MessageColumns c = new MessageColumns(8);
+        final int[] made = {0};
+        List<String> rows = c.view((store, i) -> {
+            made[0]++;
+            return store.nick(i) + ": " + store.text(i);
+        });
+        for (int i = 0; i < 20; i++) c.add("a", "m" + i, i, 0);
+        assertEquals(0, made[0]);
+        assertEquals(8, rows.size());
+        assertEquals("a: m12", rows.get(0));
+        assertEquals("a: m19", rows.get(7));
+        assertEquals(2, made[0]);
+        // rebinding the same rows makes nothing new
+        assertSame(rows.get(0), rows.get(0));
+        assertEquals(2, made[0]);
+        // the ring moved on: row 0 is another message
+        c.add("b", "m20", 20, 0);
+        assertEquals("a: m13", rows.get(0));
+        assertEquals("b: m20", rows.get(7));
+        assertEquals(4, made[0]);
+    }
+}
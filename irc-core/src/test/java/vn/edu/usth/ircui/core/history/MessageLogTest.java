@@ -0,0 +1,193 @@
+package vn.edu.usth.ircui.core.history;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+
+import static org.junit.Assert.*;
+
+public class MessageLogTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static long ts(int i) {
+        return 1_000_000L + i * 10L;
+    }
+
+    private static ChatEvent msg(int i, long ts) {
+        return ChatEvent.message("nick" + (i % 7), "#chan", "m" + i, ts, i % 5 == 0, i % 2 == 0 ? "id" + i : null);
+    }
+
+    @Test
+    public void readsByPositionAndTimeAcrossSegments() throws Exception {
+        File root = tmp.newFolder();
+        MessageLog log = new MessageLog(root, 4096, 8);
+        for (int i = 0; i < 1000; i++) {
+            // record 300 is replayed history, older than everything around it
+            log.append("libera", "#chan", msg(i, i == 300 ? ts(250) : ts(i)));
+            if (i % 3 == 0) log.append("libera", "bob", msg(i, ts(i)));
+        }
+        log.flush();
+        assertEquals(1334, log.written());
+        assertTrue("writes are batched", log.batches() < log.written());
+
+        ChannelLog chan = log.channel("libera", "#chan");
+        assertEquals(1000, chan.size());
+        assertTrue(chan.segmentCount() > 5);
+        assertEquals(334, log.channel("libera", "bob").size());
+
+        List<ChatEvent> page = chan.read(537, 5);
+        assertEquals(5, page.size());
+        assertEquals("m537", page.get(0).text);
+        assertEquals("m541", page.get(4).text);
+        assertEquals("#chan", page.get(0).target);
+        assertEquals("id538", page.get(1).msgid);
+        assertNull(page.get(0).msgid);
+        assertTrue(page.get(3).mine);
+
+        List<ChatEvent> all = chan.read(0, 5000);
+        assertEquals(1000, all.size());
+        for (int i = 0; i < 1000; i++) assertEquals("m" + i, all.get(i).text);
+        List<ChatEvent> tail = chan.tail(20);
+        assertEquals(20, tail.size());
+        assertEquals("m999", tail.get(19).text);
+
+        assertEquals(600, chan.positionAt(ts(600)));
+        assertEquals(601, chan.positionAt(ts(600) + 1));
+        assertEquals(0, chan.positionAt(0));
+        assertEquals(1000, chan.positionAt(ts(5000)));
+
+        log.close();
+        MessageLog reopened = new MessageLog(root, 4096, 8);
+        ChannelLog again = reopened.channel("libera", "#chan");
+        assertEquals(1000, again.size());
+        assertEquals(Arrays.asList("m998", "m999"), texts(again.read(998, 10)));
+        assertEquals(600, again.positionAt(ts(600)));
+        reopened.append("libera", "#chan", msg(1000, ts(1000)));
+        reopened.flush();
+        assertEquals(1001, again.size());
+        assertEquals("m1000", again.tail(1).get(0).text);
+        reopened.close();
+    }
+
+    @Test
+    public void aGrowingSegmentReadsAcrossChunks() throws Exception {
+        File root = tmp.newFolder();
+        MessageLog log = new MessageLog(root, 8 << 20, 8); // one segment of several chunks
+        ChannelLog chan = log.channel("net", "#chan");
+        StringBuilder pad = new StringBuilder();
+        int n = 0;
+        long bytes = 0;
+        // odd record sizes: some records start in one chunk and end in the next
+        while (bytes < 3L * LogSegment.CHUNK) {
+            while (pad.length() < 100 + n % 997) pad.append((char) ('a' + n % 26));
+            String text = "m" + n + " " + pad.substring(0, 100 + n % 997);
+            log.append("net", "#chan", ChatEvent.message("nick", "#chan", text, ts(n), false, null));
+            bytes += text.length() + 40;
+            n++;
+            if (n % 500 == 0) {
+                // read while it grows: the last chunk is mapped again, the full ones stay
+                log.flush();
+                assertTrue(chan.tail(1).get(0).text.startsWith("m" + (n - 1) + " "));
+            }
+        }
+        log.flush();
+        assertEquals(n, chan.size());
+        List<ChatEvent> all = chan.read(0, n);
+        for (int i = 0; i < n; i++) assertTrue(i + "", all.get(i).text.startsWith("m" + i + " "));
+        for (int i = 0; i < n; i += 97) assertEquals(i, chan.positionAt(ts(i)));
+        log.close();
+        log.flush(); // closed: returns at once
+    }
+
+    @Test
+    public void tornTailAndLostIndexAreRepairedOnOpen() throws Exception {
+        File root = tmp.newFolder();
+        MessageLog log = new MessageLog(root, 1 << 20, 8);
+        for (int i = 0; i < 50; i++) log.append("net", "#chan", msg(i, ts(i)));
+        log.close();
+
+        File dir = new File(new File(root, "net"), "%23chan");
+        File data = new File(dir, String.format("%020d", 0) + LogSegment.SUFFIX);
+        File index = new File(dir, String.format("%020d", 0) + LogSegment.INDEX_SUFFIX);
+        assertTrue(data.isFile());
+        long good = data.length();
+        // a crash in the middle of the next write: a header promising more than is there
+        try (FileOutputStream out = new FileOutputStream(data, true)) {
+            out.write(new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 5});
+        }
+        assertTrue(index.delete());
+
+        MessageLog reopened = new MessageLog(root, 1 << 20, 8);
+        ChannelLog chan = reopened.channel("net", "#chan");
+        assertEquals(50, chan.size());
+        assertEquals(good, data.length());
+        assertEquals("m17", chan.read(17, 1).get(0).text);
+        assertEquals(40, chan.positionAt(ts(40)));
+        reopened.append("net", "#chan", msg(50, ts(50)));
+        reopened.flush();
+        assertEquals(Arrays.asList("m49", "m50"), texts(chan.tail(2)));
+        reopened.close();
+    }
+
+    @Test
+    public void groupCommitsBatchesAndForcesAsThePolicySays() throws Exception {
+        MessageLog log = new MessageLog(tmp.newFolder(), 1 << 20, 8);
+        log.setWriteBehind(300, 100);
+        log.setSync(MessageLog.Sync.EVERY_BATCH, 0);
+        for (int i = 0; i < 250; i++) log.append("net", i % 2 == 0 ? "#a" : "#b", msg(i, ts(i)));
+        // no flush: the writer commits on its own, 100 at most at a time, the rest after the slice
+        waitFor(() -> log.written() == 250);
+        log.flush(); // returns once that commit is forced too
+        assertEquals(100, log.largestBatch());
+        assertEquals(50, log.lastBatch());
+        assertTrue(log.commits() >= 3 && log.commits() <= 5);
+        assertEquals(2 * log.commits(), log.batches()); // one write per conversation per commit
+        assertEquals(log.commits(), log.syncs());
+        assertEquals(0, log.queueDepth());
+
+        // an interval: forced once it is up, though nothing else arrives
+        log.setSync(MessageLog.Sync.INTERVAL, 100);
+        long syncs = log.syncs();
+        log.append("net", "#a", msg(250, ts(250)));
+        log.flush(); // also ends the slice
+        waitFor(() -> log.syncs() == syncs + 1);
+
+        // only when asked
+        log.setSync(MessageLog.Sync.ON_BACKGROUND, 0);
+        log.append("net", "#a", msg(251, ts(251)));
+        log.flush();
+        Thread.sleep(150);
+        assertEquals(syncs + 1, log.syncs());
+        log.sync();
+        waitFor(() -> log.syncs() == syncs + 2);
+        log.sync(); // nothing written since: nothing to force
+        log.flush();
+        assertEquals(syncs + 2, log.syncs());
+        assertEquals(127, log.channel("net", "#a").size());
+        log.close();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static List<String> texts(List<ChatEvent> events) {
+        String[] out = new String[events.size()];
+        for (int i = 0; i < out.length; i++) out[i] = events.get(i).text;
+        return Arrays.asList(out);
+    }
+}
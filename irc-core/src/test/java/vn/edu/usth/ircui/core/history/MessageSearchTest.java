@@ -0,0 +1,128 @@
+package vn.edu.usth.ircui.core.history;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+
+import static org.junit.Assert.*;
+
+public class MessageSearchTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String[] WORDS = {"build", "release", "crash", "Gradle", "kotlin", "java", "Việt", "ping"};
+
+    private static ChatEvent msg(String chan, int i) {
+        String text = WORDS[i % WORDS.length] + " " + WORDS[(i / 3) % WORDS.length] + " #" + i;
+        return ChatEvent.message("Nick" + (i % 5), chan, text, 1_000_000L + i * 10L, false, null);
+    }
+
+    /** Every page of a search, hits in order. */
+    private static List<SearchHit> all(MessageLog log, SearchQuery q, int pageSize) throws Exception {
+        List<SearchHit> out = new ArrayList<>();
+        SearchPage.Cursor at = null;
+        do {
+            SearchPage page = log.search(q, at, pageSize);
+            assertTrue(page.hits.size() <= pageSize);
+            out.addAll(page.hits);
+            at = page.next;
+        } while (at != null);
+        return out;
+    }
+
+    @Test
+    public void findsByWordsNickTimeAndChannelPageByPage() throws Exception {
+        File root = tmp.newFolder();
+        MessageLog log = new MessageLog(root, 4096, 8);
+        for (int i = 0; i < 600; i++) {
+            log.append("libera", "#a", msg("#a", i));
+            if (i % 2 == 0) log.append("libera", "#b", msg("#b", i));
+        }
+        log.flush();
+        assertTrue(log.channel("libera", "#a").segmentCount() > 5);
+
+        // both words, any case or accent: expected by brute force
+        List<SearchHit> hits = all(log, SearchQuery.of("VIET gradle"), 7);
+        List<String> expected = new ArrayList<>();
+        for (int i = 599; i >= 0; i--) {
+            String t = msg("#a", i).text;
+            if (t.contains("Việt") && t.contains("Gradle")) {
+                if (i % 2 == 0) expected.add("#b " + t);
+                expected.add("#a " + t);
+            }
+        }
+        List<String> got = new ArrayList<>();
+        for (SearchHit h : hits) got.add(h.target + " " + h.event.text);
+        assertEquals(expected.size(), got.size());
+        // newest first across channels; within a timestamp either channel may come first
+        for (int i = 0; i < got.size(); i++) assertEquals(expected.get(i).substring(3), got.get(i).substring(3));
+        for (int i = 1; i < hits.size(); i++) {
+            assertTrue(hits.get(i - 1).event.timestamp >= hits.get(i).event.timestamp);
+        }
+
+        // one channel, one nick, a time range
+        List<SearchHit> some = all(log, SearchQuery.of("crash").from("NICK2").in("libera", "#a")
+                .between(1_000_000L + 100 * 10L, 1_000_000L + 400 * 10L), 3);
+        int n = 0;
+        for (int i = 100; i < 400; i++) {
+            if (i % 5 == 2 && msg("#a", i).text.contains("crash")) n++;
+        }
+        assertEquals(n, some.size());
+        for (SearchHit h : some) {
+            assertEquals("#a", h.target);
+            assertEquals("Nick2", h.event.nick);
+            assertEquals(h.event.text, log.channel("libera", "#a").read(h.position, 1).get(0).text);
+        }
+
+        // no words: everything from a nick; words that cannot match: nothing
+        assertEquals(120 + 60, all(log, SearchQuery.of(null).from("nick0"), 50).size());
+        assertEquals(0, all(log, SearchQuery.of("nowhere"), 10).size());
+        assertEquals(0, all(log, SearchQuery.of("!"), 10).size());
+
+        // new messages are searchable as soon as they are written
+        log.append("libera", "#a", ChatEvent.message("zed", "#a", "brand new word: zyzzyva", 2_000_000L, false, null));
+        log.flush();
+        assertEquals(1, log.search(SearchQuery.of("zyzzyva"), null, 10).hits.size());
+        log.close();
+    }
+
+    @Test
+    public void indexesAreSavedVerifiedAndRebuilt() throws Exception {
+        File root = tmp.newFolder();
+        MessageLog log = new MessageLog(root, 4096, 8);
+        for (int i = 0; i < 400; i++) {
+            log.append("net", "#x", msg("#x", i));
+            log.append("net", "#y", msg("#y", i));
+        }
+        log.close();
+
+        MessageLog reopened = new MessageLog(root, 4096, 8);
+        // the full segments were indexed as they were written; only the active ones are built
+        assertEquals(2, reopened.verifyIndexes(ForkJoinPool.commonPool()));
+        int before = all(reopened, SearchQuery.of("kotlin release"), 20).size();
+        assertTrue(before > 0);
+        reopened.close();
+
+        // a damaged index is noticed and built again
+        File dir = new File(new File(root, "net"), "%23x");
+        File tix = new File(dir, String.format("%020d", 0) + IndexFile.SUFFIX);
+        assertTrue(tix.isFile());
+        try (RandomAccessFile f = new RandomAccessFile(tix, "rw")) {
+            f.seek(f.length() - 1);
+            f.write(f.read() ^ 0x55);
+        }
+        MessageLog again = new MessageLog(root, 4096, 8);
+        assertEquals(3, again.verifyIndexes(new ForkJoinPool(4)));
+        assertEquals(before, all(again, SearchQuery.of("release KOTLIN"), 20).size());
+        again.close();
+    }
+}
@@ -0,0 +1,99 @@
+package vn.edu.usth.ircui.core.history;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import vn.edu.usth.ircui.core.event.ChatEvent;
+
+import static org.junit.Assert.*;
+
+public class SessionSnapshotTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void roundTripsTheNewestLinesOfEachConversation() throws Exception {
+        MessageColumns chan = new MessageColumns(100);
+        for (int i = 0; i < 80; i++) {
+            chan.add("nick" + (i % 3), "line " + i + " ✓", 1000L + i, i % 5 == 0 ? MessageColumns.MINE : 0);
+        }
+        MessageColumns query = new MessageColumns(100);
+        query.add("bob", "hi", 5, 0);
+
+        SessionSnapshot saved = new SessionSnapshot(42L, "irc.libera.chat", "me", "#chan", Arrays.asList(
+                SessionSnapshot.Conversation.of("#chan", false, 3, 1, 1079L, 1076L, Arrays.asList("me", "nick0", "nick1"), chan, 50),
+                SessionSnapshot.Conversation.of("bob", true, 1, 1, 5L, 0L, Collections.<String>emptyList(), query, 50)));
+        File file = new File(tmp.getRoot(), "session.snap");
+        saved.write(file);
+
+        SessionSnapshot s = SessionSnapshot.read(file);
+        assertNotNull(s);
+        assertEquals(42L, s.savedAt);
+        assertEquals("irc.libera.chat", s.server);
+        assertEquals("me", s.nick);
+        assertEquals("#chan", s.active);
+        assertEquals(2, s.conversations.size());
+
+        SessionSnapshot.Conversation c = s.find("#chan");
+        assertFalse(c.isPrivate);
+        assertEquals(3, c.unread);
+        assertEquals(1, c.highlights);
+        assertEquals(1079L, c.lastActivity);
+        assertEquals(1076L, c.readMarker);
+        assertEquals(Arrays.asList("me", "nick0", "nick1"), c.members);
+        assertEquals(50, c.lines());
+        for (int i = 0; i < 50; i++) {
+            int n = 30 + i;
+            assertEquals("line " + n + " ✓", c.text(i));
+            assertEquals("nick" + (n % 3), c.nick(i));
+            assertEquals(1000L + n, c.timestamp(i));
+            assertEquals(n % 5 == 0 ? MessageColumns.MINE : 0, c.flags(i));
+        }
+        List<ChatEvent> events = c.events();
+        assertEquals("#chan", events.get(0).target);
+        assertTrue(events.get(0).mine); // line 30
+
+        SessionSnapshot.Conversation q = s.find("bob");
+        assertTrue(q.isPrivate);
+        assertEquals(1, q.lines());
+        assertEquals("hi", q.text(0));
+        assertNull(s.find("#other"));
+    }
+
+    @Test
+    public void aDamagedOrMissingFileIsNoSnapshot() throws Exception {
+        File file = new File(tmp.getRoot(), "session.snap");
+        assertNull(SessionSnapshot.read(file));
+
+        new SessionSnapshot(1L, null, "me", null, Collections.<SessionSnapshot.Conversation>emptyList()).write(file);
+        SessionSnapshot s = SessionSnapshot.read(file);
+        assertNotNull(s);
+        assertNull(s.server);
+        assertNull(s.active);
+        assertTrue(s.conversations.isEmpty());
+
+        // a flipped byte in the body fails the CRC
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.seek(f.length() - 1);
+            int b = f.read();
+            f.seek(f.length() - 1);
+            f.write(b ^ 1);
+        }
+        assertNull(SessionSnapshot.read(file));
+
+        // a torn write is short
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            f.setLength(10);
+        }
+        assertNull(SessionSnapshot.read(file));
+        assertFalse(new File(tmp.getRoot(), "session.snap.tmp").exists());
+    }
+}
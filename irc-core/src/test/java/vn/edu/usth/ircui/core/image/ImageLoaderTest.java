@@ -0,0 +1,165 @@
+package vn.edu.usth.ircui.core.image;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ImageLoaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** "Decodes" to a string as long as the box is wide; thumbnails are its bytes. */
+    private static final class FakeCodec implements ImageLoader.Codec<String> {
+        final List<String> decoded = new ArrayList<>();
+
+        @Override
+        public String decode(ImageLoader.Key key) {
+            decoded.add(key.source);
+            if (key.source.startsWith("broken")) return null;
+            StringBuilder sb = new StringBuilder(key.source);
+            while (sb.length() < key.width) sb.append('.');
+            return sb.toString();
+        }
+
+        @Override
+        public byte[] encode(String image) {
+            return image.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] thumbnail) {
+            return new String(thumbnail, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int sizeOf(String image) {
+            return image.length();
+        }
+    }
+
+    private final ArrayDeque<Runnable> pool = new ArrayDeque<>();
+    private final ArrayDeque<Runnable> main = new ArrayDeque<>();
+
+    private void runAll() {
+        while (!pool.isEmpty() || !main.isEmpty()) {
+            while (!pool.isEmpty()) pool.poll().run();
+            while (!main.isEmpty()) main.poll().run();
+        }
+    }
+
+    @Test
+    public void sharesJobsServesMemoryAndDropsRecycledTargets() {
+        FakeCodec codec = new FakeCodec();
+        ImageLoader<Object, String> loader = new ImageLoader<>(codec, 1000, null, pool::add, main::add);
+        Object v1 = new Object(), v2 = new Object(), v3 = new Object();
+        List<String> shown1 = new ArrayList<>(), shown2 = new ArrayList<>(), shown3 = new ArrayList<>();
+        ImageLoader.Key a = new ImageLoader.Key("a", 10, 10);
+        ImageLoader.Key b = new ImageLoader.Key("b", 10, 10);
+
+        assertNull(loader.load(a, v1, shown1::add));
+        assertNull(loader.load(a, v2, shown2::add)); // same image: same job
+        assertNull(loader.load(b, v3, shown3::add));
+        assertEquals(2, pool.size());
+        loader.cancel(v3);                            // recycled before its job ran
+        runAll();
+        assertEquals(1, codec.decoded.size());        // b was skipped
+        assertEquals(1, loader.skipped());
+        assertEquals("a.........", shown1.get(0));
+        assertEquals(shown1, shown2);
+        assertTrue(shown3.isEmpty());
+        assertEquals(0, loader.pending());
+
+        // now in memory: answered at once, no job, no callback
+        assertEquals("a.........", loader.load(a, v1, img -> fail("from memory")));
+        assertTrue(pool.isEmpty());
+
+        // rebound to another image before the first came back: only the second is shown
+        shown1.clear();
+        ImageLoader.Key c = new ImageLoader.Key("c", 10, 10);
+        assertNull(loader.load(b, v1, shown1::add));
+        assertNull(loader.load(c, v1, shown1::add));
+        runAll();
+        assertEquals(1, shown1.size());
+        assertEquals("c.........", shown1.get(0));
+
+        // unreadable: the callback gets null, nothing is cached
+        shown2.clear();
+        ImageLoader.Key broken = new ImageLoader.Key("broken", 10, 10);
+        loader.load(broken, v2, shown2::add);
+        runAll();
+        assertEquals(1, shown2.size());
+        assertNull(shown2.get(0));
+        assertNull(loader.cached(broken));
+    }
+
+    @Test
+    public void memoryKeepsTheMostRecentlyUsedWithinItsBudget() {
+        MemoryLru<String, String> lru = new MemoryLru<>(10, String::length);
+        lru.put("a", "aaaa");
+        lru.put("b", "bbbb");
+        assertEquals("aaaa", lru.get("a")); // a is now the most recent
+        lru.put("c", "cccc");               // over budget: b goes
+        assertNull(lru.get("b"));
+        assertEquals("aaaa", lru.get("a"));
+        assertEquals(8, lru.bytes());
+        assertEquals(1, lru.evictions());
+        lru.put("huge", "xxxxxxxxxxxx");     // bigger than the budget: not kept, nothing evicted
+        assertNull(lru.get("huge"));
+        assertEquals(2, lru.size());
+        lru.trimTo(4);
+        assertEquals(1, lru.size());
+        assertEquals("aaaa", lru.get("a"));
+    }
+
+    @Test
+    public void thumbnailsOnDiskSurviveAndAreEvictedLeastRecentFirst() throws Exception {
+        File dir = tmp.newFolder();
+        FakeCodec codec = new FakeCodec();
+        DiskLru disk = new DiskLru(dir, 60);
+        ImageLoader<Object, String> loader = new ImageLoader<>(codec, 1000, disk, pool::add, main::add);
+        ImageLoader.Key a = new ImageLoader.Key("a", 20, 20);
+        List<String> shown = new ArrayList<>();
+        loader.load(a, new Object(), shown::add);
+        runAll();
+        assertEquals(1, loader.decodes());
+        assertEquals(1, disk.size());
+
+        // the process comes back: memory is empty, the thumbnail is not decoded from the source again
+        ImageLoader<Object, String> again = new ImageLoader<>(codec, 1000, new DiskLru(dir, 60), pool::add, main::add);
+        again.load(a, new Object(), shown::add);
+        runAll();
+        assertEquals(1, again.diskHits());
+        assertEquals(0, again.decodes());
+        assertEquals(shown.get(0), shown.get(1));
+
+        // 20 bytes each: a fourth thumbnail pushes out the least recently used
+        disk.put("k1", new byte[20]);
+        disk.put("k2", new byte[20]);
+        assertNotNull(disk.get(a.toString())); // a used again
+        disk.put("k3", new byte[20]);
+        assertNull(disk.get("k1"));
+        assertNotNull(disk.get(a.toString()));
+        assertEquals(60, disk.bytes());
+        String[] files = dir.list();
+        assertEquals(3, files.length);
+    }
+
+    @Test
+    public void sampleSizeNeverDecodesSmallerThanShown() {
+        assertEquals(4, ImageLoader.sampleSize(4000, 3000, 660, 960));   // 1000 x 750, shown at 660 x 495
+        assertEquals(8, ImageLoader.sampleSize(8000, 1000, 660, 960));   // a panorama: width decides
+        assertEquals(16, ImageLoader.sampleSize(1000, 20000, 660, 960)); // a long screenshot: height decides (62 x 1250)
+        assertEquals(1, ImageLoader.sampleSize(600, 400, 660, 960));     // already small
+        assertEquals(4, ImageLoader.sampleSize(4000, 30000, 660, 0));    // no height limit
+        assertEquals(1, ImageLoader.sampleSize(4000, 3000, 0, 0));
+    }
+}
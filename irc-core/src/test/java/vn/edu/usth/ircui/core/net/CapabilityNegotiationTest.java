@@ -0,0 +1,115 @@
+package vn.edu.usth.ircui.core.net;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import vn.edu.usth.ircui.core.protocol.CapNegotiator;
+import vn.edu.usth.ircui.core.protocol.IrcBatch;
+import vn.edu.usth.ircui.core.protocol.IrcLine;
+import vn.edu.usth.ircui.core.protocol.ServerTime;
+
+import static org.junit.Assert.*;
+
+/** CAP LS/REQ/END and batch delivery against a local stub server. */
+public class CapabilityNegotiationTest {
+
+    private StubIrcServer server;
+    private IrcConnection conn;
+
+    @After
+    public void tearDown() throws IOException {
+        if (conn != null) conn.close();
+        if (server != null) server.close();
+    }
+
+    /** Records what the connection hands over. */
+    private static final class Recorder implements IrcConnection.Listener {
+        final CountDownLatch registered = new CountDownLatch(1);
+        final List<String> lines = new CopyOnWriteArrayList<>();
+        final List<IrcBatch> batches = new CopyOnWriteArrayList<>();
+
+        @Override public void onRegistered(IrcConnection c) { registered.countDown(); }
+        @Override public void onLine(IrcConnection c, IrcLine line) { lines.add(line.command() + " " + line.lastParam()); }
+        @Override public void onBatch(IrcConnection c, IrcBatch batch) { batches.add(batch); }
+        @Override public void onClosed(IrcConnection c, Exception cause) {}
+    }
+
+    private Recorder connect(String... offered) throws Exception {
+        server = new StubIrcServer().caps(offered);
+        Recorder r = new Recorder();
+        conn = new IrcConnection(new ServerEndpoint(server.host(), server.port(), false),
+                new IrcConnection.Registration("tester", "tester", "Cap Test", null, IrcConnection.DEFAULT_CAPS),
+                r, null, 2000, 2000);
+        Thread t = new Thread(conn::run, "test-conn");
+        t.setDaemon(true);
+        t.start();
+        assertTrue("registered", r.registered.await(3, TimeUnit.SECONDS));
+        return r;
+    }
+
+    @Test
+    public void requestsOnlyWhatIsOfferedAndEndsNegotiation() throws Exception {
+        connect("server-time", "batch", "echo-message", "sasl=PLAIN", "away-notify");
+
+        assertEquals(new HashSet<>(Arrays.asList(CapNegotiator.SERVER_TIME, CapNegotiator.BATCH,
+                CapNegotiator.ECHO_MESSAGE)), conn.capabilities());
+        List<String> sent = server.received();
+        assertEquals("CAP LS 302", sent.get(0));
+        assertTrue(sent.contains("CAP REQ :server-time batch echo-message"));
+        // CAP END goes out before the server answers registration
+        assertTrue(sent.indexOf("CAP END") > sent.indexOf("CAP REQ :server-time batch echo-message"));
+    }
+
+    @Test
+    public void serverWithoutCapsStillRegisters() throws Exception {
+        connect();
+        assertTrue(conn.capabilities().isEmpty());
+        assertTrue(server.received().contains("CAP END"));
+    }
+
+    @Test
+    public void batchArrivesAsOneUnit() throws Exception {
+        Recorder r = connect("server-time", "batch", "message-tags");
+        server.broadcast(":stub.irc BATCH +h1 chathistory #chan");
+        for (int i = 0; i < 3; i++) {
+            server.broadcast("@batch=h1;time=2024-05-01T10:00:0" + i + ".000Z;msgid=m" + i
+                    + " :alice!a@h PRIVMSG #chan :old " + i);
+        }
+        server.broadcast(":stub.irc BATCH -h1");
+        server.broadcast(":bob!b@h PRIVMSG #chan :live");
+
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!r.lines.contains("PRIVMSG live") && System.currentTimeMillis() < deadline) Thread.sleep(5);
+
+        assertEquals(1, r.batches.size());
+        IrcBatch b = r.batches.get(0);
+        assertEquals("chathistory", b.type);
+        assertEquals(Arrays.asList("#chan"), b.params);
+        List<String> texts = new ArrayList<>();
+        for (IrcLine l : b.lines) texts.add(l.lastParam());
+        assertEquals(Arrays.asList("old 0", "old 1", "old 2"), texts);
+        assertEquals("m2", b.lines.get(2).tag("msgid"));
+        assertEquals(ServerTime.parse("2024-05-01T10:00:02.000Z"), ServerTime.of(b.lines.get(2)));
+        // batch members never show up as single lines
+        for (String l : r.lines) assertFalse(l, l.contains("old "));
+    }
+
+    @Test
+    public void parsesServerTime() {
+        assertEquals(0L, ServerTime.parse("1970-01-01T00:00:00.000Z"));
+        assertEquals(1714557602123L, ServerTime.parse("2024-05-01T10:00:02.123Z"));
+        assertEquals(1714557602000L, ServerTime.parse("2024-05-01T10:00:02Z"));
+        assertEquals(951782400000L, ServerTime.parse("2000-02-29T00:00:00.000Z"));
+        assertEquals(0L, ServerTime.parse("2024-05-01 10:00:02Z"));
+        assertEquals(0L, ServerTime.parse(null));
+    }
+}
@@ -0,0 +1,197 @@
+package vn.edu.usth.ircui.core.net;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import vn.edu.usth.ircui.core.event.DedupWindow;
+import vn.edu.usth.ircui.core.history.GapTracker;
+import vn.edu.usth.ircui.core.history.Timeline;
+import vn.edu.usth.ircui.core.protocol.CaseMapping;
+import vn.edu.usth.ircui.core.protocol.IrcBatch;
+import vn.edu.usth.ircui.core.protocol.IrcCommands;
+import vn.edu.usth.ircui.core.protocol.IrcLine;
+import vn.edu.usth.ircui.core.protocol.ServerTime;
+
+import static org.junit.Assert.*;
+
+/** Reconnect gap fill: CHATHISTORY AFTER the last seen message, paged, merged in order once. */
+public class ChatHistoryGapFillTest {
+
+    private static final String CHAN = "#chan";
+    private static final long T0 = 1_700_000_000_000L;
+    private static final int PAGE = 3;
+
+    private final GapTracker gaps = new GapTracker();
+    private final DedupWindow dedup = new DedupWindow(1024, 60_000, 1000);
+    private final List<long[]> rows = new ArrayList<>(); // {time, n} as a chat list would hold them
+    private final List<String> sent = new ArrayList<>();
+    private StubIrcServer server;
+    private IrcConnection conn;
+
+    @After
+    public void tearDown() throws IOException {
+        if (conn != null) conn.close();
+        if (server != null) server.close();
+    }
+
+    /** What the app does with a message: dedup, record the marker, insert in time order. */
+    private synchronized void show(IrcLine line) {
+        if (!line.isCommand(IrcCommands.PRIVMSG)) return;
+        String msgid = line.tag("msgid");
+        long time = ServerTime.of(line);
+        if (!dedup.firstSeen(msgid, IrcCommands.PRIVMSG, line.nick(), line.param(0), line.lastParam(), time, 0)) return;
+        gaps.seen(line.param(0), time, msgid);
+        long n = Long.parseLong(msgid.substring(1));
+        rows.add(Timeline.insertionPoint(rows, time, r -> r[0]), new long[]{time, n});
+    }
+
+    private IrcConnection connect(CountDownLatch registered, CountDownLatch filled) {
+        IrcConnection c = new IrcConnection(new ServerEndpoint(server.host(), server.port(), false),
+                new IrcConnection.Registration("tester", "tester", "Gap Test", null, IrcConnection.DEFAULT_CAPS),
+                new IrcConnection.Listener() {
+                    @Override public void onRegistered(IrcConnection c) { registered.countDown(); }
+                    @Override public void onLine(IrcConnection c, IrcLine line) { show(line); }
+                    @Override public void onClosed(IrcConnection c, Exception cause) {}
+
+                    @Override
+                    public void onBatch(IrcConnection c, IrcBatch batch) {
+                        for (IrcLine line : batch.lines) show(line);
+                        if (!batch.isType(GapTracker.BATCH_TYPE)) return;
+                        IrcLine last = batch.lines.isEmpty() ? null : batch.lines.get(batch.lines.size() - 1);
+                        String next = gaps.onReplay(batch.params.get(0), batch.lines.size(),
+                                last != null ? ServerTime.of(last) : 0, last != null ? last.tag("msgid") : null, PAGE);
+                        try {
+                            if (next != null) {
+                                sent.add(next);
+                                c.send(next);
+                            } else {
+                                filled.countDown();
+                            }
+                        } catch (IOException e) {
+                            fail(e.toString());
+                        }
+                    }
+                }, null, 2000, 2000);
+        Thread t = new Thread(c::run, "test-conn");
+        t.setDaemon(true);
+        t.start();
+        return c;
+    }
+
+    private static String msg(int n) {
+        return StubIrcServer.historyLine(T0 + n * 1000L, "m" + n, "alice", CHAN, "line " + n);
+    }
+
+    @Test
+    public void fillsOnlyTheMissingWindowInOrderWithoutDuplicates() throws Exception {
+        server = new StubIrcServer().caps("server-time", "message-tags", "batch", "draft/chathistory");
+        for (int n = 1; n <= 10; n++) server.addHistory(CHAN, T0 + n * 1000L, "m" + n, "alice", "line " + n);
+
+        // first session sees 1..4 live, then the link drops
+        CountDownLatch reg1 = new CountDownLatch(1);
+        conn = connect(reg1, new CountDownLatch(1));
+        assertTrue(reg1.await(3, TimeUnit.SECONDS));
+        assertTrue(server.awaitRegistered(1, 3000));
+        for (int n = 1; n <= 4; n++) server.broadcast(msg(n));
+        waitForRows(4);
+        conn.close();
+        gaps.onDisconnected();
+        assertEquals(T0 + 4000, gaps.lastSeen(CHAN));
+
+        // second session: message 10 arrives live before the replay is requested
+        CountDownLatch reg2 = new CountDownLatch(1), filled = new CountDownLatch(1);
+        conn = connect(reg2, filled);
+        assertTrue(reg2.await(3, TimeUnit.SECONDS));
+        assertTrue(server.awaitRegistered(2, 3000));
+        server.broadcast(msg(10));
+        waitForRows(5);
+        // the gap starts where the first session stopped, not at the live line
+        String first = gaps.requestFor(CHAN, PAGE);
+        assertEquals("CHATHISTORY AFTER #chan msgid=m4 3", first);
+        sent.add(first);
+        conn.send(first);
+        assertTrue("gap filled", filled.await(5, TimeUnit.SECONDS));
+
+        List<Long> order = new ArrayList<>();
+        synchronized (this) {
+            for (long[] r : rows) order.add(r[1]);
+        }
+        List<Long> expected = new ArrayList<>();
+        for (long n = 1; n <= 10; n++) expected.add(n);
+        assertEquals(expected, order);
+        // pages 5-7 and 8-10 are full, the third comes back empty; 10 was a duplicate
+        assertEquals(3, sent.size());
+        assertEquals(1, dedup.hits());
+    }
+
+    @Test
+    public void noRequestForConversationsNeverSeen() {
+        assertNull(gaps.requestFor(CHAN, PAGE));
+        gaps.seen(CHAN, T0, null);
+        assertNull("no gap while connected", gaps.requestFor(CHAN, PAGE));
+        gaps.onDisconnected();
+        assertEquals("CHATHISTORY AFTER #chan timestamp=" + ServerTime.format(T0) + " 3",
+                gaps.requestFor("#CHAN", PAGE));
+    }
+
+    @Test
+    public void targetsFoldUnderTheServersCaseMapping() {
+        // rfc1459 by default: [ ] \ ~ are the upper case of { } | ^
+        gaps.seen("#foo[", T0, "m1");
+        gaps.seen("#FOO{", T0 + 1000, "m2");
+        assertEquals(1, gaps.targets().size());
+        assertEquals(T0 + 1000, gaps.lastSeen("#foo{"));
+
+        // under ascii they are two channels
+        gaps.setCaseMapping(CaseMapping.ASCII);
+        gaps.seen("#bar[", T0, "m3");
+        gaps.seen("#bar{", T0 + 2000, "m4");
+        assertEquals(T0, gaps.lastSeen("#BAR["));
+        assertEquals(T0 + 2000, gaps.lastSeen("#bar{"));
+        assertEquals(T0 + 1000, gaps.lastSeen("#FOO["));
+        gaps.onDisconnected();
+        assertEquals("CHATHISTORY AFTER #foo[ msgid=m2 3", gaps.requestFor("#Foo[", PAGE));
+    }
+
+    @Test
+    public void labeledRequestsNameTheirConversation() {
+        gaps.setLabeled(true);
+        gaps.seen(CHAN, T0, "m1");
+        gaps.seen("alice", T0, "m2");
+        gaps.onDisconnected();
+        String chan = gaps.requestFor(CHAN, PAGE), dm = gaps.requestFor("alice", PAGE);
+        assertTrue(chan, chan.startsWith("@label=") && chan.endsWith(" CHATHISTORY AFTER #chan msgid=m1 3"));
+        String chanLabel = chan.substring("@label=".length(), chan.indexOf(' '));
+        String dmLabel = dm.substring("@label=".length(), dm.indexOf(' '));
+        assertNotEquals(chanLabel, dmLabel);
+        assertEquals(CHAN, gaps.targetFor(chanLabel));
+        assertEquals("alice", gaps.targetFor(dmLabel));
+        assertNull(gaps.targetFor("someone-elses"));
+
+        // a full page asks for the next one under a new label; an ACK (no lines) ends the fill
+        String next = gaps.onReplay(CHAN, PAGE, T0 + 3000, "m4", PAGE);
+        String nextLabel = next.substring("@label=".length(), next.indexOf(' '));
+        assertNull(gaps.targetFor(chanLabel));
+        assertEquals(CHAN, gaps.targetFor(nextLabel));
+        assertNull(gaps.onReplay(gaps.targetFor(dmLabel), 0, 0, null, PAGE));
+        assertNull(gaps.targetFor(dmLabel));
+        assertNull(gaps.requestFor("alice", PAGE));
+    }
+
+    private void waitForRows(int n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 3000;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (this) {
+                if (rows.size() >= n) return;
+            }
+            Thread.sleep(5);
+        }
+        fail("only " + rows.size() + " rows");
+    }
+}
@@ -0,0 +1,174 @@
+package vn.edu.usth.ircui.core.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import vn.edu.usth.ircui.core.protocol.IrcLine;
+
+import static org.junit.Assert.*;
+
+/** Races against local stub servers that answer registration after an artificial delay. */
+public class ConnectionRacerTest {
+
+    private static final IrcConnection.Registration REG =
+            new IrcConnection.Registration("tester", "tester", "Racer Test", null);
+
+    private final List<StubIrcServer> servers = new ArrayList<>();
+    private ExecutorService io;
+    private ScheduledExecutorService timer;
+
+    @Before
+    public void setUp() {
+        io = Executors.newCachedThreadPool(IrcThreads.daemon("test-io"));
+        timer = Executors.newSingleThreadScheduledExecutor(IrcThreads.daemon("test-timer"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (StubIrcServer s : servers) s.close();
+        io.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    private StubIrcServer server(String name, long latencyMs) throws IOException {
+        StubIrcServer s = new StubIrcServer().name(name).latency(latencyMs);
+        servers.add(s);
+        return s;
+    }
+
+    private static ServerEndpoint endpoint(StubIrcServer s) {
+        return new ServerEndpoint(s.host(), s.port(), false);
+    }
+
+    /** Runs a race and waits for its result. */
+    private static final class Result implements ConnectionRacer.Listener {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<IrcConnection> winner = new AtomicReference<>();
+        volatile List<ConnectionRacer.Attempt> attempts;
+        volatile boolean allFailed;
+
+        @Override
+        public void onWinner(IrcConnection c, List<ConnectionRacer.Attempt> attempts) {
+            c.setListener(new IrcConnection.Listener() {
+                @Override public void onRegistered(IrcConnection c) {}
+                @Override public void onLine(IrcConnection c, IrcLine line) {}
+                @Override public void onClosed(IrcConnection c, Exception cause) {}
+            });
+            winner.set(c);
+            this.attempts = attempts;
+            done.countDown();
+        }
+
+        @Override
+        public void onAllFailed(List<ConnectionRacer.Attempt> attempts) {
+            this.attempts = attempts;
+            allFailed = true;
+            done.countDown();
+        }
+    }
+
+    private Result race(List<ServerEndpoint> candidates, int width, long staggerMs) throws InterruptedException {
+        ConnectionRacer racer = new ConnectionRacer(candidates, width, staggerMs, REG,
+                io, timer, null, 2000, 5000);
+        Result r = new Result();
+        racer.start(r);
+        assertTrue("race did not finish", r.done.await(10, TimeUnit.SECONDS));
+        return r;
+    }
+
+    @Test
+    public void fastestServerWinsAndLosersAreClosed() throws Exception {
+        StubIrcServer slow = server("slow.primary", 1500);
+        StubIrcServer fast = server("fast.second", 250);
+        StubIrcServer medium = server("medium.third", 600);
+
+        long start = System.nanoTime();
+        Result r = race(Arrays.asList(endpoint(slow), endpoint(fast), endpoint(medium)), 3, 100);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        IrcConnection winner = r.winner.get();
+        assertNotNull(winner);
+        assertEquals(fast.port(), winner.endpoint().port);
+        assertEquals("tester", winner.nick());
+        // second candidate starts after one stagger, then needs ~250 ms (third has started by then)
+        assertTrue("took " + elapsedMs + " ms", elapsedMs < 1000);
+
+        assertEquals(ConnectionRacer.Outcome.CANCELLED, r.attempts.get(0).outcome());
+        assertEquals(ConnectionRacer.Outcome.WON, r.attempts.get(1).outcome());
+        assertEquals(ConnectionRacer.Outcome.CANCELLED, r.attempts.get(2).outcome());
+        assertTrue(r.attempts.get(1).timeToReadyMs() >= 250);
+        for (ConnectionRacer.Attempt a : r.attempts) {
+            assertTrue(a.endpoint + " never connected", a.connectMs() >= 0);
+        }
+        assertTrue(r.attempts.get(1).toString(), r.attempts.get(1).toString().contains(" ready in "));
+        assertTrue(r.attempts.get(0).toString(), r.attempts.get(0).toString().contains(" cancelled after connect "));
+
+        assertTrue(slow.awaitAllClosed(2000));
+        assertTrue(medium.awaitAllClosed(2000));
+        assertEquals(1, fast.openConnections());
+        winner.quit("done");
+        assertTrue(fast.awaitAllClosed(2000));
+        assertEquals(1, fast.quits());
+    }
+
+    @Test
+    public void failedCandidateLaunchesNextWithoutWaiting() throws Exception {
+        int deadPort;
+        try (ServerSocket s = new ServerSocket(0)) {
+            deadPort = s.getLocalPort(); // closed again: connection refused
+        }
+        StubIrcServer ok = server("ok.second", 0);
+
+        long start = System.nanoTime();
+        Result r = race(Arrays.asList(new ServerEndpoint("127.0.0.1", deadPort, false), endpoint(ok)), 2, 5000);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertNotNull(r.winner.get());
+        assertEquals(ConnectionRacer.Outcome.FAILED, r.attempts.get(0).outcome());
+        assertNotNull(r.attempts.get(0).error());
+        assertTrue("waited for the stagger: " + elapsedMs + " ms", elapsedMs < 2000);
+        r.winner.get().close();
+    }
+
+    @Test
+    public void onlyTopCandidatesAreTried() throws Exception {
+        StubIrcServer a = server("a", 300);
+        StubIrcServer b = server("b", 300);
+        StubIrcServer c = server("c", 0);
+
+        Result r = race(Arrays.asList(endpoint(a), endpoint(b), endpoint(c)), 2, 50);
+        assertEquals(2, r.attempts.size());
+        assertNotEquals(c.port(), r.winner.get().endpoint().port);
+        assertEquals(0, c.accepted());
+        r.winner.get().close();
+    }
+
+    @Test
+    public void allFailedIsReported() throws Exception {
+        List<ServerEndpoint> dead = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            try (ServerSocket s = new ServerSocket(0)) {
+                dead.add(new ServerEndpoint("127.0.0.1", s.getLocalPort(), false));
+            }
+        }
+        Result r = race(dead, 3, 100);
+        assertTrue(r.allFailed);
+        assertNull(r.winner.get());
+        for (ConnectionRacer.Attempt a : r.attempts) {
+            assertEquals(ConnectionRacer.Outcome.FAILED, a.outcome());
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package vn.edu.usth.ircui.core.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pastes against a stub ircd that enforces flood control. Time is scaled down
+ * (40 ms per line instead of 2 s) so the tests run quickly.
+ */
+public class OutboundQueueTest {
+
+    private static final long MS_PER_LINE = 40;
+    private static final int BURST = 5;
+
+    private StubIrcServer server;
+    private Socket socket;
+
+    @Before
+    public void setUp() throws IOException {
+        // the server tolerates one line more than the client bucket, as real ircds do
+        server = new StubIrcServer().floodLimit(BURST + 1, MS_PER_LINE);
+        socket = new Socket(server.host(), server.port());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        socket.close();
+        server.close();
+    }
+
+    @Test
+    public void pasteIsPacedWithoutExcessFlood() throws Exception {
+        OutboundQueue q = new OutboundQueue(new OutputStreamLineSink(socket.getOutputStream()),
+                new TokenBucket(BURST, MS_PER_LINE, 0));
+        int lines = 40;
+        long start = System.nanoTime();
+        for (int i = 0; i < lines; i++) assertTrue(q.enqueue("#chan", "paste line " + i));
+        q.start("test-writer");
+
+        assertTrue("not all lines arrived", server.awaitLines(lines, 10_000));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        q.stop();
+
+        assertEquals(0, server.floodKills());
+        List<String> got = server.received();
+        for (int i = 0; i < lines; i++) assertEquals("PRIVMSG #chan :paste line " + i, got.get(i));
+
+        // after the burst, lines go out at the bucket's rate: 25 lines/s here, the burst on top
+        long minExpected = (lines - BURST) * MS_PER_LINE;
+        assertTrue("too fast: " + elapsedMs + " ms", elapsedMs >= minExpected * 9 / 10);
+        double rate = lines * 1000d / elapsedMs;
+        double limit = 1000d / MS_PER_LINE * lines / (lines - BURST);
+        assertTrue("sustained " + rate + " lines/s", rate <= limit * 1.12);
+        assertTrue("stalled at " + rate + " lines/s", rate >= limit / 3);
+        // the burst is flushed once, each paced line after it once at most
+        assertEquals(lines, q.linesSent());
+        assertTrue(q.flushes() + " flushes", q.flushes() >= 1 && q.flushes() <= lines - BURST + 1);
+    }
+
+    @Test
+    public void sharedSchedulerPacesTwoConnectionsOnOneThread() throws Exception {
+        // two sessions (say Libera and OFTC) timed by the same single event thread
+        StubIrcServer other = new StubIrcServer().floodLimit(BURST + 1, MS_PER_LINE);
+        ScheduledExecutorService events = Executors.newSingleThreadScheduledExecutor(IrcThreads.daemon("test-events"));
+        ExecutorService writers = Executors.newCachedThreadPool(IrcThreads.daemon("test-writer"));
+        try (Socket otherSocket = new Socket(other.host(), other.port())) {
+            OutboundQueue a = new OutboundQueue(new OutputStreamLineSink(socket.getOutputStream()),
+                    new TokenBucket(BURST, MS_PER_LINE, 0));
+            OutboundQueue b = new OutboundQueue(new OutputStreamLineSink(otherSocket.getOutputStream()),
+                    new TokenBucket(BURST, MS_PER_LINE, 0));
+            a.start(events, writers);
+            b.start(events, writers);
+            int lines = 20;
+            for (int i = 0; i < lines; i++) {
+                assertTrue(a.enqueue("#libera", "line " + i));
+                assertTrue(b.enqueue("#oftc", "line " + i));
+            }
+            assertTrue(server.awaitLines(lines, 10_000));
+            assertTrue(other.awaitLines(lines, 10_000));
+            a.stop();
+            b.stop();
+
+            assertEquals(0, server.floodKills());
+            assertEquals(0, other.floodKills());
+            assertEquals("PRIVMSG #libera :line 19", server.received().get(lines - 1));
+            assertEquals("PRIVMSG #oftc :line 19", other.received().get(lines - 1));
+            // a burst goes out before the first wait, so far fewer flushes than lines
+            assertTrue(a.flushes() < lines);
+        } finally {
+            events.shutdownNow();
+            writers.shutdownNow();
+            other.close();
+        }
+    }
+
+    @Test
+    public void aStuckSocketHoldsOnlyItsOwnWriter() throws Exception {
+        // one peer stops reading: its writes block, the other session and the timers go on
+        final CountDownLatch stuck = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ScheduledExecutorService events = Executors.newSingleThreadScheduledExecutor(IrcThreads.daemon("test-events"));
+        ExecutorService writers = Executors.newCachedThreadPool(IrcThreads.daemon("test-writer"));
+        try {
+            OutboundQueue blocked = new OutboundQueue(new LineSink() {
+                @Override
+                public void write(String line) throws IOException {
+                    stuck.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+
+                @Override
+                public void flush() {
+                }
+            }, new TokenBucket(BURST, MS_PER_LINE, 0));
+            OutboundQueue live = new OutboundQueue(new OutputStreamLineSink(socket.getOutputStream()),
+                    new TokenBucket(BURST, MS_PER_LINE, 0));
+            blocked.start(events, writers);
+            live.start(events, writers);
+            assertTrue(blocked.enqueue("#stuck", "never leaves"));
+            assertTrue(stuck.await(2, TimeUnit.SECONDS));
+
+            int lines = BURST * 2; // past the burst, so the timer has to hand the rest off
+            for (int i = 0; i < lines; i++) assertTrue(live.enqueue("#chan", "line " + i));
+            assertTrue(server.awaitLines(lines, 5_000));
+            assertTrue("timer thread free", events.schedule(() -> true, 0, TimeUnit.MILLISECONDS)
+                    .get(1, TimeUnit.SECONDS));
+            live.stop();
+            blocked.stop();
+        } finally {
+            release.countDown();
+            events.shutdownNow();
+            writers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void unpacedPasteGetsKilled() throws Exception {
+        // what sending every chunk straight to the socket amounts to
+        OutboundQueue q = new OutboundQueue(new OutputStreamLineSink(socket.getOutputStream()),
+                new TokenBucket(1000, MS_PER_LINE, 0));
+        for (int i = 0; i < 40; i++) q.enqueue("#chan", "paste line " + i);
+        q.start("test-writer");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.floodKills() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        q.stop();
+        assertEquals(1, server.floodKills());
+    }
+
+    @Test
+    public void backlogReportsDepthAndEta() throws Exception {
+        final AtomicInteger maxDepth = new AtomicInteger();
+        final AtomicLong maxEta = new AtomicLong();
+        final AtomicInteger lastDepth = new AtomicInteger(-1);
+        final CountDownLatch drained = new CountDownLatch(1);
+        OutboundQueue q = new OutboundQueue(new OutputStreamLineSink(socket.getOutputStream()),
+                new TokenBucket(BURST, MS_PER_LINE, 0));
+        q.setListener(new OutboundQueue.Listener() {
+            @Override
+            public void onBacklog(int depth, long etaMs) {
+                maxDepth.accumulateAndGet(depth, Math::max);
+                maxEta.accumulateAndGet(etaMs, Math::max);
+                lastDepth.set(depth);
+                if (depth == 0) drained.countDown();
+            }
+
+            @Override
+            public void onSendFailed(IOException e) {
+                fail(e.toString());
+            }
+        });
+        for (int i = 0; i < 20; i++) q.enqueue("alice", "dm " + i);
+        assertEquals(20, q.depth());
+        assertTrue(q.etaMs() >= (20 - BURST) * MS_PER_LINE - MS_PER_LINE);
+
+        q.start("test-writer");
+        assertTrue(server.awaitLines(20, 10_000));
+        // the last report comes after the last write and flush: the server may see the line first
+        assertTrue("empty queue reported", drained.await(5, TimeUnit.SECONDS));
+        q.stop();
+        assertEquals(20, maxDepth.get());
+        assertTrue(maxEta.get() > 0);
+        assertEquals(0, lastDepth.get());
+        assertEquals("PRIVMSG alice :dm 0", server.received().get(0));
+    }
+
+    @Test
+    public void burstIsFlushedOnce() throws Exception {
+        final AtomicInteger writes = new AtomicInteger();
+        final AtomicInteger flushes = new AtomicInteger();
+        OutboundQueue q = new OutboundQueue(new LineSink() {
+            @Override
+            public void write(String line) {
+                writes.incrementAndGet();
+            }
+
+            @Override
+            public void flush() {
+                flushes.incrementAndGet();
+            }
+        }, new TokenBucket(10, 1000, 0));
+        for (int i = 0; i < 10; i++) q.enqueue("#chan", "line " + i);
+        q.start("test-writer");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (q.depth() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        q.stop();
+        assertEquals(10, writes.get());
+        assertEquals(1, flushes.get());
+    }
+
+    @Test
+    public void fullQueueRefuses() {
+        OutboundQueue q = new OutboundQueue(new OutputStreamLineSink(new ByteArrayOutputStream()),
+                TokenBucket.rfc1459(), 3);
+        assertTrue(q.enqueue("#a", "1"));
+        assertTrue(q.enqueue("#a", "2"));
+        assertTrue(q.enqueueRaw("JOIN #b"));
+        assertFalse(q.enqueue("#a", "4"));
+        List<OutboundQueue.Item> pending = q.drainPending();
+        assertEquals(3, pending.size());
+        assertEquals("JOIN #b", pending.get(2).toLine());
+        assertEquals(0, q.depth());
+    }
+}
@@ -0,0 +1,105 @@
+package vn.edu.usth.ircui.core.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import vn.edu.usth.ircui.core.protocol.IrcLine;
+
+import static org.junit.Assert.*;
+
+/** Lag measurement and dead-link detection against the stub server. */
+public class PingSchedulerTest {
+
+    private static final IrcConnection.Registration REG =
+            new IrcConnection.Registration("tester", "tester", "Ping Test", null);
+
+    private StubIrcServer server;
+    private ScheduledExecutorService timer;
+    private ExecutorService writer;
+    private IrcConnection conn;
+    private PingScheduler pinger;
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private final AtomicReference<Exception> closeCause = new AtomicReference<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubIrcServer();
+        timer = Executors.newSingleThreadScheduledExecutor();
+        writer = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (pinger != null) pinger.stop();
+        if (conn != null) conn.close();
+        timer.shutdownNow();
+        writer.shutdownNow();
+        server.close();
+    }
+
+    /** Connect with a pinger that probes every {@code intervalMs} and waits {@code timeoutMs} per PONG. */
+    private void connect(long intervalMs, long timeoutMs, int maxMissed) throws Exception {
+        final CountDownLatch registered = new CountDownLatch(1);
+        conn = new IrcConnection(new ServerEndpoint(server.host(), server.port(), false), REG,
+                new IrcConnection.Listener() {
+                    @Override public void onRegistered(IrcConnection c) { registered.countDown(); }
+                    @Override public void onLine(IrcConnection c, IrcLine line) { pinger.onLine(line); }
+                    @Override public void onClosed(IrcConnection c, Exception cause) {
+                        closeCause.set(cause);
+                        closed.countDown();
+                    }
+                }, null, 2000, 2000);
+        pinger = new PingScheduler(conn, timer, writer, intervalMs, intervalMs * 4, intervalMs * 8,
+                timeoutMs, maxMissed);
+        Thread t = new Thread(conn::run, "test-ping-conn");
+        t.setDaemon(true);
+        t.start();
+        assertTrue("registered", registered.await(3, TimeUnit.SECONDS));
+        pinger.start();
+    }
+
+    @Test
+    public void measuresLagFromPongs() throws Exception {
+        connect(20, 500, 2);
+        long deadline = System.currentTimeMillis() + 3000;
+        while (pinger.pongs() < 3 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+
+        assertTrue("pongs: " + pinger.pongs(), pinger.pongs() >= 3);
+        assertTrue(pinger.lagMs() >= 0);
+        assertTrue(pinger.smoothedLagMs() >= 0);
+        assertTrue(server.received().contains("PING :lag-1"));
+        assertFalse(conn.isClosed());
+    }
+
+    @Test
+    public void silentServerIsDeclaredDeadAfterMissedPongs() throws Exception {
+        connect(20, 100, 3);
+        server.silent(true);
+        long start = System.nanoTime();
+
+        assertTrue("dead link noticed", closed.await(3, TimeUnit.SECONDS));
+        long tookMs = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(closeCause.get() instanceof PingScheduler.DeadLinkException);
+        // one interval plus three PONG timeouts, not a TCP timeout
+        assertTrue("took " + tookMs + " ms", tookMs < 1500);
+    }
+
+    @Test
+    public void backsOffInTheBackground() throws Exception {
+        connect(1000, 500, 2);
+        assertEquals(1000, pinger.currentInterval());
+        pinger.setBackground(true);
+        assertEquals(8000, pinger.currentInterval());
+        pinger.setBackground(false);
+        assertEquals(1000, pinger.currentInterval());
+    }
+}
@@ -0,0 +1,238 @@
+package vn.edu.usth.ircui.core.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import vn.edu.usth.ircui.core.protocol.IrcLine;
+
+import static org.junit.Assert.*;
+
+/** Simulated network callbacks driving real connections to the stub server. */
+public class ReconnectControllerTest {
+
+    private static final IrcConnection.Registration REG =
+            new IrcConnection.Registration("tester", "tester", "Flap Test", null);
+    private static final long DEBOUNCE_MS = 100;
+    private static final long PROBE_TIMEOUT_MS = 300;
+    private static final long WIFI = 101, LTE = 102; // network handles
+
+    private StubIrcServer server;
+    private ScheduledExecutorService timer;
+    private ExecutorService writer;
+    private ReconnectController controller;
+    private final List<ReconnectController.State> states = new CopyOnWriteArrayList<>();
+    private final AtomicInteger teardowns = new AtomicInteger();
+    private volatile IrcConnection current;
+    private volatile PingScheduler pinger;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubIrcServer();
+        timer = Executors.newScheduledThreadPool(2);
+        writer = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (controller != null) controller.stop();
+        IrcConnection c = current;
+        if (c != null) c.close();
+        timer.shutdownNow();
+        writer.shutdownNow();
+        server.close();
+    }
+
+    /** The app's side of the controller, in miniature: one connection at a time, PING for probes. */
+    private final class Link implements ReconnectController.Actions {
+        @Override
+        public void connect() {
+            final IrcConnection c = new IrcConnection(new ServerEndpoint(server.host(), server.port(), false), REG,
+                    null, null, 2000, 2000);
+            final PingScheduler p = new PingScheduler(c, timer, writer, 60_000, 60_000, 60_000, 10_000, 2);
+            p.setListener((rtt, smoothed) -> controller.onLinkAlive());
+            c.setListener(new IrcConnection.Listener() {
+                @Override public void onRegistered(IrcConnection conn) {
+                    current = conn;
+                    pinger = p;
+                    p.start();
+                    controller.onConnected();
+                }
+                @Override public void onLine(IrcConnection conn, IrcLine line) { p.onLine(line); }
+                @Override public void onClosed(IrcConnection conn, Exception cause) {
+                    p.stop();
+                    if (pinger != p) {
+                        controller.onConnectFailed(); // never registered
+                        return;
+                    }
+                    if (current != conn) return; // torn down on purpose
+                    current = null;
+                    controller.onConnectionLost(cause instanceof PingScheduler.DeadLinkException);
+                }
+            });
+            Thread t = new Thread(c::run, "test-flap-conn");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        @Override
+        public void probe() {
+            PingScheduler p = pinger;
+            if (p != null) p.probeNow();
+        }
+
+        @Override
+        public void teardown() {
+            teardowns.incrementAndGet();
+            IrcConnection c = current;
+            current = null;
+            if (c != null) c.close();
+        }
+
+        @Override
+        public void onState(ReconnectController.State state, long retryInMs) {
+            states.add(state);
+        }
+    }
+
+    private void startController() throws InterruptedException {
+        controller = new ReconnectController(new Link(), timer, new Random(1), 50, 400, DEBOUNCE_MS, PROBE_TIMEOUT_MS);
+        controller.start();
+        awaitState(ReconnectController.State.CONNECTED, 3000);
+    }
+
+    private void awaitState(ReconnectController.State want, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (controller.state() != want) {
+            if (System.currentTimeMillis() > deadline) fail("state " + controller.state() + ", wanted " + want + ": " + states);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void handoverBurstKeepsALinkThatStillWorks() throws Exception {
+        startController();
+        // Wi-Fi -> LTE: a burst of callbacks within the debounce window
+        for (int i = 0; i < 3; i++) {
+            controller.onNetworkLost();
+            controller.onNetworkAvailable(LTE);
+        }
+        long deadline = System.currentTimeMillis() + 2000;
+        while (controller.probesSurvived() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+
+        assertEquals(ReconnectController.State.CONNECTED, controller.state());
+        assertTrue(states.contains(ReconnectController.State.PROBING));
+        assertEquals("no new connection", 1, server.accepted());
+        assertEquals(0, teardowns.get());
+        assertEquals(1, controller.probesSurvived());
+        assertEquals(5, controller.flapsAbsorbed());
+        assertTrue(server.received().contains("PING :lag-1"));
+    }
+
+    @Test
+    public void deadLinkAfterHandoverIsReplaced() throws Exception {
+        startController();
+        server.silenceOpenConnections(); // the old path is gone, new connections work
+        controller.onNetworkAvailable(LTE);
+
+        awaitState(ReconnectController.State.PROBING, 1000);
+        awaitState(ReconnectController.State.CONNECTED, 3000); // after the probe timed out
+        assertEquals(1, teardowns.get());
+        assertEquals(2, server.accepted());
+        assertEquals(0, controller.probesSurvived());
+    }
+
+    @Test
+    public void lostConnectionRetriesWithBackoff() throws Exception {
+        startController();
+        server.close(); // drops the client and refuses new ones
+        awaitState(ReconnectController.State.WAITING, 3000);
+        // a few refused attempts later it is still backing off, not spinning
+        Thread.sleep(300);
+        assertTrue(controller.failures() >= 1);
+        assertEquals(ReconnectController.State.WAITING, controller.state());
+    }
+
+    @Test
+    public void offlineWaitsForTheNetworkInsteadOfRetrying() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        controller = new ReconnectController(new ReconnectController.Actions() {
+            @Override public void connect() {
+                attempts.incrementAndGet();
+                timer.execute(() -> controller.onConnectFailed());
+            }
+            @Override public void probe() {}
+            @Override public void teardown() {}
+        }, timer, new Random(1), 1000, 8000, DEBOUNCE_MS, PROBE_TIMEOUT_MS);
+        controller.start();
+        awaitState(ReconnectController.State.WAITING, 1000);
+
+        controller.onNetworkLost();
+        awaitState(ReconnectController.State.OFFLINE, 1000);
+        Thread.sleep(1200); // past the first backoff: nothing may fire while offline
+        assertEquals(1, attempts.get());
+
+        controller.onNetworkAvailable(WIFI); // back: retry at once, not after the backoff
+        long start = System.nanoTime();
+        while (attempts.get() < 2 && System.nanoTime() - start < 1_000_000_000L) Thread.sleep(5);
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void onlyANewNetworkCutsTheBackoffShort() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        controller = new ReconnectController(new ReconnectController.Actions() {
+            @Override public void connect() {
+                attempts.incrementAndGet();
+                timer.execute(() -> controller.onConnectFailed());
+            }
+            @Override public void probe() {}
+            @Override public void teardown() {}
+        }, timer, new Random(1), 10_000, 60_000, DEBOUNCE_MS, PROBE_TIMEOUT_MS);
+        controller.onNetworkAvailable(WIFI);
+        Thread.sleep(DEBOUNCE_MS * 3); // settled before the first attempt
+        controller.start();
+        awaitState(ReconnectController.State.WAITING, 1000);
+        assertEquals(1, controller.failures());
+
+        // the network it failed on, announced again (capabilities changed, say): keep waiting
+        controller.onNetworkAvailable(WIFI);
+        Thread.sleep(DEBOUNCE_MS * 3);
+        assertEquals(ReconnectController.State.WAITING, controller.state());
+        assertEquals(1, attempts.get());
+        assertEquals(1, controller.failures());
+
+        // a different network: retry now, the backoff starts over
+        controller.onNetworkAvailable(LTE);
+        long deadline = System.currentTimeMillis() + 1000;
+        while (attempts.get() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(2, attempts.get());
+        awaitState(ReconnectController.State.WAITING, 1000);
+        assertEquals(1, controller.failures());
+    }
+
+    @Test
+    public void backoffIsExponentialWithEqualJitter() {
+        controller = new ReconnectController(new ReconnectController.Actions() {
+            @Override public void connect() {}
+            @Override public void probe() {}
+            @Override public void teardown() {}
+        }, timer, new Random(7), 1000, 30_000, DEBOUNCE_MS, PROBE_TIMEOUT_MS);
+        for (int n = 0; n < 10; n++) {
+            long ceiling = Math.min(30_000, 1000L << n);
+            for (int i = 0; i < 50; i++) {
+                long d = controller.backoff(n);
+                assertTrue(n + ": " + d, d >= ceiling / 2 && d <= ceiling);
+            }
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package vn.edu.usth.ircui.core.net;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ServerSocketFactory;
+
+import vn.edu.usth.ircui.core.protocol.ServerTime;
+
+/**
+ * Minimal ircd on 127.0.0.1 for tests.
+ *
+ * - Records every line it receives
+ * - Registration: after NICK + USER (and CAP END, if the client sent CAP LS) it waits
+ *   {@code latencyMs}, then sends 001
+ * - CAP LS / REQ against the capabilities given to {@link #caps}; REQ is ACKed or NAKed whole
+ * - CHATHISTORY AFTER over the messages given to {@link #addHistory}, as a chathistory batch
+ * - Answers PING with PONG, unless {@link #silent} plays a half-open link
+ * - Optional RFC 1459 flood control: each line moves the client's clock forward by
+ *   {@code msPerLine}; once the clock is more than {@code burst} lines ahead of real
+ *   time the client is dropped with "ERROR :Closing Link (Excess Flood)"
+ */
+final class StubIrcServer implements Closeable {
+
+    private final ServerSocket server;
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private final List<Socket> clients = new CopyOnWriteArrayList<>();
+    private final List<OutputStream> registeredClients = new CopyOnWriteArrayList<>();
+    private final AtomicInteger floodKills = new AtomicInteger();
+    private final AtomicInteger accepted = new AtomicInteger();
+    private final AtomicInteger open = new AtomicInteger();
+    private final AtomicInteger quits = new AtomicInteger();
+
+    private volatile int burst = Integer.MAX_VALUE;
+    private volatile long msPerLine = 0;
+    private volatile long latencyMs = 0;
+    private volatile String name = "stub.irc";
+    private volatile boolean silent;
+    private final Set<Socket> silenced = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private volatile Set<String> caps = new HashSet<>();
+    private final List<String[]> history = new CopyOnWriteArrayList<>(); // target, time, msgid, nick, text
+    private final AtomicInteger batchIds = new AtomicInteger();
+
+    StubIrcServer() throws IOException {
+        this(ServerSocketFactory.getDefault());
+    }
+
+    /** Serve over whatever {@code factory} makes, e.g. TLS from {@link TestTls#server()}. */
+    StubIrcServer(ServerSocketFactory factory) throws IOException {
+        server = factory.createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread t = new Thread(this::acceptLoop, "stub-ircd-accept");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    StubIrcServer floodLimit(int burst, long msPerLine) {
+        this.burst = burst;
+        this.msPerLine = msPerLine;
+        return this;
+    }
+
+    /** Delay before answering registration, to play a slow or far away server. */
+    StubIrcServer latency(long ms) {
+        this.latencyMs = ms;
+        return this;
+    }
+
+    /** Capabilities offered in CAP LS. */
+    StubIrcServer caps(String... caps) {
+        this.caps = new HashSet<>(Arrays.asList(caps));
+        return this;
+    }
+
+    /** Store a channel message for CHATHISTORY; add them oldest first. */
+    StubIrcServer addHistory(String target, long time, String msgid, String nick, String text) {
+        history.add(new String[]{target, Long.toString(time), msgid, nick, text});
+        return this;
+    }
+
+    /** The stored message as a live client would have seen it. */
+    static String historyLine(long time, String msgid, String nick, String target, String text) {
+        return "@time=" + ServerTime.format(time) + ";msgid=" + msgid
+                + " :" + nick + "!" + nick + "@stub PRIVMSG " + target + " :" + text;
+    }
+
+    /** Send a raw line to every registered client. */
+    void broadcast(String line) {
+        for (OutputStream out : registeredClients) {
+            try {
+                send(out, line);
+            } catch (IOException gone) {
+                registeredClients.remove(out);
+            }
+        }
+    }
+
+    /** Clients that got 001 so far. */
+    int registered() {
+        return registeredClients.size();
+    }
+
+    /** Wait until {@code n} clients got 001; returns false on timeout. */
+    boolean awaitRegistered(int n, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (registeredClients.size() < n) {
+            if (System.currentTimeMillis() > deadline) return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    /** Keep reading but stop answering anything, PING included. */
+    StubIrcServer silent(boolean silent) {
+        this.silent = silent;
+        return this;
+    }
+
+    /** Like {@link #silent}, but only for the connections open now; new ones are served normally. */
+    StubIrcServer silenceOpenConnections() {
+        silenced.addAll(clients);
+        return this;
+    }
+
+    StubIrcServer name(String name) {
+        this.name = name;
+        return this;
+    }
+
+    String host() {
+        return server.getInetAddress().getHostAddress();
+    }
+
+    int port() {
+        return server.getLocalPort();
+    }
+
+    List<String> received() {
+        return new ArrayList<>(received);
+    }
+
+    int floodKills() {
+        return floodKills.get();
+    }
+
+    int accepted() {
+        return accepted.get();
+    }
+
+    /** Client connections that are still open. */
+    int openConnections() {
+        return open.get();
+    }
+
+    int quits() {
+        return quits.get();
+    }
+
+    /** Wait until no client connection is open; returns false on timeout. */
+    boolean awaitAllClosed(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (open.get() > 0) {
+            if (System.currentTimeMillis() > deadline) return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    /** Wait until {@code n} lines arrived; returns false on timeout. */
+    boolean awaitLines(int n, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (received.size() < n) {
+            if (System.currentTimeMillis() > deadline) return false;
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    private void acceptLoop() {
+        while (!server.isClosed()) {
+            try {
+                Socket s = server.accept();
+                accepted.incrementAndGet();
+                open.incrementAndGet();
+                clients.add(s);
+                Thread t = new Thread(() -> serve(s), "stub-ircd-conn");
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket s) {
+        long clock = 0;
+        String nick = null;
+        boolean user = false, welcomed = false, capHold = false;
+        try (Socket sock = s;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(sock.getInputStream(), StandardCharsets.UTF_8))) {
+            OutputStream out = sock.getOutputStream();
+            String line;
+            while ((line = in.readLine()) != null) {
+                received.add(line);
+                if (silent || silenced.contains(s)) continue; // reads, never answers: a half-open link
+                String[] words = line.split(" ", 3);
+                String cmd = words[0].toUpperCase(Locale.ROOT);
+                if (cmd.equals("NICK") && words.length > 1) nick = words[1];
+                else if (cmd.equals("USER")) user = true;
+                else if (cmd.equals("QUIT")) quits.incrementAndGet();
+                else if (cmd.equals("CAP") && words.length > 1) {
+                    String[] sub = words[1].concat(words.length > 2 ? " " + words[2] : "").split(" ", 2);
+                    String who = nick != null ? nick : "*";
+                    if (sub[0].equals("LS")) {
+                        capHold = true;
+                        send(out, ":" + name + " CAP " + who + " LS :" + String.join(" ", caps));
+                    } else if (sub[0].equals("REQ") && sub.length > 1) {
+                        String wanted = strip(sub[1]);
+                        boolean ok = caps.containsAll(Arrays.asList(wanted.split(" ")));
+                        send(out, ":" + name + " CAP " + who + (ok ? " ACK :" : " NAK :") + wanted);
+                    } else if (sub[0].equals("END")) {
+                        capHold = false;
+                    }
+                }
+                else if (cmd.equals("CHATHISTORY") && words.length > 2) {
+                    replayHistory(out, (words[1] + " " + words[2]).split(" "));
+                }
+                else if (cmd.equals("PING")) {
+                    send(out, ":" + name + " PONG " + name + " :" + (words.length > 1 ? strip(words[1]) : ""));
+                }
+                if (!welcomed && nick != null && user && !capHold) {
+                    welcomed = true;
+                    if (latencyMs > 0) Thread.sleep(latencyMs);
+                    send(out, ":" + name + " 001 " + nick + " :Welcome to " + name + " " + nick);
+                    send(out, ":" + name + " 005 " + nick + " CASEMAPPING=rfc1459 LINELEN=512 :are supported by this server");
+                    registeredClients.add(out);
+                }
+                if (msPerLine > 0) {
+                    long now = System.currentTimeMillis();
+                    clock = Math.max(clock, now) + msPerLine;
+                    if (clock - now > burst * msPerLine) {
+                        floodKills.incrementAndGet();
+                        send(out, "ERROR :Closing Link (Excess Flood)");
+                        return;
+                    }
+                }
+            }
+        } catch (IOException ignored) {
+            // client went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            open.decrementAndGet();
+        }
+    }
+
+    /** "AFTER target msgid=x|timestamp=t limit" */
+    private void replayHistory(OutputStream out, String[] args) throws IOException {
+        if (args.length < 3 || !args[0].equalsIgnoreCase("AFTER")) return;
+        String target = args[1];
+        String ref = args[2];
+        int limit = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        int from = 0;
+        for (int i = 0; i < history.size(); i++) {
+            String[] h = history.get(i);
+            if (!h[0].equalsIgnoreCase(target)) continue;
+            if (ref.equals("msgid=" + h[2])
+                    || (ref.startsWith("timestamp=") && Long.parseLong(h[1]) <= ServerTime.parse(ref.substring(10)))) {
+                from = i + 1;
+            }
+        }
+        String id = "h" + batchIds.incrementAndGet();
+        send(out, ":" + name + " BATCH +" + id + " chathistory " + target);
+        int sent = 0;
+        for (int i = from; i < history.size() && sent < limit; i++) {
+            String[] h = history.get(i);
+            if (!h[0].equalsIgnoreCase(target)) continue;
+            send(out, "@batch=" + id + ";" + historyLine(Long.parseLong(h[1]), h[2], h[3], h[0], h[4]).substring(1));
+            sent++;
+        }
+        send(out, ":" + name + " BATCH -" + id);
+    }
+
+    private static void send(OutputStream out, String line) throws IOException {
+        synchronized (out) { // the connection thread and broadcast() share it
+            out.write((line + "\r\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+    }
+
+    private static String strip(String param) {
+        return param.startsWith(":") ? param.substring(1) : param;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (Socket s : clients) s.close();
+    }
+}
@@ -0,0 +1,69 @@
+package vn.edu.usth.ircui.core.net;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * A self-signed "localhost" certificate made once per run with the JDK's keytool,
+ * plus the server and client SSLContexts built on it.
+ */
+final class TestTls {
+
+    static final String HOST = "localhost";
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static KeyStore keyStore;
+
+    private TestTls() {}
+
+    /** Server side: presents the test certificate. */
+    static SSLContext server() throws IOException, GeneralSecurityException {
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore(), PASSWORD);
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(kmf.getKeyManagers(), null, null);
+        return ctx;
+    }
+
+    /** Client side: trusts only the test certificate. A new context has an empty session cache. */
+    static SSLContext client() throws IOException, GeneralSecurityException {
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore());
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(null, tmf.getTrustManagers(), null);
+        return ctx;
+    }
+
+    private static synchronized KeyStore keyStore() throws IOException, GeneralSecurityException {
+        if (keyStore != null) return keyStore;
+        File file = File.createTempFile("stub-ircd", ".p12");
+        file.delete(); // keytool refuses to write into an existing empty file
+        file.deleteOnExit();
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process p = new ProcessBuilder(keytool, "-genkeypair", "-alias", "stub", "-keyalg", "EC",
+                "-keysize", "256", "-validity", "2", "-dname", "CN=" + HOST,
+                "-ext", "SAN=dns:" + HOST + ",ip:127.0.0.1",
+                "-keystore", file.getPath(), "-storetype", "PKCS12",
+                "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                .redirectErrorStream(true).start();
+        try {
+            if (p.waitFor() != 0) throw new IOException("keytool failed with exit code " + p.exitValue());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted waiting for keytool", e);
+        }
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(file)) {
+            ks.load(in, PASSWORD);
+        }
+        keyStore = ks;
+        return ks;
+    }
+}
@@ -0,0 +1,73 @@
+package vn.edu.usth.ircui.core.net;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import vn.edu.usth.ircui.core.protocol.IrcLine;
+
+import static org.junit.Assert.*;
+
+/** TLS session resumption across reconnects, against the stub server over TLS. */
+public class TlsSessionCacheTest {
+
+    private static final IrcConnection.Registration REG =
+            new IrcConnection.Registration("tester", "tester", "TLS Test", null);
+
+    private StubIrcServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubIrcServer(TestTls.server().getServerSocketFactory());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    /** Connect, register, disconnect. */
+    private void connectOnce(TlsSessionCache cache) throws Exception {
+        final CountDownLatch registered = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        IrcConnection c = new IrcConnection(new ServerEndpoint(TestTls.HOST, server.port(), true), REG,
+                new IrcConnection.Listener() {
+                    @Override public void onRegistered(IrcConnection c) { registered.countDown(); }
+                    @Override public void onLine(IrcConnection c, IrcLine line) {}
+                    @Override public void onClosed(IrcConnection c, Exception cause) { closed.countDown(); }
+                }, cache, 5000, 5000);
+        Thread t = new Thread(c::run, "test-tls-conn");
+        t.setDaemon(true);
+        t.start();
+        assertTrue("registered over TLS", registered.await(10, TimeUnit.SECONDS));
+        c.close();
+        assertTrue("closed", closed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void reconnectResumesTheSession() throws Exception {
+        TlsSessionCache cache = new TlsSessionCache(TestTls.client());
+        for (int i = 0; i < 3; i++) connectOnce(cache);
+
+        assertEquals(1, cache.fullHandshakes());
+        assertEquals(2, cache.resumedHandshakes());
+        assertTrue(cache.meanFullMs() > 0);
+        assertTrue(cache.meanResumedMs() > 0);
+    }
+
+    @Test
+    public void withoutASharedCacheEveryHandshakeIsFull() throws Exception {
+        TlsSessionCache first = new TlsSessionCache(TestTls.client());
+        TlsSessionCache second = new TlsSessionCache(TestTls.client());
+        connectOnce(first);
+        connectOnce(second);
+
+        assertEquals(1, first.fullHandshakes());
+        assertEquals(1, second.fullHandshakes());
+        assertEquals(0, first.resumedHandshakes() + second.resumedHandshakes());
+    }
+}
@@ -0,0 +1,212 @@
+package vn.edu.usth.ircui.core.protocol;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class IrcLineParserTest {
+
+    private static IrcLine parse(String raw) {
+        byte[] b = raw.getBytes(StandardCharsets.UTF_8);
+        IrcLine line = new IrcLine();
+        assertTrue(raw, new IrcLineParser().parse(b, 0, b.length, line));
+        return line;
+    }
+
+    private static boolean parses(String raw) {
+        byte[] b = raw.getBytes(StandardCharsets.UTF_8);
+        return new IrcLineParser().parse(b, 0, b.length, new IrcLine());
+    }
+
+    @Test
+    public void tagsPrefixCommandAndParams() {
+        IrcLine line = parse("@time=2024-01-02T03:04:05.678Z;msgid=abc;+draft/reply :nick!user@host PRIVMSG #chan :hello there\r\n");
+        assertEquals("time=2024-01-02T03:04:05.678Z;msgid=abc;+draft/reply", line.rawTags());
+        assertEquals("2024-01-02T03:04:05.678Z", line.tag("time"));
+        assertEquals("abc", line.tag("msgid"));
+        assertEquals("", line.tag("+draft/reply"));
+        assertTrue(line.hasTag("msgid"));
+        assertNull(line.tag("msg"));
+        assertNull(line.tag("account"));
+
+        assertEquals("nick!user@host", line.prefix());
+        assertEquals("nick", line.nick());
+        assertEquals(4, line.nickLength());
+        assertEquals("user", line.user());
+        assertEquals("host", line.host());
+
+        assertEquals("PRIVMSG", line.command());
+        assertTrue(line.isCommand("PRIVMSG"));
+        assertEquals(-1, line.numeric());
+        assertEquals(2, line.paramCount());
+        assertEquals("#chan", line.param(0));
+        assertEquals('#', line.paramFirstByte(0));
+        assertEquals("hello there", line.lastParam());
+        assertTrue(line.hasTrailing());
+    }
+
+    @Test
+    public void escapedTagValuesAreUnescaped() {
+        IrcLine line = parse("@a=semi\\:colon;b=two\\swords;c=back\\\\slash;d=cr\\rlf\\n;e=\\x;f=end\\;g= PING :x");
+        assertEquals("semi;colon", line.tag("a"));
+        assertEquals("two words", line.tag("b"));
+        assertEquals("back\\slash", line.tag("c"));
+        assertEquals("cr\rlf\n", line.tag("d"));
+        assertEquals("x", line.tag("e")); // unknown escape: the character itself
+        assertEquals("end", line.tag("f")); // a trailing backslash is dropped
+        assertEquals("", line.tag("g"));
+        assertEquals("PING", line.command());
+    }
+
+    @Test
+    public void prefixShapes() {
+        IrcLine server = parse(":irc.example.net 001 me :Welcome");
+        assertEquals("irc.example.net", server.nick());
+        assertNull(server.user());
+        assertNull(server.host());
+        assertEquals(1, server.numeric());
+
+        IrcLine hostOnly = parse(":nick@host NOTICE me :hi");
+        assertEquals("nick", hostOnly.nick());
+        assertNull(hostOnly.user());
+        assertEquals("host", hostOnly.host());
+
+        IrcLine none = parse("PING :token");
+        assertFalse(none.hasPrefix());
+        assertNull(none.prefix());
+        assertNull(none.nick());
+        assertEquals(-1, none.nickLength());
+    }
+
+    @Test
+    public void emptyAndMissingParams() {
+        IrcLine bare = parse("PING");
+        assertEquals(0, bare.paramCount());
+        assertNull(bare.lastParam());
+        assertNull(bare.param(0));
+        assertEquals(-1, bare.paramLength(0));
+        assertEquals(-1, bare.paramFirstByte(0));
+
+        IrcLine emptyTrailing = parse(":n!u@h PRIVMSG #c :");
+        assertEquals(2, emptyTrailing.paramCount());
+        assertEquals("", emptyTrailing.lastParam());
+        assertTrue(emptyTrailing.hasTrailing());
+        assertEquals(-1, emptyTrailing.paramFirstByte(1));
+
+        IrcLine spaced = parse("MODE  #c   +o   nick ");
+        assertEquals(3, spaced.paramCount());
+        assertEquals("+o", spaced.param(1));
+        assertEquals("nick", spaced.lastParam());
+        assertFalse(spaced.hasTrailing());
+
+        IrcLine colonInside = parse("PRIVMSG #c :a :b c");
+        assertEquals("a :b c", colonInside.lastParam());
+
+        // past the 14th middle param the rest is one trailing param
+        IrcLine many = parse("CMD 1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16");
+        assertEquals(IrcLine.MAX_PARAMS, many.paramCount());
+        assertEquals("15 16", many.lastParam());
+
+        assertFalse(parses(""));
+        assertFalse(parses("\r\n"));
+        assertFalse(parses("   "));
+        assertFalse(parses("@tags-only"));
+        assertFalse(parses(":prefix.only "));
+    }
+
+    @Test
+    public void aCopyOutlivesTheReusedLine() {
+        byte[] b = "xx@k=v :n!u@h PRIVMSG #c :first".getBytes(StandardCharsets.UTF_8);
+        IrcLineParser parser = new IrcLineParser();
+        IrcLine line = new IrcLine();
+        assertTrue(parser.parse(b, 2, b.length - 2, line));
+        IrcLine kept = line.copy();
+        byte[] other = "PING :second".getBytes(StandardCharsets.UTF_8);
+        assertTrue(parser.parse(other, 0, other.length, line));
+
+        assertEquals("v", kept.tag("k"));
+        assertEquals("u", kept.user());
+        assertEquals("first", kept.lastParam());
+        assertEquals("@k=v :n!u@h PRIVMSG #c :first", kept.toString());
+        assertEquals("second", line.lastParam());
+    }
+
+    @Test
+    public void directBuffersParseLikeHeapBuffers() {
+        byte[] b = ":n!u@h PRIVMSG #c :xin chào\r\n".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(b.length);
+        direct.put(b).flip();
+        IrcLine line = new IrcLine();
+        assertTrue(new IrcLineParser().parse(direct, line));
+        assertEquals(0, direct.position());
+        assertEquals("xin chào", line.lastParam());
+    }
+
+    // ---------- framing ----------
+
+    private static List<String> frame(String... reads) {
+        List<String> out = new ArrayList<>();
+        IrcLineFramer framer = new IrcLineFramer(l -> out.add(l.command() + '|' + l.lastParam()));
+        for (String r : reads) {
+            byte[] b = r.getBytes(StandardCharsets.UTF_8);
+            framer.feed(ByteBuffer.wrap(b));
+        }
+        return out;
+    }
+
+    @Test
+    public void crlfAndBareLfBothEndALine() {
+        List<String> lines = frame("PING :a\r\nPING :b\nPING :c\r\n");
+        assertEquals(3, lines.size());
+        assertEquals("PING|a", lines.get(0));
+        assertEquals("PING|b", lines.get(1));
+        assertEquals("PING|c", lines.get(2));
+
+        // blank lines and a partial line without its LF yield nothing
+        assertTrue(frame("\r\n\n", "PING :pending").isEmpty());
+    }
+
+    @Test
+    public void aLineSplitAcrossReadsIsJoined() {
+        List<String> lines = frame(":n!u@h PRIV", "MSG #c :hel", "lo\r", "\nPING :x\r\n");
+        assertEquals(2, lines.size());
+        assertEquals("PRIVMSG|hello", lines.get(0));
+        assertEquals("PING|x", lines.get(1));
+
+        // split inside a multi-byte character
+        byte[] b = "PRIVMSG #c :chào\r\n".getBytes(StandardCharsets.UTF_8);
+        List<String> out = new ArrayList<>();
+        IrcLineFramer framer = new IrcLineFramer(l -> out.add(l.lastParam()));
+        int cut = b.length - 4; // between the two bytes of 'à'
+        framer.feed(b, 0, cut);
+        framer.feed(b, cut, b.length - cut);
+        assertEquals(1, out.size());
+        assertEquals("chào", out.get(0));
+        assertEquals(1, framer.lineCount());
+        assertEquals(b.length, framer.byteCount());
+    }
+
+    @Test
+    public void overlongLinesAreDroppedAndResetForgetsAPartialLine() {
+        StringBuilder huge = new StringBuilder("PRIVMSG #c :");
+        while (huge.length() <= IrcLineFramer.MAX_LINE_BYTES) huge.append("0123456789");
+        List<String> lines = frame(huge.substring(0, 5000), huge.substring(5000) + "\r\nPING :after\r\n");
+        assertEquals(1, lines.size());
+        assertEquals("PING|after", lines.get(0));
+
+        List<String> out = new ArrayList<>();
+        IrcLineFramer framer = new IrcLineFramer(l -> out.add(l.lastParam()));
+        byte[] part = "PRIVMSG #c :stale".getBytes(StandardCharsets.UTF_8);
+        framer.feed(part, 0, part.length);
+        framer.reset();
+        byte[] next = "PING :fresh\n".getBytes(StandardCharsets.UTF_8);
+        framer.feed(next, 0, next.length);
+        assertEquals(1, out.size());
+        assertEquals("fresh", out.get(0));
+    }
+}
@@ -0,0 +1,61 @@
+package vn.edu.usth.ircui.core.protocol;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class NamePoolTest {
+
+    private static IrcLine parse(String raw) {
+        byte[] b = raw.getBytes(StandardCharsets.UTF_8);
+        IrcLine line = new IrcLine();
+        assertTrue(new IrcLineParser().parse(b, 0, b.length, line));
+        return line;
+    }
+
+    @Test
+    public void oneInstancePerNameUnderTheCaseMapping() {
+        NamePool pool = new NamePool();
+        IrcName alice = pool.intern("Alice[m]");
+        IrcLine line = parse(":ALICE{M}!u@h PRIVMSG #Chat :hi");
+        assertSame(alice, pool.nick(line));
+        assertSame(pool.intern("#chat"), pool.param(line, 0));
+        assertSame(alice, pool.intern("alice{m}"));
+        assertEquals("Alice[m]", alice.name);
+        assertEquals("alice{m}", alice.folded);
+        assertNull(pool.param(line, 5));
+        assertNull(pool.nick(parse("PING :x")));
+
+        // non-ASCII nicks fold their ASCII part only, from bytes and from Strings alike
+        IrcName viet = pool.nick(parse(":Nguyễn!u@h PRIVMSG #c :xin chào"));
+        assertSame(viet, pool.intern("NGUYễN"));
+        assertNotSame(viet, pool.intern("Nguyen"));
+
+        assertEquals(4, pool.size());
+        assertEquals(4, pool.misses());
+    }
+
+    @Test
+    public void caseMappingChangeAndResetsKeepEquality() {
+        NamePool pool = new NamePool(CaseMapping.RFC1459, 4);
+        IrcName bracket = pool.intern("nick[a]");
+        assertSame(bracket, pool.intern("NICK{A}"));
+
+        pool.setCaseMapping(CaseMapping.ASCII);
+        IrcName ascii = pool.intern("NICK[A]");
+        assertNotSame(pool.intern("nick{a}"), ascii);
+        assertSame(ascii, pool.intern("nick[a]"));
+        assertEquals(CaseMapping.ASCII, pool.caseMapping());
+
+        // full: the pool starts over, yet old and new instances are still the same name
+        for (int i = 0; i < 8; i++) pool.intern("user" + i);
+        assertTrue(pool.resets() > 0);
+        IrcName again = pool.intern("Nick[a]");
+        assertNotSame(ascii, again);
+        assertTrue(again.same(ascii));
+        assertEquals(ascii, again);
+        assertEquals(ascii.hashCode(), again.hashCode());
+    }
+}
@@ -0,0 +1,138 @@
+package vn.edu.usth.ircui.core.protocol;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class Utf8ChunkerTest {
+
+    private final Utf8Chunker chunker = new Utf8Chunker();
+
+    private static int bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static String repeat(String unit, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) sb.append(unit);
+        return sb.toString();
+    }
+
+    /**
+     * Every chunk within the budget, never starting or ending inside a surrogate pair, and
+     * nothing lost but the single spaces the text was cut at.
+     */
+    private List<String> chunkJoined(String text, int budget) {
+        List<String> chunks = chunker.chunk(text, budget);
+        int at = 0;
+        for (String c : chunks) {
+            assertTrue(c + " is " + bytes(c) + " bytes", bytes(c) <= budget);
+            assertFalse(c, Character.isLowSurrogate(c.charAt(0)));
+            assertFalse(c, Character.isHighSurrogate(c.charAt(c.length() - 1)));
+            if (!text.startsWith(c, at) && text.charAt(at) == ' ') at++;
+            assertTrue(c, text.startsWith(c, at));
+            at += c.length();
+        }
+        assertEquals(text.length(), at);
+        return chunks;
+    }
+
+    @Test
+    public void multiByteCharactersAreNeverCut() {
+        // 2 bytes each: an odd budget leaves the last byte unused rather than splitting 'é'
+        List<String> two = chunkJoined(repeat("é", 300), 101);
+        assertEquals(6, two.size());
+        assertEquals(50, two.get(0).length());
+
+        // 3 bytes each
+        List<String> three = chunkJoined(repeat("ữ", 100), 10);
+        assertEquals(3, three.get(0).length());
+
+        // the encoded bytes handed to the sink are the chunk's exact UTF-8
+        String text = repeat("Tiếng Việt có dấu. ", 40);
+        chunker.chunk(text, 64, (t, from, to, utf8) -> {
+            byte[] got = new byte[utf8.remaining()];
+            utf8.duplicate().get(got);
+            assertArrayEquals(t.subSequence(from, to).toString().getBytes(StandardCharsets.UTF_8), got);
+        });
+    }
+
+    @Test
+    public void surrogatePairsAndClustersStayWhole() {
+        // 4-byte code points: two fit in 10 bytes, never one and a half
+        List<String> pairs = chunkJoined(repeat("😀", 9), 10);
+        assertEquals(5, pairs.size());
+        assertEquals("😀😀", pairs.get(0));
+        assertEquals("😀", pairs.get(4));
+
+        // a base letter and its combining mark go together
+        List<String> marks = chunkJoined(repeat("é", 10), 5);
+        for (String c : marks) assertNotEquals('́', c.charAt(0));
+
+        // skin tone and flag pairs are one cluster each (8 bytes)
+        List<String> tones = chunkJoined(repeat("👍🏽", 4) + repeat("🇻🇳", 4), 12);
+        for (String c : tones) assertEquals(c, 8, bytes(c));
+
+        // a cluster larger than the budget falls back to whole code points
+        List<String> family = chunkJoined("👨‍👩‍👧", 8);
+        assertTrue(family.size() > 1);
+    }
+
+    @Test
+    public void prefersASpaceKeepingHalfTheBudget() {
+        List<String> words = chunker.chunk("aaaa bbbb cccc dddd", 12);
+        assertEquals("aaaa bbbb", words.get(0));
+        assertEquals("cccc dddd", words.get(1));
+
+        // a space too early would waste most of the line: cut mid-word instead
+        List<String> early = chunker.chunk("a bbbbbbbbbbbbbbbbbbbb", 10);
+        assertEquals("a bbbbbbbb", early.get(0));
+
+        assertTrue(chunker.chunk("", 10).isEmpty());
+        try {
+            chunker.chunk("x", 3);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void budgetLeavesRoomForThePrefixAndTarget() {
+        // ":nick!user@host PRIVMSG #c :" is 28 bytes, CR LF 2
+        assertEquals(512 - 2 - 28, Utf8Chunker.budgetFor("nick", "user", "host", "PRIVMSG", "#c", 512));
+        // not known yet: worst-case user (10) and host (63)
+        assertEquals(512 - 2 - 1 - 4 - 1 - 10 - 1 - 63 - 1 - 12,
+                Utf8Chunker.budgetFor("nick", null, null, "PRIVMSG", "#c", 512));
+        // a multi-byte target counts in bytes
+        assertEquals(Utf8Chunker.budgetFor("nick", "user", "host", "PRIVMSG", "#c", 512) - 1,
+                Utf8Chunker.budgetFor("nick", "user", "host", "PRIVMSG", "#ç", 512));
+
+        // a larger LINELEN from ISUPPORT raises the budget by the same amount
+        int normal = Utf8Chunker.budgetFor("nick", "user", "host", "PRIVMSG", "#c", Utf8Chunker.DEFAULT_LINE_LEN);
+        int wide = Utf8Chunker.budgetFor("nick", "user", "host", "PRIVMSG", "#c", 2048);
+        assertEquals(2048 - Utf8Chunker.DEFAULT_LINE_LEN, wide - normal);
+
+        // every full line built from the chunks fits LINELEN
+        String prefix = ":nick!user@host PRIVMSG #c :";
+        for (String c : chunkJoined(repeat("Xin chào các bạn 👋 ", 100), normal)) {
+            assertTrue(bytes(prefix + c + "\r\n") <= Utf8Chunker.DEFAULT_LINE_LEN);
+        }
+    }
+
+    @Test
+    public void theOld400CharLoopOverranTheBudget() {
+        // what the chunker replaced: 400 chars of Vietnamese are well over 482 bytes
+        String text = repeat("Chúng tôi đang thử nghiệm. ", 40);
+        int budget = Utf8Chunker.budgetFor("nick", "user", "host", "PRIVMSG", "#c", 512);
+        assertTrue(bytes(text.substring(0, 400)) > budget);
+
+        List<Integer> sizes = new ArrayList<>();
+        chunker.chunk(text, budget, (t, from, to, utf8) -> sizes.add(utf8.remaining()));
+        for (int n : sizes) assertTrue(n <= budget);
+        assertEquals(bytes(text), sizes.stream().mapToInt(Integer::intValue).sum() + sizes.size() - 1); // cut at spaces
+    }
+}
@@ -0,0 +1,90 @@
+package vn.edu.usth.ircui.core.render;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class RowModelsTest {
+
+    private static final String[] LINES = {
+            "hello world", "  ```java\nint x = 1;\n```  ", "```\ncode\n```", "```kotlin```", "````",
+            "```", "``` not closed", "if (a[i] == b) { return; }", "a = b; c = d;", "", "   ",
+            "```py\n\n```", "x```y```", "(){}[]", "<a href=\"x\">'y'</a>", "tab\t```\nx\n```\t",
+    };
+
+    /** What MessageAdapter and Message did on every bind and every line. */
+    private static boolean oldLooksLikeCode(String s) {
+        String t = s.trim();
+        if (t.startsWith("```") && t.endsWith("```")) return true;
+        int symbols = 0;
+        for (char c : t.toCharArray()) {
+            if ("{}[]();<>#=/\\$\"'`".indexOf(c) >= 0) symbols++;
+            if (symbols > 6) return true;
+        }
+        return false;
+    }
+
+    private static String oldStrip(String s) {
+        String t = s.trim();
+        if (t.startsWith("```")) {
+            t = t.replaceFirst("^```[a-zA-Z0-9]*\\n?", "").replaceFirst("\\n?```$", "");
+        }
+        return t;
+    }
+
+    @Test
+    public void classifiesAndStripsLikeTheRegexes() {
+        for (String s : LINES) {
+            assertEquals(s, oldLooksLikeCode(s), RowModels.looksLikeCode(s));
+            assertEquals(s, oldStrip(s), RowModels.stripFences(s));
+        }
+        RowModels rows = new RowModels(8, TimeZone.getTimeZone("UTC"));
+        RowModel code = rows.of("alice", "```java\nint x;\n```", 0, true);
+        assertTrue(code.code);
+        assertEquals("int x;", code.display);
+        RowModel plain = rows.of("bob", "  hi  ", 0, false);
+        assertFalse(plain.code);
+        assertEquals("  hi  ", plain.display);
+        assertEquals("bob  •  00:00", plain.header);
+        for (String nick : new String[]{"alice", "bob", "polygenelubricants", "\u0000"}) {
+            assertEquals(Math.abs(nick.hashCode()) % 8, RowModels.colorIndex(nick, 8));
+        }
+        // with a palette that does not divide 2^31, Math.abs(hash) % size went negative
+        assertTrue(RowModels.colorIndex("polygenelubricants", 7) >= 0);
+    }
+
+    @Test
+    public void timeLabelsMatchSimpleDateFormat() {
+        for (String id : new String[]{"UTC", "Asia/Ho_Chi_Minh", "America/New_York", "Asia/Kolkata"}) {
+            TimeZone zone = TimeZone.getTimeZone(id);
+            SimpleDateFormat sdf = new SimpleDateFormat("HH:mm", Locale.ROOT);
+            sdf.setTimeZone(zone);
+            RowModels rows = new RowModels(8, zone);
+            // across a DST change in New York (2024-03-10) and before 1970
+            long[] starts = {1_710_050_000_000L, -86_400_000L * 3, 1_700_000_000_000L};
+            for (long start : starts) {
+                for (long t = start; t < start + 30 * 3600_000L; t += 7 * 60_000L + 13_000L) {
+                    String label = rows.timeLabel(t);
+                    assertEquals(id + " " + t, sdf.format(new Date(t)), label);
+                    // the rest of the minute shares the label
+                    assertSame(label, rows.timeLabel(Math.floorDiv(t, 60_000L) * 60_000L + 59_999L));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cachedLabelsFollowAZoneChange() {
+        RowModels rows = new RowModels(8, TimeZone.getTimeZone("UTC"));
+        long t = 1_700_000_000_000L; // 22:13 UTC
+        assertEquals("22:13", rows.timeLabel(t));
+        rows.setZone(TimeZone.getTimeZone("Asia/Ho_Chi_Minh"));
+        assertEquals("05:13", rows.timeLabel(t));
+        assertEquals("05:13", rows.of("alice", "hi", t, false).timeLabel);
+    }
+}
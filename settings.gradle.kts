@@ -21,4 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "IRC UI"
 include(":app")
+include(":irc-core")
  
\ No newline at end of file